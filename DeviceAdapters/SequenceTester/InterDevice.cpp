@@ -49,3 +49,22 @@ InterDevice::RegisterEdgeTriggerSource(const std::string& port,
 {
    edgeTriggersSources_[port] = &signal;
 }
+
+
+void
+InterDevice::StartLatencyInterval()
+{
+   if (!latencySetting_)
+      return;
+
+   double readyAt = GetHub()->GetVirtualTimeMs() + latencySetting_->Get();
+   if (readyAt > readyAtVirtualTimeMs_)
+      readyAtVirtualTimeMs_ = readyAt;
+}
+
+
+void
+InterDevice::ElapseLatencyInterval()
+{
+   GetHub()->AdvanceVirtualTimeToMs(readyAtVirtualTimeMs_);
+}
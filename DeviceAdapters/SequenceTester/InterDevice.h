@@ -43,7 +43,10 @@ class InterDevice : public boost::enable_shared_from_this<InterDevice>
 public:
    typedef boost::shared_ptr<InterDevice> Ptr;
 
-   InterDevice(const std::string& name) : name_(name) {}
+   InterDevice(const std::string& name) :
+      name_(name),
+      readyAtVirtualTimeMs_(0.0)
+   {}
    virtual ~InterDevice() {}
    virtual void SetHub(boost::shared_ptr<TesterHub> hub) { hub_ = hub; }
 
@@ -55,12 +58,26 @@ public:
 
    virtual EdgeTriggerSignal* GetEdgeTriggerSource(const std::string& port);
 
+   // Simulated latency: after each change, the device is not ready until the
+   // hub's virtual clock has advanced by the latency setting. Must be called
+   // with the hub global mutex held.
+   void StartLatencyInterval();
+   // Advance the virtual clock to when the device will be ready, if it is
+   // not already. The device is then ready, so that waiting for it takes no
+   // real time.
+   void ElapseLatencyInterval();
+
 protected:
    void RegisterEdgeTriggerSource(const std::string& port,
          EdgeTriggerSignal& signal);
+   void SetLatencySetting(boost::shared_ptr<FloatSetting> setting)
+   { latencySetting_ = setting; }
 
 private:
    const std::string name_;
    boost::shared_ptr<TesterHub> hub_;
    boost::unordered_map<std::string, EdgeTriggerSignal*> edgeTriggersSources_;
+
+   boost::shared_ptr<FloatSetting> latencySetting_;
+   double readyAtVirtualTimeMs_; // Guarded by hub global mutex
 };
@@ -46,7 +46,10 @@ void
 LoggedSetting::MarkBusy()
 {
    if (busySetting_)
+   {
       busySetting_->Set();
+      GetDevice()->StartLatencyInterval();
+   }
 }
 
 
@@ -31,6 +31,7 @@
 #include <boost/shared_ptr.hpp>
 #include <boost/thread.hpp>
 #include <boost/unordered_map.hpp>
+#include <algorithm>
 #include <exception>
 #include <string>
 #include <utility>
@@ -143,7 +144,8 @@ DeleteDevice(MM::Device* pDevice)
 
 
 TesterHub::TesterHub(const std::string& name) :
-   Super(name)
+   Super(name),
+   virtualTimeMs_(0.0)
 {
 }
 
@@ -159,7 +161,14 @@ TesterHub::Initialize()
    // be the hub.
    InterDevice::SetHub(GetSharedPtr());
 
-   return CommonHubPeripheralInitialize();
+   int err = CommonHubPeripheralInitialize();
+   if (err != DEVICE_OK)
+      return err;
+
+   HubBase<Self>::CreateFloatProperty("VirtualTimeMs", 0.0, true,
+         new CPropertyAction(this, &TesterHub::OnVirtualTimeMs));
+
+   return DEVICE_OK;
 }
 
 
@@ -239,6 +248,18 @@ TesterHub::FindPeerDevice(const std::string& name)
 }
 
 
+int
+TesterHub::OnVirtualTimeMs(MM::PropertyBase* pProp, MM::ActionType eAct)
+{
+   if (eAct == MM::BeforeGet)
+   {
+      TesterHub::Guard g(LockGlobalMutex());
+      pProp->Set(virtualTimeMs_);
+   }
+   return DEVICE_OK;
+}
+
+
 TesterCamera::TesterCamera(const std::string& name) :
    Super(name),
    produceHumanReadableImages_(true),
@@ -295,9 +316,13 @@ TesterCamera::Initialize()
    binningSetting_ = IntegerSetting::New(GetLogger(), this, "Binning",
          1, true, 1, 1);
    binningSetting_->SetBusySetting(GetBusySetting());
+   // Readout is simulated only in virtual time (see TesterHub)
+   readoutTimeSetting_ = FloatSetting::New(GetLogger(), this, "ReadoutTimeMs",
+         0.0, true, 0.0, 1000.0);
 
    CreateFloatProperty("Exposure", exposureSetting_);
    CreateIntegerProperty("Binning", binningSetting_);
+   CreateFloatProperty("ReadoutTimeMs", readoutTimeSetting_);
 
    RegisterEdgeTriggerSource("ExposureStartEdge", exposureStartEdgeTrigger_);
    RegisterEdgeTriggerSource("ExposureStopEdge", exposureStopEdgeTrigger_);
@@ -314,6 +339,9 @@ TesterCamera::SnapImage()
    delete[] snapImage_;
    snapImage_ = GenerateLogImage(false, nextSnapImageNr_++);
 
+   GetHub()->AdvanceVirtualTimeToMs(GetHub()->GetVirtualTimeMs() +
+         exposureSetting_->Get() + readoutTimeSetting_->Get());
+
    return DEVICE_OK;
 }
 
@@ -408,22 +436,24 @@ TesterCamera::GetROI(unsigned& x, unsigned& y, unsigned& w, unsigned& h)
 
 
 int
-TesterCamera::StartSequenceAcquisition(long count, double, bool stopOnOverflow)
+TesterCamera::StartSequenceAcquisition(long count, double intervalMs,
+      bool stopOnOverflow)
 {
-   return StartSequenceAcquisitionImpl(true, count, stopOnOverflow);
+   return StartSequenceAcquisitionImpl(true, count, intervalMs,
+         stopOnOverflow);
 }
 
 
 int
-TesterCamera::StartSequenceAcquisition(double)
+TesterCamera::StartSequenceAcquisition(double intervalMs)
 {
-   return StartSequenceAcquisitionImpl(false, 0, false);
+   return StartSequenceAcquisitionImpl(false, 0, intervalMs, false);
 }
 
 
 int
 TesterCamera::StartSequenceAcquisitionImpl(bool finite, long count,
-      bool stopOnOverflow)
+      double intervalMs, bool stopOnOverflow)
 {
    // There is no need to acquire the hub-global mutex here; no data protected
    // by it is accessed in this function.
@@ -440,7 +470,7 @@ TesterCamera::StartSequenceAcquisitionImpl(bool finite, long count,
    // Note: boost::packaged_task<void ()> in more recent versions of Boost.
    boost::packaged_task<void> captureTask(
          boost::bind(&TesterCamera::SendSequence, this,
-            finite, count, stopOnOverflow));
+            finite, count, intervalMs, stopOnOverflow));
    sequenceFuture_ = captureTask.get_future();
 
    boost::thread captureThread(boost::move(captureTask));
@@ -524,17 +554,16 @@ TesterCamera::GenerateLogImage(bool isSequenceImage, size_t cumulativeNr,
 
 
 void
-TesterCamera::SendSequence(bool finite, long count, bool stopOnOverflow)
+TesterCamera::SendSequence(bool finite, long count, double intervalMs,
+      bool stopOnOverflow)
 {
    MM::Core* core = GetCoreCallback();
 
    char label[MM::MaxStrLength];
    GetLabel(label);
-   Metadata md;
-   md.put("Camera", label);
-   std::string serializedMD(md.Serialize());
 
    const unsigned char* bytes = 0;
+   double frameTimeMs = 0.0;
 
    // Currently assumed to be constant over device lifetime
    unsigned width = GetImageWidth();
@@ -554,8 +583,25 @@ TesterCamera::SendSequence(bool finite, long count, bool stopOnOverflow)
       {
          TesterHub::Guard g(GetHub()->LockGlobalMutex());
          bytes = GenerateLogImage(true, nextSequenceImageNr_++, frame);
+
+         // Frames follow each other at the exposure, readout or requested
+         // interval, whichever is longest (readout overlaps the next
+         // exposure). The virtual clock is kept at the latest frame.
+         double exposureMs = exposureSetting_->Get();
+         double readoutMs = readoutTimeSetting_->Get();
+         if (frame == 0)
+            frameTimeMs = GetHub()->GetVirtualTimeMs() + exposureMs + readoutMs;
+         else
+            frameTimeMs += std::max(std::max(exposureMs, readoutMs),
+                  intervalMs);
+         GetHub()->AdvanceVirtualTimeToMs(frameTimeMs);
       }
 
+      Metadata md;
+      md.put("Camera", label);
+      md.put("VirtualTime-ms", frameTimeMs);
+      std::string serializedMD(md.Serialize());
+
       try
       {
          int err;
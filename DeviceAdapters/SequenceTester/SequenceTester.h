@@ -101,6 +101,10 @@ class TesterHub : public TesterBase<HubBase, TesterHub>
 
    SettingLogger logger_;
 
+   // Deterministic simulated time, advanced only by device latencies and
+   // camera exposures, never by real time. Guarded by hubGlobalMutex_.
+   double virtualTimeMs_;
+
    boost::unordered_map< std::string, boost::weak_ptr<InterDevice> > devices_;
 
 public:
@@ -124,6 +128,14 @@ public:
    int RegisterDevice(const std::string& name, InterDevice::Ptr device);
    void UnregisterDevice(const std::string& name);
    InterDevice::Ptr FindPeerDevice(const std::string& name);
+
+   // Must be called with hub global mutex held.
+   double GetVirtualTimeMs() const { return virtualTimeMs_; }
+   void AdvanceVirtualTimeToMs(double timeMs)
+   { if (timeMs > virtualTimeMs_) virtualTimeMs_ = timeMs; }
+
+private:
+   int OnVirtualTimeMs(MM::PropertyBase* pProp, MM::ActionType eAct);
 };
 
 
@@ -171,9 +183,10 @@ private:
          size_t cumulativeNr, size_t frameNr = 0);
 
    int StartSequenceAcquisitionImpl(bool finite, long count,
-         bool stopOnOverflow);
+         double intervalMs, bool stopOnOverflow);
 
-   void SendSequence(bool finite, long count, bool stopOnOverflow);
+   void SendSequence(bool finite, long count, double intervalMs,
+         bool stopOnOverflow);
 
 private:
    bool produceHumanReadableImages_;
@@ -198,6 +211,7 @@ private:
 
    FloatSetting::Ptr exposureSetting_;
    IntegerSetting::Ptr binningSetting_;
+   FloatSetting::Ptr readoutTimeSetting_;
 
    EdgeTriggerSignal exposureStartEdgeTrigger_;
    EdgeTriggerSignal exposureStopEdgeTrigger_;
@@ -73,6 +73,13 @@ TesterBase<TDeviceBase, UConcreteDevice>::CommonHubPeripheralInitialize()
 
    // Devices are initially "busy"
    busySetting_ = CountDownSetting::New(GetLogger(), this, "Busy", 1);
+
+   // No latency by default, so that tests run without (virtual) delays
+   FloatSetting::Ptr latencySetting = FloatSetting::New(GetLogger(), this,
+         "LatencyMs", 0.0, true, 0.0, 100000.0);
+   SetLatencySetting(latencySetting);
+   CreateFloatProperty("LatencyMs", latencySetting);
+
    return DEVICE_OK;
 }
 
@@ -107,6 +114,11 @@ bool
 TesterBase<TDeviceBase, UConcreteDevice>::Busy()
 {
    TesterHub::Guard g(GetHub()->LockGlobalMutex());
+   // Latency is spent in virtual time only: the clock is moved to when the
+   // device is ready, instead of reporting busy (which would make the Core
+   // wait in real time)
+   ElapseLatencyInterval();
+   // Always query the busy setting, which counts down on each query
    return GetBusySetting()->Get() > 0;
 }
 
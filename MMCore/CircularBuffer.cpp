@@ -179,6 +179,7 @@ bool CircularBuffer::InsertMultiChannel(const unsigned char* pixArray, unsigned
  
     mm::ImgBuffer* pImg;
     unsigned long singleChannelSize = (unsigned long)width * height * byteDepth;
+    bool overflowed;
  
     {
        MMThreadGuard guard(g_bufferLock);
@@ -187,12 +188,16 @@ bool CircularBuffer::InsertMultiChannel(const unsigned char* pixArray, unsigned
        if (width != width_ || height != height_ || byteDepth != pixDepth_)
           throw CMMError("Incompatible image dimensions in the circular buffer", MMERR_CircularBufferIncompatibleImage);
  
-       bool overflowed = (insertIndex_ - saveIndex_) >= static_cast<long>(frameArray_.size());
+       overflowed = (insertIndex_ - saveIndex_) >= static_cast<long>(frameArray_.size());
        if (overflowed) {
           overflow_ = true;
-          return false;
        }
     }
+    if (overflowed) {
+       // Wake waiters so that they can report the overflow
+       NotifyWaiters();
+       return false;
+    }
  
     for (unsigned i=0; i<numChannels; i++)
     {
@@ -268,9 +273,38 @@ bool CircularBuffer::InsertMultiChannel(const unsigned char* pixArray, unsigned
          saveIndex_ -= adjustThreshold;
       }
    }
+   NotifyWaiters();
 
    return true;
 }
+
+void CircularBuffer::NotifyWaiters()
+{
+   // Taking the mutex ensures that a waiter that has just found the buffer
+   // empty is already waiting, so that the notification is not lost.
+   {
+      boost::lock_guard<boost::mutex> lock(waitMutex_);
+   }
+   imageInserted_.notify_all();
+}
+
+/**
+* Waits until at least one image is available to be retrieved with
+* GetNextImageBuffer(), the buffer overflows, or the timeout expires.
+* Returns true if an image is available.
+*/
+bool CircularBuffer::WaitForImage(long timeoutMs)
+{
+   boost::system_time deadline = boost::get_system_time() +
+      boost::posix_time::milliseconds(timeoutMs);
+   boost::unique_lock<boost::mutex> lock(waitMutex_);
+   while (GetRemainingImageCount() == 0 && !Overflow())
+   {
+      if (!imageInserted_.timed_wait(lock, deadline))
+         break;
+   }
+   return GetRemainingImageCount() > 0;
+}
  
 
 const unsigned char* CircularBuffer::GetTopImage() const
@@ -33,6 +33,8 @@
 
 #include <vector>
 #include "boost/date_time/posix_time/posix_time.hpp"
+#include <boost/thread/condition_variable.hpp>
+#include <boost/thread/mutex.hpp>
 
 #ifdef _MSC_VER
 #pragma warning( disable : 4290 ) // exception declaration warning
@@ -66,6 +68,7 @@ public:
    const mm::ImgBuffer* GetNthFromTopImageBuffer(unsigned long n) const;
    const mm::ImgBuffer* GetNthFromTopImageBuffer(long n, unsigned channel) const;
    const mm::ImgBuffer* GetNextImageBuffer(unsigned channel);
+   bool WaitForImage(long timeoutMs);
    void Clear(); 
 
    bool Overflow() {MMThreadGuard guard(g_bufferLock); return overflow_;}
@@ -74,6 +77,8 @@ public:
    mutable MMThreadLock g_insertLock;
 
 private:
+   void NotifyWaiters();
+
    unsigned int width_;
    unsigned int height_;
    unsigned int pixDepth_;
@@ -92,6 +97,10 @@ private:
    bool overflow_;
    std::vector<mm::FrameBuffer> frameArray_;
 
+   // Signaled when an image is inserted (or the buffer overflows)
+   boost::mutex waitMutex_;
+   boost::condition_variable imageInserted_;
+
    boost::posix_time::time_facet * facet;
    std::ostringstream tStream;
 };
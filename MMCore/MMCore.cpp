@@ -106,7 +106,7 @@ using namespace std;
  * (Keep the 3 numbers on one line to make it easier to look at diffs when
  * merging/rebasing.)
  */
-const int MMCore_versionMajor = 10, MMCore_versionMinor = 0, MMCore_versionPatch = 0;
+const int MMCore_versionMajor = 10, MMCore_versionMinor = 1, MMCore_versionPatch = 0;
 
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -3150,6 +3150,24 @@ long CMMCore::getRemainingImageCount()
    return 0;
 }
 
+/**
+ * Waits until at least one image is available in the Circular Buffer.
+ *
+ * Unlike polling getRemainingImageCount(), this returns as soon as an image
+ * is inserted. It also returns early if the buffer overflows.
+ *
+ * @param timeoutMs the maximum time to wait, in milliseconds
+ * @return true if an image is available to be retrieved with popNextImage()
+ */
+bool CMMCore::waitForImage(long timeoutMs)
+{
+   if (cbuf_)
+   {
+      return cbuf_->WaitForImage(timeoutMs);
+   }
+   return false;
+}
+
 /**
  * Returns the total number of images that can be stored in the buffer
  */
@@ -420,6 +420,7 @@ public:
    void* popNextImageMD(Metadata& md) throw (CMMError);
 
    long getRemainingImageCount();
+   bool waitForImage(long timeoutMs);
    long getBufferTotalCapacity();
    long getBufferFreeCapacity();
    bool isBufferOverflowed() const;
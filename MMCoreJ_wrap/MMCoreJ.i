@@ -699,7 +699,12 @@
    }
 
    private TaggedImage createTaggedImage(Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
-      TaggedImage image = createTaggedImage(pixels, md);
+      return createTaggedImage(pixels, md, cameraChannelIndex,
+            createSystemStateTags());
+   }
+
+   private TaggedImage createTaggedImage(Object pixels, Metadata md, int cameraChannelIndex, JSONObject stateTags) throws java.lang.Exception {
+      TaggedImage image = createTaggedImage(pixels, md, stateTags);
       JSONObject tags = image.tags;
       
       if (!tags.has("CameraChannelIndex")) {
@@ -717,7 +722,25 @@
    }
 
    private TaggedImage createTaggedImage(Object pixels, Metadata md) throws java.lang.Exception {
+      return createTaggedImage(pixels, md, createSystemStateTags());
+   }
+
+   private TaggedImage createTaggedImage(Object pixels, Metadata md, JSONObject stateTags) throws java.lang.Exception {
       JSONObject tags = metadataToMap(md);
+      // The system state tags take precedence over the image metadata
+      java.util.Iterator<?> keys = stateTags.keys();
+      while (keys.hasNext()) {
+         String key = (String) keys.next();
+         tags.put(key, stateTags.get(key));
+      }
+      return new TaggedImage(pixels, tags);
+   }
+
+   // Tags describing the current system state, which are added to every
+   // image. Creating these is relatively expensive, so they are shared
+   // between the images of a batch (see popNextTaggedImages()).
+   private JSONObject createSystemStateTags() throws java.lang.Exception {
+      JSONObject tags = new JSONObject();
       PropertySetting setting;
       Configuration config = getSystemStateCache();
       for (int i = 0; i < config.size(); ++i) {
@@ -751,7 +774,7 @@
          tags.put("Binning", getProperty(getCameraDevice(), "Binning"));
       } catch (Exception ex) {}
       
-      return new TaggedImage(pixels, tags);	
+      return tags;
    }
 
    public TaggedImage getTaggedImage(int cameraChannelIndex) throws java.lang.Exception {
@@ -790,6 +813,37 @@
       return popNextTaggedImage(0);
    }
 
+   /*
+    * Pops all images currently in the circular buffer, up to maxCount, as
+    * with popNextTaggedImage(). The tags describing the system state are
+    * gathered once for the whole batch, so this is much faster than popping
+    * the images one by one at high frame rates. Returns an empty list if no
+    * images are available.
+    */
+   public List<TaggedImage> popNextTaggedImages(int maxCount) throws java.lang.Exception {
+      List<TaggedImage> images = new ArrayList<TaggedImage>();
+      long count = Math.min(maxCount, getRemainingImageCount());
+      if (count <= 0) {
+         return images;
+      }
+      JSONObject stateTags = createSystemStateTags();
+      for (long i = 0; i < count; ++i) {
+         Metadata md = new Metadata();
+         Object pixels = popNextImageMD(0, 0, md);
+         images.add(createTaggedImage(pixels, md, 0, stateTags));
+      }
+      return images;
+   }
+
+   /*
+    * As above, but first waits (without polling) for up to timeoutMs
+    * milliseconds for an image to become available.
+    */
+   public List<TaggedImage> popNextTaggedImages(int maxCount, long timeoutMs) throws java.lang.Exception {
+      waitForImage((int) Math.min(timeoutMs, Integer.MAX_VALUE));
+      return popNextTaggedImages(maxCount);
+   }
+
    // convenience functions follow
    
    /*
@@ -26,11 +26,12 @@
     [org.micromanager.sequence-generator :only [generate-acq-sequence]])
   (:require
     [clojure.set]
+    [org.micromanager.acq-trace :as trace]
     [org.micromanager.mm :as mm])
   (:import
     [ij ImagePlus]
     [java.awt Color]
-    [java.io EOFException] ; abused to indicate canceled burst image collection
+    [java.io EOFException File] ; EOFException abused to indicate canceled burst image collection
     [java.net InetAddress UnknownHostException]
     [java.util Date UUID]
     [java.util.concurrent CountDownLatch LinkedBlockingQueue TimeUnit]
@@ -114,7 +115,7 @@
     (:metadata event)
     (let [[x y] (let [xy-stage (state :default-xy-stage)]
                   (when-not (empty? xy-stage)
-                    (get-in state [:last-stage-positions xy-stage])))]
+                    (get-in state [:exposure-stage-positions xy-stage])))]
       {
        "AxisPositions" (when-let [axes (get-in event [:position :axes])]
                          (JSONObject. axes))
@@ -147,7 +148,7 @@
        "Width"  (state :init-width)
        "XPositionUm" x
        "YPositionUm" y
-       "ZPositionUm" (get-in state [:last-stage-positions (state :default-z-drive)])
+       "ZPositionUm" (get-in state [:exposure-stage-positions (state :default-z-drive)])
       })
     (when-let [runnables (event :runnables)]
       {"AttachedTasks" (JSONArray. (map str runnables))})))
@@ -194,6 +195,14 @@
       (swap! state assoc :stop true)
       nil)))
 
+;; timeline
+
+(defmacro traced
+  "Run body, recording it as a step of the acquisition timeline (see
+   org.micromanager.acq-trace/with-step)."
+  [category name args & body]
+  `(trace/with-step (:tracer @state) ~category ~name ~args ~@body))
+
 ;; hardware control
 
 (defn wait-for-device [dev]
@@ -209,8 +218,11 @@
     (swap! state assoc-in [:cameras camera :exposure] exp)))
 
 (defn wait-for-pending-devices []
-  (log "pending devices: " @pending-devices)
-  (dorun (map wait-for-device @pending-devices)))
+  (let [devices @pending-devices]
+    (log "pending devices: " devices)
+    (traced :wait-for-devices "wait for pending devices"
+            {:devices (apply str (interpose ", " devices))}
+      (dorun (map wait-for-device devices)))))
 
 (defn get-z-stage-position [stage]
   (if-not (empty? stage) (core getPosition stage) 0))
@@ -360,35 +372,59 @@
           0
           true)))
 
-(defn pop-tagged-image []
-  (try (. mmc popNextTaggedImage)
-       (catch Exception e nil)))
+(def max-image-wait-ms
+  "Longest single wait for images to arrive in the circular buffer, so that
+   an engine stop is noticed promptly."
+  100)
 
-(defn pop-tagged-image-timeout
-  [timeout-ms]
-  (log "waiting for burst image with timeout" timeout-ms "ms")
+(defn pop-tagged-images-timeout
+  "Waits for images to arrive in the circular buffer, then pops all
+   available images, up to max-count, in one batch."
+  [max-count timeout-ms]
+  (log "waiting for burst images with timeout" timeout-ms "ms")
   (let [deadline (+ (System/currentTimeMillis) timeout-ms)]
     (loop []
       (when (@state :stop)
         (log "halting image collection due to engine stop")
         (throw (EOFException. "(Aborted)")))
-      (if-let [image (pop-tagged-image)]
-        image
-        (if (< deadline (System/currentTimeMillis))
-          (do
-            (log "halting image collection due to timeout")
-            (throw-exception "Timed out waiting for image to arrive from camera."))
-          (do
+      ; Returns an empty list when no images are available, so an exception
+      ; is a real failure (possibly after popping some of the batch)
+      (let [images (try (. mmc popNextTaggedImages max-count)
+                        (catch Exception e
+                          (log "failed to pop images from circular buffer:"
+                               (.getMessage e))
+                          (throw e)))]
+        (if (seq images)
+          images
+          (let [remaining-ms (- deadline (System/currentTimeMillis))]
+            (when (neg? remaining-ms)
+              (log "halting image collection due to timeout")
+              (throw-exception "Timed out waiting for image to arrive from camera."))
             (when (. mmc isBufferOverflowed)
               (log "halting image collection due to circular buffer overflow")
               (throw-exception "Circular buffer overflowed."))
-            (Thread/sleep 1)
+            ; Returns as soon as an image is inserted; no need to poll
+            (. mmc waitForImage (int (min remaining-ms max-image-wait-ms)))
             (recur)))))))
 
+(defn pop-tagged-image-timeout
+  [timeout-ms]
+  (first (pop-tagged-images-timeout 1 timeout-ms)))
+
 (defn pop-burst-image
   [timeout-ms]
   (unwrap-tagged-image (pop-tagged-image-timeout timeout-ms)))
 
+(defn rethrowing-queue
+  "Returns a queue of the given capacity whose .take re-throws any
+   Throwable that was placed on it."
+  [queue-size]
+  (proxy [LinkedBlockingQueue] [queue-size]
+    (take [] (let [item (proxy-super take)]
+               (if (instance? Throwable item)
+                 (throw item)
+                 item)))))
+
 (defn queuify
   "Runs zero-arg function n times on a new thread. Returns
    a queue that will eventually receive n return values.
@@ -397,11 +433,7 @@
    the queue, the thread will stop, and the final call to .take
    on the queue will re-throw the exception (wrapped in RuntimeException)."
   [n queue-size function]
-  (let [queue (proxy [LinkedBlockingQueue] [queue-size]
-                (take [] (let [item (proxy-super take)]
-                           (if (instance? Throwable item)
-                             (throw item)
-                             item))))]
+  (let [queue (rethrowing-queue queue-size)]
     (future (try
               (dotimes [_ n]
                 (try (.put queue (function))
@@ -411,9 +443,34 @@
               (catch Throwable t nil)))
     queue))
 
+(defn queuify-batches
+  "Like queuify, but function is called with the number of values
+   still needed, and returns a batch (a seq of at most that many
+   values) each time, until n values have been placed on the queue."
+  [n queue-size function]
+  (let [queue (rethrowing-queue queue-size)]
+    (future (try
+              (loop [remaining n]
+                (when (pos? remaining)
+                  (let [batch (try (doall (function remaining))
+                                (catch Throwable t
+                                  (.put queue t)
+                                  (throw t)))]
+                    (doseq [item batch]
+                      (.put queue item))
+                    (recur (- remaining (count batch))))))
+              (catch Throwable t nil)))
+    queue))
+
+(def max-burst-batch
+  "Most images popped from the circular buffer at a time during a burst."
+  32)
+
 (defn pop-burst-images
   [n timeout-ms]
-  (queuify n 10 #(pop-burst-image timeout-ms)))
+  (queuify-batches n 10
+    #(map unwrap-tagged-image
+          (pop-tagged-images-timeout (min % max-burst-batch) timeout-ms))))
 
 (defn make-multicamera-channel [raw-channel-index camera-channel num-camera-channels]
   (+ camera-channel (* num-camera-channels (or raw-channel-index 0))))
@@ -584,7 +641,12 @@
          (if (core getAutoShutter)
            [true (:close-shutter event)]
            [false false])]
-    (swap! state assoc :system-state (map-config (core getSystemStateCache)))
+    ; The positions at which the image is taken, which may have changed by
+    ; the time it is collected (see early-stage-moves)
+    (let [system-state (map-config (core getSystemStateCache))]
+      (swap! state #(assoc % :system-state system-state
+                             :exposure-stage-positions
+                             (:last-stage-positions %))))
     (condp = (:task event)
       :snap (apply snap-image shutter-states)
       :burst (init-burst (count (:burst-data event))
@@ -682,6 +744,9 @@
            :pixel-size-um (core getPixelSizeUm)
            :pixel-size-affine (core getPixelSizeAffineAsString)
            :pixel-type (get-pixel-type)
+           :tracer (trace/make-tracer)
+           :pipeline-moves (Boolean/getBoolean
+                             "org.micromanager.acqengine.pipelinemoves")
            )))
 
 (defn cleanup []
@@ -708,8 +773,82 @@
 
 ;; running events
 
-(defn make-event-fns [event out-queue settings]
+(defn position-stage-moves
+  "The [stage position] pairs that move the stages to the event's position
+   in the position list, if the event is at a new position."
+  [event]
+  (when (:new-position event)
+    (for [[axis pos]
+          (:axes (MultiStagePosition-to-map
+                   (get-msp (@state :position-list) (:position event))))
+          :when pos]
+      [axis pos])))
+
+(defn early-stage-moves
+  "The stage moves for next-event that can start as soon as the exposure of
+   event has ended, while its image is read out, if pipelined moves are
+   enabled. The camera has finished exposing once a snap has returned, so
+   moving to the next position cannot affect the image; bursts continue to
+   expose while they are collected."
+  [event next-event]
+  (when (and (@state :pipeline-moves)
+             next-event
+             (= :snap (:task event))
+             (not (@state :stop)))
+    (position-stage-moves next-event)))
+
+(defn start-early-stage-moves
+  "Starts the early stage moves for next-event. A device failure is returned
+   rather than thrown, so that the caller can collect the image already
+   exposed before failing."
+  [event next-event]
+  (when-let [moves (seq (early-stage-moves event next-event))]
+    (swap! state assoc :early-stage-moves
+           {:event next-event :moves moves})
+    (try
+      (doseq [[axis pos] moves]
+        (log "BEGIN early set position of stage" axis)
+        (traced :stage-move axis {:position (str pos) :early true}
+          (apply set-stage-position axis pos))
+        (log "END early set position of stage" axis))
+      nil
+      (catch Throwable t
+        (log "early stage move failed; failing after collecting the image")
+        t))))
+
+(defn moved-early?
+  "Whether the stages have already been moved to the event's position, during
+   the readout of the previous event."
+  [event]
+  (identical? event (get-in @state [:early-stage-moves :event])))
+
+(defn forget-early-stage-moves
+  "After a pause, during which the stages may have been moved by hand, have
+   the moves made early for the next event made again."
+  []
+  (when-let [moves (get-in @state [:early-stage-moves :moves])]
+    (swap! state
+           #(-> %
+                (dissoc :early-stage-moves)
+                (update-in [:last-stage-positions]
+                           (fn [positions]
+                             (apply dissoc positions (map first moves))))))))
+
+(defn undo-early-stage-moves
+  "After a stop, return the stages moved early for an event that will not be
+   acquired to where they were when the last image was taken."
+  []
+  (when-let [moves (get-in @state [:early-stage-moves :moves])]
+    (swap! state dissoc :early-stage-moves)
+    (doseq [[axis _] moves]
+      (when-let [pos (get-in @state [:exposure-stage-positions axis])]
+        (log "returning stage" axis "from a position not acquired")
+        (apply set-stage-position axis (if (coll? pos) pos [pos]))))))
+
+(defn make-event-fns [event next-event out-queue settings]
   (let [current-position (:position event)
+        args (select-keys event [:frame-index :position-index
+                                 :channel-index :slice-index])
         z-drive (@state :default-z-drive)
         check-z-ref (and z-drive
                          (or (:autofocus event)
@@ -720,60 +859,110 @@
             ; pausing in between (except when throwing)
             (flatten
               (list
-                #(log "#####" "BEGIN acquisition event:" event)
-                (when (:new-position event)
-                  (for [[axis pos]
-                        (:axes (MultiStagePosition-to-map
-                                 (get-msp (@state :position-list) current-position)))
-                        :when pos]
-                    #(do
+                #(do
+                   (log "#####" "BEGIN acquisition event:" event)
+                   (swap! state assoc :event-start-ns (System/nanoTime)))
+                ; Skipped if made during the readout of the previous event
+                ; (see early-stage-moves)
+                (for [[axis pos] (position-stage-moves event)]
+                  #(if (moved-early? event)
+                     (log "stage" axis "already moved during readout")
+                     (do
                        (log "BEGIN set position of stage" axis)
-                       (apply set-stage-position axis pos)
+                       (traced :stage-move axis {:position (str pos)}
+                         (apply set-stage-position axis pos))
                        (log "END set position of stage" axis))))
+                #(swap! state dissoc :early-stage-moves)
                 #(log "BEGIN channel properties and exposure")
                 (for [prop (get-in event [:channel :properties])]
-                  #(set-property prop))
+                  #(let [[[d p] v] prop]
+                     (traced :property (str d "-" p) {:value v}
+                       (set-property prop))))
                 #(when-lets [exposure (:exposure event)
                              camera (core getCameraDevice)]
-                            (set-exposure camera exposure))
+                            (traced :exposure camera {:exposure exposure}
+                              (set-exposure camera exposure)))
                 #(log "END channel properties and exposure")
                 #(when check-z-ref
                    (log "BEGIN recall-z-reference")
-                   (recall-z-reference current-position)
+                   (traced :z-reference "recall z reference" args
+                     (recall-z-reference current-position))
                    (log "END recall-z-reference"))
                 #(when-let [wait-time-ms (:wait-time-ms event)]
-                   (acq-sleep wait-time-ms))
+                   (traced :interval-wait "wait for interval"
+                           {:interval-ms wait-time-ms}
+                     (acq-sleep wait-time-ms)))
                 #(when (get event :autofocus)
                    (wait-for-pending-devices)
-                   (run-autofocus))
+                   (traced :autofocus "autofocus" args
+                     (run-autofocus)))
                 #(when check-z-ref
                    (log "BEGIN store/update z reference")
-                   (store-z-reference current-position)
-                   (update-z-positions current-position)
+                   (traced :z-reference "store z reference" args
+                     (store-z-reference current-position)
+                     (update-z-positions current-position))
                    (log "END store/update z reference"))
                 #(when z-drive
                    (log "BEGIN set z position")
                    (let [z (compute-z-position event)]
-                     (set-stage-position z-drive z))
+                     (traced :stage-move z-drive {:position z}
+                       (set-stage-position z-drive z)))
                    (log "END set z position"))
                 (for [runnable (event :runnables)]
                   #(do
                      (log "BEGIN run one runnable")
-                     (.run runnable)
+                     (traced :runnable (str runnable) args
+                       (.run runnable))
                      (log "END run one runnable")))
                 #(do
                    (wait-for-pending-devices)
                    (log "BEGIN acquire")
-                   (expose event)
-                   (collect event out-queue settings)
-                   (stop-triggering)
-                   (log "END acquire"))
-                #(log "#####" "END acquisition event"))))))
+                   (traced :expose (name (or (:task event) :none)) args
+                     (expose event))
+                   ; Start moving to the next position during readout. The
+                   ; stages are waited for (as pending devices) before the
+                   ; next exposure.
+                   (let [move-failure (start-early-stage-moves event
+                                                               next-event)]
+                     (traced :collect (name (or (:task event) :none)) args
+                       (collect event out-queue settings))
+                     (traced :stop-triggering "stop triggering" nil
+                       (stop-triggering))
+                     (log "END acquire")
+                     (when move-failure
+                       (throw move-failure))))
+                #(do
+                   (when-lets [tracer (:tracer @state)
+                               start-ns (:event-start-ns @state)]
+                     (trace/record! tracer :event "acquisition event" args
+                                    start-ns (System/nanoTime)))
+                   (log "#####" "END acquisition event")))))))
+
+(defn report-trace
+  "Log a summary of the acquisition timeline and, if the
+   org.micromanager.acqtrace.dir system property is set, write the timeline
+   to that directory for viewing in chrome://tracing or ui.perfetto.dev."
+  [tracer]
+  (when tracer
+    (try
+      (ReportingUtils/logMessage (trace/summary tracer))
+      (when-let [dir (System/getProperty "org.micromanager.acqtrace.dir")]
+        (let [file (File. dir (str "acq-trace-" (System/currentTimeMillis)
+                                   ".json"))]
+          (trace/write-chrome-trace tracer file)
+          (ReportingUtils/logMessage (str "Acquisition timeline written to "
+                                          file))))
+      (catch Throwable t
+             (ReportingUtils/logError t "Failed to report acquisition timeline")))))
 
 (defn execute [event-fns]
   (doseq [event-fn event-fns :while (not (:stop @state))]
     (event-fn)
-    (await-resume)))
+    (when (:pause @state)
+      (await-resume)
+      (forget-early-stage-moves)))
+  (when (:stop @state)
+    (undo-early-stage-moves)))
 
 (defn run-acquisition [settings out-queue cleanup? position-list autofocus-device]
     (try
@@ -786,7 +975,8 @@
       (def last-state state) ; for debugging
       (let [acq-seq (generate-acq-sequence settings @attached-runnables)]
         (def acq-sequence acq-seq) ; for debugging
-        (execute (mapcat #(make-event-fns % out-queue settings) acq-seq)))
+        (execute (mapcat #(make-event-fns %1 %2 out-queue settings)
+                         acq-seq (concat (rest acq-seq) [nil]))))
       (catch Throwable t
              (def acq-error t) ; for debugging
              ; XXX There ought to be a way to get errors programmatically...
@@ -805,7 +995,9 @@
               (.clear out-queue)
               (.put out-queue TaggedImageQueue/POISON)))
           (.put out-queue TaggedImageQueue/POISON))
-        (log "acquisition thread exiting"))))
+        (report-trace (:tracer @state))
+        (log "acquisition thread exiting")
+        (mm/flush-log))))
 
 ;; generic metadata
 
@@ -0,0 +1,161 @@
+; FILE:         acq_trace.clj
+; PROJECT:      Micro-Manager
+; SUBSYSTEM:    mmstudio acquisition engine
+; ----------------------------------------------------------------------------
+; LICENSE:      This file is distributed under the BSD license.
+;               License text is included with the source distribution.
+;               This file is distributed in the hope that it will be useful,
+;               but WITHOUT ANY WARRANTY; without even the implied warranty
+;               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+;               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+;               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+;               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+(ns org.micromanager.acq-trace
+  "Timeline of the steps taken by the acquisition engine. Each step (a stage
+   move, a property set, waiting for devices, exposing, ...) is recorded with
+   its category, name and start and end times into a fixed-size ring buffer.
+   The timeline can be written in the Chrome trace event format (viewable in
+   chrome://tracing or https://ui.perfetto.dev) and summarized by category."
+  (:import [java.io File FileOutputStream OutputStreamWriter]
+           [java.util.concurrent.atomic AtomicLong]
+           [org.json JSONObject]))
+
+(def default-capacity 100000)
+
+(defn make-tracer
+  "Create a tracer keeping the last capacity steps."
+  ([] (make-tracer default-capacity))
+  ([capacity]
+    {:capacity capacity
+     :categories (object-array capacity)
+     :names (object-array capacity)
+     :args (object-array capacity)
+     :starts (long-array capacity)
+     :ends (long-array capacity)
+     :count (AtomicLong. 0)
+     :origin-ns (System/nanoTime)}))
+
+(defn record!
+  "Record a step. Times are from System/nanoTime."
+  [tracer category name args start-ns end-ns]
+  (let [i (int (mod (.getAndIncrement ^AtomicLong (:count tracer))
+                    (:capacity tracer)))]
+    (aset ^objects (:categories tracer) i category)
+    (aset ^objects (:names tracer) i name)
+    (aset ^objects (:args tracer) i args)
+    (aset ^longs (:starts tracer) i (long start-ns))
+    (aset ^longs (:ends tracer) i (long end-ns))
+    nil))
+
+(defmacro with-step
+  "Evaluate body and, if tracer is not nil, record it as a step with the
+   given category (a keyword), name and args (a map, or nil)."
+  [tracer category name args & body]
+  `(if-let [tracer# ~tracer]
+     (let [start# (System/nanoTime)]
+       (try
+         ~@body
+         (finally
+           (record! tracer# ~category ~name ~args start# (System/nanoTime)))))
+     (do ~@body)))
+
+(defn steps
+  "The recorded steps (at most the capacity, oldest first), as maps with
+   :category, :name, :args, :start-ns and :end-ns."
+  [tracer]
+  (let [n (.get ^AtomicLong (:count tracer))
+        capacity (:capacity tracer)]
+    (for [j (range (max 0 (- n capacity)) n)
+          :let [i (int (mod j capacity))]]
+      {:category (aget ^objects (:categories tracer) i)
+       :name (aget ^objects (:names tracer) i)
+       :args (aget ^objects (:args tracer) i)
+       :start-ns (aget ^longs (:starts tracer) i)
+       :end-ns (aget ^longs (:ends tracer) i)})))
+
+(defn- step-json
+  "A complete (\"X\") event, with times in microseconds since origin-ns."
+  [step origin-ns]
+  (JSONObject.
+    {"name" (str (:name step))
+     "cat" (name (:category step))
+     "ph" "X"
+     "ts" (/ (- (:start-ns step) origin-ns) 1000.0)
+     "dur" (/ (- (:end-ns step) (:start-ns step)) 1000.0)
+     "pid" 1
+     "tid" 1
+     "args" (JSONObject.
+              (into {} (for [[k v] (:args step) :when (not (nil? v))]
+                         [(name k) v])))}))
+
+(defn write-chrome-trace
+  "Write the recorded steps to file in the Chrome trace event format."
+  [tracer ^File file]
+  (with-open [writer (OutputStreamWriter. (FileOutputStream. file) "UTF-8")]
+    (.write writer "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n")
+    (loop [steps (steps tracer) first? true]
+      (when-let [step (first steps)]
+        (when-not first?
+          (.write writer ",\n"))
+        (.write writer (.toString (step-json step (:origin-ns tracer))))
+        (recur (rest steps) false)))
+    (.write writer "\n]}\n")))
+
+(defn- self-times
+  "Map each step to its duration minus the durations of the steps nested
+   within it (steps are nested when run from within another step)."
+  [steps]
+  (let [sorted (sort-by (juxt :start-ns #(- (:end-ns %))) steps)]
+    (loop [steps sorted
+           stack () ; enclosing steps, innermost first, with child time
+           result []]
+      (let [step (first steps)
+            top (first stack)]
+        (cond
+          ; Close the innermost open step if it ended before the next one
+          (and top (or (nil? step) (<= (:end-ns (:step top)) (:start-ns step))))
+          (let [{:keys [step child-ns]} top
+                duration (- (:end-ns step) (:start-ns step))
+                parent (second stack)]
+            (recur steps
+                   (if parent
+                     (cons (update-in parent [:child-ns] + duration)
+                           (drop 2 stack))
+                     (rest stack))
+                   (conj result (assoc step :self-ns (- duration child-ns)))))
+          step
+          (recur (rest steps) (cons {:step step :child-ns 0} stack) result)
+          :else
+          result)))))
+
+(defn summary
+  "A table of the time spent in each category of step: the number of steps,
+   the total time, the time excluding nested steps (self time), its share of
+   the traced wall time, and the mean and maximum durations."
+  [tracer]
+  (let [steps (self-times (steps tracer))]
+    (if (empty? steps)
+      "No acquisition steps recorded"
+      (let [wall-ns (- (apply max (map :end-ns steps))
+                       (apply min (map :start-ns steps)))
+            by-category (group-by :category steps)
+            ms #(/ % 1e6)
+            rows (for [[category cat-steps] by-category
+                       :let [durations (map #(- (:end-ns %) (:start-ns %))
+                                            cat-steps)
+                             self-ns (reduce + (map :self-ns cat-steps))]]
+                   [category (count cat-steps) (reduce + durations) self-ns
+                    (apply max durations)])]
+        (apply str
+               (format "Acquisition timeline (%.1f ms wall time, %d steps):\n"
+                       (ms wall-ns) (count steps))
+               (format "%-18s %7s %12s %12s %7s %10s %10s\n" "Category"
+                       "Count" "Total (ms)" "Self (ms)" "Self %" "Mean (ms)"
+                       "Max (ms)")
+               (for [[category n total-ns self-ns max-ns]
+                     (reverse (sort-by #(nth % 3) rows))]
+                 (format "%-18s %7d %12.1f %12.1f %6.1f%% %10.2f %10.2f\n"
+                         (name category) n (ms total-ns) (ms self-ns)
+                         (/ (* 100.0 self-ns) (max 1 wall-ns))
+                         (/ (ms total-ns) n) (ms max-ns))))))))
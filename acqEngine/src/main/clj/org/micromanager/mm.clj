@@ -15,12 +15,14 @@
 
 (ns org.micromanager.mm
   (:import [org.micromanager MultiStagePosition]
-           [mmcorej Configuration DoubleVector Metadata StrVector] ;; load mmcorej.DeviceType at runtime only
+           [mmcorej CMMCore Configuration DoubleVector Metadata StrVector] ;; load mmcorej.DeviceType at runtime only
            [org.json JSONArray JSONObject]
            [java.text SimpleDateFormat]
            [org.micromanager MultiStagePosition StagePosition]
            [org.micromanager.acquisition ChannelSpec]
-           [java.util Date]
+           [java.util ArrayList Date]
+           [java.util.concurrent ArrayBlockingQueue CountDownLatch TimeUnit]
+           [java.util.concurrent.atomic AtomicLong]
            [ij IJ]
            [javax.swing SwingUtilities])
   (:require [clojure.pprint]
@@ -116,27 +118,110 @@
                     true)]
     formatted))
 
-(defn log
-  "Log string or form x to the Core log output (debug only)."
-  [& x]
-  (let [converted (for [item x]
+; Log messages are queued and formatted and sent to the Core by a background
+; thread, so that logging costs the calling thread a level check and a queue
+; insertion. If the queue is full, messages are dropped (and counted) rather
+; than holding up the acquisition.
+
+(def ^:private ^ArrayBlockingQueue log-queue (ArrayBlockingQueue. 4096))
+
+(def ^:private ^AtomicLong dropped-log-count (AtomicLong. 0))
+
+(defn debug-log-enabled?
+  "True if the Core's debug log output is enabled."
+  []
+  (and (bound? #'mmc) mmc (.debugLogEnabled ^CMMCore mmc)))
+
+(defn- format-log-record [[time-ms items]]
+  (let [converted (for [item items]
                     (if (string? item)
                       item
                       (form-to-log-string item)))]
-    (->> converted
-         (join-string " ")
-         cleanup-multiline
-         send-to-debug-log)))
+    (str (.format (SimpleDateFormat. "HH:mm:ss.SSS") (Date. (long time-ms)))
+         " "
+         (cleanup-multiline (join-string " " converted)))))
+
+(defn- write-log-records
+  "Send queued log records to the Core, in batches, until interrupted."
+  []
+  (let [batch (ArrayList.)]
+    (loop []
+      (.add batch (.take log-queue))
+      (.drainTo log-queue batch)
+      (doseq [record batch]
+        (if (instance? CountDownLatch record)
+          (.countDown ^CountDownLatch record)
+          (try
+            (send-to-debug-log (format-log-record record))
+            (catch Exception e nil)))) ; nowhere to report it
+      (.clear batch)
+      (let [dropped (.getAndSet dropped-log-count 0)]
+        (when (pos? dropped)
+          (try
+            (send-to-debug-log (str dropped " log messages dropped"))
+            (catch Exception e nil))))
+      (recur))))
+
+(def ^:private log-writer
+  (delay (doto (Thread. ^Runnable write-log-records
+                        "Acquisition Engine Log Writer")
+           (.setDaemon true)
+           (.start))))
+
+(defn- log-value
+  "Return item if it can safely be formatted later (immutable data), or else
+   its string form. Collections (including the lazy expressions built by
+   log-cmd) are realized, and copied with any other values, such as mutable
+   Java objects, replaced by their string forms."
+  [item]
+  (cond
+    (or (nil? item) (string? item) (number? item) (keyword? item)
+        (symbol? item) (char? item) (instance? Boolean item))
+      item
+    (map? item)
+      (into (if (sorted? item) (empty item) {})
+            (for [[k v] item] [(log-value k) (log-value v)]))
+    (vector? item) (vec (map log-value item))
+    (set? item) (set (map log-value item))
+    (coll? item) (doall (map log-value item))
+    :else (str item)))
+
+(defn log-async
+  "Queue items to be formatted and logged to the Core log output."
+  [items]
+  (force log-writer)
+  (when-not (.offer log-queue [(System/currentTimeMillis)
+                               (doall (map log-value items))])
+    (.incrementAndGet dropped-log-count))
+  nil)
+
+(defn flush-log
+  "Wait until the messages logged so far have been sent to the Core."
+  []
+  (force log-writer)
+  (let [latch (CountDownLatch. 1)]
+    (.put log-queue latch)
+    (.await latch 10 TimeUnit/SECONDS)))
+
+(defmacro log
+  "Log strings or forms x to the Core log output (debug only). Unless debug
+   logging is enabled, x is not evaluated; otherwise x is formatted and
+   logged on a background thread."
+  [& x]
+  `(when (debug-log-enabled?)
+     (log-async [~@x])))
 
 (defmacro log-cmd
   "Log the enclosed expr to the Core log output (debug only)."
   ([cmd-count expr]
     (let [[cmd# args#] (split-at cmd-count expr)]
-      `(let [expr# (concat '~cmd# (list ~@args#))]
-         (log "<--" expr#)
-         (let [result# ~expr]
-           (log "-->" result#)
-           result#))))
+      `(if (debug-log-enabled?)
+         (let [expr# (concat '~cmd# (list ~@args#))]
+           (log "<--" expr#)
+           (let [result# ~expr]
+             (log "-->" result#)
+             result#))
+         ~expr)))
    ([expr] `(log-cmd 1 ~expr)))
 
 
@@ -1,7 +1,8 @@
 package org.micromanager.acquisition.internal;
 
+import java.lang.reflect.Array;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import mmcorej.TaggedImage;
@@ -9,21 +10,36 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.ScopeDataSnapshots;
 import org.micromanager.events.EventManager;
 import org.micromanager.events.internal.DefaultAcquisitionEndedEvent;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.PerformanceMonitorRegistry;
 
 /**
- * This object spawns a new thread that receives images from the acquisition
- * engine and runs them through a Pipeline to the Datastore. It's also
+ * This object spawns threads that receive images from the acquisition
+ * engine and run them through a Pipeline to the Datastore. It's also
  * responsible for posting the AcquisitionEndedEvent, which it recognizes when
  * it receives the TaggedImageQueue.POISON object.
  * Functionally this is just glue code between the old acquisition engine and
  * the 2.0 API.
+ * <p>
+ * Images are taken off the engine's queue as soon as they arrive, and held
+ * until the pipeline accepts them. The pixel bytes held are compared against
+ * watermarks: above the high watermark, the acquisition is paused until the
+ * backlog drains to the low watermark. The backlog is bounded by a limit:
+ * when it is reached, the acquisition is stopped (via the sinkFullCallback)
+ * and no more images are taken from the engine until the backlog drains, so
+ * that memory does not run out (see SinkBacklog).
+ * Queue depth, bytes in flight, and drain rate are published through
+ * getPerformanceMonitor().
  *
  * @author arthur, modified by Chris Weisiger
  */
 public final class DefaultTaggedImageSink  {
+   private static final long DRAIN_RATE_INTERVAL_NS = 500000000L;
+   private static final double BYTES_PER_MB = 1024.0 * 1024.0;
 
    private final BlockingQueue<TaggedImage> imageProducingQueue_;
    private final Datastore store_;
@@ -31,16 +47,69 @@ public final class DefaultTaggedImageSink  {
    private final AcquisitionEngine engine_;
    private final EventManager studioEvents_;
 
+   // Images taken from imageProducingQueue_, waiting to enter the pipeline;
+   // bounded by the bytes accounted in backlog_
+   private final LinkedBlockingQueue<TaggedImage> sinkQueue_ =
+         new LinkedBlockingQueue<TaggedImage>();
+   private final SinkBacklog backlog_;
+   // The images of one acquisition normally differ in only a few device
+   // property values
+   private final ScopeDataSnapshots scopeDataSnapshots_ =
+         new ScopeDataSnapshots();
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createRegistered("acquisition-sink", 1000.0);
+   private final PerformanceMonitor.Counter queuedImagesStat_ =
+         perfMon_.getCounter("Sink queued images");
+   private final PerformanceMonitor.Counter queuedDataStat_ =
+         perfMon_.getCounter("Sink queued data (MB)");
+   private volatile double drainRateBytesPerSecond_ = 0.0;
+   // Set when images can no longer be stored; later images are discarded
+   private volatile boolean isStopped_ = false;
+
+   // Guarded by this
+   private Runnable sinkFullCallback_;
+
    public DefaultTaggedImageSink(BlockingQueue<TaggedImage> queue,
-         Pipeline pipeline, 
-         Datastore store, 
-         AcquisitionEngine engine, 
+         Pipeline pipeline,
+         Datastore store,
+         AcquisitionEngine engine,
          EventManager studioEvents) {
       imageProducingQueue_ = queue;
       pipeline_ = pipeline;
       store_ = store;
       engine_ = engine;
       studioEvents_ = studioEvents;
+      long maxMemory = Runtime.getRuntime().maxMemory();
+      SinkBacklog.Pausable pausable = null;
+      if (engine != null) {
+         pausable = new SinkBacklog.Pausable() {
+            @Override
+            public boolean isPaused() {
+               return engine_.isPaused();
+            }
+
+            @Override
+            public void setPause(boolean pause) {
+               engine_.setPause(pause);
+            }
+         };
+      }
+      backlog_ = new SinkBacklog(pausable, maxMemory / 8, maxMemory / 4,
+            maxMemory / 2);
+   }
+
+   /**
+    * Set the amounts of queued pixel data at which to pause and resume the
+    * acquisition, and at which to stop it. By default these are 1/8, 1/4 and
+    * 1/2 of the maximum Java heap size.
+    * @param lowBytes resume a paused acquisition at or below this
+    * @param highBytes pause the acquisition above this
+    * @param limitBytes stop the acquisition, and stop taking images from the
+    * engine, rather than go above this
+    */
+   public void setWatermarks(long lowBytes, long highBytes,
+         long limitBytes) {
+      backlog_.setWatermarks(lowBytes, highBytes, limitBytes);
    }
 
    public void start() {
@@ -50,53 +119,187 @@ public final class DefaultTaggedImageSink  {
    // sinkFullCallback is a way to stop production of images when/if the sink
    // can no longer accept images.
    public void start(final Runnable sinkFullCallback) {
+      synchronized (this) {
+         sinkFullCallback_ = sinkFullCallback;
+      }
+      backlog_.setLimitCallback(new Runnable() {
+         @Override
+         public void run() {
+            if (sinkFullCallback != null) {
+               handleSinkFull(backlog_.getBytes(), sinkFullCallback);
+            }
+         }
+      });
+      Thread receivingThread = new Thread("TaggedImage sink receiving thread") {
+         @Override
+         public void run() {
+            receiveImages();
+         }
+      };
       Thread savingThread = new Thread("TaggedImage sink thread") {
-
          @Override
          public void run() {
-            long t1 = System.currentTimeMillis();
-            int imageCount = 0;
+            saveImages();
+         }
+      };
+      receivingThread.start();
+      savingThread.start();
+   }
+
+   /**
+    * Return the performance monitor to which queue depth, bytes in flight,
+    * and drain rate are published.
+    */
+   public PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
+   public int getQueuedImageCount() {
+      return sinkQueue_.size();
+   }
+
+   public long getQueuedBytes() {
+      return backlog_.getBytes();
+   }
+
+   public double getDrainRateBytesPerSecond() {
+      return drainRateBytesPerSecond_;
+   }
+
+   private void receiveImages() {
+      try {
+         while (true) {
+            TaggedImage tagged = imageProducingQueue_.take();
+            if (TaggedImageQueue.isPoison(tagged)) {
+               sinkQueue_.put(tagged);
+               break;
+            }
+            if (isStopped_) {
+               continue;
+            }
+            // Blocks while the backlog is at its limit
+            long bytes = backlog_.add(getPixelBytes(tagged));
+            sinkQueue_.put(tagged);
+            publishQueueState(bytes);
+         }
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError(e, "Interrupted while receiving images");
+      }
+   }
+
+   private void saveImages() {
+      long t1 = System.currentTimeMillis();
+      int imageCount = 0;
+      long drainStartNs = System.nanoTime();
+      long drainedBytes = 0;
+      try {
+         while (true) {
+            TaggedImage tagged = sinkQueue_.take();
+            if (TaggedImageQueue.isPoison(tagged)) {
+               // Acquisition has ended. Clean up under "finally"
+               break;
+            }
+            long pixelBytes = getPixelBytes(tagged);
             try {
-               while (true) {
-                  TaggedImage tagged = imageProducingQueue_.poll(1, TimeUnit.SECONDS);
-                  if (tagged != null) {
-                     if (TaggedImageQueue.isPoison(tagged)) {
-                        // Acquisition has ended. Clean up under "finally"                        
-                        break;
-                     }
-                     try {
-                        ++imageCount;
-                        DefaultImage image = new DefaultImage(tagged);
-                        try {
-                           pipeline_.insertImage(image);
-                        }
-                        catch (PipelineErrorException e) {
-                           // TODO: make showing the dialog optional.
-                           // TODO: allow user to cancel acquisition from
-                           // here.
-                           ReportingUtils.showError(e,
-                                 "There was an error in processing images.");
-                           pipeline_.clearExceptions();
-                        }
-                     }
-                     catch (OutOfMemoryError e) {
-                        handleOutOfMemory(e, sinkFullCallback);
-                        break;
-                     }
-                  }
+               ++imageCount;
+               DefaultImage image = new DefaultImage(tagged,
+                     scopeDataSnapshots_);
+               try {
+                  pipeline_.insertImage(image);
+               }
+               catch (PipelineErrorException e) {
+                  // TODO: make showing the dialog optional.
+                  // TODO: allow user to cancel acquisition from
+                  // here.
+                  ReportingUtils.showError(e,
+                        "There was an error in processing images.");
+                  pipeline_.clearExceptions();
                }
-            } catch (Exception ex2) {
-               ReportingUtils.logError(ex2);
-            } finally {
-               pipeline_.halt();
-               studioEvents_.post(
-                     new DefaultAcquisitionEndedEvent(store_, engine_));
             }
-            long t2 = System.currentTimeMillis();
-            ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+            catch (OutOfMemoryError e) {
+               isStopped_ = true;
+               backlog_.close();
+               discardQueuedImages();
+               handleOutOfMemory(e, getSinkFullCallback());
+               break;
+            }
+            publishQueueState(backlog_.remove(pixelBytes));
+
+            drainedBytes += pixelBytes;
+            long nowNs = System.nanoTime();
+            if (nowNs - drainStartNs >= DRAIN_RATE_INTERVAL_NS) {
+               drainRateBytesPerSecond_ =
+                     drainedBytes * 1e9 / (nowNs - drainStartNs);
+               perfMon_.sample("Sink drain rate (MB/s)",
+                     drainRateBytesPerSecond_ / BYTES_PER_MB);
+               drainStartNs = nowNs;
+               drainedBytes = 0;
+            }
          }
-      };
-      savingThread.start();
+      } catch (Exception ex2) {
+         ReportingUtils.logError(ex2);
+      } finally {
+         pipeline_.halt();
+         // The sink is done with once the acquisition has ended
+         PerformanceMonitorRegistry.getInstance().unregister(perfMon_);
+         studioEvents_.post(
+               new DefaultAcquisitionEndedEvent(store_, engine_));
+      }
+      long t2 = System.currentTimeMillis();
+      ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+   }
+
+   // Drop images still waiting, leaving any poison for the receiving thread
+   // to pass on, so that their memory can be reclaimed
+   private void discardQueuedImages() {
+      TaggedImage tagged;
+      while ((tagged = sinkQueue_.poll()) != null) {
+         if (!TaggedImageQueue.isPoison(tagged)) {
+            backlog_.remove(getPixelBytes(tagged));
+         }
+      }
+   }
+
+   private void publishQueueState(long queuedBytes) {
+      queuedImagesStat_.sample(sinkQueue_.size());
+      queuedDataStat_.sample(queuedBytes / BYTES_PER_MB);
+   }
+
+   private synchronized Runnable getSinkFullCallback() {
+      return sinkFullCallback_;
+   }
+
+   private static long getPixelBytes(TaggedImage tagged) {
+      Object pixels = tagged.pix;
+      if (pixels == null || !pixels.getClass().isArray()) {
+         return 0;
+      }
+      long length = Array.getLength(pixels);
+      Class<?> type = pixels.getClass().getComponentType();
+      if (type == short.class) {
+         return 2 * length;
+      }
+      if (type == int.class || type == float.class) {
+         return 4 * length;
+      }
+      return length;
+   }
+
+   // Never called from EDT
+   private void handleSinkFull(long queuedBytes, Runnable sinkFullCallback) {
+      final String message = String.format(
+            "Images are acquired faster than they can be stored (%.0f MB waiting); acquisition stopped.",
+            queuedBytes / BYTES_PER_MB);
+      ReportingUtils.logError(message);
+      sinkFullCallback.run();
+      SwingUtilities.invokeLater(new Runnable() {
+         @Override
+         public void run() {
+            JOptionPane.showMessageDialog(null, message,
+                  "Image storage too slow", JOptionPane.ERROR_MESSAGE);
+         }
+      });
    }
 
    // Never called from EDT
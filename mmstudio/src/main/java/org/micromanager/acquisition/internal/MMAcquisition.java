@@ -50,6 +50,7 @@ import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.CommentsHelper;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.data.internal.StorageOffHeap;
 import org.micromanager.data.internal.StorageRAM;
 import org.micromanager.data.internal.StorageSinglePlaneTiffSeries;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
@@ -122,7 +123,14 @@ public final class MMAcquisition extends DataViewerListener {
                eng.stop(true);
             }
          } else {
-            store_.setStorage(new StorageRAM(store_));
+            int offHeapBudgetMB = StorageOffHeap.getBudgetMB();
+            if (offHeapBudgetMB > 0) {
+               store_.setStorage(new StorageOffHeap(store_,
+                     (long) offHeapBudgetMB << 20));
+            }
+            else {
+               store_.setStorage(new StorageRAM(store_));
+            }
          }
       }
       catch (JSONException e) {
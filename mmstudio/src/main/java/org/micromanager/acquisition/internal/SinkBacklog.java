@@ -0,0 +1,164 @@
+package org.micromanager.acquisition.internal;
+
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * The pixel bytes held by DefaultTaggedImageSink between the acquisition
+ * engine and the pipeline, bounded by watermarks.
+ * <p>
+ * Above the high watermark, the acquisition is paused until the backlog
+ * drains to the low watermark. The limit bounds the backlog: adding an image
+ * that would exceed it blocks until enough has drained (so that the engine's
+ * own bounded queue fills and holds up the engine), and the first time this
+ * happens, the limit callback is run to stop the acquisition.
+ * <p>
+ * Only a pause made here is undone here. If the acquisition is resumed by
+ * someone else while paused for the backlog, it is not paused again until
+ * the backlog has drained to the low watermark.
+ */
+final class SinkBacklog {
+   private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+   /**
+    * What is paused: the acquisition engine.
+    */
+   interface Pausable {
+      boolean isPaused();
+      void setPause(boolean pause);
+   }
+
+   private final Pausable pausable_; // May be null
+
+   // Guarded by this
+   private long bytes_ = 0;
+   private long lowWatermarkBytes_;
+   private long highWatermarkBytes_;
+   private long limitBytes_;
+   private boolean isPausedByUs_ = false;
+   private boolean isResumedByOthers_ = false;
+   private boolean haveReachedLimit_ = false;
+   private boolean isClosed_ = false;
+   private Runnable limitCallback_;
+
+   SinkBacklog(Pausable pausable, long lowBytes, long highBytes,
+         long limitBytes)
+   {
+      pausable_ = pausable;
+      setWatermarks(lowBytes, highBytes, limitBytes);
+   }
+
+   synchronized void setWatermarks(long lowBytes, long highBytes,
+         long limitBytes)
+   {
+      if (lowBytes > highBytes || highBytes > limitBytes) {
+         throw new IllegalArgumentException(
+               "Watermarks must satisfy low <= high <= limit");
+      }
+      lowWatermarkBytes_ = lowBytes;
+      highWatermarkBytes_ = highBytes;
+      limitBytes_ = limitBytes;
+      notifyAll();
+   }
+
+   /**
+    * Set the callback run (once, without holding any lock) when the limit is
+    * first reached.
+    */
+   synchronized void setLimitCallback(Runnable callback) {
+      limitCallback_ = callback;
+   }
+
+   synchronized long getBytes() {
+      return bytes_;
+   }
+
+   /**
+    * Account an image entering the backlog, waiting while it would take the
+    * backlog over the limit. An image is always accepted into an empty
+    * backlog, however large.
+    *
+    * @param bytes the image's pixel bytes
+    * @return the bytes in the backlog, including the image
+    * @throws InterruptedException if interrupted while waiting
+    */
+   long add(long bytes) throws InterruptedException {
+      Runnable limitCallback = null;
+      long result;
+      synchronized (this) {
+         if (isOverLimit(bytes) && !haveReachedLimit_) {
+            haveReachedLimit_ = true;
+            limitCallback = limitCallback_;
+            ReportingUtils.logMessage(String.format(
+                  "Image backlog reached its limit (%.1f MB)",
+                  limitBytes_ / BYTES_PER_MB));
+         }
+      }
+      if (limitCallback != null) {
+         limitCallback.run();
+      }
+      synchronized (this) {
+         while (isOverLimit(bytes)) {
+            wait();
+         }
+         bytes_ += bytes;
+         updatePause();
+         result = bytes_;
+      }
+      return result;
+   }
+
+   /**
+    * Account an image leaving the backlog.
+    *
+    * @param bytes the image's pixel bytes
+    * @return the bytes remaining in the backlog
+    */
+   synchronized long remove(long bytes) {
+      bytes_ -= bytes;
+      updatePause();
+      notifyAll();
+      return bytes_;
+   }
+
+   /**
+    * Stop bounding the backlog: images are no longer stored, so waiting
+    * for them to drain is pointless.
+    */
+   synchronized void close() {
+      isClosed_ = true;
+      notifyAll();
+   }
+
+   private boolean isOverLimit(long bytes) {
+      return !isClosed_ && bytes_ > 0 && bytes_ + bytes > limitBytes_;
+   }
+
+   // Called with this locked
+   private void updatePause() {
+      if (pausable_ == null) {
+         return;
+      }
+      if (isPausedByUs_ && !pausable_.isPaused()) {
+         ReportingUtils.logMessage(
+               "Acquisition paused for storage was resumed");
+         isPausedByUs_ = false;
+         isResumedByOthers_ = true;
+      }
+      if (isResumedByOthers_ && bytes_ <= lowWatermarkBytes_) {
+         isResumedByOthers_ = false;
+      }
+      if (!isPausedByUs_ && !isResumedByOthers_ &&
+            bytes_ > highWatermarkBytes_ && !pausable_.isPaused()) {
+         ReportingUtils.logMessage(String.format(
+               "Pausing acquisition: %.1f MB of images waiting to be stored",
+               bytes_ / BYTES_PER_MB));
+         isPausedByUs_ = true;
+         pausable_.setPause(true);
+      }
+      else if (isPausedByUs_ && bytes_ <= lowWatermarkBytes_) {
+         ReportingUtils.logMessage("Resuming acquisition paused for storage");
+         isPausedByUs_ = false;
+         pausable_.setPause(false);
+      }
+   }
+}
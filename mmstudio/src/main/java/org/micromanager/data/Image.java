@@ -228,6 +228,32 @@ public interface Image {
     */
    Object getRawPixelsCopy();
 
+   /**
+    * Return the raw pixel data of this image without copying it, if possible.
+    * <p>
+    * Unlike {@code getRawPixels}, the returned array is normally the one that
+    * holds this image's pixels, and is shared with any copies of this image
+    * (see {@code copyAtCoords}). This is the cheapest way to read the pixels
+    * of an image, e.g. for computing statistics or writing to a file.
+    * <p>
+    * Sharing is not guaranteed: an image whose pixels are not held in a Java
+    * array returns a copy, as does the default implementation, which calls
+    * {@code getRawPixelsCopy}.
+    * <p>
+    * <strong>Warning</strong>: <strong>never modify the returned
+    * array!</strong> Doing so would change this image and all images sharing
+    * its pixels. Use {@code getRawPixelsCopy} if you need to modify the pixel
+    * data. Also, do not depend on the type of the object returned.
+    *
+    * @return An array of pixel values for the image data, which must be
+    * treated as read-only
+    * @see #getRawPixels
+    * @see #getRawPixelsCopy
+    */
+   default Object getRawPixelsView() {
+      return getRawPixelsCopy();
+   }
+
    /**
     * Return a copy of the raw pixel data for the specified component.
     * <p>
@@ -52,6 +52,54 @@ public abstract class Processor {
     */
    public abstract void processImage(Image image, ProcessorContext context);
 
+   /**
+    * Ways in which a Processor allows processImage() to be called
+    * concurrently; see getConcurrency().
+    */
+   public enum Concurrency {
+      /**
+       * Images are processed one at a time, in order. This is the default.
+       */
+      SEQUENTIAL,
+      /**
+       * The Processor keeps no state between images, so processImage() may
+       * be called concurrently for different images.
+       */
+      STATELESS,
+      /**
+       * The Processor keeps separate state for each key returned by
+       * getStateKey(). Images with the same key are processed one at a time
+       * and in order; images with different keys may be processed
+       * concurrently.
+       */
+      PER_KEY
+   }
+
+   /**
+    * Declare whether processImage() may be called concurrently (from
+    * multiple threads) when the pipeline is asynchronous. Whatever the
+    * answer, the images output by the Processor are passed on in the order
+    * of the images that were input.
+    * The default implementation returns SEQUENTIAL.
+    * @return the kind of concurrency that this Processor supports
+    */
+   public Concurrency getConcurrency() {
+      return Concurrency.SEQUENTIAL;
+   }
+
+   /**
+    * Return the key under which the Processor keeps state for the given
+    * image, if getConcurrency() returns PER_KEY. For example, a Processor
+    * that averages frames over time might return the image's coords with
+    * the time axis removed. The key must implement equals() and hashCode().
+    * The default implementation returns the image's coords.
+    * @param image the image that is about to be processed
+    * @return the key of the state used to process the image
+    */
+   public Object getStateKey(Image image) {
+      return image.getCoords();
+   }
+
    /**
     * Clean up when processing is finished. At this time no more images are
     * going to be sent to the processImage method. The ProcessorContext is
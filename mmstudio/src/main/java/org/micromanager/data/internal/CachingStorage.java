@@ -0,0 +1,294 @@
+package org.micromanager.data.internal;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Read-through cache of images in front of a (read-only) Storage.
+ * <p>
+ * Used for datasets loaded virtually, whose Storage reads from disk on every
+ * request. The most recently used images are kept, up to a limit on their
+ * total pixel size. Images can also be prefetched in the background (see
+ * {@link #prefetch}), e.g. the images that animated playback is about to
+ * display.
+ * <p>
+ * Hit, miss, and eviction counts are kept, and logged when the storage is
+ * closed, to help choose the cache size.
+ */
+public final class CachingStorage implements Storage {
+   private static final String PLANE_CACHE_SIZE_MB =
+         "size in MB of the image cache for datasets loaded virtually";
+   private static final int DEFAULT_PLANE_CACHE_SIZE_MB = 256;
+
+   private final Storage storage_;
+   private final long maxBytes_;
+
+   // Guarded by this
+   private final LinkedHashMap<Coords, Image> cache_ =
+         new LinkedHashMap<Coords, Image>(16, 0.75f, true);
+   private long cachedBytes_ = 0;
+   private long hits_ = 0;
+   private long misses_ = 0;
+   private long evictions_ = 0;
+   private long prefetched_ = 0;
+   // Built on first use; the storage is read-only
+   private CoordsIndex coordsIndex_;
+
+   // Only the most recent prefetch request is kept queued
+   private final ThreadPoolExecutor prefetchExecutor_ = new ThreadPoolExecutor(
+         1, 1, 0, TimeUnit.NANOSECONDS, new LinkedBlockingQueue<Runnable>(),
+         ThreadFactoryFactory.createThreadFactory("Image Prefetch"));
+
+   /**
+    * Wrap a storage.
+    *
+    * @param storage the storage to read images from
+    * @param maxBytes the maximum total pixel size of cached images
+    */
+   public CachingStorage(Storage storage, long maxBytes) {
+      storage_ = storage;
+      maxBytes_ = maxBytes;
+   }
+
+   /**
+    * Return the storage that this cache reads from.
+    */
+   public Storage getBackingStorage() {
+      return storage_;
+   }
+
+   @Override
+   public Image getImage(Coords coords) throws IOException {
+      synchronized (this) {
+         Image image = cache_.get(coords);
+         if (image != null) {
+            ++hits_;
+            return image;
+         }
+         ++misses_;
+      }
+      Image image = storage_.getImage(coords);
+      if (image != null) {
+         put(coords, image);
+      }
+      return image;
+   }
+
+   @Override
+   public List<Image> getImagesMatching(Coords coords) throws IOException {
+      return ConcurrentImageReader.readAll(getCoordsMatching(coords),
+            new ConcurrentImageReader.Source() {
+               @Override
+               public Image readImage(Coords imageCoords) throws IOException {
+                  return getImage(imageCoords);
+               }
+            });
+   }
+
+   private List<Coords> getCoordsMatching(Coords coords) {
+      CoordsIndex index;
+      synchronized (this) {
+         if (coordsIndex_ == null) {
+            coordsIndex_ = new CoordsIndex();
+            coordsIndex_.addAll(storage_.getUnorderedImageCoords());
+         }
+         index = coordsIndex_;
+      }
+      return index.getMatching(coords);
+   }
+
+   private static long getSizeInBytes(Image image) {
+      return (long) image.getWidth() * image.getHeight() *
+            image.getBytesPerPixel();
+   }
+
+   private synchronized void put(Coords coords, Image image) {
+      Image previous = cache_.put(coords, image);
+      if (previous != null) {
+         cachedBytes_ -= getSizeInBytes(previous);
+      }
+      cachedBytes_ += getSizeInBytes(image);
+      Iterator<Map.Entry<Coords, Image>> it = cache_.entrySet().iterator();
+      while (cachedBytes_ > maxBytes_ && it.hasNext()) {
+         Map.Entry<Coords, Image> eldest = it.next();
+         if (eldest.getKey().equals(coords)) {
+            // Keep the image just added, even if it alone exceeds the limit
+            continue;
+         }
+         cachedBytes_ -= getSizeInBytes(eldest.getValue());
+         it.remove();
+         ++evictions_;
+      }
+   }
+
+   /**
+    * Load the images matching the given (possibly partial) coords into the
+    * cache in the background, in order. Replaces any earlier prefetch
+    * request that has not yet started.
+    *
+    * @param positions the coords of images that are likely to be requested
+    * soon, in the order they are expected to be requested
+    */
+   public void prefetch(final List<Coords> positions) {
+      if (positions.isEmpty() || prefetchExecutor_.isShutdown()) {
+         return;
+      }
+      prefetchExecutor_.getQueue().clear();
+      prefetchExecutor_.execute(new Runnable() {
+         @Override
+         public void run() {
+            for (Coords position : positions) {
+               for (Coords coords : getCoordsMatching(position)) {
+                  synchronized (CachingStorage.this) {
+                     // Look up without affecting the LRU order
+                     if (cache_.containsKey(coords)) {
+                        continue;
+                     }
+                  }
+                  try {
+                     Image image = storage_.getImage(coords);
+                     if (image != null) {
+                        put(coords, image);
+                        synchronized (CachingStorage.this) {
+                           ++prefetched_;
+                        }
+                     }
+                  }
+                  catch (IOException e) {
+                     ReportingUtils.logError(e, "Failed to prefetch image at " + coords);
+                  }
+               }
+            }
+         }
+      });
+   }
+
+   public synchronized long getHitCount() {
+      return hits_;
+   }
+
+   public synchronized long getMissCount() {
+      return misses_;
+   }
+
+   public synchronized long getEvictionCount() {
+      return evictions_;
+   }
+
+   public synchronized long getPrefetchCount() {
+      return prefetched_;
+   }
+
+   public synchronized long getCachedBytes() {
+      return cachedBytes_;
+   }
+
+   public synchronized String getStatisticsString() {
+      return String.format(
+            "Image cache: %d hits, %d misses, %d evictions, %d prefetched; %d of %d MB used",
+            hits_, misses_, evictions_, prefetched_,
+            cachedBytes_ >> 20, maxBytes_ >> 20);
+   }
+
+   @Override
+   public void freeze() throws IOException {
+      storage_.freeze();
+   }
+
+   /**
+    * Not supported: the cache is only for read-only datasets.
+    */
+   @Override
+   public void putImage(Image image) throws IOException {
+      throw new UnsupportedOperationException(
+            "Cannot add images to a cached dataset");
+   }
+
+   @Override
+   public boolean hasImage(Coords coords) {
+      return storage_.hasImage(coords);
+   }
+
+   @Override
+   public Image getAnyImage() {
+      return storage_.getAnyImage();
+   }
+
+   @Override
+   public Iterable<Coords> getUnorderedImageCoords() {
+      return storage_.getUnorderedImageCoords();
+   }
+
+   @Override
+   public Integer getMaxIndex(String axis) {
+      return storage_.getMaxIndex(axis);
+   }
+
+   @Override
+   public List<String> getAxes() {
+      return storage_.getAxes();
+   }
+
+   @Override
+   public Coords getMaxIndices() {
+      return storage_.getMaxIndices();
+   }
+
+   @Override
+   public SummaryMetadata getSummaryMetadata() {
+      return storage_.getSummaryMetadata();
+   }
+
+   @Override
+   public int getNumImages() {
+      return storage_.getNumImages();
+   }
+
+   @Override
+   public void close() throws IOException {
+      prefetchExecutor_.shutdownNow();
+      try {
+         prefetchExecutor_.awaitTermination(1, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      ReportingUtils.logMessage(getStatisticsString());
+      synchronized (this) {
+         cache_.clear();
+         cachedBytes_ = 0;
+      }
+      storage_.close();
+   }
+
+   /**
+    * Return the size of the image cache for datasets loaded virtually, in
+    * megabytes; 0 means no caching.
+    */
+   public static int getPlaneCacheSizeMB() {
+      MMStudio studio = MMStudio.getInstance();
+      if (studio == null) {
+         return 0;
+      }
+      return studio.profile().getSettings(CachingStorage.class).
+            getInteger(PLANE_CACHE_SIZE_MB, DEFAULT_PLANE_CACHE_SIZE_MB);
+   }
+
+   public static void setPlaneCacheSizeMB(int sizeMB) {
+      MMStudio.getInstance().profile().getSettings(CachingStorage.class).
+            putInteger(PLANE_CACHE_SIZE_MB, Math.max(0, sizeMB));
+   }
+}
@@ -0,0 +1,97 @@
+package org.micromanager.data.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Reads several images from file-backed storage concurrently.
+ * <p>
+ * Used for {@code getImagesMatching}, which typically asks for all channels
+ * (or all slices) at a position: reading them in parallel overlaps the disk
+ * and decoding latencies.
+ */
+public final class ConcurrentImageReader {
+   /**
+    * Reads a single image. Must be safe to call from multiple threads.
+    */
+   public interface Source {
+      Image readImage(Coords coords) throws IOException;
+   }
+
+   private static final int NUM_THREADS = Math.max(2,
+         Math.min(8, Runtime.getRuntime().availableProcessors()));
+   private static final ExecutorService EXECUTOR =
+         Executors.newFixedThreadPool(NUM_THREADS,
+               ThreadFactoryFactory.createThreadFactory("Image Reader"));
+
+   private ConcurrentImageReader() {
+   }
+
+   /**
+    * Read the images at the given coords, logging and skipping those that
+    * cannot be read.
+    *
+    * @param coords the coords of the images to read
+    * @param source reads a single image
+    * @return the images that were read, in the order of {@code coords}
+    */
+   public static List<Image> readAll(List<Coords> coords,
+         final Source source) {
+      List<Image> result = new ArrayList<Image>(coords.size());
+      if (coords.size() == 1) {
+         // Not worth a thread hop
+         Image image = read(source, coords.get(0));
+         if (image != null) {
+            result.add(image);
+         }
+         return result;
+      }
+      List<Future<Image>> futures = new ArrayList<Future<Image>>(coords.size());
+      for (final Coords c : coords) {
+         futures.add(EXECUTOR.submit(new Callable<Image>() {
+            @Override
+            public Image call() {
+               return read(source, c);
+            }
+         }));
+      }
+      try {
+         for (Future<Image> future : futures) {
+            Image image = future.get();
+            if (image != null) {
+               result.add(image);
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         for (Future<Image> future : futures) {
+            future.cancel(false);
+         }
+      }
+      catch (ExecutionException e) {
+         ReportingUtils.logError(e.getCause(), "Failed to read images");
+      }
+      return result;
+   }
+
+   private static Image read(Source source, Coords coords) {
+      try {
+         return source.readImage(coords);
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to read image at " + coords);
+         return null;
+      }
+   }
+}
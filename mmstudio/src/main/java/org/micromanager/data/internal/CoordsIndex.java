@@ -0,0 +1,103 @@
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.micromanager.data.Coords;
+
+/**
+ * Index of a set of Coords by their position along each axis, for finding
+ * the Coords that match a partial Coords (as in
+ * {@code Storage.getImagesMatching}) without scanning the whole set.
+ * <p>
+ * A query is answered by scanning only the Coords that share the query's
+ * index on its most selective axis. For example, "all channels at t = 5"
+ * visits only the Coords at t = 5.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class CoordsIndex {
+   private final Set<Coords> all_ = new HashSet<Coords>();
+   // axis -> index along axis -> Coords with that index
+   private final Map<String, Map<Integer, Set<Coords>>> byAxis_ =
+         new HashMap<String, Map<Integer, Set<Coords>>>();
+
+   public synchronized void add(Coords coords) {
+      if (!all_.add(coords)) {
+         return;
+      }
+      for (String axis : coords.getAxes()) {
+         Map<Integer, Set<Coords>> byIndex = byAxis_.get(axis);
+         if (byIndex == null) {
+            byIndex = new HashMap<Integer, Set<Coords>>();
+            byAxis_.put(axis, byIndex);
+         }
+         int index = coords.getIndex(axis);
+         Set<Coords> set = byIndex.get(index);
+         if (set == null) {
+            set = new HashSet<Coords>();
+            byIndex.put(index, set);
+         }
+         set.add(coords);
+      }
+   }
+
+   public synchronized void addAll(Iterable<Coords> coords) {
+      for (Coords c : coords) {
+         add(c);
+      }
+   }
+
+   public synchronized void remove(Coords coords) {
+      if (!all_.remove(coords)) {
+         return;
+      }
+      for (String axis : coords.getAxes()) {
+         Map<Integer, Set<Coords>> byIndex = byAxis_.get(axis);
+         int index = coords.getIndex(axis);
+         Set<Coords> set = byIndex.get(index);
+         set.remove(coords);
+         if (set.isEmpty()) {
+            byIndex.remove(index);
+         }
+      }
+   }
+
+   public synchronized void clear() {
+      all_.clear();
+      byAxis_.clear();
+   }
+
+   /**
+    * Return the indexed Coords that have the same index as the given
+    * (partial) Coords along each of its axes.
+    *
+    * @param partial the Coords to match
+    * @return matching Coords, in no particular order
+    */
+   public synchronized List<Coords> getMatching(Coords partial) {
+      Set<Coords> candidates = all_;
+      for (String axis : partial.getAxes()) {
+         Map<Integer, Set<Coords>> byIndex = byAxis_.get(axis);
+         Set<Coords> set = byIndex == null ? null :
+               byIndex.get(partial.getIndex(axis));
+         if (set == null) {
+            return Collections.emptyList();
+         }
+         if (set.size() < candidates.size()) {
+            candidates = set;
+         }
+      }
+      List<Coords> result = new ArrayList<Coords>(candidates.size());
+      for (Coords coords : candidates) {
+         if (coords.isSubspaceCoordsOf(partial)) {
+            result.add(coords);
+         }
+      }
+      return result;
+   }
+}
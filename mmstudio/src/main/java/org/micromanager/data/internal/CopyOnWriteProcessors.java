@@ -0,0 +1,224 @@
+package org.micromanager.data.internal;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * ImageJ processors that share an image's pixel array until modified.
+ * <p>
+ * The processors start out backed by the (read-only) pixel array of an
+ * {@code Image}. Before the first modification made through the processor,
+ * the pixels are copied, so that the image is never altered. ImageJ commands
+ * call {@code snapshot()} (for Undo) before modifying an image, and drawing
+ * and filling go through {@code drawPixel()}, {@code fill()}, etc.; these are
+ * intercepted. Other writes, such as through {@code set()} (which ImageJ
+ * declares final), filters, or the array returned by {@code getPixels()},
+ * are not: a processor must be passed to {@link #unshare} before it is
+ * handed to code that may modify it. The display only shares processors
+ * with ImageJ's own drawing code.
+ * <p>
+ * A processor owns only the array it copied itself. An array passed to
+ * {@code setPixels()} (which ImageJ does when changing the displayed slice)
+ * is assumed to be shared.
+ */
+final class CopyOnWriteProcessors {
+   private CopyOnWriteProcessors() {
+   }
+
+   static ImageProcessor create(int width, int height, Object sharedPixels) {
+      if (sharedPixels instanceof byte[]) {
+         return new CopyOnWriteByteProcessor(width, height,
+               (byte[]) sharedPixels);
+      }
+      if (sharedPixels instanceof short[]) {
+         return new CopyOnWriteShortProcessor(width, height,
+               (short[]) sharedPixels);
+      }
+      return null;
+   }
+
+   static boolean isShared(ImageProcessor processor) {
+      if (processor instanceof CopyOnWriteByteProcessor) {
+         return ((CopyOnWriteByteProcessor) processor).isShared();
+      }
+      if (processor instanceof CopyOnWriteShortProcessor) {
+         return ((CopyOnWriteShortProcessor) processor).isShared();
+      }
+      return false;
+   }
+
+   /**
+    * Copy the pixels of a processor if they are shared. Does nothing for
+    * other processors.
+    *
+    * @param processor the processor, or null
+    */
+   static void unshare(ImageProcessor processor) {
+      if (processor instanceof CopyOnWriteByteProcessor) {
+         ((CopyOnWriteByteProcessor) processor).ensureUnshared();
+      }
+      else if (processor instanceof CopyOnWriteShortProcessor) {
+         ((CopyOnWriteShortProcessor) processor).ensureUnshared();
+      }
+   }
+
+   private static final class CopyOnWriteByteProcessor extends ByteProcessor {
+      private byte[] ownedPixels_;
+
+      CopyOnWriteByteProcessor(int width, int height, byte[] pixels) {
+         super(width, height, pixels, null);
+      }
+
+      private boolean isShared() {
+         return getPixels() != ownedPixels_;
+      }
+
+      private void ensureUnshared() {
+         if (isShared()) {
+            ownedPixels_ = ((byte[]) getPixels()).clone();
+            super.setPixels(ownedPixels_);
+         }
+      }
+
+      @Override
+      public void snapshot() {
+         ensureUnshared();
+         super.snapshot();
+      }
+
+      @Override
+      public void swapPixelArrays() {
+         ensureUnshared();
+         super.swapPixelArrays();
+      }
+
+      @Override
+      public void setPixels(int channel, FloatProcessor fp) {
+         ensureUnshared();
+         super.setPixels(channel, fp);
+      }
+
+      @Override
+      public void putPixelValue(int x, int y, double value) {
+         ensureUnshared();
+         super.putPixelValue(x, y, value);
+      }
+
+      @Override
+      public void drawPixel(int x, int y) {
+         ensureUnshared();
+         super.drawPixel(x, y);
+      }
+
+      @Override
+      public void fill() {
+         ensureUnshared();
+         super.fill();
+      }
+
+      @Override
+      public void fill(ImageProcessor mask) {
+         ensureUnshared();
+         super.fill(mask);
+      }
+
+      @Override
+      public void copyBits(ImageProcessor ip, int x, int y, int mode) {
+         ensureUnshared();
+         super.copyBits(ip, x, y, mode);
+      }
+
+      @Override
+      public void applyTable(int[] lut) {
+         ensureUnshared();
+         super.applyTable(lut);
+      }
+
+      @Override
+      public void invert() {
+         ensureUnshared();
+         super.invert();
+      }
+   }
+
+   private static final class CopyOnWriteShortProcessor extends ShortProcessor {
+      private short[] ownedPixels_;
+
+      CopyOnWriteShortProcessor(int width, int height, short[] pixels) {
+         super(width, height, pixels, null);
+      }
+
+      private boolean isShared() {
+         return getPixels() != ownedPixels_;
+      }
+
+      private void ensureUnshared() {
+         if (isShared()) {
+            ownedPixels_ = ((short[]) getPixels()).clone();
+            super.setPixels(ownedPixels_);
+         }
+      }
+
+      @Override
+      public void snapshot() {
+         ensureUnshared();
+         super.snapshot();
+      }
+
+      @Override
+      public void swapPixelArrays() {
+         ensureUnshared();
+         super.swapPixelArrays();
+      }
+
+      @Override
+      public void setPixels(int channel, FloatProcessor fp) {
+         ensureUnshared();
+         super.setPixels(channel, fp);
+      }
+
+      @Override
+      public void putPixelValue(int x, int y, double value) {
+         ensureUnshared();
+         super.putPixelValue(x, y, value);
+      }
+
+      @Override
+      public void drawPixel(int x, int y) {
+         ensureUnshared();
+         super.drawPixel(x, y);
+      }
+
+      @Override
+      public void fill() {
+         ensureUnshared();
+         super.fill();
+      }
+
+      @Override
+      public void fill(ImageProcessor mask) {
+         ensureUnshared();
+         super.fill(mask);
+      }
+
+      @Override
+      public void copyBits(ImageProcessor ip, int x, int y, int mode) {
+         ensureUnshared();
+         super.copyBits(ip, x, y, mode);
+      }
+
+      @Override
+      public void applyTable(int[] lut) {
+         ensureUnshared();
+         super.applyTable(lut);
+      }
+
+      @Override
+      public void invert() {
+         ensureUnshared();
+         super.invert();
+      }
+   }
+}
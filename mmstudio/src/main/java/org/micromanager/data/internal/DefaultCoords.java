@@ -21,10 +21,10 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.ArrayUtils;
 import org.micromanager.PropertyMap;
@@ -37,21 +37,54 @@ import static org.micromanager.data.Coords.Z_SLICE;
 
 
 public final class DefaultCoords implements Coords {
+   // Axis names are interned, so that axes can usually be compared by
+   // identity. Only valid names are ever added.
+   private static final ConcurrentHashMap<String, String> AXIS_NAMES =
+         new ConcurrentHashMap<String, String>();
+
+   private static String internAxis(String axis) {
+      String interned = AXIS_NAMES.get(axis);
+      if (interned == null) {
+         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+         interned = AXIS_NAMES.putIfAbsent(axis, axis);
+         if (interned == null) {
+            interned = axis;
+         }
+      }
+      return interned;
+   }
+
+   // Position of axis in axes[0, n), comparing interned names by identity
+   private static int findAxis(String[] axes, int n, String axis) {
+      for (int i = 0; i < n; ++i) {
+         if (axes[i] == axis) {
+            return i;
+         }
+      }
+      for (int i = 0; i < n; ++i) {
+         if (axes[i].equals(axis)) {
+            return i;
+         }
+      }
+      return -1;
+   }
 
    public static class Builder implements Coords.Builder {
-      // Since we only hold several axes, array lists are likely more efficient
-      // than a LinkedHashMap
-      private final List<String> axes_;
-      private final List<Integer> indices_;
+      // Parallel arrays, with room for a few more axes than usual so that
+      // building does not normally allocate
+      private String[] axes_;
+      private int[] indices_;
+      private int numAxes_;
 
       public Builder() {
-         axes_ = new ArrayList<String>(5);
-         indices_ = new ArrayList<Integer>(5);
+         axes_ = new String[5];
+         indices_ = new int[5];
       }
 
-      private Builder(List<String> axes, List<Integer> indices) {
-         axes_ = new ArrayList<String>(axes);
-         indices_ = new ArrayList<Integer>(indices);
+      private Builder(String[] axes, int[] indices) {
+         numAxes_ = axes.length;
+         axes_ = Arrays.copyOf(axes, Math.max(5, numAxes_ + 1));
+         indices_ = Arrays.copyOf(indices, axes_.length);
       }
 
       @Override
@@ -61,23 +94,31 @@ public final class DefaultCoords implements Coords {
 
       @Override
       public Builder index(String axis, int index) {
-         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+         axis = internAxis(axis);
          if (index < 0) {
             return removeAxis(axis);
          }
 
+         // As before, a changed axis moves to the end of the order
          removeAxis(axis);
-         axes_.add(axis);
-         indices_.add(index);
+         if (numAxes_ == axes_.length) {
+            axes_ = Arrays.copyOf(axes_, 2 * numAxes_);
+            indices_ = Arrays.copyOf(indices_, 2 * numAxes_);
+         }
+         axes_[numAxes_] = axis;
+         indices_[numAxes_] = index;
+         ++numAxes_;
          return this;
       }
 
       @Override
       public Builder removeAxis(String axis) {
-         int i = axes_.indexOf(axis);
+         int i = findAxis(axes_, numAxes_, axis);
          if (i >= 0) {
-            axes_.remove(i);
-            indices_.remove(i);
+            System.arraycopy(axes_, i + 1, axes_, i, numAxes_ - i - 1);
+            System.arraycopy(indices_, i + 1, indices_, i, numAxes_ - i - 1);
+            --numAxes_;
+            axes_[numAxes_] = null;
          }
          return this;
       }
@@ -86,18 +127,18 @@ public final class DefaultCoords implements Coords {
       public Builder offset(String axis, int offset)
             throws IllegalArgumentException, IndexOutOfBoundsException
       {
-         int i = axes_.indexOf(axis);
+         int i = findAxis(axes_, numAxes_, axis);
          if (i < 0) {
             throw new IllegalArgumentException(
                   "Coords does not have index for axis \"" + axis + "\"");
          }
-         int newIndex = indices_.get(i) + offset;
+         int newIndex = indices_[i] + offset;
          if (newIndex < 0) {
             throw new IndexOutOfBoundsException(
                   "Offset would make Coords have negative index for axis \"" +
                         axis + "\"");
          }
-         indices_.set(i, newIndex);
+         indices_[i] = newIndex;
          return this;
       }
 
@@ -115,23 +156,41 @@ public final class DefaultCoords implements Coords {
       @Override public Builder c(int channel) { return channel(channel); }
    }
 
-   // Since we only hold several axes, array lists are likely more efficient
-   // than a LinkedHashMap
-   private final List<String> axes_;
-   private final List<Integer> indices_;
+   // Axes (interned) in order of addition, and their indices. Coords are
+   // hash keys in every storage, so the representation is kept compact and
+   // the hash code is computed once.
+   private final String[] axes_;
+   private final int[] indices_;
+   private final int hash_;
 
    public DefaultCoords(Builder builder) {
-      axes_ = ImmutableList.copyOf(builder.axes_);
-      indices_ = ImmutableList.copyOf(builder.indices_);
+      axes_ = Arrays.copyOf(builder.axes_, builder.numAxes_);
+      indices_ = Arrays.copyOf(builder.indices_, builder.numAxes_);
+      int hash = 0;
+      for (int i = 0; i < axes_.length; ++i) {
+         // Order-independent, as axis order is not considered for equality
+         hash += axisHash(axes_[i], indices_[i]);
+      }
+      hash_ = hash;
+   }
+
+   private static int axisHash(String axis, int index) {
+      // Mix well, since the per-axis hashes are summed
+      int h = axis.hashCode() * 0x9E3779B9 + index;
+      h ^= h >>> 16;
+      h *= 0x85EBCA6B;
+      h ^= h >>> 13;
+      h *= 0xC2B2AE35;
+      return h ^ (h >>> 16);
    }
 
    @Override
    public int getIndex(String axis) {
-      int i = axes_.indexOf(axis);
+      int i = findAxis(axes_, axes_.length, axis);
       if (i < 0) {
          return -1;
       }
-      return indices_.get(i);
+      return indices_[i];
    }
 
    @Override public int getTimePoint() { return getIndex(TIME_POINT); }
@@ -146,12 +205,12 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public List<String> getAxes() {
-      return new ArrayList<String>(axes_);
+      return new ArrayList<String>(Arrays.asList(axes_));
    }
 
    @Override
    public boolean hasAxis(String axis) {
-      return axes_.contains(axis);
+      return findAxis(axes_, axes_.length, axis) >= 0;
    }
 
    @Override public boolean hasTimePointAxis() { return hasAxis(TIME_POINT); }
@@ -165,9 +224,9 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public boolean isSuperspaceCoordsOf(Coords other) {
-      for (String axis : axes_) {
+      for (int i = 0; i < axes_.length; ++i) {
          // If other doesn't have axis, -1 != this.getIndex(axis)
-         if (other.getIndex(axis) != getIndex(axis)) {
+         if (other.getIndex(axes_[i]) != indices_[i]) {
             return false;
          }
       }
@@ -221,36 +280,27 @@ public final class DefaultCoords implements Coords {
       if (!(other instanceof Coords)) {
          return false;
       }
-      // Axis order is not considered for equality
-      List<String> thisAxes = getAxes();
-      List<String> otherAxes = ((Coords) other).getAxes();
-      if (thisAxes.size() != otherAxes.size()) {
-         return false;
+      if (other == this) {
+         return true;
       }
-      for (String axis : thisAxes) {
-         if (!otherAxes.contains(axis)) {
-            return false;
-         }
-         if (((Coords) other).getIndex(axis) != getIndex(axis)) {
+      // Axis order is not considered for equality
+      if (other instanceof DefaultCoords) {
+         DefaultCoords o = (DefaultCoords) other;
+         if (o.hash_ != hash_ || o.axes_.length != axes_.length) {
             return false;
          }
+         // As both have the same number of distinct axes, it suffices that
+         // each of ours is in other, with the same index
+         return isSuperspaceCoordsOf(o);
       }
-      return true;
+      List<String> otherAxes = ((Coords) other).getAxes();
+      return otherAxes.size() == axes_.length &&
+            isSuperspaceCoordsOf((Coords) other);
    }
    
    @Override
    public int hashCode() {
-      // Axis order is not considered for equality
-      List<String> axes = getAxes();
-      Collections.sort(axes);
-      List<Integer> indices = new ArrayList<Integer>(axes.size());
-      for (String axis : axes) {
-         indices.add(getIndex(axis));
-      }
-      int hash = 3;
-      hash = 23 * hash + axes.hashCode();
-      hash = 23 * hash + indices.hashCode();
-      return hash;
+      return hash_;
    }
 
    @Override
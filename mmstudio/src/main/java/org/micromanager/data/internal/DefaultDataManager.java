@@ -230,6 +230,7 @@ public final class DefaultDataManager implements DataManager {
             }
             else if (options[selection].equals(VIRTUAL_OPTION)) {
                // We already have the virtual dataset ready.
+               result.setImageCacheSize(getVirtualImageCacheBytes());
                return result;
             }
          }
@@ -257,11 +258,18 @@ public final class DefaultDataManager implements DataManager {
             monitor.close();
          }
       }
+      else {
+         result.setImageCacheSize(getVirtualImageCacheBytes());
+      }
       result.setSavePath(directory);
       result.freeze();
       return result;
    }
 
+   private static long getVirtualImageCacheBytes() {
+      return ((long) CachingStorage.getPlaneCacheSizeMB()) << 20;
+   }
+
    @Override
    public Datastore.SaveMode getPreferredSaveMode() {
       return DefaultDatastore.getPreferredSaveMode(studio_);
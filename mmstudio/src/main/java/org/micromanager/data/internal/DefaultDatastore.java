@@ -147,6 +147,32 @@ public class DefaultDatastore implements Datastore {
       storage_ = storage;
    }
 
+   /**
+    * Keep recently read images in memory, up to the given total pixel size.
+    * Only for read-only datasets, such as those loaded virtually. Must be
+    * called after setStorage().
+    * @param maxBytes maximum size of the cached images; 0 for no caching
+    */
+   public void setImageCacheSize(long maxBytes) {
+      if (maxBytes > 0 && storage_ != null &&
+            !(storage_ instanceof CachingStorage)) {
+         storage_ = new CachingStorage(storage_, maxBytes);
+      }
+   }
+
+   /**
+    * Hint that the images matching the given (possibly partial) coords are
+    * about to be requested, in the given order. If the images are cached
+    * (see setImageCacheSize()), they are read in the background.
+    * @param positions coords of the images that will likely be requested
+    */
+   public void prefetchImages(List<Coords> positions) {
+      Storage storage = storage_;
+      if (storage instanceof CachingStorage) {
+         ((CachingStorage) storage).prefetch(positions);
+      }
+   }
+
    /**
     * Registers objects at default priority levels.
     * @param obj object to be registered
@@ -23,12 +23,11 @@ package org.micromanager.data.internal;
 import com.google.common.base.Preconditions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 import mmcorej.TaggedImage;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -39,6 +38,7 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.propertymap.TaggedImageTagsDecoder;
 import org.micromanager.internal.utils.DirectBuffers;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -50,16 +50,23 @@ import org.micromanager.internal.utils.ReportingUtils;
  * Coords instance).
  *
  * For efficiency during high-speed acquisitions, we store the image data in
- * a ByteBuffer or ShortBuffer. However, ImageJ wants to work with image data
- * in the form of byte[], short[], or int[] arrays (depending on pixel type).
- * getRawPixels(), the method exposed in the Image interface to access pixel
- * data, returns an ImageJ-style array, while getPixelBuffer (which is not
- * exposed in the API) returns the raw buffer.
+ * a ByteBuffer or ShortBuffer, which normally wraps the byte[] or short[]
+ * array that the image was created from (for images converted from a
+ * TaggedImage, this is the array allocated by the core, so no copy is made).
+ * getRawPixelsView() returns that array without copying; getRawPixels()
+ * returns a copy, and getPixelBuffer (which is not exposed in the API)
+ * returns the pixels as a direct buffer, for native code. Once the pixels
+ * have moved to a direct buffer, getRawPixelsView() can no longer share
+ * them and returns a copy.
+ * <p>
+ * The pixel storage is shared between an image and all copies made from it
+ * (by copyAtCoords() etc.), and keeps count of how many bytes of pixel data
+ * were copied on its behalf (see getPixelBytesCopied()).
  */
 public final class DefaultImage implements Image {
    private DefaultMetadata metadata_;
    private Coords coords_;
-   private Buffer rawPixels_;
+   private final PixelStorage pixels_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -78,28 +85,52 @@ public final class DefaultImage implements Image {
     * @param tagged A TaggedImage to base the Image on.
     */
    public DefaultImage(TaggedImage tagged) throws IllegalArgumentException {
-      this(tagged, null, null);
+      this(tagged, (ScopeDataSnapshots) null);
+   }
+
+   /**
+    * As above but shares the scope data with the images previously converted
+    * with the same snapshots, as when converting the images from one
+    * acquisition or one live mode session.
+    * @param tagged A TaggedImage to base the Image on.
+    * @param scopeDataSnapshots snapshots owned by the source of the images,
+    * or null to not share scope data
+    */
+   public DefaultImage(TaggedImage tagged,
+         ScopeDataSnapshots scopeDataSnapshots)
+         throws IllegalArgumentException {
+      this(tagged, null, null, scopeDataSnapshots);
    }
 
    /**
     * As above but allows either or both of the image coords and metadata to be
     * overridden.
+    * <p>
+    * The pixel array of the TaggedImage is not copied; the new image takes
+    * ownership of it, so it must not be modified afterwards.
     */
    public DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata)
          throws IllegalArgumentException {
-      String json = tagged.tags.toString();
-      JsonElement je;
+      this(tagged, coords, metadata, null);
+   }
+
+   private DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata,
+         ScopeDataSnapshots scopeDataSnapshots)
+         throws IllegalArgumentException {
+      TaggedImageTagsDecoder tags;
       try {
-         je = new JsonParser().parse(json);
+         tags = metadata == null ?
+               TaggedImageTagsDecoder.decode(tagged.tags,
+                     scopeDataSnapshots) :
+               TaggedImageTagsDecoder.decodeCoordsAndFormat(tagged.tags);
       }
-      catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags", unlikely);
+      catch (Exception e) {
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags", e);
       }
 
       if (metadata == null) {
          try {
-            metadata = DefaultMetadata.fromPropertyMap(
-                    NonPropertyMapJSONFormats.metadata().fromGson(je));
+            metadata = DefaultMetadata.fromPropertyMap(tags.getMetadata());
          }
          catch (Exception e) {
             throw new IllegalArgumentException("Failed to convert TaggedImage tags to metadata", e);
@@ -108,27 +139,24 @@ public final class DefaultImage implements Image {
 
       if (coords == null) {
          try {
-            PropertyMap pmap = NonPropertyMapJSONFormats.coords().fromGson(je);
-            coords = Coordinates.fromPropertyMap(pmap);
+            coords = Coordinates.fromPropertyMap(tags.getCoords());
          }
          catch (Exception e) {
             throw new IllegalArgumentException("Failed to convert TaggedImage tags to coords", e);
          }
       }
 
-      PropertyMap formatPmap;
-      try {
-         formatPmap = NonPropertyMapJSONFormats.imageFormat().fromGson(je);
-      }
-      catch (Exception e) {
-         throw new IllegalArgumentException("Failed to convert TaggedImage tags to image size and pixel format");
-      }
+      PropertyMap formatPmap = tags.getImageFormat();
 
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(tagged.pix);
-      if (rawPixels_.capacity() == 0) {
+      pixels_ = PixelStorage.wrapping(tagged.pix);
+      if (pixels_ == null) {
+         throw new IllegalArgumentException("Unsupported pixel data type");
+      }
+      Buffer rawPixels = pixels_.buffer();
+      if (rawPixels.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0");
       }
 
@@ -146,12 +174,12 @@ public final class DefaultImage implements Image {
 
       switch (pixelType_.getBytesPerComponent()) {
          case 1:
-            if (!(rawPixels_ instanceof ByteBuffer)) {
+            if (!(rawPixels instanceof ByteBuffer)) {
                throw new IllegalArgumentException("Array type doesn't match pixel type");
             }
             break;
          case 2:
-            if (!(rawPixels_ instanceof ShortBuffer)) {
+            if (!(rawPixels instanceof ShortBuffer)) {
                throw new IllegalArgumentException("Array type doesn't match pixel type");
             }
             break;
@@ -167,13 +195,16 @@ public final class DefaultImage implements Image {
       metadata_ = metadata == null ? new DefaultMetadata.Builder().build() :
             (DefaultMetadata) metadata;
       coords_ = coords == null ? Coordinates.builder().build() : coords;
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
+      pixels_ = PixelStorage.copying(pixels);
+      if (pixels_ == null) {
+         throw new IllegalArgumentException("Unsupported pixel data type");
+      }
       pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
       pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
       pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
             PixelType.class, null);
       if (pixelWidth_ * pixelHeight_ * pixelType_.getBytesPerPixel() !=
-            rawPixels_.capacity() * pixelType_.getBytesPerComponent()) {
+            pixels_.buffer().capacity() * pixelType_.getBytesPerComponent()) {
          throw new IllegalArgumentException("Image width, height, and pixel type do not match pixel array size");
       }
    }
@@ -184,6 +215,24 @@ public final class DefaultImage implements Image {
    public DefaultImage(Object pixels, int width, int height, int bytesPerPixel,
          int numComponents, Coords coords, Metadata metadata) 
          throws IllegalArgumentException {
+      this(PixelStorage.copying(pixels), pixels, width, height,
+            bytesPerPixel, numComponents, coords, metadata);
+   }
+
+   /**
+    * As above, but takes ownership of the pixel array instead of copying it.
+    * The array must not be modified afterwards.
+    */
+   static DefaultImage wrapping(Object pixels, int width, int height,
+         int bytesPerPixel, int numComponents, Coords coords,
+         Metadata metadata) throws IllegalArgumentException {
+      return new DefaultImage(PixelStorage.wrapping(pixels), pixels,
+            width, height, bytesPerPixel, numComponents, coords, metadata);
+   }
+
+   private DefaultImage(PixelStorage storage, Object pixels, int width,
+         int height, int bytesPerPixel, int numComponents, Coords coords,
+         Metadata metadata) throws IllegalArgumentException {
       metadata_ = (DefaultMetadata) metadata;
       if (metadata_ == null) {
          // Don't allow images with null metadata.
@@ -191,8 +240,8 @@ public final class DefaultImage implements Image {
       }
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
-      if (rawPixels_ == null || rawPixels_.capacity() < width * height) {
+      pixels_ = storage;
+      if (pixels_ == null || pixels_.buffer().capacity() < width * height) {
          throw new IllegalArgumentException("Invalid pixel data " + pixels);
       }
       pixelWidth_ = width;
@@ -213,21 +262,25 @@ public final class DefaultImage implements Image {
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
       if (source instanceof DefaultImage) {
-         // Just copy their Buffer over directly.
-         rawPixels_ = ((DefaultImage) source).getPixelBuffer();
+         // Just share their pixel storage.
+         pixels_ = ((DefaultImage) source).pixels_;
       }
       else {
-         rawPixels_ = DirectBuffers.bufferFromArray(source.getRawPixels());
+         pixels_ = PixelStorage.copying(source.getRawPixels());
       }
-      if (rawPixels_.capacity() == 0) {
+      if (pixels_ == null) {
+         throw new UnsupportedOperationException("Unsupported pixel data type");
+      }
+      Buffer rawPixels = pixels_.buffer();
+      if (rawPixels.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0.");
       }
       pixelWidth_ = source.getWidth();
       pixelHeight_ = source.getHeight();
 
       int bpc;
-      if (rawPixels_ instanceof ByteBuffer) bpc = 1;
-      else if (rawPixels_ instanceof ShortBuffer) bpc = 2;
+      if (rawPixels instanceof ByteBuffer) bpc = 1;
+      else if (rawPixels instanceof ShortBuffer) bpc = 2;
       else throw new UnsupportedOperationException("Unsupported pixel data type");
       pixelType_ = PixelType.valueFor(source.getBytesPerPixel(), bpc,
             source.getNumComponents());
@@ -261,54 +314,87 @@ public final class DefaultImage implements Image {
    /**
     * Note this returns a byte[], short[], or int[] array, not a ByteBuffer,
     * ShortBuffer, or IntBuffer. Use getPixelBuffer() for that.
+    * <p>
+    * The returned array is always a fresh copy.
     */
    @Override
    public Object getRawPixels() {
-      return DirectBuffers.arrayFromBuffer(rawPixels_);
+      return pixels_.copyToArray();
    }
 
    @Override
    public Object getRawPixelsCopy() {
-      Object original = getRawPixels();
-      Object copy;
-      int length;
-      if (original instanceof byte[]) {
-         byte[] tmp = (byte[]) original;
-         length = tmp.length;
-         copy = new byte[length];
-      }
-      else if (original instanceof short[]) {
-         short[] tmp = (short[]) original;
-         length = tmp.length;
-         copy = new short[length];
-      }
-      else if (original instanceof int[]) {
-         int[] tmp = (int[]) original;
-         length = tmp.length;
-         copy = new int[length];
-      }
-      else {
-         throw new RuntimeException("Unrecognized pixel type " + original.getClass());
-      }
-      System.arraycopy(original, 0, copy, 0, length);
-      return copy;
+      // getRawPixels() already returns a fresh copy
+      return getRawPixels();
+   }
+
+   /**
+    * Return the pixel array without copying, unless getPixelBuffer() has
+    * been called on this image or one sharing its pixels.
+    * <p>
+    * The pixels then live in a direct buffer, which native code may write
+    * to, so a Java array cannot be kept in step with it; each call returns
+    * a fresh copy (counted by getPixelBytesCopied()). Readers that can use a
+    * Buffer should call getPixelBufferView() instead, which never copies.
+    */
+   @Override
+   public Object getRawPixelsView() {
+      return pixels_.array();
    }
 
+   /**
+    * Return the pixel data as a direct buffer.
+    * <p>
+    * This is for passing the pixels to native code, which may also write to
+    * the buffer in place. If the pixels are currently held in a Java array,
+    * they are moved (once) to a direct buffer, which is then shared by this
+    * image and all images sharing its pixels. From then on,
+    * getRawPixelsView() returns copies.
+    *
+    * @return a direct ByteBuffer or ShortBuffer (or IntBuffer)
+    */
    public Buffer getPixelBuffer() {
-      return rawPixels_;
+      return pixels_.directBuffer();
+   }
+
+   /**
+    * Return a read-only view of the pixel data, without copying.
+    * <p>
+    * The returned buffer has its position set to 0 and its limit set to its
+    * capacity, and may be heap or direct.
+    *
+    * @return a read-only ByteBuffer or ShortBuffer (or IntBuffer)
+    */
+   public Buffer getPixelBufferView() {
+      return DirectBuffers.readOnlyView(pixels_.buffer());
+   }
+
+   /**
+    * Return the number of bytes of pixel data that have been copied for this
+    * image's pixel storage, including any initial copy made on construction.
+    * <p>
+    * The count is shared with all images that share the pixel storage (see
+    * copyAtCoords() etc.). An image converted from a TaggedImage and only
+    * read via getRawPixelsView() or getPixelBufferView() reports 0.
+    *
+    * @return number of pixel bytes copied
+    */
+   public long getPixelBytesCopied() {
+      return pixels_.bytesCopied();
    }
 
    // TODO Use ImgLib2
    @Override
    public Object getRawPixelsForComponent(int component) {
+      Buffer rawPixels = pixels_.buffer();
       int samplesPerPixel = pixelType_.getBytesPerPixel() / pixelType_.getBytesPerComponent();
-      int length = rawPixels_.capacity() / samplesPerPixel;
+      int length = rawPixels.capacity() / samplesPerPixel;
       int offset = pixelType_.getComponentSampleOffset(component);
       Object result;
-      if (rawPixels_ instanceof ByteBuffer) {
+      if (rawPixels instanceof ByteBuffer) {
          result = (Object) new byte[length];
       }
-      else if (rawPixels_ instanceof ShortBuffer) {
+      else if (rawPixels instanceof ShortBuffer) {
          result = (Object) new short[length];
       }
       else {
@@ -317,11 +403,11 @@ public final class DefaultImage implements Image {
       }
       for (int i = 0; i < length; ++i) {
          int sourceIndex = i * samplesPerPixel + offset;
-         if (rawPixels_ instanceof ByteBuffer) {
-            ((byte[]) result)[i] = ((ByteBuffer) rawPixels_).get(sourceIndex);
+         if (rawPixels instanceof ByteBuffer) {
+            ((byte[]) result)[i] = ((ByteBuffer) rawPixels).get(sourceIndex);
          }
-         else if (rawPixels_ instanceof ShortBuffer) {
-            ((short[]) result)[i] = ((ShortBuffer) rawPixels_).get(sourceIndex);
+         else if (rawPixels instanceof ShortBuffer) {
+            ((short[]) result)[i] = ((ShortBuffer) rawPixels).get(sourceIndex);
          }
       }
       return result;
@@ -345,9 +431,9 @@ public final class DefaultImage implements Image {
       int sampleIndex = pixelIndex * samplesPerPixel + offset;
       switch (pixelType_.getBytesPerComponent()) {
          case 1:
-            return ImageUtils.unsignedValue(((ByteBuffer) rawPixels_).get(sampleIndex));
+            return ImageUtils.unsignedValue(((ByteBuffer) pixels_.buffer()).get(sampleIndex));
          case 2:
-            return ImageUtils.unsignedValue(((ShortBuffer) rawPixels_).get(sampleIndex));
+            return ImageUtils.unsignedValue(((ShortBuffer) pixels_.buffer()).get(sampleIndex));
          default:
             throw new AssertionError("Unimplemented sample size");
       }
@@ -453,4 +539,76 @@ public final class DefaultImage implements Image {
             getWidth(), getHeight(), getNumComponents(),
             getBytesPerPixel(), getCoords());
    }
+
+   /**
+    * Pixel buffer shared between images, plus a count of copied bytes.
+    * <p>
+    * The buffer is either a heap buffer wrapping a Java array or (once
+    * getPixelBuffer() has been called) a direct buffer. It is replaced at
+    * most once, from heap to direct, with the same contents.
+    */
+   private static final class PixelStorage {
+      private volatile Buffer buffer_;
+      private final AtomicLong bytesCopied_ = new AtomicLong(0);
+
+      private PixelStorage(Buffer buffer) {
+         buffer_ = buffer;
+      }
+
+      static PixelStorage wrapping(Object array) {
+         Buffer buffer = DirectBuffers.bufferWrappingArray(array);
+         return buffer == null ? null : new PixelStorage(buffer);
+      }
+
+      static PixelStorage copying(Object array) {
+         Buffer buffer = DirectBuffers.bufferWrappingArray(
+               DirectBuffers.copyOfArray(array));
+         if (buffer == null) {
+            return null;
+         }
+         PixelStorage storage = new PixelStorage(buffer);
+         storage.countCopy(buffer);
+         return storage;
+      }
+
+      Buffer buffer() {
+         return buffer_;
+      }
+
+      long bytesCopied() {
+         return bytesCopied_.get();
+      }
+
+      Object array() {
+         Buffer buffer = buffer_;
+         if (buffer.hasArray()) {
+            // Our heap buffers always wrap the whole array
+            return buffer.array();
+         }
+         return copyToArray();
+      }
+
+      Object copyToArray() {
+         Buffer buffer = buffer_;
+         Object copy = buffer.hasArray() ?
+               DirectBuffers.copyOfArray(buffer.array()) :
+               DirectBuffers.arrayFromBuffer(buffer);
+         countCopy(buffer);
+         return copy;
+      }
+
+      synchronized Buffer directBuffer() {
+         if (!buffer_.isDirect()) {
+            Buffer direct = DirectBuffers.bufferFromArray(buffer_.array());
+            countCopy(direct);
+            buffer_ = direct;
+         }
+         return buffer_;
+      }
+
+      private void countCopy(Buffer buffer) {
+         bytesCopied_.addAndGet(
+               (long) buffer.capacity() * DirectBuffers.bytesPerElement(buffer));
+      }
+   }
 }
\ No newline at end of file
@@ -52,10 +52,8 @@ public final class DefaultImageJConverter implements ImageJConverter {
       int height = image.getHeight();
       int bytesPerPixel = image.getBytesPerPixel();
       int numComponents = image.getNumComponents();
-      Object pixels = image.getRawPixels();
-      if (shouldCopy) {
-         pixels = image.getRawPixelsCopy();
-      }
+      Object pixels = shouldCopy ? image.getRawPixelsCopy() :
+            image.getRawPixels();
       if (bytesPerPixel == 4 && numComponents == 3) {
          // Micro-Manager RGB32 images are generally composed of byte
          // arrays, but ImageJ only takes int arrays.
@@ -76,6 +74,41 @@ public final class DefaultImageJConverter implements ImageJConverter {
       return null;
    }
 
+   /**
+    * Create a processor that shares the image's pixel array, without
+    * copying, for as long as the processor is not modified. For images other
+    * than 8- and 16-bit grayscale, the processor gets a copy.
+    * <p>
+    * Suitable for processors handed to ImageJ for display; see
+    * {@link CopyOnWriteProcessors} for which modifications are detected. Use
+    * {@link #unshareProcessor} before handing the processor to code that may
+    * modify it in other ways.
+    *
+    * @param image the image
+    * @return the processor, or null if the image format is not supported
+    */
+   public static ImageProcessor createSharedProcessor(Image image) {
+      if (image.getNumComponents() == 1) {
+         ImageProcessor processor = CopyOnWriteProcessors.create(
+               image.getWidth(), image.getHeight(), image.getRawPixelsView());
+         if (processor != null) {
+            return processor;
+         }
+      }
+      return createProcessor(image, false);
+   }
+
+   /**
+    * Give a processor made by {@link #createSharedProcessor} its own copy of
+    * the pixels, if it still shares the image's. Does nothing if the pixels
+    * have already been copied or for other processors.
+    *
+    * @param processor the processor, or null
+    */
+   public static void unshareProcessor(ImageProcessor processor) {
+      CopyOnWriteProcessors.unshare(processor);
+   }
+
    @Override
    public ImageProcessor createProcessorFromComponent(Image image,
          int component) {
@@ -84,7 +117,8 @@ public final class DefaultImageJConverter implements ImageJConverter {
          return createProcessor(image);
       }
       int bytesPerPixel = image.getBytesPerPixel();
-      Object pixels = image.getRawPixels();
+      // The component is extracted into a new array, so no need to copy here
+      Object pixels = image.getRawPixelsView();
       // This is the only multi-component image type we know how to support
       // currently.
       if (bytesPerPixel == 4 && numComponents == 3 &&
@@ -0,0 +1,160 @@
+package org.micromanager.data.internal;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.propertymap.DefaultPropertyMap;
+
+/**
+ * Sharing of scope data (device property values) between images.
+ * <p>
+ * The core copies the whole system state cache into every image, so the
+ * scope data of consecutive images is normally identical except for a few
+ * properties (such as stage positions). An instance of this class remembers
+ * the most recent full scope data (the snapshot), and represents scope data
+ * that differs from it in only a few values as a view of the snapshot with a
+ * small map of changed values in front. Such scope data is indistinguishable
+ * from a full copy (see {@link DefaultPropertyMap#createChainedView}), but
+ * only the changed values take additional memory.
+ * <p>
+ * The same representation is used on disk, if enabled: the file writers
+ * store the full scope data only with the image that starts a new snapshot,
+ * and store the changed values together with a reference to that image
+ * (under {@link #SNAPSHOT_REFERENCE_KEY}) for the images that follow.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ScopeDataSnapshots {
+   /**
+    * Per-image JSON key referring to the image whose scope data the stored
+    * (partial) scope data is relative to.
+    */
+   public static final String SNAPSHOT_REFERENCE_KEY = "ScopeDataSnapshot";
+
+   private static final String SHOULD_SHARE_SCOPE_DATA_ON_DISK =
+         "whether to store unchanged scope data only once per file";
+
+   // Above this fraction of changed values, start a new snapshot instead
+   private static final int MAX_DELTA_FRACTION_INVERSE = 4;
+
+   private volatile PropertyMap snapshot_;
+
+   /**
+    * Return the current snapshot.
+    *
+    * @return the most recent full scope data, or null if none yet
+    */
+   public PropertyMap getSnapshot() {
+      return snapshot_;
+   }
+
+   /**
+    * Make the given scope data the snapshot that subsequent scope data will
+    * be compared against.
+    *
+    * @param scopeData full scope data
+    */
+   public void setSnapshot(PropertyMap scopeData) {
+      snapshot_ = scopeData;
+   }
+
+   /**
+    * Return scope data equal to the given one, sharing the unchanged values
+    * with the current snapshot if possible.
+    * <p>
+    * If the scope data differs too much from the snapshot, it becomes the
+    * new snapshot and is returned as is.
+    *
+    * @param scopeData scope data, as from {@code Metadata.getScopeData()}
+    * @return equal scope data
+    */
+   public PropertyMap intern(PropertyMap scopeData) {
+      if (scopeData.isEmpty()) {
+         return scopeData;
+      }
+      PropertyMap base = snapshot_;
+      PropertyMap delta = diff(base, scopeData);
+      if (delta == null) {
+         snapshot_ = scopeData;
+         return scopeData;
+      }
+      return overlay(base, delta);
+   }
+
+   /**
+    * Compute the values that differ between the snapshot and the given
+    * scope data.
+    *
+    * @param base the snapshot, or null
+    * @param scopeData the scope data to compare
+    * @return the changed values, or null if the scope data cannot be
+    * represented as (or is not worth representing as) a small change to
+    * the snapshot, e.g. because it has a different set of keys
+    */
+   public static PropertyMap diff(PropertyMap base, PropertyMap scopeData) {
+      if (base == null || base.size() != scopeData.size()) {
+         return null;
+      }
+      if (base == scopeData) {
+         return PropertyMaps.emptyPropertyMap();
+      }
+      PropertyMap.Builder delta = null;
+      int deltaSize = 0;
+      for (String key : scopeData.keySet()) {
+         String baseValue = base.getValueAsString(key, null);
+         if (baseValue == null) {
+            return null;
+         }
+         String value = scopeData.getValueAsString(key, null);
+         if (!baseValue.equals(value)) {
+            if (isTooLarge(++deltaSize, base)) {
+               return null;
+            }
+            if (delta == null) {
+               delta = PropertyMaps.builder();
+            }
+            delta.putString(key, value);
+         }
+      }
+      return delta == null ? PropertyMaps.emptyPropertyMap() : delta.build();
+   }
+
+   /**
+    * Whether a change of the given number of values is too large to be
+    * stored relative to a snapshot.
+    *
+    * @param deltaSize the number of changed values
+    * @param base the snapshot
+    * @return true if a new snapshot should be started instead
+    */
+   public static boolean isTooLarge(int deltaSize, PropertyMap base) {
+      return deltaSize * MAX_DELTA_FRACTION_INVERSE > base.size();
+   }
+
+   /**
+    * Combine a snapshot and changed values.
+    *
+    * @param base the snapshot
+    * @param delta changed values, for keys present in the snapshot
+    * @return the scope data, sharing storage with {@code base} and
+    * {@code delta}
+    */
+   public static PropertyMap overlay(PropertyMap base, PropertyMap delta) {
+      if (delta.isEmpty()) {
+         return base;
+      }
+      return ((DefaultPropertyMap) delta).createChainedView(base);
+   }
+
+   public static boolean getShouldShareScopeDataOnDisk() {
+      MMStudio studio = MMStudio.getInstance();
+      return studio != null && studio.profile().
+            getSettings(ScopeDataSnapshots.class).
+            getBoolean(SHOULD_SHARE_SCOPE_DATA_ON_DISK, false);
+   }
+
+   public static void setShouldShareScopeDataOnDisk(boolean shouldShare) {
+      MMStudio.getInstance().profile().getSettings(ScopeDataSnapshots.class).
+            putBoolean(SHOULD_SHARE_SCOPE_DATA_ON_DISK, shouldShare);
+   }
+}
@@ -0,0 +1,504 @@
+package org.micromanager.data.internal;
+
+import com.google.common.eventbus.Subscribe;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.RewritableStorage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.DirectBuffers;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * RAM-based storage that keeps pixel data outside of the Java heap, within a
+ * fixed memory budget.
+ * <p>
+ * Pixels are copied into large direct buffers ("slabs"), which are filled in
+ * turn and reused in a ring. When all slabs are full, the planes in the
+ * oldest slab are spilled to a temporary file to make room, so that a long
+ * acquisition slows down rather than running out of memory. Metadata and
+ * coords stay on the heap. Images are copied back to the heap when read.
+ * <p>
+ * The image index is a concurrent map, so that queries such as hasImage()
+ * do not block. Pixel reads may run concurrently with each other but not
+ * with putImage(), which may move pixel data to the spill file.
+ * <p>
+ * The budget must not exceed the JVM's limit on direct memory
+ * (-XX:MaxDirectMemorySize, by default the maximum heap size); if a slab
+ * cannot be allocated, the slabs allocated so far are used as the budget.
+ */
+public final class StorageOffHeap implements RewritableStorage {
+   private static final String OFF_HEAP_BUDGET_MB =
+         "size in MB of off-heap memory for acquisitions to RAM";
+   private static final long MAX_SLAB_SIZE = 64 << 20;
+   private static final int MIN_SLABS = 4;
+
+   private static final class Slab {
+      private final ByteBuffer buffer_;
+      private int used_ = 0;
+      // Planes allocated in this slab, some of which may since have been
+      // deleted or spilled
+      private final List<Plane> planes_ = new ArrayList<Plane>();
+
+      Slab(int size) {
+         buffer_ = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+      }
+   }
+
+   private static final class Plane {
+      private final Coords coords_;
+      private final Metadata metadata_;
+      private final int width_;
+      private final int height_;
+      private final int bytesPerPixel_;
+      private final int numComponents_;
+      private final int bytesPerElement_;
+      private final int length_;
+
+      // Location of the pixels; guarded by the storage's lock. A plane is
+      // either in a slab, in the spill file, or (once deleted) neither.
+      private Slab slab_;
+      private int offset_;
+      private long spillPosition_ = -1;
+
+      Plane(Image image, int bytesPerElement, int length) {
+         coords_ = image.getCoords();
+         metadata_ = image.getMetadata();
+         width_ = image.getWidth();
+         height_ = image.getHeight();
+         bytesPerPixel_ = image.getBytesPerPixel();
+         numComponents_ = image.getNumComponents();
+         bytesPerElement_ = bytesPerElement;
+         length_ = length;
+      }
+   }
+
+   private final long budget_;
+   private final ConcurrentHashMap<Coords, Plane> planes_ =
+         new ConcurrentHashMap<Coords, Plane>();
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
+   private volatile Coords maxIndex_ = new DefaultCoords.Builder().build();
+   private volatile SummaryMetadata summaryMetadata_ =
+         (new DefaultSummaryMetadata.Builder()).build();
+   // Reading the latest image (e.g. for display) needs no copy
+   private volatile Image lastImage_;
+
+   private final ReentrantReadWriteLock lock_ = new ReentrantReadWriteLock();
+   // Guarded by lock_
+   private final List<Slab> slabs_ = new ArrayList<Slab>();
+   private int slabSize_ = 0;
+   private int maxSlabs_ = 0;
+   private int currentSlab_ = -1;
+   private File spillFile_;
+   private FileChannel spillChannel_;
+   private long spillEnd_ = 0;
+   private int numSpilled_ = 0;
+   private boolean closed_ = false;
+
+   /**
+    * @param store the datastore this storage is for
+    * @param budgetBytes maximum size of off-heap pixel data
+    */
+   public StorageOffHeap(Datastore store, long budgetBytes) {
+      budget_ = Math.max(budgetBytes, 1);
+      // It is imperative that we be notified of new images before anyone who
+      // wants to retrieve the images from the store is notified.
+      ((DefaultDatastore) store).registerForEvents(this, 0);
+   }
+
+   @Override
+   public void putImage(Image image) throws IOException {
+      Buffer pixels = image instanceof DefaultImage ?
+            ((DefaultImage) image).getPixelBufferView() :
+            DirectBuffers.bufferWrappingArray(image.getRawPixels());
+      if (pixels == null) {
+         throw new IllegalArgumentException("Unsupported pixel data type");
+      }
+      int bytesPerElement = DirectBuffers.bytesPerElement(pixels);
+      Plane plane = new Plane(image, bytesPerElement,
+            pixels.capacity() * bytesPerElement);
+      Coords coords = plane.coords_;
+
+      lock_.writeLock().lock();
+      try {
+         if (closed_) {
+            throw new IOException("Storage is closed");
+         }
+         store(plane, pixels);
+         Plane previous = planes_.put(coords, plane);
+         if (previous != null) {
+            discard(previous);
+         }
+         coordsIndex_.add(coords);
+         Coords maxIndex = maxIndex_;
+         for (String axis : coords.getAxes()) {
+            if (maxIndex.getIndex(axis) < coords.getIndex(axis)) {
+               maxIndex = maxIndex.copyBuilder()
+                     .index(axis, coords.getIndex(axis))
+                     .build();
+            }
+         }
+         maxIndex_ = maxIndex;
+         lastImage_ = image;
+      }
+      finally {
+         lock_.writeLock().unlock();
+      }
+   }
+
+   // Called with the write lock held
+   private void store(Plane plane, Buffer pixels) throws IOException {
+      Slab slab = allocate(plane.length_);
+      if (slab == null) {
+         // Larger than a slab, or no slabs could be allocated
+         ByteBuffer bytes = ByteBuffer.allocate(plane.length_).
+               order(ByteOrder.nativeOrder());
+         copyPixels(pixels, bytes);
+         plane.spillPosition_ = writeToSpillFile(bytes);
+         ++numSpilled_;
+         return;
+      }
+      plane.slab_ = slab;
+      plane.offset_ = slab.used_;
+      slab.used_ += plane.length_;
+      slab.planes_.add(plane);
+      copyPixels(pixels, region(plane));
+   }
+
+   // Return a slab with room for the given number of bytes, spilling the
+   // oldest slab if necessary; called with the write lock held
+   private Slab allocate(int length) throws IOException {
+      if (slabSize_ == 0) {
+         // Split the budget into a few slabs, each large enough for the
+         // first plane (as long as the budget allows), so that only part of
+         // the stored data is spilled at a time
+         slabSize_ = (int) Math.min(budget_, Math.max(Math.max(length, 1),
+               Math.min(MAX_SLAB_SIZE, budget_ / MIN_SLABS)));
+         maxSlabs_ = (int) (budget_ / slabSize_);
+      }
+      if (length > slabSize_) {
+         return null;
+      }
+      if (currentSlab_ >= 0) {
+         Slab slab = slabs_.get(currentSlab_);
+         if (slab.used_ + length <= slab.buffer_.capacity()) {
+            return slab;
+         }
+      }
+      int next = currentSlab_ + 1;
+      if (next == slabs_.size() && next < maxSlabs_) {
+         try {
+            slabs_.add(new Slab(slabSize_));
+         }
+         catch (OutOfMemoryError e) {
+            ReportingUtils.logError(e, "Unable to allocate off-heap image memory; limiting to " +
+                  slabs_.size() + " buffers of " + (slabSize_ >> 20) + " MB");
+            maxSlabs_ = slabs_.size();
+            if (maxSlabs_ == 0) {
+               return null;
+            }
+         }
+      }
+      next %= slabs_.size();
+      Slab slab = slabs_.get(next);
+      if (slab.used_ > 0) {
+         spill(slab);
+      }
+      currentSlab_ = next;
+      return slab;
+   }
+
+   // Move the planes in a slab to the spill file, emptying it
+   private void spill(Slab slab) throws IOException {
+      for (Plane plane : slab.planes_) {
+         if (plane.slab_ != slab) {
+            continue; // Deleted since
+         }
+         plane.spillPosition_ = writeToSpillFile(region(plane));
+         plane.slab_ = null;
+         ++numSpilled_;
+      }
+      slab.planes_.clear();
+      slab.used_ = 0;
+   }
+
+   private long writeToSpillFile(ByteBuffer bytes) throws IOException {
+      if (spillChannel_ == null) {
+         spillFile_ = File.createTempFile("mm_ram_storage", ".tmp");
+         spillFile_.deleteOnExit();
+         spillChannel_ = new RandomAccessFile(spillFile_, "rw").getChannel();
+         ReportingUtils.logMessage("Off-heap image storage full; spilling to " +
+               spillFile_.getPath());
+      }
+      long position = spillEnd_;
+      long offset = position;
+      while (bytes.hasRemaining()) {
+         offset += spillChannel_.write(bytes, offset);
+      }
+      spillEnd_ = offset;
+      return position;
+   }
+
+   // Called with the write lock held
+   private void discard(Plane plane) {
+      // Space in the slab is reclaimed when the slab is reused, and space
+      // in the spill file is not reclaimed.
+      plane.slab_ = null;
+      plane.spillPosition_ = -1;
+      if (lastImage_ != null && lastImage_.getCoords().equals(plane.coords_)) {
+         lastImage_ = null;
+      }
+   }
+
+   private static ByteBuffer region(Plane plane) {
+      ByteBuffer region = plane.slab_.buffer_.duplicate();
+      region.position(plane.offset_);
+      region.limit(plane.offset_ + plane.length_);
+      return region.slice().order(ByteOrder.nativeOrder());
+   }
+
+   private static void copyPixels(Buffer source, ByteBuffer dest) {
+      if (source instanceof ByteBuffer) {
+         dest.put((ByteBuffer) source);
+      }
+      else if (source instanceof ShortBuffer) {
+         dest.asShortBuffer().put((ShortBuffer) source);
+      }
+      else if (source instanceof IntBuffer) {
+         dest.asIntBuffer().put((IntBuffer) source);
+      }
+      dest.rewind();
+   }
+
+   private static Object toArray(ByteBuffer bytes, int bytesPerElement) {
+      switch (bytesPerElement) {
+         case 1:
+            byte[] b = new byte[bytes.remaining()];
+            bytes.get(b);
+            return b;
+         case 2:
+            short[] s = new short[bytes.remaining() / 2];
+            bytes.asShortBuffer().get(s);
+            return s;
+         case 4:
+            int[] i = new int[bytes.remaining() / 4];
+            bytes.asIntBuffer().get(i);
+            return i;
+         default:
+            throw new AssertionError("Unsupported element size");
+      }
+   }
+
+   @Override
+   public Image getImage(Coords coords) throws IOException {
+      Image last = lastImage_;
+      if (last != null && last.getCoords().equals(coords)) {
+         return last;
+      }
+      Plane plane = planes_.get(coords);
+      return plane == null ? null : readPlane(plane);
+   }
+
+   private Image readPlane(Plane plane) throws IOException {
+      Object pixels;
+      lock_.readLock().lock();
+      try {
+         if (plane.slab_ != null) {
+            pixels = toArray(region(plane), plane.bytesPerElement_);
+         }
+         else if (plane.spillPosition_ >= 0) {
+            ByteBuffer bytes = ByteBuffer.allocate(plane.length_).
+                  order(ByteOrder.nativeOrder());
+            long offset = plane.spillPosition_;
+            while (bytes.hasRemaining()) {
+               int n = spillChannel_.read(bytes, offset);
+               if (n < 0) {
+                  throw new IOException("Unexpected end of spill file");
+               }
+               offset += n;
+            }
+            bytes.flip();
+            pixels = toArray(bytes, plane.bytesPerElement_);
+         }
+         else {
+            return null; // Deleted or closed
+         }
+      }
+      finally {
+         lock_.readLock().unlock();
+      }
+      return DefaultImage.wrapping(pixels, plane.width_, plane.height_,
+            plane.bytesPerPixel_, plane.numComponents_, plane.coords_,
+            plane.metadata_);
+   }
+
+   @Override
+   public Image getAnyImage() {
+      Iterator<Plane> it = planes_.values().iterator();
+      if (!it.hasNext()) {
+         return null;
+      }
+      try {
+         return readPlane(it.next());
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to read image");
+         return null;
+      }
+   }
+
+   @Override
+   public List<Image> getImagesMatching(Coords coords) throws IOException {
+      ArrayList<Image> results = new ArrayList<Image>();
+      for (Coords imageCoords : coordsIndex_.getMatching(coords)) {
+         Image image = getImage(imageCoords);
+         if (image != null) {
+            results.add(image);
+         }
+      }
+      return results;
+   }
+
+   @Override
+   public Iterable<Coords> getUnorderedImageCoords() {
+      return Collections.unmodifiableSet(planes_.keySet());
+   }
+
+   @Override
+   public boolean hasImage(Coords coords) {
+      return planes_.containsKey(coords);
+   }
+
+   @Override
+   public Integer getMaxIndex(String axis) {
+      return maxIndex_.getIndex(axis);
+   }
+
+   @Override
+   public List<String> getAxes() {
+      return summaryMetadata_.getOrderedAxes();
+   }
+
+   @Override
+   public Coords getMaxIndices() {
+      return maxIndex_;
+   }
+
+   @Override
+   public SummaryMetadata getSummaryMetadata() {
+      return summaryMetadata_;
+   }
+
+   @Subscribe
+   public void onNewSummary(DataProviderHasNewSummaryMetadataEvent event) {
+      summaryMetadata_ = event.getSummaryMetadata();
+   }
+
+   @Override
+   public int getNumImages() {
+      return planes_.size();
+   }
+
+   /**
+    * Return the number of images whose pixels have been moved to the spill
+    * file (including any since deleted).
+    */
+   public int getNumSpilledImages() {
+      lock_.readLock().lock();
+      try {
+         return numSpilled_;
+      }
+      finally {
+         lock_.readLock().unlock();
+      }
+   }
+
+   @Override
+   public void freeze() {
+      // Nothing to finish
+   }
+
+   @Override
+   public void deleteImage(Coords coords) throws IllegalArgumentException {
+      lock_.writeLock().lock();
+      try {
+         Plane plane = planes_.remove(coords);
+         if (plane == null) {
+            throw new IllegalArgumentException("Storage does not contain image at " + coords);
+         }
+         discard(plane);
+         coordsIndex_.remove(coords);
+      }
+      finally {
+         lock_.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      lock_.writeLock().lock();
+      try {
+         if (closed_) {
+            return;
+         }
+         closed_ = true;
+         for (Plane plane : planes_.values()) {
+            discard(plane);
+         }
+         planes_.clear();
+         coordsIndex_.clear();
+         lastImage_ = null;
+         // Direct buffers are freed when garbage collected
+         slabs_.clear();
+         if (spillChannel_ != null) {
+            ReportingUtils.logMessage(numSpilled_ + " images were spilled to " +
+                  spillFile_.getPath());
+            spillChannel_.close();
+            if (!spillFile_.delete()) {
+               ReportingUtils.logError("Failed to delete " + spillFile_.getPath());
+            }
+            spillChannel_ = null;
+         }
+      }
+      finally {
+         lock_.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Return the off-heap memory budget for acquisitions to RAM, in
+    * megabytes; 0 means that images are kept on the Java heap (in a
+    * StorageRAM).
+    */
+   public static int getBudgetMB() {
+      MMStudio studio = MMStudio.getInstance();
+      if (studio == null) {
+         return 0;
+      }
+      return studio.profile().getSettings(StorageOffHeap.class).
+            getInteger(OFF_HEAP_BUDGET_MB, 0);
+   }
+
+   public static void setBudgetMB(int budgetMB) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class).
+            putInteger(OFF_HEAP_BUDGET_MB, Math.max(0, budgetMB));
+   }
+}
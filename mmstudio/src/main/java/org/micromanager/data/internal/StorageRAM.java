@@ -43,6 +43,7 @@ import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
  */
 public final class StorageRAM implements RewritableStorage {
    private HashMap<Coords, Image> coordsToImage_;
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    private Coords maxIndex_;
    private SummaryMetadata summaryMetadata_;
 
@@ -62,6 +63,7 @@ public final class StorageRAM implements RewritableStorage {
    public synchronized void putImage(Image image) {
       Coords coords = image.getCoords();
       coordsToImage_.put(coords, image);
+      coordsIndex_.add(coords);
       for (String axis : coords.getAxes()) {
          if (maxIndex_.getIndex(axis) < coords.getIndex(axis)) {
             // Either this image is further along on this axis, or we have
@@ -102,10 +104,8 @@ public final class StorageRAM implements RewritableStorage {
          return null;
       }
       ArrayList<Image> results = new ArrayList<Image>();
-      for (Image image : coordsToImage_.values()) {
-         if (image.getCoords().isSubspaceCoordsOf(coords)) {
-            results.add(image);
-         }
+      for (Coords imageCoords : coordsIndex_.getMatching(coords)) {
+         results.add(coordsToImage_.get(imageCoords));
       }
       return results;
    }
@@ -157,10 +157,12 @@ public final class StorageRAM implements RewritableStorage {
          throw new IllegalArgumentException("Storage does not contain image at " + coords);
       }
       coordsToImage_.remove(coords);
+      coordsIndex_.remove(coords);
    }
 
    @Override
    public void close() {
       coordsToImage_ = null;
+      coordsIndex_.clear();
    }
 }
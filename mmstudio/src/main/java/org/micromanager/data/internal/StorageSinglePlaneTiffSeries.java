@@ -32,7 +32,9 @@ import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.JsonReader;
 import ij.ImagePlus;
 import ij.io.FileSaver;
+import ij.io.FileInfo;
 import ij.io.Opener;
+import ij.io.TiffDecoder;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
@@ -51,8 +53,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -82,11 +86,27 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    private boolean isDatasetWritable_;
    private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
    private HashMap<Coords, String> coordsToFilename_;
+   // Index of the keys of coordsToFilename_, for getImagesMatching()
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    private HashMap<Integer, String> positionIndexToName_;
    private ArrayList<String> orderedChannelNames_;
    private Coords maxIndices_;
    private boolean isMultiPosition_;
 
+   // If sharing scope data, the full scope data is written only with images
+   // that start a new snapshot (per position); other images contain only the
+   // values that differ, plus the file name of the image with the snapshot.
+   private final boolean shareScopeData_;
+   private final HashMap<Integer, PropertyMap> scopeDataSnapshots_ =
+         new HashMap<Integer, PropertyMap>();
+   private final HashMap<Integer, String> scopeDataSnapshotFiles_ =
+         new HashMap<Integer, String>();
+   // Scope data of images referred to by others, when loading
+   private final Map<String, PropertyMap> loadedScopeDataSnapshots_ =
+         new ConcurrentHashMap<String, PropertyMap>();
+   private final ScopeDataSnapshots loadedScopeDataInterner_ =
+         new ScopeDataSnapshots();
+
    public StorageSinglePlaneTiffSeries(DefaultDatastore store,
          String directory, boolean newDataSet) throws IOException {
       store_ = store;
@@ -107,6 +127,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       maxIndices_ = new DefaultCoords.Builder().build();
       amLoading_ = false;
       isMultiPosition_ = true;
+      shareScopeData_ = isDatasetWritable_ &&
+            ScopeDataSnapshots.getShouldShareScopeDataOnDisk();
 
       // Note: this will throw an error if there is no existing data set
       if (!isDatasetWritable_) {
@@ -183,8 +205,25 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
                ((DefaultCoords) image.getCoords()).toPropertyMap());
          Metadata imgMetadata = image.getMetadata().copyBuilderPreservingUUID().
                  fileName(fileName).build();
-         NonPropertyMapJSONFormats.metadata().addToGson(jo,
-               ((DefaultMetadata) imgMetadata).toPropertyMap());
+         PropertyMap mdPmap = ((DefaultMetadata) imgMetadata).toPropertyMap();
+         if (shareScopeData_) {
+            int pos = Math.max(0, image.getCoords().getStagePosition());
+            PropertyMap scopeData = imgMetadata.getScopeData();
+            PropertyMap scopeDataDelta = scopeData.isEmpty() ? null :
+                  ScopeDataSnapshots.diff(scopeDataSnapshots_.get(pos),
+                        scopeData);
+            if (scopeDataDelta == null) {
+               scopeDataSnapshots_.put(pos, scopeData);
+               scopeDataSnapshotFiles_.put(pos, fileName);
+            }
+            else {
+               mdPmap = mdPmap.copyBuilder().putPropertyMap(
+                     PropertyKey.SCOPE_DATA.key(), scopeDataDelta).build();
+               jo.addProperty(ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY,
+                     scopeDataSnapshotFiles_.get(pos));
+            }
+         }
+         NonPropertyMapJSONFormats.metadata().addToGson(jo, mdPmap);
 
          Gson gson = new GsonBuilder().disableHtmlEscaping().
                setPrettyPrinting().create();
@@ -200,6 +239,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          // isn't?  See the above code that branches based on amLoading_.
          coordsToFilename_.put(coords, fileName);
       }
+      coordsIndex_.add(coords);
       // Update our tracking of the max index along each axis.
       for (String axis : coords.getAxes()) {
          if (coords.getIndex(axis) > maxIndices_.getIndex(axis)) {
@@ -236,9 +276,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          if (imp.getProperty("Info") != null) {
             try {
                String metadataJSON = (String) imp.getProperty("Info");
-               metadata = DefaultMetadata.fromPropertyMap(
-                     NonPropertyMapJSONFormats.metadata().
-                           fromJSON(metadataJSON));
+               metadata = readMetadata(metadataJSON);
             }
             catch (IOException e) {
                ReportingUtils.logError(e, "Unable to extract image dimensions from JSON metadata");
@@ -279,6 +317,65 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       }
    }
 
+   /**
+    * Read the metadata, resolving scope data that is stored relative to that
+    * of another image (see putImage()).
+    */
+   private Metadata readMetadata(String metadataJSON) throws IOException {
+      JsonObject jo = parseJSON(metadataJSON);
+      JsonElement snapshotRef = jo.remove(
+            ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY);
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
+            NonPropertyMapJSONFormats.metadata().fromGson(jo));
+      PropertyMap scopeData = metadata.getScopeData();
+      PropertyMap shared;
+      if (snapshotRef != null) {
+         shared = ScopeDataSnapshots.overlay(
+               getScopeDataSnapshot(snapshotRef.getAsString()), scopeData);
+      }
+      else {
+         shared = loadedScopeDataInterner_.intern(scopeData);
+      }
+      if (shared == scopeData) {
+         return metadata;
+      }
+      return metadata.copyBuilderPreservingUUID().scopeData(shared).build();
+   }
+
+   private PropertyMap getScopeDataSnapshot(String fileName)
+         throws IOException {
+      PropertyMap snapshot = loadedScopeDataSnapshots_.get(fileName);
+      if (snapshot == null) {
+         // Read only the metadata, not the pixels, of the referenced file
+         File file = new File(dir_ + "/" + fileName);
+         FileInfo[] infos = new TiffDecoder(file.getParent() + File.separator,
+               file.getName()).getTiffInfo();
+         if (infos == null || infos.length == 0 || infos[0].info == null) {
+            throw new IOException("No metadata in " + file);
+         }
+         JsonObject jo = parseJSON(infos[0].info);
+         if (jo.has(ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY)) {
+            throw new IOException("Invalid scope data reference to " + file);
+         }
+         snapshot = NonPropertyMapJSONFormats.metadata().fromGson(jo).
+               getPropertyMap(PropertyKey.SCOPE_DATA.key(),
+                     PropertyMaps.emptyPropertyMap());
+         loadedScopeDataSnapshots_.put(fileName, snapshot);
+      }
+      return snapshot;
+   }
+
+   private static JsonObject parseJSON(String json) throws IOException {
+      try {
+         JsonReader reader = new JsonReader(new StringReader(json));
+         reader.setLenient(true);
+         return new JsonParser().parse(reader).getAsJsonObject();
+      }
+      catch (Exception e) {
+         throw new IOException("Invalid data", e);
+      }
+   }
+
    @Override
    public Image getAnyImage() {
       if (coordsToFilename_.isEmpty()) {
@@ -295,20 +392,13 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
 
    @Override
    public List<Image> getImagesMatching(Coords coords) {
-      ArrayList<Image> result = new ArrayList<Image>();
-      for (Coords altCoords : coordsToFilename_.keySet()) {
-         boolean canUse = true;
-         for (String axis : coords.getAxes()) {
-            if (coords.getIndex(axis) != altCoords.getIndex(axis)) {
-               canUse = false;
-               break;
-            }
-         }
-         if (canUse) {
-            result.add(getImage(altCoords));
-         }
-      }
-      return result;
+      return ConcurrentImageReader.readAll(coordsIndex_.getMatching(coords),
+            new ConcurrentImageReader.Source() {
+               @Override
+               public Image readImage(Coords imageCoords) {
+                  return getImage(imageCoords);
+               }
+            });
    }
 
    @Override
@@ -447,7 +537,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          ImageProcessor ip;
          int width = image.getWidth();
          int height = image.getHeight();
-         Object pixels = image.getRawPixels();
+         // ImageJ only reads the pixels when saving, so no need to copy
+         Object pixels = image.getRawPixelsView();
          int bytesPerPixel = image.getBytesPerPixel();
          int numComponents = image.getNumComponents();
          ImageProcessor proc;
@@ -29,6 +29,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -38,6 +44,8 @@ import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 
 /**
@@ -46,6 +54,8 @@ import org.micromanager.internal.utils.ReportingUtils;
  */
 class FileSet {
    private static final int SPACE_FOR_PARTIAL_OME_MD = 2000; //this should be more than enough
+   // Images queued for writing per FileSet, when writing in parallel
+   private static final int MAX_QUEUED_IMAGES = 16;
 
    private final LinkedList<MultipageTiffWriter> tiffWriters_;
    private FileWriter mdWriter_;
@@ -60,6 +70,11 @@ class FileSet {
    private boolean expectedImageOrder_ = true;
    private int ifdCount_ = 0;
    private final StorageMultipageTiff masterStorage_;
+   // When writing FileSets in parallel, the thread that all writing of this
+   // FileSet happens on (the MultipageTiffWriters write synchronously);
+   // otherwise null
+   private final ThreadPoolExecutor writingThread_;
+   private final PerformanceMonitor.Counter queuedImagesStat_;
    int nextExpectedChannel_ = 0, nextExpectedSlice_ = 0, nextExpectedFrame_ = 0;
    int currentFrame_ = 0;
 
@@ -78,15 +93,95 @@ class FileSet {
       baseFilename_ = createBaseFilename(firstImage);
       currentTiffFilename_ = baseFilename_ + ".ome.tif";
       currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
+      writingThread_ = masterStorage_.isWritingFileSetsInParallel() ?
+            createWritingThread(baseFilename_) : null;
+      queuedImagesStat_ = masterStorage_.getPerformanceMonitor().
+            getCounter(baseFilename_ + " queued images");
       //make first writer
       tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-            firstImage, currentTiffFilename_));
+            firstImage, currentTiffFilename_, getWriterExecutor()));
 
       if (separateMetadataFile_) {
          startMetadataFile();
       }
    }
 
+   private static ThreadPoolExecutor createWritingThread(String name) {
+      // The queue is bounded so that a FileSet that cannot keep up applies
+      // backpressure to the caller rather than accumulating images.
+      return new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_IMAGES),
+            ThreadFactoryFactory.createThreadFactory(
+                  "Image Stack Writer " + name),
+            new RejectedExecutionHandler() {
+               @Override
+               public void rejectedExecution(Runnable r,
+                     ThreadPoolExecutor executor) {
+                  if (executor.isShutdown()) {
+                     throw new RejectedExecutionException(
+                           "Image stack writing has finished");
+                  }
+                  try {
+                     executor.getQueue().put(r);
+                  }
+                  catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                     throw new RejectedExecutionException(e);
+                  }
+               }
+            });
+   }
+
+   private ThreadPoolExecutor getWriterExecutor() {
+      return writingThread_ == null ?
+            masterStorage_.getWritingExecutor() : null;
+   }
+
+   /**
+    * Run a task on this FileSet's writing thread, blocking while too many
+    * tasks are queued. Only valid when writing FileSets in parallel.
+    */
+   public void submitWritingTask(Runnable task) {
+      queuedImagesStat_.sample(writingThread_.getQueue().size());
+      writingThread_.execute(task);
+   }
+
+   /**
+    * Wait until all tasks submitted so far have finished.
+    */
+   public void awaitWriting() throws InterruptedException, ExecutionException {
+      if (writingThread_ != null) {
+         writingThread_.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+         }).get();
+      }
+   }
+
+   /**
+    * Finish the queued tasks and stop the writing thread, if any. Further
+    * writing takes place on the calling thread.
+    */
+   public void stopWritingThread() {
+      if (writingThread_ == null || writingThread_.isShutdown()) {
+         return;
+      }
+      writingThread_.shutdown();
+      try {
+         int i = 0;
+         while (!writingThread_.awaitTermination(4, TimeUnit.SECONDS)) {
+            ReportingUtils.logMessage("Waiting for " + baseFilename_ +
+                  " to finish writing (" + i + ")...");
+            i++;
+         }
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError("File finishing thread interrupted");
+         Thread.currentThread().interrupt();
+      }
+   }
+
    public String getCurrentUUID() {
       return currentTiffUUID_;
    }
@@ -150,7 +245,7 @@ class FileSet {
          currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
          ifdCount_ = 0;
          tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-               img, currentTiffFilename_));
+               img, currentTiffFilename_, getWriterExecutor()));
          
          //Add new filename to image tags
          img = img.copyWithMetadata(img.getMetadata().
@@ -174,15 +269,19 @@ class FileSet {
          //Check if missing planes need to be added OME metadata
          int frame = img.getCoords().getTimePoint();
          int position = img.getCoords().getStagePosition();
-         if (frame > currentFrame_) {
-            //check previous frame for missing IFD's in OME metadata
-            omeMetadata_.fillInMissingTiffDatas(currentFrame_, position);
-         }
-         //reset in case acquisitin order is position then time and all files not split by position
-         currentFrame_ = frame;
+         // The OME metadata is shared by all FileSets, which may be writing
+         // in parallel
+         synchronized (omeMetadata_) {
+            if (frame > currentFrame_) {
+               //check previous frame for missing IFD's in OME metadata
+               omeMetadata_.fillInMissingTiffDatas(currentFrame_, position);
+            }
+            //reset in case acquisitin order is position then time and all files not split by position
+            currentFrame_ = frame;
 
-         omeMetadata_.addImageTagsToOME(img.getCoords(), img.getMetadata(),
-               ifdCount_, baseFilename_, currentTiffFilename_, currentTiffUUID_);
+            omeMetadata_.addImageTagsToOME(img.getCoords(), img.getMetadata(),
+                  ifdCount_, baseFilename_, currentTiffFilename_, currentTiffUUID_);
+         }
       } catch (Exception ex) {
          ReportingUtils.logError(ex, "Problem writing OME metadata");
       }
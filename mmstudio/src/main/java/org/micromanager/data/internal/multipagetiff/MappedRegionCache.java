@@ -0,0 +1,162 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of memory-mapped regions of the files of a dataset.
+ * <p>
+ * Files are mapped read-only in large, fixed windows. Consecutive windows
+ * overlap, so that any read of up to {@link #WINDOW_OVERLAP} bytes falls
+ * entirely within a single window and can be returned as a slice of the
+ * mapping, without copying. Reads that do not fit (or that are beyond the
+ * end of the file as it was when mapped) return null, and the caller should
+ * fall back to a regular read.
+ * <p>
+ * The least recently used windows are dropped once the total mapped size
+ * exceeds the limit. Java cannot unmap explicitly; dropped mappings are
+ * released when garbage collected.
+ * <p>
+ * This class is thread-safe.
+ */
+final class MappedRegionCache {
+   static final long WINDOW_SIZE = 256L << 20;
+   static final long WINDOW_OVERLAP = 32L << 20;
+   static final long DEFAULT_MAX_MAPPED_BYTES = 4L << 30;
+
+   private final long maxMappedBytes_;
+   private long mappedBytes_ = 0;
+   private final LinkedHashMap<Region, MappedByteBuffer> regions_ =
+         new LinkedHashMap<Region, MappedByteBuffer>(16, 0.75f, true);
+
+   private static final class Region {
+      private final FileChannel channel_;
+      private final long start_;
+
+      Region(FileChannel channel, long start) {
+         channel_ = channel;
+         start_ = start;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Region)) {
+            return false;
+         }
+         Region r = (Region) other;
+         return channel_ == r.channel_ && start_ == r.start_;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * System.identityHashCode(channel_) +
+               (int) (start_ ^ (start_ >>> 32));
+      }
+   }
+
+   MappedRegionCache() {
+      this(DEFAULT_MAX_MAPPED_BYTES);
+   }
+
+   MappedRegionCache(long maxMappedBytes) {
+      maxMappedBytes_ = maxMappedBytes;
+   }
+
+   /**
+    * Return a read-only view of part of a file.
+    *
+    * @param channel the file, opened for reading
+    * @param position file offset of the first byte
+    * @param length number of bytes
+    * @param order byte order of the returned buffer
+    * @return a buffer with position 0 and limit {@code length}, sharing
+    * memory with the mapping; or null if the range cannot be served from a
+    * single window
+    * @throws IOException if mapping fails
+    */
+   ByteBuffer slice(FileChannel channel, long position, int length,
+         ByteOrder order) throws IOException {
+      if (length > WINDOW_OVERLAP || position < 0) {
+         return null;
+      }
+      long start = (position / WINDOW_SIZE) * WINDOW_SIZE;
+      MappedByteBuffer window = getWindow(channel, start);
+      int offset = (int) (position - start);
+      if (window == null || offset + length > window.capacity()) {
+         return null;
+      }
+      // Never modify the shared window's position or limit
+      ByteBuffer view = window.duplicate();
+      view.position(offset);
+      view.limit(offset + length);
+      return view.slice().order(order);
+   }
+
+   private MappedByteBuffer getWindow(FileChannel channel, long start)
+         throws IOException {
+      Region key = new Region(channel, start);
+      synchronized (this) {
+         MappedByteBuffer window = regions_.get(key);
+         if (window != null) {
+            return window;
+         }
+      }
+      long size = Math.min(WINDOW_SIZE + WINDOW_OVERLAP,
+            channel.size() - start);
+      if (size <= 0) {
+         return null;
+      }
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+            start, size);
+      synchronized (this) {
+         MappedByteBuffer existing = regions_.get(key);
+         if (existing != null) {
+            // Another thread mapped the same window concurrently
+            return existing;
+         }
+         regions_.put(key, window);
+         mappedBytes_ += size;
+         evictIfNeeded(key);
+      }
+      return window;
+   }
+
+   // Drop least recently used windows, but never the one just added
+   private void evictIfNeeded(Region keep) {
+      Iterator<Map.Entry<Region, MappedByteBuffer>> it =
+            regions_.entrySet().iterator();
+      while (mappedBytes_ > maxMappedBytes_ && it.hasNext()) {
+         Map.Entry<Region, MappedByteBuffer> entry = it.next();
+         if (entry.getKey().equals(keep)) {
+            continue;
+         }
+         mappedBytes_ -= entry.getValue().capacity();
+         it.remove();
+      }
+   }
+
+   /**
+    * Drop all windows of the given file, e.g. before closing it.
+    */
+   synchronized void invalidate(FileChannel channel) {
+      Iterator<Map.Entry<Region, MappedByteBuffer>> it =
+            regions_.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<Region, MappedByteBuffer> entry = it.next();
+         if (entry.getKey().channel_ == channel) {
+            mappedBytes_ -= entry.getValue().capacity();
+            it.remove();
+         }
+      }
+   }
+
+   synchronized long getMappedBytes() {
+      return mappedBytes_;
+   }
+}
@@ -34,13 +34,17 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.SwingUtilities;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
@@ -53,6 +57,7 @@ import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PixelType;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataSnapshots;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.internal.DefaultDisplaySettings;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
@@ -68,6 +73,8 @@ public final class MultipageTiffReader {
 
    private static final char MM_METADATA = MultipageTiffWriter.MM_METADATA;
 
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
    // Note: ordering of axes here matches that in MDUtils.getLabel().
    // If you change this, you will need to track down places where the size of
    // the position list is implicitly kept (e.g. in the size of a single index
@@ -78,6 +85,8 @@ public final class MultipageTiffReader {
    private File file_;
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
+   // If not null, reads are served from memory-mapped regions of the file
+   private MappedRegionCache mappedRegions_;
 
    private StorageMultipageTiff masterStorage_;
    private SummaryMetadata summaryMetadata_;
@@ -85,6 +94,13 @@ public final class MultipageTiffReader {
 
    private HashMap<Coords, Long> coordsToOffset_;
 
+   // Scope data of IFDs that others refer to, by IFD offset
+   private final Map<Long, PropertyMap> scopeDataSnapshots_ =
+         new ConcurrentHashMap<Long, PropertyMap>();
+   // For sharing values between images whose scope data is stored in full
+   private final ScopeDataSnapshots scopeDataInterner_ =
+         new ScopeDataSnapshots();
+
    /**
     * This constructor is used for a file that is currently being written.
     * @param masterStorage
@@ -121,6 +137,8 @@ public final class MultipageTiffReader {
          ReportingUtils.showError(ex, "Cannot open file: " +  file_.getName());
          throw ex instanceof IOException ? (IOException) ex : new IOException(ex);
       }
+      // Only files that are no longer being written can be mapped
+      mappedRegions_ = masterStorage_.getMappedRegionCache();
       readHeader(); // Determine byte order
       readSummaryMD();
 
@@ -321,7 +339,19 @@ public final class MultipageTiffReader {
       }
    }
 
+   /**
+    * Return a buffer holding the given range of the file. Only absolute get
+    * methods should be used on the buffer, as its position is unspecified;
+    * the buffer may be a read-only view of a memory-mapped region.
+    */
    private ByteBuffer readIntoBuffer(long position, int length) throws IOException {
+      if (mappedRegions_ != null) {
+         ByteBuffer slice = mappedRegions_.slice(fileChannel_, position,
+               length, byteOrder_);
+         if (slice != null) {
+            return slice;
+         }
+      }
       ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder_);
       fileChannel_.read(buffer, position);
       return buffer;
@@ -394,6 +424,11 @@ public final class MultipageTiffReader {
    }
 
    private String getString(ByteBuffer buffer) {
+      if (!buffer.hasArray()) {
+         ByteBuffer view = buffer.duplicate();
+         view.clear();
+         return UTF8.decode(view).toString();
+      }
       try {
          return new String(buffer.array(), "UTF-8");
       } catch (UnsupportedEncodingException ex) {
@@ -402,25 +437,68 @@ public final class MultipageTiffReader {
       }
    }
 
-   private Image readImage(IFDData data) throws IOException {
-      ByteBuffer pixelBuffer = ByteBuffer.allocate((int) data.bytesPerImage).order(byteOrder_);
-      ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
-      fileChannel_.read(pixelBuffer, data.pixelOffset);
-      fileChannel_.read(mdBuffer, data.mdOffset);
+   private JsonElement readMetadataGson(IFDData data) throws IOException {
+      ByteBuffer mdBuffer = readIntoBuffer(data.mdOffset, (int) data.mdLength);
 
       String mdJSON = getString(mdBuffer);
       JsonParser parser = new JsonParser();
       JsonReader reader = new JsonReader(new StringReader(mdJSON));
       reader.setLenient(true);
-      JsonElement mdGson = parser.parse(reader);
+      return parser.parse(reader);
+   }
+
+   /**
+    * Read the metadata, resolving scope data that is stored relative to that
+    * of another IFD (see MultipageTiffWriter).
+    */
+   private Metadata readMetadata(JsonElement mdGson) throws IOException {
+      JsonElement snapshotRef = mdGson.getAsJsonObject().remove(
+            ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY);
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
+              NonPropertyMapJSONFormats.metadata().fromGson(mdGson));
+      PropertyMap scopeData = metadata.getScopeData();
+      PropertyMap shared;
+      if (snapshotRef != null) {
+         shared = ScopeDataSnapshots.overlay(
+               getScopeDataSnapshot(snapshotRef.getAsLong()), scopeData);
+      }
+      else {
+         shared = scopeDataInterner_.intern(scopeData);
+      }
+      if (shared == scopeData) {
+         return metadata;
+      }
+      return metadata.copyBuilderPreservingUUID().scopeData(shared).build();
+   }
+
+   private PropertyMap getScopeDataSnapshot(long ifdOffset) throws IOException {
+      PropertyMap snapshot = scopeDataSnapshots_.get(ifdOffset);
+      if (snapshot == null) {
+         JsonElement mdGson = readMetadataGson(readIFD(ifdOffset));
+         if (mdGson.getAsJsonObject().has(
+               ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY)) {
+            throw new IOException("Invalid scope data reference to IFD at " +
+                  ifdOffset);
+         }
+         snapshot = NonPropertyMapJSONFormats.metadata().fromGson(mdGson).
+               getPropertyMap(PropertyKey.SCOPE_DATA.key(),
+                     PropertyMaps.emptyPropertyMap());
+         scopeDataSnapshots_.put(ifdOffset, snapshot);
+      }
+      return snapshot;
+   }
+
+   private Image readImage(IFDData data) throws IOException {
+      ByteBuffer pixelBuffer = readIntoBuffer(data.pixelOffset,
+            (int) data.bytesPerImage);
+      JsonElement mdGson = readMetadataGson(data);
 
       try {
          PropertyMap formatPmap = NonPropertyMapJSONFormats.imageFormat().
                  fromGson(mdGson);
          Coords coords = DefaultCoords.fromPropertyMap(
                  NonPropertyMapJSONFormats.coords().fromGson(mdGson));
-         Metadata metadata = DefaultMetadata.fromPropertyMap(
-                 NonPropertyMapJSONFormats.metadata().fromGson(mdGson));
+         Metadata metadata = readMetadata(mdGson);
 
          // Usually we get the width, height, and pixel type from the image (plane)
          // metadata. If it's not there, we use the values found in the summary
@@ -454,22 +532,21 @@ public final class MultipageTiffReader {
          }
 
          // TODO We should avoid converting to Java array and back, instead using
-         // a nio buffer directly as the Image storage (even better if memory
-         // mapped).
+         // a nio buffer directly as the Image storage.
          switch (pixelType) {
             case GRAY8:
-               return new DefaultImage(pixelBuffer.array(), formatPmap,
+               return new DefaultImage(toByteArray(pixelBuffer), formatPmap,
                        coords, metadata);
             case GRAY16:
                short[] pixels16 = new short[pixelBuffer.capacity() / 2];
-               for (int i = 0; i < pixels16.length; i++) {
-                  pixels16[i] = pixelBuffer.getShort(i * 2);
-               }
+               ByteBuffer view = pixelBuffer.duplicate().order(byteOrder_);
+               view.clear();
+               view.asShortBuffer().get(pixels16);
                return new DefaultImage(pixels16, formatPmap, coords, metadata);
             case RGB32:
                byte[] pixelsARGB = new byte[(int) (4 * data.bytesPerImage / 3)];
                int i = 0;
-               for (byte b : pixelBuffer.array()) {
+               for (byte b : toByteArray(pixelBuffer)) {
                   pixelsARGB[i] = b;
                   i++;
                   if ((i + 1) % 4 == 0) {
@@ -488,6 +565,19 @@ public final class MultipageTiffReader {
       }
    }
 
+   // The whole content of the buffer, without copying if possible
+   private static byte[] toByteArray(ByteBuffer buffer) {
+      if (buffer.hasArray() && buffer.arrayOffset() == 0 &&
+            buffer.array().length == buffer.capacity()) {
+         return buffer.array();
+      }
+      byte[] bytes = new byte[buffer.capacity()];
+      ByteBuffer view = buffer.duplicate();
+      view.clear();
+      view.get(bytes);
+      return bytes;
+   }
+
    private IFDEntry readDirectoryEntry(int offset, ByteBuffer buffer) throws IOException {
       char tag =  buffer.getChar(offset); 
       char type = buffer.getChar(offset + 2);
@@ -536,6 +626,9 @@ public final class MultipageTiffReader {
    }
 
    public void close() throws IOException {
+      if (mappedRegions_ != null && fileChannel_ != null) {
+         mappedRegions_.invalidate(fileChannel_);
+      }
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
@@ -53,6 +53,7 @@ import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataSnapshots;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.internal.DefaultDisplaySettings;
@@ -62,6 +63,7 @@ import org.micromanager.internal.propertymap.MM1JSONSerializer;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 public final class MultipageTiffWriter {
 
@@ -124,13 +126,40 @@ public final class MultipageTiffWriter {
    //Reader associated with this file
    private MultipageTiffReader reader_;
    private long blankPixelsOffset_ = -1;
-   
+
+   // If sharing scope data, the full scope data is written only when it
+   // starts a new snapshot; other IFDs contain only the values that differ
+   // from the snapshot, plus the offset of the IFD holding the snapshot.
+   private final boolean shareScopeData_;
+   private volatile PropertyMap scopeDataSnapshot_;
+   private long scopeDataSnapshotOffset_;
+
+   private final PerformanceMonitor.Counter throughputStat_;
+   private final PerformanceMonitor.IntervalCounter imageIntervalStat_;
+
+   /**
+    * Create a writer for a new file.
+    *
+    * @param masterStorage the storage that the file belongs to
+    * @param firstImage the first image to be written to the file
+    * @param filename name of the file, within the storage's directory
+    * @param writingExecutor executor on which to perform the file writes, in
+    * order; if null, writes are performed on the calling thread
+    * @throws IOException
+    */
    public MultipageTiffWriter(
             final StorageMultipageTiff masterStorage,
             final Image firstImage, 
-            final String filename)
+            final String filename,
+            final ThreadPoolExecutor writingExecutor)
          throws IOException {
       masterStorage_ = masterStorage;
+      writingExecutor_ = writingExecutor;
+      PerformanceMonitor perfMon = masterStorage.getPerformanceMonitor();
+      throughputStat_ = perfMon.getCounter(
+            filename + " write throughput (MB/s)");
+      imageIntervalStat_ = perfMon.getIntervalCounter(
+            filename + " image written");
       // TODO: casting to DefaultSummaryMetadata here.
       DefaultSummaryMetadata summary = (DefaultSummaryMetadata) masterStorage.getSummaryMetadata();
       File f = new File(masterStorage.getDiskLocation() + "/" + filename);
@@ -180,7 +209,7 @@ public final class MultipageTiffWriter {
                "Insufficent space on disk: no room to write data");
       }
       fileChannel_ = raFile_.getChannel();
-      writingExecutor_ = masterStorage_.getWritingExecutor();
+      shareScopeData_ = masterStorage_.getShouldShareScopeData();
       coordsToOffset_ = new HashMap<Coords, Long>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -290,7 +319,12 @@ public final class MultipageTiffWriter {
    //
 
    private void executeWritingTask(Runnable writingTask) {
-      writingExecutor_.execute(writingTask);
+      if (writingExecutor_ == null) {
+         writingTask.run();
+      }
+      else {
+         writingExecutor_.execute(writingTask);
+      }
    }
 
    private void fileChannelWrite(final ByteBuffer buffer, final long position) {
@@ -314,7 +348,13 @@ public final class MultipageTiffWriter {
          @Override
          public void run() {
             try {
-               fileChannel_.write(buffers);
+               long startNs = System.nanoTime();
+               long numBytes = fileChannel_.write(buffers);
+               long elapsedNs = System.nanoTime() - startNs;
+               if (elapsedNs > 0) {
+                  throughputStat_.sample(numBytes * 1000.0 / elapsedNs);
+               }
+               imageIntervalStat_.sample();
             }
             catch (IOException e) {
                ReportingUtils.logError(e);
@@ -450,6 +490,11 @@ public final class MultipageTiffWriter {
    
    public boolean hasSpaceToWrite(Image img, int omeMDLength) {
       PropertyMap mdPmap = ((DefaultMetadata) img.getMetadata()).toPropertyMap();
+      PropertyMap scopeDataDelta = getScopeDataDelta(img);
+      if (scopeDataDelta != null) {
+         mdPmap = mdPmap.copyBuilder().putPropertyMap(
+               PropertyKey.SCOPE_DATA.key(), scopeDataDelta).build();
+      }
       int mdLength = NonPropertyMapJSONFormats.metadata().toJSON(mdPmap).length();
       int IFDSize = ENTRIES_PER_IFD*12 + 4 + 16;
       //5 MB extra padding...just to be safe...
@@ -532,6 +577,19 @@ public final class MultipageTiffWriter {
       return val;
    }
 
+   // Return the scope data values to store for the image if it can be stored
+   // relative to the current snapshot, or null if it must be stored in full
+   private PropertyMap getScopeDataDelta(Image img) {
+      if (!shareScopeData_) {
+         return null;
+      }
+      PropertyMap scopeData = img.getMetadata().getScopeData();
+      if (scopeData.isEmpty()) {
+         return null;
+      }
+      return ScopeDataSnapshots.diff(scopeDataSnapshot_, scopeData);
+   }
+
    private void writeIFD(Image img) throws IOException {
       char numEntries = ((firstIFD_  ? ENTRIES_PER_IFD + 4 : ENTRIES_PER_IFD));
 
@@ -540,8 +598,21 @@ public final class MultipageTiffWriter {
             ((DefaultImage) img).formatToPropertyMap());
       NonPropertyMapJSONFormats.coords().addToGson(jo,
             ((DefaultCoords) img.getCoords()).toPropertyMap());
-      NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            ((DefaultMetadata) img.getMetadata()).toPropertyMap());
+      PropertyMap mdPmap = ((DefaultMetadata) img.getMetadata()).toPropertyMap();
+      if (shareScopeData_) {
+         PropertyMap scopeDataDelta = getScopeDataDelta(img);
+         if (scopeDataDelta == null) {
+            scopeDataSnapshot_ = img.getMetadata().getScopeData();
+            scopeDataSnapshotOffset_ = filePosition_;
+         }
+         else {
+            mdPmap = mdPmap.copyBuilder().putPropertyMap(
+                  PropertyKey.SCOPE_DATA.key(), scopeDataDelta).build();
+            jo.addProperty(ScopeDataSnapshots.SNAPSHOT_REFERENCE_KEY,
+                  scopeDataSnapshotOffset_);
+         }
+      }
+      NonPropertyMapJSONFormats.metadata().addToGson(jo, mdPmap);
       Gson gson = new GsonBuilder().disableHtmlEscaping().create();
       String mdJSON = gson.toJson(jo);
 
@@ -608,7 +679,8 @@ public final class MultipageTiffWriter {
          charView.put(bufferPosition_/2+2,(char) (byteDepth_*8));
       }
       buffers_.add(ifdBuffer);
-      buffers_.add(getPixelBuffer(img.getRawPixels()));
+      // The pixel array is only read from, so it need not be copied
+      buffers_.add(getPixelBuffer(img.getRawPixelsView()));
       buffers_.add(getResolutionValuesBuffer());   
       buffers_.add(ByteBuffer.wrap(mdBytes));
       
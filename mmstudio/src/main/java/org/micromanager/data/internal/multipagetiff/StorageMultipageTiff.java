@@ -47,15 +47,20 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.ConcurrentImageReader;
+import org.micromanager.data.internal.CoordsIndex;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.data.internal.ScopeDataSnapshots;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.MMException;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.PerformanceMonitorRegistry;
 import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplaySettings;
@@ -76,6 +81,10 @@ public final class StorageMultipageTiff implements Storage {
            "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS = 
            "generate a separate multipage TIFF file for each stage position";
+   private static final String SHOULD_WRITE_FILE_SETS_IN_PARALLEL =
+           "write the multipage TIFF files for each stage position in parallel";
+   private static final String SHOULD_MEMORY_MAP_FILES =
+           "read saved multipage TIFF files by memory mapping them";
    private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
             Coords.STAGE_POSITION));
@@ -90,11 +99,23 @@ public final class StorageMultipageTiff implements Storage {
    private String directory_;
    final private boolean separateMetadataFile_;
    private boolean splitByXYPosition_ = true;
+   private boolean shareScopeData_ = false;
+   // If true, each FileSet writes on its own thread; otherwise all files are
+   // written on writingExecutor_
+   private boolean writeFileSetsInParallel_ = false;
    private volatile boolean finished_ = false;
+   // Mapped regions of the files of a saved dataset, shared by its readers;
+   // null if not memory mapping
+   private final MappedRegionCache mappedRegions_;
    private OMEMetadata omeMetadata_;
-   private int lastFrame_ = 0;
-   private int lastAcquiredPosition_ = 0;
+   private volatile int lastFrame_ = 0;
+   private volatile int lastAcquiredPosition_ = 0;
+   private final Object lastIndicesLock_ = new Object();
    private ThreadPoolExecutor writingExecutor_;
+
+   // Write statistics, exported through the PerformanceMonitorRegistry;
+   // null in read mode
+   private final PerformanceMonitor perfMon_;
    private Image firstImage_;
 
    // Images that are currently being written. We keep them around until
@@ -107,8 +128,12 @@ public final class StorageMultipageTiff implements Storage {
    //map of position indices to objects associated with each
    private HashMap<Integer, FileSet> positionToFileSet_;
    
-   //Map of image labels to file 
-   private Map<Coords, MultipageTiffReader> coordsToReader_;
+   //Map of image labels to file (concurrent, as it is updated from the
+   //FileSet writing threads when writing in parallel)
+   private final Map<Coords, MultipageTiffReader> coordsToReader_ =
+         new ConcurrentHashMap<>();
+   // Index of the keys of coordsToReader_, for getImagesMatching()
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    // Keeps track of our maximum extent along each axis.
    private Coords maxIndices_;
   
@@ -116,7 +141,9 @@ public final class StorageMultipageTiff implements Storage {
            Boolean amInWriteMode)
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
-            getShouldSplitPositions());
+            getShouldSplitPositions(), getShouldMemoryMapFiles());
+      shareScopeData_ = ScopeDataSnapshots.getShouldShareScopeDataOnDisk();
+      writeFileSetsInParallel_ = getShouldWriteFileSetsInParallel();
    }
    
    /**
@@ -135,6 +162,22 @@ public final class StorageMultipageTiff implements Storage {
    public StorageMultipageTiff(Component parent, Datastore store, String dir,
          boolean amInWriteMode, boolean separateMDFile,
          boolean separateFilesForPositions) throws IOException {
+      this(parent, store, dir, amInWriteMode, separateMDFile,
+            separateFilesForPositions, false);
+   }
+
+   /**
+    * As the above, optionally reading a saved dataset by memory mapping its
+    * files. Memory mapping speeds up random access to large datasets opened
+    * virtually, as images are read directly from the OS file cache.
+    *
+    * @param memoryMapFiles if true and not in write mode, map the files in
+    * large windows (a bounded number of which are kept mapped at a time)
+    */
+   public StorageMultipageTiff(Component parent, Datastore store, String dir,
+         boolean amInWriteMode, boolean separateMDFile,
+         boolean separateFilesForPositions, boolean memoryMapFiles)
+         throws IOException {
       store_ = (DefaultDatastore) store;
       parent_ = parent;
       // We must be notified of changes in the Datastore before everyone else,
@@ -144,10 +187,13 @@ public final class StorageMultipageTiff implements Storage {
       splitByXYPosition_ = separateFilesForPositions;
 
       amInWriteMode_ = amInWriteMode;
+      mappedRegions_ = memoryMapFiles && !amInWriteMode ?
+            new MappedRegionCache() : null;
       directory_ = dir;
       store_.setSavePath(directory_);
       store_.setName(new File(directory_).getName());
-      coordsToReader_ = new HashMap<>();
+      perfMon_ = amInWriteMode_ ? PerformanceMonitor.createRegistered(
+            "multipage-tiff-storage", 1000.0) : null;
 
       if (amInWriteMode_) {
          positionToFileSet_ = new HashMap<>();
@@ -183,6 +229,36 @@ public final class StorageMultipageTiff implements Storage {
       return writingExecutor_;
    }
 
+   /**
+    * Whether the writers should store unchanged scope data only once per
+    * file (see ScopeDataSnapshots).
+    */
+   boolean getShouldShareScopeData() {
+      return shareScopeData_;
+   }
+
+   /**
+    * Whether each FileSet writes its files on its own thread.
+    */
+   boolean isWritingFileSetsInParallel() {
+      return writeFileSetsInParallel_;
+   }
+
+   /**
+    * The monitor for write statistics; only in write mode.
+    */
+   PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
+   /**
+    * The cache of mapped file regions for readers of saved files, or null
+    * if not memory mapping.
+    */
+   MappedRegionCache getMappedRegionCache() {
+      return mappedRegions_;
+   }
+
    /**
     * Indicator of Acquisition order.  This function is difficult to name.
     * "First" means that the axis comes before another axis in the ordered axes
@@ -258,7 +334,7 @@ public final class StorageMultipageTiff implements Storage {
       if (reader != null) {
          // TODO: coercing to DefaultSummaryMetadata here to match method
          // signature; see our setSummaryMetadata methods for more info.
-         setSummaryMetadata((DefaultSummaryMetadata) reader.getSummaryMetadata(), true);
+         setSummaryMetadata((DefaultSummaryMetadata) reader.getSummaryMetadata());
       }
 
       if (progressBar != null) {
@@ -294,6 +370,7 @@ public final class StorageMultipageTiff implements Storage {
          Set<Coords> readerCoords = reader.getIndexKeys();
          for (Coords coords : readerCoords) {
             coordsToReader_.put(coords, reader);
+            coordsIndex_.add(coords);
             lastFrameOpenedDataSet_ = Math.max(coords.getTime(),
                   lastFrameOpenedDataSet_);
             if (firstImage_ == null) {
@@ -336,6 +413,12 @@ public final class StorageMultipageTiff implements Storage {
            throws MMException, InterruptedException, ExecutionException, IOException {
       writeImage(image);
       if (waitForWritingToFinish) {
+         if (writeFileSetsInParallel_) {
+            for (FileSet set : positionToFileSet_.values()) {
+               set.awaitWriting();
+            }
+            return;
+         }
          Future f = writingExecutor_.submit(new Runnable() {
             @Override
             public void run() {
@@ -366,6 +449,10 @@ public final class StorageMultipageTiff implements Storage {
 
       startWritingTask(image);
 
+      if (writeFileSetsInParallel_) {
+         // The pending image is removed by the FileSet's writing task
+         return;
+      }
       writingExecutor_.submit(new Runnable() {
          @Override
          public void run() {
@@ -395,7 +482,7 @@ public final class StorageMultipageTiff implements Storage {
       }
 
       // initialize writing executor
-      if (writingExecutor_ == null) {
+      if (writingExecutor_ == null && !writeFileSetsInParallel_) {
          writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
                TimeUnit.NANOSECONDS,
                new LinkedBlockingQueue<java.lang.Runnable>());
@@ -418,14 +505,39 @@ public final class StorageMultipageTiff implements Storage {
                new FileSet(image, this, omeMetadata_,
                   splitByXYPosition_, separateMetadataFile_));
       }
-      FileSet set = positionToFileSet_.get(fileSetIndex);
+      final FileSet set = positionToFileSet_.get(fileSetIndex);
 
-      try {
-         set.writeImage(image);
-         Coords coords = image.getCoords();
-         coordsToReader_.put(coords, set.getCurrentReader());
-      } catch (IOException ex) {
-        ReportingUtils.showError(ex, "Failed to write image to file.");
+      if (writeFileSetsInParallel_) {
+         final DefaultImage finalImage = image;
+         // Blocks if the FileSet's queue is full
+         set.submitWritingTask(new Runnable() {
+            @Override
+            public void run() {
+               Coords coords = finalImage.getCoords();
+               try {
+                  set.writeImage(finalImage);
+                  coordsToReader_.put(coords, set.getCurrentReader());
+                  coordsIndex_.add(coords);
+               } catch (IOException ex) {
+                  ReportingUtils.showError(ex, "Failed to write image to file.");
+               }
+               finally {
+                  synchronized(coordsToPendingImage_) {
+                     coordsToPendingImage_.remove(coords);
+                  }
+               }
+            }
+         });
+      }
+      else {
+         try {
+            set.writeImage(image);
+            Coords coords = image.getCoords();
+            coordsToReader_.put(coords, set.getCurrentReader());
+            coordsIndex_.add(coords);
+         } catch (IOException ex) {
+           ReportingUtils.showError(ex, "Failed to write image to file.");
+         }
       }
 
       int frame = image.getCoords().getTimePoint();
@@ -462,6 +574,11 @@ public final class StorageMultipageTiff implements Storage {
             progressBar.setProgress(count);
             progressBar.setVisible(true);
          }
+         // When writing in parallel, wait for the FileSets to write all
+         // queued images; the remaining writes are done on this thread.
+         for (FileSet p : positionToFileSet_.values()) {
+            p.stopWritingThread();
+         }
          for (FileSet p : positionToFileSet_.values()) {
             p.finishAbortedAcqIfNeeded();
          }
@@ -560,33 +677,15 @@ public final class StorageMultipageTiff implements Storage {
    }
 
    public void setSummaryMetadata(SummaryMetadata summary) {
-      setSummaryMetadata((DefaultSummaryMetadata) summary, false);
+      setSummaryMetadata((DefaultSummaryMetadata) summary);
    }
 
-   private void setSummaryMetadata(DefaultSummaryMetadata summary,
-         boolean showProgress) {
+   // The image location map (coordsToReader_) used to be rebuilt here; it is
+   // left alone, as FileSet writing threads may be adding to it.
+   private void setSummaryMetadata(DefaultSummaryMetadata summary) {
       summaryMetadata_ = summary;
       summaryMetadataString_ = NonPropertyMapJSONFormats.summaryMetadata().
             toJSON(summary.toPropertyMap());
-
-      // TODO What does the following have to do with summary metadata?
-      Map<Coords, MultipageTiffReader> oldImageMap = coordsToReader_;
-      coordsToReader_ = new HashMap<>();
-      if (showProgress && !GraphicsEnvironment.isHeadless()) {
-         ProgressBar progressBar = new ProgressBar(parent_, 
-                 "Building image location map", 0, oldImageMap.keySet().size());
-         progressBar.setProgress(0);
-         progressBar.setVisible(true);
-         int i = 1;
-         for (Coords coords : oldImageMap.keySet()) {
-            coordsToReader_.put(coords, oldImageMap.get(coords));
-            progressBar.setProgress(i);
-            i++;
-         }
-         progressBar.setVisible(false);
-      } else {
-         coordsToReader_.putAll(oldImageMap);
-      }
    }
    
     /**
@@ -787,11 +886,15 @@ public final class StorageMultipageTiff implements Storage {
    }
 
    public void updateLastFrame(int frame) {
-      lastFrame_ = Math.max(frame, lastFrame_);
+      synchronized (lastIndicesLock_) {
+         lastFrame_ = Math.max(frame, lastFrame_);
+      }
    }
 
    public void updateLastPosition(int pos) {
-      lastAcquiredPosition_ = Math.max(pos, lastAcquiredPosition_);
+      synchronized (lastIndicesLock_) {
+         lastAcquiredPosition_ = Math.max(pos, lastAcquiredPosition_);
+      }
    }
 
    public long getDataSetSize() {
@@ -876,25 +979,33 @@ public final class StorageMultipageTiff implements Storage {
 
    @Override
    public List<Image> getImagesMatching(Coords coords) {
-      HashSet<Image> result = new HashSet<>();
+      // Images being written (few) are returned as is; the rest are looked
+      // up in the index and read concurrently
+      List<Image> result = new ArrayList<>();
+      Set<Coords> pendingCoords = new HashSet<>();
       synchronized(coordsToPendingImage_) {
          for (Coords imageCoords : coordsToPendingImage_.keySet()) {
             if (imageCoords.matches(coords)) {
                result.add(coordsToPendingImage_.get(imageCoords));
+               pendingCoords.add(imageCoords);
             }
          }
       }
-      for (Coords imageCoords : coordsToReader_.keySet()) {
-         if (imageCoords.matches(coords)) {
-            try {
-               result.add(coordsToReader_.get(imageCoords).readImage(imageCoords));
-            }
-            catch (IOException ex) {
-               ReportingUtils.logError(ex, "Failed to read image at " + imageCoords);
-            }
+      List<Coords> toRead = new ArrayList<>();
+      for (Coords imageCoords : coordsIndex_.getMatching(coords)) {
+         if (!pendingCoords.contains(imageCoords)) {
+            toRead.add(imageCoords);
          }
       }
-      return new ArrayList<>(result);
+      result.addAll(ConcurrentImageReader.readAll(toRead,
+            new ConcurrentImageReader.Source() {
+               @Override
+               public Image readImage(Coords imageCoords) throws IOException {
+                  MultipageTiffReader reader = coordsToReader_.get(imageCoords);
+                  return reader == null ? null : reader.readImage(imageCoords);
+               }
+            }));
+      return result;
    }
 
    @Override
@@ -953,6 +1064,9 @@ public final class StorageMultipageTiff implements Storage {
             ReportingUtils.logError(e, "Error cleaning up open file descriptor");
          }
       }
+      if (perfMon_ != null) {
+         PerformanceMonitorRegistry.getInstance().unregister(perfMon_);
+      }
    }
 
    public static boolean getShouldGenerateMetadataFile() {
@@ -974,4 +1088,24 @@ public final class StorageMultipageTiff implements Storage {
       MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
               putBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, shouldSplit);
    }
+
+   public static boolean getShouldMemoryMapFiles() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_MEMORY_MAP_FILES, false);
+   }
+
+   public static void setShouldMemoryMapFiles(boolean shouldMap) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_MEMORY_MAP_FILES, shouldMap);
+   }
+
+   public static boolean getShouldWriteFileSetsInParallel() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_WRITE_FILE_SETS_IN_PARALLEL, false);
+   }
+
+   public static void setShouldWriteFileSetsInParallel(boolean parallel) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_WRITE_FILE_SETS_IN_PARALLEL, parallel);
+   }
 }
@@ -85,14 +85,7 @@ public final class AsynchronousContext extends BaseContext {
          else {
             // Non-null image: process it.
             isFlushed_ = false;
-            try {
-               processor_.processImage(wrapper.getImage(), this);
-            }
-            catch (Exception e) {
-               ReportingUtils.logError(e, "Processor failed to process image");
-               // Pass the exception to our parent.
-               parent_.exceptionOccurred(e);
-            }
+            runProcessor(wrapper, this);
          }
       }
    }
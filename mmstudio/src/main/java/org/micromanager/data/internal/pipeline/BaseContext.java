@@ -37,12 +37,51 @@ public abstract class BaseContext implements ProcessorContext {
    protected Datastore store_;
    protected DefaultPipeline parent_;
    protected CountDownLatch flushLatch_;
+   protected final StageStatistics statistics_;
 
    public BaseContext(Processor processor, Datastore store,
          DefaultPipeline parent) {
+      this(processor, store, parent, 1);
+   }
+
+   /**
+    * @param numThreads the number of threads that may run the processor at
+    * once, for computing its utilization
+    */
+   protected BaseContext(Processor processor, Datastore store,
+         DefaultPipeline parent, int numThreads) {
       processor_ = processor;
       store_ = store;
       parent_ = parent;
+      String name = processor.getClass().getSimpleName();
+      if (name.isEmpty()) { // Anonymous class
+         name = processor.getClass().getName();
+      }
+      statistics_ = new StageStatistics(name, numThreads);
+   }
+
+   /**
+    * Run the processor on an image, recording statistics, and passing any
+    * exception on to the pipeline.
+    * @param wrapper the (non-null) image to process
+    * @param context the context that the processor outputs images to
+    */
+   protected void runProcessor(ImageWrapper wrapper, ProcessorContext context) {
+      long startNs = System.nanoTime();
+      try {
+         processor_.processImage(wrapper.getImage(), context);
+      }
+      catch (Exception e) {
+         ReportingUtils.logError(e, "Processor failed to process image");
+         // Pass the exception to our parent.
+         parent_.exceptionOccurred(e);
+      }
+      statistics_.recordImage(startNs - wrapper.getCreationTimeNs(), startNs,
+            System.nanoTime() - startNs);
+   }
+
+   public StageStatistics getStatistics() {
+      return statistics_;
    }
 
    /**
@@ -23,7 +23,11 @@ package org.micromanager.data.internal.pipeline;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.Image;
@@ -32,6 +36,7 @@ import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 public final class DefaultPipeline implements Pipeline {
    
@@ -42,7 +47,8 @@ public final class DefaultPipeline implements Pipeline {
    private boolean haveInsertedImages_ = false;
    private boolean amHalting_ = false;
    private boolean isHalted_ = false;
-   private final ArrayList<Exception> exceptions_;
+   // Written by processing threads, hence thread-safe
+   private final CopyOnWriteArrayList<Exception> exceptions_;
 
    @SuppressWarnings("LeakingThisInConstructor")
    public DefaultPipeline(List<Processor> processors, Datastore store,
@@ -50,11 +56,35 @@ public final class DefaultPipeline implements Pipeline {
       processors_ = processors;
       store_ = store;
       contexts_ = new ArrayList<BaseContext>();
-      exceptions_ = new ArrayList<Exception>();
+      exceptions_ = new CopyOnWriteArrayList<Exception>();
+      int numThreads = Runtime.getRuntime().availableProcessors();
+      ThreadPoolExecutor parallelExecutor = null;
       for (Processor processor : processors_) {
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
          }
+         else if (processor.getConcurrency() !=
+               Processor.Concurrency.SEQUENTIAL) {
+            if (parallelExecutor == null) {
+               parallelExecutor = new ThreadPoolExecutor(numThreads,
+                     numThreads, 1, TimeUnit.SECONDS,
+                     new LinkedBlockingQueue<Runnable>(),
+                     ThreadFactoryFactory.createThreadFactory(
+                           "Parallel pipeline processing"));
+               // Let idle workers exit, so that no shutdown is needed
+               parallelExecutor.allowCoreThreadTimeOut(true);
+            }
+            else {
+               // Each parallel stage may hold a worker while passing on its
+               // outputs (see ParallelContext)
+               parallelExecutor.setMaximumPoolSize(
+                     parallelExecutor.getMaximumPoolSize() + 1);
+               parallelExecutor.setCorePoolSize(
+                     parallelExecutor.getCorePoolSize() + 1);
+            }
+            contexts_.add(new ParallelContext(processor, store_, this,
+                  parallelExecutor, numThreads, 2 * numThreads));
+         }
          else {
             contexts_.add(new AsynchronousContext(processor, store_, this));
          }
@@ -147,6 +177,38 @@ public final class DefaultPipeline implements Pipeline {
          ReportingUtils.logError("Interrupted while waiting for flush to complete.");
       }
       isHalted_ = true;
+      for (BaseContext context : contexts_) {
+         if (context.getStatistics().getNumImages() > 0) {
+            ReportingUtils.logMessage("Pipeline stage " +
+                  context.getStatistics());
+         }
+      }
+   }
+
+   /**
+    * Set the maximum number of images that may be waiting or in processing
+    * at a stage whose processor runs in parallel (see
+    * Processor.getConcurrency()). Has no effect on other stages.
+    * @param stage index of the stage (processor) in the pipeline
+    * @param depth the new queue depth
+    */
+   public void setQueueDepth(int stage, int depth) {
+      BaseContext context = contexts_.get(stage);
+      if (context instanceof ParallelContext) {
+         ((ParallelContext) context).setQueueDepth(depth);
+      }
+   }
+
+   /**
+    * Return the processing statistics of each stage, in pipeline order, to
+    * find the stage that limits throughput.
+    */
+   public List<StageStatistics> getStageStatistics() {
+      List<StageStatistics> result = new ArrayList<StageStatistics>();
+      for (BaseContext context : contexts_) {
+         result.add(context.getStatistics());
+      }
+      return result;
    }
 
    @Override
@@ -29,12 +29,22 @@ import org.micromanager.data.Image;
  */
 public final class ImageWrapper {
    private Image image_;
+   private final long creationTimeNs_;
 
    public ImageWrapper(Image image) {
       image_ = image;
+      creationTimeNs_ = System.nanoTime();
    }
 
    public Image getImage() {
       return image_;
    }
+
+   /**
+    * Return the System.nanoTime() at which the wrapper was created, i.e.
+    * when the image was passed to the next stage of the pipeline.
+    */
+   public long getCreationTimeNs() {
+      return creationTimeNs_;
+   }
 }
@@ -0,0 +1,251 @@
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Context for processors that allow concurrent processing (see
+ * {@link Processor#getConcurrency}), in asynchronous pipelines.
+ * <p>
+ * Images are processed on a pool of worker threads, shared by the parallel
+ * stages of the pipeline. The images that the
+ * processor outputs for each input image are held until those of all
+ * earlier input images have been passed on, so that the next stage receives
+ * them in the order in which the inputs arrived. At most a fixed number of
+ * images (the queue depth) may be waiting or in processing at a time;
+ * beyond that, insertImage() blocks.
+ * <p>
+ * The thread that passes on the outputs blocks while the next stage is full,
+ * so each parallel stage may hold one worker of the pool; the pool must have
+ * a thread beyond those to guarantee progress.
+ * <p>
+ * For PER_KEY processors, images with the same state key are processed one
+ * at a time, in order.
+ */
+public final class ParallelContext extends BaseContext {
+   private final Executor executor_;
+   private final boolean isPerKey_;
+   private final Semaphore slots_;
+   private final Object queueDepthLock_ = new Object();
+   // Guarded by queueDepthLock_
+   private int queueDepth_;
+   // Slots to be taken out of use as images are passed on, after the queue
+   // depth was reduced while they were in use
+   private int withheldSlots_ = 0;
+
+   // Guarded by this
+   private final ArrayDeque<Task> pending_ = new ArrayDeque<Task>();
+   private final HashMap<Object, ArrayDeque<Task>> keyQueues_ =
+         new HashMap<Object, ArrayDeque<Task>>();
+   private boolean isEmitting_ = false;
+
+   private final class Task implements Runnable, ProcessorContext {
+      private final ImageWrapper wrapper_;
+      private final Object key_;
+      // Only accessed by the thread running the task, then (after done_ is
+      // set) by the thread emitting its outputs
+      private final List<Image> outputs_ = new ArrayList<Image>(1);
+      // Guarded by ParallelContext.this
+      private boolean done_ = false;
+
+      Task(ImageWrapper wrapper, Object key) {
+         wrapper_ = wrapper;
+         key_ = key;
+      }
+
+      @Override
+      public void run() {
+         try {
+            runProcessor(wrapper_, this);
+         }
+         finally {
+            taskFinished(this);
+         }
+      }
+
+      @Override
+      public void outputImage(Image image) {
+         outputs_.add(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return ParallelContext.this.getSummaryMetadata();
+      }
+   }
+
+   /**
+    * @param executor the worker pool, shared with the other parallel stages
+    * @param numThreads number of worker threads that may run the processor
+    * @param queueDepth maximum number of images waiting or in processing
+    */
+   public ParallelContext(Processor processor, Datastore store,
+         DefaultPipeline parent, Executor executor, int numThreads,
+         int queueDepth) {
+      super(processor, store, parent, numThreads);
+      isPerKey_ = processor.getConcurrency() == Processor.Concurrency.PER_KEY;
+      executor_ = executor;
+      queueDepth_ = Math.max(1, queueDepth);
+      slots_ = new Semaphore(queueDepth_);
+   }
+
+   /**
+    * Change the maximum number of images waiting or in processing. Does not
+    * block: if more images than the new depth are in progress, the depth is
+    * reduced as they are passed on.
+    */
+   public void setQueueDepth(int depth) {
+      depth = Math.max(1, depth);
+      synchronized (queueDepthLock_) {
+         if (depth > queueDepth_) {
+            int added = depth - queueDepth_;
+            int unwithheld = Math.min(added, withheldSlots_);
+            withheldSlots_ -= unwithheld;
+            slots_.release(added - unwithheld);
+         }
+         else {
+            int removed = queueDepth_ - depth;
+            while (removed > 0 && slots_.tryAcquire()) {
+               --removed;
+            }
+            withheldSlots_ += removed;
+         }
+         queueDepth_ = depth;
+      }
+   }
+
+   private void releaseSlot() {
+      synchronized (queueDepthLock_) {
+         if (withheldSlots_ > 0) {
+            --withheldSlots_;
+            return;
+         }
+      }
+      slots_.release();
+   }
+
+   /**
+    * Process an image. If the input ImageWrapper has a null image, then we
+    * wait for all images to be processed and passed on, then flush,
+    * passing the null along to the next context.
+    */
+   @Override
+   public void insertImage(ImageWrapper wrapper) {
+      if (wrapper.getImage() == null) {
+         flush(wrapper);
+         return;
+      }
+      try {
+         slots_.acquire();
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+         Thread.currentThread().interrupt();
+         return;
+      }
+      Object key = isPerKey_ ? processor_.getStateKey(wrapper.getImage()) : null;
+      Task task = new Task(wrapper, key);
+      boolean runNow = true;
+      synchronized (this) {
+         pending_.add(task);
+         if (isPerKey_) {
+            ArrayDeque<Task> queue = keyQueues_.get(key);
+            if (queue == null) {
+               // Holds the tasks for this key, starting with the running one
+               queue = new ArrayDeque<Task>();
+               keyQueues_.put(key, queue);
+            }
+            queue.add(task);
+            runNow = queue.size() == 1;
+         }
+      }
+      if (runNow) {
+         executor_.execute(task);
+      }
+   }
+
+   private void taskFinished(Task task) {
+      Task nextForKey = null;
+      synchronized (this) {
+         task.done_ = true;
+         if (isPerKey_) {
+            ArrayDeque<Task> queue = keyQueues_.get(task.key_);
+            queue.poll();
+            nextForKey = queue.peek();
+            if (nextForKey == null) {
+               keyQueues_.remove(task.key_);
+            }
+         }
+      }
+      if (nextForKey != null) {
+         executor_.execute(nextForKey);
+      }
+      emitCompleted();
+   }
+
+   // Pass on the outputs of completed tasks, in input order. Only one thread
+   // emits at a time; others just mark their tasks done, and the emitting
+   // thread picks them up.
+   private void emitCompleted() {
+      synchronized (this) {
+         if (isEmitting_) {
+            return;
+         }
+         isEmitting_ = true;
+      }
+      while (true) {
+         Task head;
+         synchronized (this) {
+            head = pending_.peek();
+            if (head == null || !head.done_) {
+               isEmitting_ = false;
+               notifyAll();
+               return;
+            }
+            pending_.poll();
+         }
+         for (Image image : head.outputs_) {
+            try {
+               outputImage(image);
+            }
+            catch (RuntimeException e) {
+               ReportingUtils.logError(e, "Failed to pass on processed image");
+               parent_.exceptionOccurred(e);
+            }
+         }
+         releaseSlot();
+      }
+   }
+
+   private void flush(ImageWrapper wrapper) {
+      synchronized (this) {
+         while (!pending_.isEmpty() || isEmitting_) {
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               ReportingUtils.logError(e, "Interrupted while flushing pipeline");
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+      }
+      processor_.cleanup(this);
+      if (sink_ != null) {
+         sink_.insertImage(wrapper);
+      }
+      if (flushLatch_ != null) {
+         flushLatch_.countDown();
+      }
+   }
+}
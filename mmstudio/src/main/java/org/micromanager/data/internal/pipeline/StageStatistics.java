@@ -0,0 +1,87 @@
+package org.micromanager.data.internal.pipeline;
+
+/**
+ * Utilization and queue wait statistics for one stage (Processor) of a
+ * pipeline, for finding the stage that limits throughput.
+ * <p>
+ * Utilization is the fraction of the stage's thread time, since the first
+ * image arrived, that was spent in processImage(). Queue wait is the time an
+ * image spent between being output by the previous stage (or inserted into
+ * the pipeline) and starting to be processed.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class StageStatistics {
+   private final String name_;
+   private final int numThreads_;
+
+   // Guarded by this
+   private long startNs_ = -1;
+   private long numImages_ = 0;
+   private long busyNs_ = 0;
+   private long queueWaitNs_ = 0;
+   private long maxQueueWaitNs_ = 0;
+
+   StageStatistics(String name, int numThreads) {
+      name_ = name;
+      numThreads_ = numThreads;
+   }
+
+   synchronized void recordImage(long queueWaitNs, long startNs,
+         long durationNs) {
+      if (startNs_ < 0) {
+         startNs_ = startNs;
+      }
+      ++numImages_;
+      busyNs_ += durationNs;
+      queueWaitNs_ += queueWaitNs;
+      maxQueueWaitNs_ = Math.max(maxQueueWaitNs_, queueWaitNs);
+   }
+
+   public String getName() {
+      return name_;
+   }
+
+   public int getNumThreads() {
+      return numThreads_;
+   }
+
+   public synchronized long getNumImages() {
+      return numImages_;
+   }
+
+   /**
+    * Return the fraction (0 to 1) of available thread time spent processing.
+    */
+   public synchronized double getUtilization() {
+      if (startNs_ < 0) {
+         return 0.0;
+      }
+      long elapsedNs = System.nanoTime() - startNs_;
+      if (elapsedNs <= 0) {
+         return 0.0;
+      }
+      return Math.min(1.0, (double) busyNs_ / ((double) elapsedNs * numThreads_));
+   }
+
+   public synchronized double getMeanQueueWaitMs() {
+      return numImages_ == 0 ? 0.0 : queueWaitNs_ / 1e6 / numImages_;
+   }
+
+   public synchronized double getMaxQueueWaitMs() {
+      return maxQueueWaitNs_ / 1e6;
+   }
+
+   public synchronized double getMeanProcessingTimeMs() {
+      return numImages_ == 0 ? 0.0 : busyNs_ / 1e6 / numImages_;
+   }
+
+   @Override
+   public String toString() {
+      return String.format(
+            "%s: %d images, %.1f ms per image, %.0f%% utilization of %d thread(s), queue wait %.1f ms mean, %.1f ms max",
+            name_, getNumImages(), getMeanProcessingTimeMs(),
+            100.0 * getUtilization(), numThreads_, getMeanQueueWaitMs(),
+            getMaxQueueWaitMs());
+   }
+}
@@ -129,6 +129,7 @@ public final class ChannelIntensityController implements HistogramView.Listener
       private int maxWidth_;
       private int meanWidth_;
       private int stdevWidth_;
+      private boolean estimated_ = false;
 
       StatsPanel() {
          super.setOpaque(true);
@@ -198,6 +199,18 @@ public final class ChannelIntensityController implements HistogramView.Listener
          repaint();
       }
 
+      // Estimated values are shown grayed out
+      void setEstimated(boolean estimated) {
+         if (estimated == estimated_) {
+            return;
+         }
+         estimated_ = estimated;
+         setToolTipText(estimated ?
+               "Estimated from a subset of pixels; exact values are shown when the image is not changing" :
+               null);
+         repaint();
+      }
+
       @Override
       public void paintComponent(Graphics g) {
          super.paintComponent(g);
@@ -208,6 +221,9 @@ public final class ChannelIntensityController implements HistogramView.Listener
          g.drawString("AVG", keyX2, y1);
          g.drawString("STD", keyX2, y2);
          g.setFont(valueFont_);
+         if (estimated_) {
+            g.setColor(Color.GRAY);
+         }
          g.drawString(max_, valueX1 - maxWidth_, y1);
          g.drawString(min_, valueX1 - minWidth_, y2);
          g.drawString(mean_, valueX2 - meanWidth_, y1);
@@ -417,6 +433,7 @@ public final class ChannelIntensityController implements HistogramView.Listener
       double stdev = componentStats.getStandardDeviation();
       intensityStatsPanel_.setStdev(Double.isNaN(stdev) ? null :
             String.format("%1.2e", stdev));
+      intensityStatsPanel_.setEstimated(componentStats.isEstimate());
 
       try {
          Image anyImage = viewer_.getDataProvider().getAnyImage();
@@ -435,6 +452,7 @@ public final class ChannelIntensityController implements HistogramView.Listener
          int lengthToUse = Math.min(data.length, (1 << rangeBits) - 1);
          histogram_.setComponentGraph(component, data, lengthToUse, lengthToUse);
          histogram_.setROIIndicator(componentStats.isROIStats());
+         histogram_.setEstimateIndicator(componentStats.isEstimate());
       
          updateScalingIndicators(settings, componentStats, component);
       } catch (IOException ioEx) {
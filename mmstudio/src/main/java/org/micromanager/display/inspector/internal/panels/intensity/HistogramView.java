@@ -75,6 +75,7 @@ public final class HistogramView extends JPanel {
    private boolean fillHistograms_ = true;
    private boolean plotLogIntensity_ = false;
    private boolean roiIndicatorEnabled_ = false;
+   private boolean estimateIndicatorEnabled_ = false;
    private String overlayText_ = null;
 
    // Layout state
@@ -280,6 +281,11 @@ public final class HistogramView extends JPanel {
       repaint();
    }
 
+   public void setEstimateIndicator(boolean enable) {
+      estimateIndicatorEnabled_ = enable;
+      repaint();
+   }
+
    public void setOverlayText(String text) {
       overlayText_ = text;
       repaint();
@@ -513,6 +519,7 @@ public final class HistogramView extends JPanel {
       drawLogIntensityIndicator(g);
       drawGammaIndicator(g);
       drawROIIndicator(g);
+      drawEstimateIndicator(g);
       drawOverlayText(g);
    }
 
@@ -752,6 +759,23 @@ public final class HistogramView extends JPanel {
             graphRight.y + metrics.getAscent() / 2);
    }
 
+   // Shown below the ROI indicator
+   private void drawEstimateIndicator(Graphics2D g) {
+      if (!estimateIndicatorEnabled_) {
+         return;
+      }
+      String text = "ESTIMATE";
+      Rectangle rect = getGraphRect();
+      Point graphRight = new Point(rect.x + rect.width, rect.y + rect.height / 2);
+
+      Graphics2D g2d = (Graphics2D) g.create();
+      g2d.setColor(OVERLAY_COLOR);
+      g2d.setFont(g2d.getFont().deriveFont(OVERLAY_FONT_SIZE).deriveFont(OVERLAY_FONT_STYLE));
+      FontMetrics metrics = g2d.getFontMetrics();
+      g2d.drawString(text, graphRight.x - metrics.stringWidth(text) - 3,
+            graphRight.y + metrics.getAscent() / 2 + metrics.getHeight());
+   }
+
    private void drawOverlayText(Graphics2D g) {
       if (overlayText_ == null || overlayText_.isEmpty()) {
          return;
@@ -0,0 +1,41 @@
+package org.micromanager.display.internal;
+
+/**
+ * Pixel arithmetic shared by the renderers that draw grayscale channels
+ * through a lookup table, without ImageJ, the way ImageJ draws them.
+ */
+public final class GrayRendering {
+   private GrayRendering() {
+   }
+
+   /**
+    * Scale an 8-bit value to a lookup table index, as
+    * ByteProcessor.setMinAndMax() does.
+    * @param v the pixel value (0-255)
+    * @param min the display minimum
+    * @param max the display maximum
+    * @return the lookup table index (0-255)
+    */
+   public static int scale8Bit(int v, double min, double max) {
+      if (v < min) {
+         return 0;
+      }
+      if (v > max) {
+         return 255;
+      }
+      return Math.min(255, (int) (256.0 * (v - (int) min) / (max - min)));
+   }
+
+   /**
+    * Add two RGB colors, saturating each component.
+    * @param rgb1 a color as 0xRRGGBB
+    * @param rgb2 a color as 0xRRGGBB
+    * @return the sum as 0xRRGGBB
+    */
+   public static int addSaturating(int rgb1, int rgb2) {
+      int r = Math.min(255, ((rgb1 >> 16) & 0xff) + ((rgb2 >> 16) & 0xff));
+      int g = Math.min(255, ((rgb1 >> 8) & 0xff) + ((rgb2 >> 8) & 0xff));
+      int b = Math.min(255, (rgb1 & 0xff) + (rgb2 & 0xff));
+      return (r << 16) | (g << 8) | b;
+   }
+}
@@ -0,0 +1,316 @@
+package org.micromanager.display.internal;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.SwingUtilities;
+import net.imglib2.display.ColorTable8;
+import org.micromanager.data.Image;
+import org.micromanager.display.ChannelDisplaySettings;
+import org.micromanager.display.ComponentDisplaySettings;
+import org.micromanager.display.DisplaySettings;
+import org.micromanager.display.internal.imagestats.BoundsRectAndMask;
+import org.micromanager.display.internal.imagestats.ImageStatsProcessor;
+import org.micromanager.display.internal.imagestats.ImageStatsRequest;
+import org.micromanager.display.internal.imagestats.ImagesAndStats;
+import org.micromanager.display.internal.imagestats.IntegerComponentStats;
+import org.micromanager.display.overlay.Overlay;
+import org.micromanager.internal.utils.ColorMaps;
+import org.micromanager.internal.utils.imageanalysis.ImageUtils;
+
+/**
+ * Renders images the way the display window shows them, without a window.
+ * <p>
+ * Intensity scaling (minimum, maximum and gamma, or autostretch), color mode,
+ * channel colors and channel visibility are taken from the display settings,
+ * and the overlays are painted on top. The image is rendered whole, at its
+ * own resolution. Rendering does not involve Swing or ImageJ, so it can be
+ * done on any thread (several frames in parallel) and in a headless JVM;
+ * only the overlays, which are written for the EDT, are painted on the EDT.
+ */
+public final class OffscreenRenderer {
+   private final DisplaySettings settings_;
+   private final List<Overlay> overlays_;
+   private final ImageStatsProcessor statsProcessor_;
+
+   /**
+    * @param settings the display settings to apply
+    * @param overlays overlays to paint (only the visible ones are painted)
+    * @return the renderer, which must be shut down after use
+    */
+   public static OffscreenRenderer create(DisplaySettings settings,
+         List<Overlay> overlays)
+   {
+      return new OffscreenRenderer(settings, overlays);
+   }
+
+   private OffscreenRenderer(DisplaySettings settings,
+         List<Overlay> overlays)
+   {
+      settings_ = settings;
+      overlays_ = new ArrayList<Overlay>(overlays);
+      statsProcessor_ = settings.isAutostretchEnabled() ?
+            ImageStatsProcessor.create() : null;
+   }
+
+   public void shutdown() {
+      if (statsProcessor_ != null) {
+         statsProcessor_.shutdown();
+      }
+   }
+
+   /**
+    * Render the images at one position.
+    *
+    * @param images the images at the position, one per channel
+    * @param primaryImage the image shown in non-composite color modes (and
+    * passed to overlays)
+    * @return the rendered RGB image
+    * @throws InterruptedException if interrupted while computing
+    * autostretch statistics
+    */
+   public BufferedImage render(List<Image> images, Image primaryImage)
+         throws InterruptedException
+   {
+      int width = primaryImage.getWidth();
+      int height = primaryImage.getHeight();
+      BufferedImage result = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_RGB);
+      int[] rgb = ((DataBufferInt) result.getRaster().getDataBuffer()).
+            getData();
+
+      List<Image> drawnImages;
+      if (settings_.getColorMode() == DisplaySettings.ColorMode.COMPOSITE &&
+            primaryImage.getNumComponents() == 1) {
+         drawnImages = new ArrayList<Image>();
+         for (Image image : images) {
+            if (settings_.isChannelVisible(getChannel(image))) {
+               drawnImages.add(image);
+            }
+         }
+      }
+      else {
+         drawnImages = Collections.singletonList(primaryImage);
+      }
+
+      ImagesAndStats stats = null;
+      if (statsProcessor_ != null && !drawnImages.isEmpty()) {
+         stats = statsProcessor_.process(0, ImageStatsRequest.create(
+               primaryImage.getCoords(), drawnImages,
+               BoundsRectAndMask.unselected()), true);
+      }
+
+      boolean first = true;
+      for (int i = 0; i < drawnImages.size(); ++i) {
+         Image image = drawnImages.get(i);
+         if (image.getWidth() != width || image.getHeight() != height) {
+            continue;
+         }
+         long[] range = getScalingRange(image, stats == null ? null :
+               stats.getResult().get(i).getComponentStats(0));
+         if (image.getNumComponents() == 1) {
+            int[] lut = getLUT(getChannel(image));
+            renderGray(image.getRawPixelsView(), range[0], range[1], lut,
+                  rgb, first);
+         }
+         else if (image.getRawPixelsView() instanceof byte[]) {
+            renderRGB((byte[]) image.getRawPixelsView(),
+                  image.getBytesPerPixel(), range[0], range[1], rgb);
+         }
+         first = false;
+      }
+
+      paintOverlays(result, images, primaryImage);
+      return result;
+   }
+
+   private static int getChannel(Image image) {
+      return Math.max(0, image.getCoords().getChannel());
+   }
+
+   // As applied to ImageJ by DisplayUIController
+   private long[] getScalingRange(Image image,
+         IntegerComponentStats stats)
+   {
+      long sampleMax = image.getBytesPerPixel() /
+            image.getNumComponents() == 1 ? 255 : 65535;
+      long min;
+      long max;
+      if (stats != null) {
+         double q = settings_.getAutoscaleIgnoredQuantile();
+         min = stats.getAutoscaleMinForQuantile(q);
+         max = stats.getAutoscaleMaxForQuantile(q);
+         if (min == max) {
+            if (max == 0) {
+               ++max;
+            }
+            else {
+               --min;
+            }
+         }
+      }
+      else {
+         ComponentDisplaySettings componentSettings = settings_.
+               getChannelSettings(getChannel(image)).getComponentSettings(0);
+         max = Math.max(1, componentSettings.getScalingMaximum());
+         min = Math.min(max - 1, componentSettings.getScalingMinimum());
+      }
+      return new long[] { Math.max(0, min), Math.min(sampleMax, max) };
+   }
+
+   // Packed RGB colors for the 256 scaled intensities, as in the
+   // ColorModeStrategy used by the display for the color mode
+   private int[] getLUT(int channel) {
+      ChannelDisplaySettings channelSettings =
+            settings_.getChannelSettings(channel);
+      double gamma = channelSettings.getComponentSettings(0).
+            getScalingGamma();
+      switch (settings_.getColorMode()) {
+         case COLOR:
+         case COMPOSITE:
+            return toPackedRGB(ImageUtils.makeLUT(channelSettings.getColor(),
+                  gamma));
+         case HIGHLIGHT_LIMITS:
+            int[] lut = toPackedRGB(ImageUtils.makeLUT(Color.WHITE, gamma));
+            lut[0] = 0x0000ff;
+            lut[255] = 0xff0000;
+            return lut;
+         case FIRE:
+            return toPackedRGB(ColorMaps.fireColorMap(), gamma);
+         case RED_HOT:
+            return toPackedRGB(ColorMaps.redHotColorMap(), gamma);
+         case GRAYSCALE:
+         default:
+            return toPackedRGB(ImageUtils.makeLUT(Color.WHITE, gamma));
+      }
+   }
+
+   private static int[] toPackedRGB(IndexColorModel lut) {
+      int[] result = new int[256];
+      for (int i = 0; i < 256; ++i) {
+         result[i] = lut.getRGB(Math.min(i, lut.getMapSize() - 1)) &
+               0xffffff;
+      }
+      return result;
+   }
+
+   private static int[] toPackedRGB(ColorTable8 table, double gamma) {
+      byte[][] values = table.getValues();
+      int len = values[0].length;
+      int[] result = new int[256];
+      for (int i = 0; i < 256; ++i) {
+         // Linear interpolation at the gamma-adjusted position
+         double j = Math.pow(i / 255.0, gamma) * (len - 1);
+         int m = (int) Math.floor(j);
+         int n = Math.min(len - 1, m + 1);
+         double p = j - m;
+         int packed = 0;
+         for (int c = 0; c < 3; ++c) {
+            double v = (1.0 - p) * (values[c][m] & 0xff) +
+                  p * (values[c][n] & 0xff);
+            packed = (packed << 8) | (int) Math.round(v);
+         }
+         result[i] = packed;
+      }
+      return result;
+   }
+
+   // Scale as ImageJ does for display, look up the color, and either store
+   // or add (with saturation) to the result
+   private static void renderGray(Object pixels, long min, long max,
+         int[] lut, int[] rgb, boolean overwrite)
+   {
+      double scale = 256.0 / (max - min + 1);
+      short[] shortPixels = pixels instanceof short[] ?
+            (short[]) pixels : null;
+      byte[] bytePixels = pixels instanceof byte[] ? (byte[]) pixels : null;
+      if (shortPixels == null && bytePixels == null) {
+         return;
+      }
+      // ImageJ's ByteProcessor scales differently from its ShortProcessor
+      int[] byteColors = null;
+      if (bytePixels != null) {
+         byteColors = new int[256];
+         for (int v = 0; v < 256; ++v) {
+            byteColors[v] = lut[GrayRendering.scale8Bit(v, min, max)];
+         }
+      }
+      for (int i = 0; i < rgb.length; ++i) {
+         int color;
+         if (shortPixels != null) {
+            int index = (int) (((shortPixels[i] & 0xffff) - min) * scale + 0.5);
+            color = lut[index < 0 ? 0 : (index > 255 ? 255 : index)];
+         }
+         else {
+            color = byteColors[bytePixels[i] & 0xff];
+         }
+         rgb[i] = overwrite ? color :
+               GrayRendering.addSaturating(rgb[i], color);
+      }
+   }
+
+   // RGB32 pixels are stored as B, G, R, (unused)
+   private static void renderRGB(byte[] pixels, int bytesPerPixel,
+         long min, long max, int[] rgb)
+   {
+      int[] table = new int[256];
+      for (int v = 0; v < 256; ++v) {
+         long scaled = (v - min) * 256 / (max - min + 1);
+         table[v] = (int) Math.max(0, Math.min(255, scaled));
+      }
+      for (int i = 0; i < rgb.length; ++i) {
+         int offset = i * bytesPerPixel;
+         rgb[i] = (table[pixels[offset + 2] & 0xff] << 16) |
+               (table[pixels[offset + 1] & 0xff] << 8) |
+               table[pixels[offset] & 0xff];
+      }
+   }
+
+   private void paintOverlays(final BufferedImage result,
+         final List<Image> images, final Image primaryImage)
+         throws InterruptedException
+   {
+      if (overlays_.isEmpty()) {
+         return;
+      }
+      Runnable paint = new Runnable() {
+         @Override
+         public void run() {
+            Rectangle bounds = new Rectangle(0, 0, result.getWidth(),
+                  result.getHeight());
+            Rectangle2D.Float viewPort = new Rectangle2D.Float(0, 0,
+                  result.getWidth(), result.getHeight());
+            Graphics2D g = result.createGraphics();
+            try {
+               for (Overlay overlay : overlays_) {
+                  if (overlay.isVisible()) {
+                     overlay.paintOverlay(g, bounds, settings_, images,
+                           primaryImage, viewPort);
+                  }
+               }
+            }
+            finally {
+               g.dispose();
+            }
+         }
+      };
+      if (SwingUtilities.isEventDispatchThread()) {
+         paint.run();
+         return;
+      }
+      try {
+         SwingUtilities.invokeAndWait(paint);
+      }
+      catch (InvocationTargetException e) {
+         throw new RuntimeException(e.getCause());
+      }
+   }
+}
@@ -14,6 +14,7 @@
 package org.micromanager.display.internal.animate;
 
 import com.google.common.collect.Lists;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -103,19 +104,7 @@ public class DataCoordsAnimationState implements AnimationStateDelegate<Coords>
          return null;
       }
 
-      CoordsBuilder cb = new DefaultCoords.Builder();
-      for (String axis : Lists.reverse(axes)) {
-         int prevIndex = prevPos.getIndex(axis);
-         if (!animatedAxes.contains(axis) || framesToAdvance == 0) {
-            cb.index(axis, prevIndex);
-            continue;
-         }
-         int axisLength = delegate_.getMaximumExtentOfAxis(axis) + 1;
-         int unwrappedNewIndex = prevIndex + framesToAdvance;
-         cb.index(axis, unwrappedNewIndex % axisLength);
-         framesToAdvance = unwrappedNewIndex / axisLength;
-      }
-      animationCoords_ = cb.build();
+      animationCoords_ = step(prevPos, framesToAdvance, axes, animatedAxes);
 
       // Skip forward to first extant coords. But guard against the possibility
       // that we will never find
@@ -134,6 +123,56 @@ public class DataCoordsAnimationState implements AnimationStateDelegate<Coords>
       return animationCoords_;
    }
 
+   // Advance the animated axes by the given number of frames, wrapping around
+   private Coords step(Coords prevPos, int framesToAdvance, List<String> axes,
+         Collection<String> animatedAxes)
+   {
+      CoordsBuilder cb = new DefaultCoords.Builder();
+      for (String axis : Lists.reverse(axes)) {
+         int prevIndex = prevPos.getIndex(axis);
+         if (!animatedAxes.contains(axis) || framesToAdvance == 0) {
+            cb.index(axis, prevIndex);
+            continue;
+         }
+         int axisLength = delegate_.getMaximumExtentOfAxis(axis) + 1;
+         int unwrappedNewIndex = prevIndex + framesToAdvance;
+         cb.index(axis, unwrappedNewIndex % axisLength);
+         framesToAdvance = unwrappedNewIndex / axisLength;
+      }
+      return cb.build();
+   }
+
+   /**
+    * Compute the positions that the animation will reach next, one frame at
+    * a time, without changing the animation position. Positions for which
+    * no data exists are skipped.
+    *
+    * Used to prefetch the data that is about to be displayed.
+    *
+    * @param count the maximum number of positions to return
+    * @return upcoming positions, in order; empty if not animating
+    */
+   public synchronized List<Coords> getUpcomingPositions(int count) {
+      List<Coords> result = new ArrayList<Coords>(count);
+      final Collection<String> animatedAxes = delegate_.getAnimatedAxes();
+      if (animatedAxes.isEmpty()) {
+         return result;
+      }
+      final List<String> axes = delegate_.getOrderedAxes();
+      final Coords start = getFullPosition(animationCoords_);
+      Coords pos = start;
+      while (result.size() < count) {
+         pos = step(pos, 1, axes, animatedAxes);
+         if (pos.equals(start)) {
+            break; // Wrapped around
+         }
+         if (delegate_.coordsExist(pos)) {
+            result.add(pos);
+         }
+      }
+      return result;
+   }
+
    @Override
    public synchronized Coords getFullPosition(Coords partialPosition) {
       // Fill in missing coords with known current position, or else zero.
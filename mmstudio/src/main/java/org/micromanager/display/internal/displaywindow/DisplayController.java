@@ -65,10 +65,12 @@ import org.micromanager.internal.utils.CoalescentEDTRunnablePool;
 import org.micromanager.internal.utils.CoalescentEDTRunnablePool.CoalescentRunnable;
 import org.micromanager.internal.utils.MustCallOnEDT;
 import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.PerformanceMonitorRegistry;
 import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.DataProviderHasNewNameEvent;
 import org.micromanager.data.Datastore;
+import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.display.internal.RememberedSettings;
 import org.micromanager.display.internal.link.internal.DefaultLinkManager;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -108,6 +110,11 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
    private final StatsComputeQueue computeQueue_ = StatsComputeQueue.create();
    private static final long MIN_REPAINT_PERIOD_NS = Math.round(1e9 / 60.0);
+   // Number of upcoming animation frames whose images are read ahead
+   private static final int PREFETCH_FRAMES = 8;
+   // Allowed quantile error of the fast stats computed while images change;
+   // exact stats follow once the displayed image stays put
+   private static final double FAST_STATS_QUANTILE_ERROR = 0.002;
 
    private final LinkManager linkManager_;
 
@@ -135,7 +142,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          CoalescentEDTRunnablePool.create();
 
    private final PerformanceMonitor perfMon_ =
-         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+         PerformanceMonitor.createRegistered("display", 1000.0);
    private final PerformanceMonitorUI perfMonUI_ =
          PerformanceMonitorUI.create(perfMon_, "Display Performance");
 
@@ -545,6 +552,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          // TODO Should display error
          images = Collections.emptyList();
       }
+      prefetchUpcomingImages();
 
       // Images are sorted by channel here, since we don't (yet) have any other
       // way to correctly recombine stats with newer images (when update rate
@@ -580,7 +588,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
       perfMon_.sampleTimeInterval("Submitting compute request");
       computeQueue_.submitRequest(ImageStatsRequest.create(position, images,
-            selection));
+            selection, FAST_STATS_QUANTILE_ERROR));
 
       return position;
    }
@@ -775,6 +783,25 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       }
    }
 
+   // During playback, have the datastore read ahead the images of the next
+   // few frames (effective only for datastores that cache images)
+   private void prefetchUpcomingImages() {
+      if (!(dataProvider_ instanceof DefaultDatastore) ||
+            animationController_ == null ||
+            !animationController_.isAnimating()) {
+         return;
+      }
+      List<Coords> positions = new ArrayList<>();
+      for (Coords pos : animationState_.getUpcomingPositions(PREFETCH_FRAMES)) {
+         Coords channellessPos = pos.hasAxis(Coords.CHANNEL) ?
+               pos.copyBuilder().removeAxis(Coords.CHANNEL).build() : pos;
+         if (!positions.contains(channellessPos)) {
+            positions.add(channellessPos);
+         }
+      }
+      ((DefaultDatastore) dataProvider_).prefetchImages(positions);
+   }
+
    public boolean isAnimating() {
       return animationController_.isAnimating();
    }
@@ -1034,7 +1061,8 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          // TODO: report exception
       }
       animationController_.shutdown();
-      
+      PerformanceMonitorRegistry.getInstance().unregister(perfMon_);
+
       studio_.events().unregisterForEvents(this);
       dataProvider_.unregisterForEvents(this);
       // need to set the flag before closing the UIController,
@@ -0,0 +1,126 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.util.List;
+import org.micromanager.display.internal.GrayRendering;
+
+/**
+ * Applies LUTs to, and composites, a region of downsampled image levels.
+ * <p>
+ * This does for {@link ImageLevelCache} levels what ImageJ does for the
+ * full-resolution image when painting: scale each sample to an 8-bit index
+ * using the min and max (as ImageJ's {@code ShortProcessor} and
+ * {@code ByteProcessor} do, which differ slightly), look up
+ * the color in the LUT, and, for composite display, add the channel colors
+ * with saturation.
+ */
+final class DownsampledRenderer {
+   static final class Channel {
+      private final ImageLevelCache.Level level_;
+      private final int[] rgbLUT_;
+      private final double min_;
+      private final double max_;
+
+      /**
+       * @param level the downsampled image
+       * @param lut color model with (up to) 256 entries
+       * @param min sample value mapped to LUT index 0
+       * @param max sample value mapped to LUT index 255
+       */
+      Channel(ImageLevelCache.Level level, IndexColorModel lut,
+            double min, double max)
+      {
+         level_ = level;
+         min_ = min;
+         max_ = max;
+         rgbLUT_ = new int[256];
+         int size = lut.getMapSize();
+         for (int i = 0; i < 256; ++i) {
+            rgbLUT_[i] = lut.getRGB(Math.min(i, size - 1)) & 0xffffff;
+         }
+      }
+
+      ImageLevelCache.Level getLevel() {
+         return level_;
+      }
+   }
+
+   private DownsampledRenderer() {
+   }
+
+   /**
+    * Render a region of the channels.
+    *
+    * @param channels channels to render, all levels of the same size
+    * @param region region of the levels to render
+    * @return an RGB image the size of the region
+    */
+   static BufferedImage render(List<Channel> channels, Rectangle region) {
+      BufferedImage result = new BufferedImage(region.width, region.height,
+            BufferedImage.TYPE_INT_RGB);
+      int[] rgb = ((DataBufferInt) result.getRaster().getDataBuffer()).
+            getData();
+      boolean first = true;
+      for (Channel channel : channels) {
+         renderChannel(channel, region, rgb, first);
+         first = false;
+      }
+      return result;
+   }
+
+   private static void renderChannel(Channel channel, Rectangle region,
+         int[] rgb, boolean overwrite)
+   {
+      ImageLevelCache.Level level = channel.level_;
+      int levelWidth = level.getWidth();
+      int[] lut = channel.rgbLUT_;
+      double min = channel.min_;
+      double scale = 256.0 / (channel.max_ - channel.min_ + 1.0);
+      short[] shortPixels = level.getPixels() instanceof short[] ?
+            (short[]) level.getPixels() : null;
+      byte[] bytePixels = shortPixels == null ?
+            (byte[]) level.getPixels() : null;
+      // ImageJ's ByteProcessor scales differently from its ShortProcessor
+      int[] byteColors = null;
+      if (bytePixels != null) {
+         byteColors = new int[256];
+         for (int v = 0; v < 256; ++v) {
+            byteColors[v] = lut[GrayRendering.scale8Bit(v, channel.min_,
+                  channel.max_)];
+         }
+      }
+      for (int y = 0; y < region.height; ++y) {
+         int src = (region.y + y) * levelWidth + region.x;
+         int dst = y * region.width;
+         for (int x = 0; x < region.width; ++x, ++src, ++dst) {
+            int color;
+            if (shortPixels != null) {
+               int index = (int) (((shortPixels[src] & 0xffff) - min) *
+                     scale + 0.5);
+               color = lut[index < 0 ? 0 : (index > 255 ? 255 : index)];
+            }
+            else {
+               color = byteColors[bytePixels[src] & 0xff];
+            }
+            rgb[dst] = overwrite ? color :
+                  GrayRendering.addSaturating(rgb[dst], color);
+         }
+      }
+   }
+}
@@ -24,6 +24,8 @@ import ij.gui.Roi;
 import ij.io.FileInfo;
 import ij.measure.Calibration;
 import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
@@ -32,10 +34,13 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import javax.swing.SwingUtilities;
 import net.imglib2.display.ColorTable8;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
@@ -68,7 +73,7 @@ import org.micromanager.internal.utils.MustCallOnEDT;
  *
  * @author Mark Tsuchida
  */
-public final class ImageJBridge {
+public final class ImageJBridge implements MMVirtualStack.Source {
    private final DisplayUIController uiController_;
 
    // Our child objects on the ImageJ side. These are created and owned by this
@@ -108,6 +113,9 @@ public final class ImageJBridge {
    private ProxyImageWindow proxyWindow_;
    private MMImageCanvas canvas_;
 
+   // Downsampled images for painting at low zoom
+   private final ImageLevelCache levelCache_ = new ImageLevelCache();
+
    // How to set up intensity scaling and/or LUT for the current ImagePlus,
    // which may be monochrome, composite, or RGB.
    private ColorModeStrategy colorModeStrategy_;
@@ -184,7 +192,7 @@ public final class ImageJBridge {
       // ImagePlus, ImageCanvas, and ImageWindow are all interdependent, but
       // need to be created in that order.
 
-      imagePlus_ = MMImagePlus.create(this);
+      imagePlus_ = MMImagePlus.create(this, proxyStack_);
 
       imagePlus_.setStack("New µManager-ImageJ Bridge", proxyStack_);
       imagePlus_.setOpenAsHyperStack(true);
@@ -204,7 +212,8 @@ public final class ImageJBridge {
    @MustCallOnEDT
    private void switchToCompositeImage() {
       proxyStack_.setSingleImageMode(true);
-      MMCompositeImage composite = MMCompositeImage.create(this, imagePlus_);
+      MMCompositeImage composite = MMCompositeImage.create(this, proxyStack_,
+            imagePlus_);
       composite.setOpenAsHyperStack(true);
       imagePlus_ = composite;
 
@@ -327,6 +336,13 @@ public final class ImageJBridge {
 
    @MustCallOnEDT
    public void mm2ijSetDisplayPosition(Coords coords) {
+      // ImageJ fetches the new images from the stack here; they are only
+      // drawn, so let it share their pixels
+      runSharingPixels(() -> setDisplayPosition(coords));
+   }
+
+   @MustCallOnEDT
+   private void setDisplayPosition(Coords coords) {
       int ijFlatIndex = getIJFlatIndexForMMCoords(coords);
 
       // Calling imagePlus_.setSlice() would result in a call to
@@ -379,6 +395,30 @@ public final class ImageJBridge {
       colorModeStrategy_.displayedImageDidChange();
    }
 
+   /**
+    * Run display code that makes ImageJ fetch and draw the displayed images,
+    * letting it share their pixel arrays instead of copying them (see
+    * {@link MMVirtualStack}). The code must not hand ImageJ processors to
+    * anything that might modify them.
+    *
+    * @param displayCode the code to run
+    */
+   @MustCallOnEDT
+   void runSharingPixels(Runnable displayCode) {
+      MMVirtualStack stack = proxyStack_;
+      if (stack == null) { // Closed
+         displayCode.run();
+         return;
+      }
+      stack.beginSharingPixels();
+      try {
+         displayCode.run();
+      }
+      finally {
+         stack.endSharingPixels();
+      }
+   }
+
    @MustCallOnEDT
    public boolean isIJRGB() {
       return colorModeStrategy_ instanceof RGBColorModeStrategy;
@@ -389,7 +429,8 @@ public final class ImageJBridge {
       Preconditions.checkState(
             (strategy instanceof RGBColorModeStrategy) == isIJRGB());
       colorModeStrategy_ = strategy;
-      colorModeStrategy_.applyModeToImagePlus(imagePlus_);
+      runSharingPixels(() ->
+            colorModeStrategy_.applyModeToImagePlus(imagePlus_));
       mm2ijRepaint();
    }
 
@@ -419,7 +460,7 @@ public final class ImageJBridge {
 
    @MustCallOnEDT
    public void mm2ijSetHighlightSaturatedPixels(boolean enable) {
-      colorModeStrategy_.applyHiLoHighlight(enable);
+      runSharingPixels(() -> colorModeStrategy_.applyHiLoHighlight(enable));
    }
 
    @MustCallOnEDT
@@ -444,25 +485,28 @@ public final class ImageJBridge {
 
    @MustCallOnEDT
    public void mm2ijSetChannelColor(int channel, Color color) {
-      colorModeStrategy_.applyColor(channel, color);
+      runSharingPixels(() -> colorModeStrategy_.applyColor(channel, color));
       mm2ijRepaint();
    }
 
    @MustCallOnEDT
    public void mm2ijSetIntensityScaling(int channelOrComponent, int min, int max) {
-      colorModeStrategy_.applyScaling(channelOrComponent, min, max);
+      runSharingPixels(() ->
+            colorModeStrategy_.applyScaling(channelOrComponent, min, max));
       mm2ijRepaint();
    }
 
    @MustCallOnEDT
    public void mm2ijSetIntensityGamma(int channelOrComponent, double gamma) {
-      colorModeStrategy_.applyGamma(channelOrComponent, gamma);
+      runSharingPixels(() ->
+            colorModeStrategy_.applyGamma(channelOrComponent, gamma));
       mm2ijRepaint();
    }
 
    @MustCallOnEDT
    public void mm2ijSetVisibleChannels(int channelOrComponent, boolean visible) {
-      colorModeStrategy_.applyVisibleInComposite(channelOrComponent, visible);
+      runSharingPixels(() -> colorModeStrategy_.applyVisibleInComposite(
+            channelOrComponent, visible));
       mm2ijRepaint();
    }
 
@@ -483,11 +527,151 @@ public final class ImageJBridge {
       uiController_.paintOverlays(g, canvasBounds, viewPort);
    }
 
+   /**
+    * Paint the image from a downsampled level when zoomed out, so that the
+    * cost of applying LUTs and compositing scales with the canvas size
+    * rather than the image size.
+    * <p>
+    * Levels are built in the background: if they are not yet available, the
+    * build is requested, the canvas is repainted once it is done, and false
+    * is returned so that ImageJ paints the image meanwhile.
+    *
+    * @return false if the image should instead be painted by ImageJ (zoom
+    * ratio above 0.5, RGB or unsupported pixel type, images missing, or
+    * levels not yet built)
+    */
+   @MustCallOnEDT
+   boolean paintDownsampledImage(Graphics2D g, Rectangle sourceRect,
+         double zoomRatio)
+   {
+      final int level = ImageLevelCache.levelForZoom(zoomRatio);
+      if (level == 0 || isIJRGB() || proxyStack_ == null) {
+         return false;
+      }
+
+      List<Integer> flatIndices = new ArrayList<Integer>();
+      List<LUT> luts = new ArrayList<LUT>();
+      if (imagePlus_ instanceof CompositeImage &&
+            ((CompositeImage) imagePlus_).getMode() ==
+            CompositeImage.COMPOSITE)
+      {
+         CompositeImage compositeImage = (CompositeImage) imagePlus_;
+         boolean[] active = compositeImage.getActiveChannels();
+         int nChannels = ((IMMImagePlus) compositeImage).
+               getNChannelsWithoutSideEffect();
+         for (int i = 0; i < nChannels; ++i) {
+            if (i < active.length && !active[i]) {
+               continue;
+            }
+            flatIndices.add(compositeImage.getStackIndex(i + 1,
+                  compositeImage.getSlice(), compositeImage.getFrame()));
+            luts.add(compositeImage.getChannelLut(i + 1));
+         }
+      }
+      else {
+         flatIndices.add(imagePlus_.getCurrentSlice());
+         luts.add(null);
+      }
+      if (flatIndices.isEmpty()) {
+         return false;
+      }
+
+      final List<Image> images = new ArrayList<Image>();
+      for (int flatIndex : flatIndices) {
+         // Blank stand-ins for missing images are created anew each time, so
+         // there is no point in caching their levels
+         Image image = findDisplayedMMImage(
+               getMMCoordsForIJFlatIndex(flatIndex));
+         if (image == null || !ImageLevelCache.isSupported(image)) {
+            return false;
+         }
+         images.add(image);
+      }
+      if (!areLevelsCached(images, level)) {
+         levelCache_.requestLevels(images, level, new Runnable() {
+            @Override
+            public void run() {
+               // Unless evicted already, which would repeat forever
+               if (areLevelsCached(images, level)) {
+                  SwingUtilities.invokeLater(new Runnable() {
+                     @Override
+                     public void run() {
+                        if (canvas_ != null) {
+                           canvas_.repaint();
+                        }
+                     }
+                  });
+               }
+            }
+         });
+         return false;
+      }
+
+      List<DownsampledRenderer.Channel> channels =
+            new ArrayList<DownsampledRenderer.Channel>();
+      for (int i = 0; i < images.size(); ++i) {
+         ImageLevelCache.Level levelImage =
+               levelCache_.getLevelIfCached(images.get(i), level);
+         if (levelImage == null) {
+            return false; // Evicted meanwhile
+         }
+         LUT lut = luts.get(i);
+         if (lut != null) {
+            channels.add(new DownsampledRenderer.Channel(levelImage, lut,
+                  lut.min, lut.max));
+            continue;
+         }
+         // The processor's color model is the unscaled LUT
+         ImageProcessor proc = imagePlus_.getProcessor();
+         if (!(proc.getColorModel() instanceof IndexColorModel)) {
+            return false;
+         }
+         channels.add(new DownsampledRenderer.Channel(levelImage,
+               (IndexColorModel) proc.getColorModel(),
+               proc.getMin(), proc.getMax()));
+      }
+
+      // Region of the level covering the source rect
+      int levelWidth = channels.get(0).getLevel().getWidth();
+      int levelHeight = channels.get(0).getLevel().getHeight();
+      double scale = 1 << level;
+      int x0 = Math.max(0, (int) Math.floor(sourceRect.x / scale));
+      int y0 = Math.max(0, (int) Math.floor(sourceRect.y / scale));
+      int x1 = Math.min(levelWidth, (int) Math.ceil(
+            (sourceRect.x + sourceRect.width) / scale));
+      int y1 = Math.min(levelHeight, (int) Math.ceil(
+            (sourceRect.y + sourceRect.height) / scale));
+      if (x1 <= x0 || y1 <= y0) {
+         return false;
+      }
+      Rectangle region = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+
+      // Like ImageJ when zoomed out, leave the interpolation to the default
+      // (nearest neighbor); the level already averages the pixels
+      AffineTransform transform = AffineTransform.getScaleInstance(
+            zoomRatio * scale, zoomRatio * scale);
+      transform.translate(x0 - sourceRect.x / scale,
+            y0 - sourceRect.y / scale);
+      g.drawImage(DownsampledRenderer.render(channels, region),
+            transform, null);
+      return true;
+   }
+
+   private boolean areLevelsCached(List<Image> images, int level) {
+      for (Image image : images) {
+         if (levelCache_.getLevelIfCached(image, level) == null) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    void ijPaintDidFinish() {
       uiController_.paintDidFinish();
    }
 
-   Coords getMMCoordsForIJFlatIndex(int flatIndex) {
+   @Override
+   public Coords getMMCoordsForIJFlatIndex(int flatIndex) {
       int[] ijPos3d = imagePlus_.convertIndexToPosition(flatIndex);
       int channel = ijPos3d[0] - 1;
       int zSlice = ijPos3d[1] - 1;
@@ -524,30 +708,47 @@ public final class ImageJBridge {
             1;
    }
 
-   int getMMNumberOfTimePoints() {
+   @Override
+   public int getMMNumberOfTimePoints() {
       return Math.max(1, uiController_.getDisplayedAxisLength(Coords.T));
    }
 
-   int getMMNumberOfZSlices() {
+   @Override
+   public int getMMNumberOfZSlices() {
       return Math.max(1, uiController_.getDisplayedAxisLength(Coords.Z));
    }
 
-   int getMMNumberOfChannels() {
+   @Override
+   public int getMMNumberOfChannels() {
       return Math.max(1, uiController_.getDisplayedAxisLength(Coords.CHANNEL));
    }
 
-   int getMMWidth() {
+   @Override
+   public int getMMWidth() {
       return uiController_.getImageWidth();
    }
 
-   int getMMHeight() {
+   @Override
+   public int getMMHeight() {
       return uiController_.getImageHeight();
    }
 
-   Image getMMImage(Coords coords) {
+   @Override
+   public Image getMMImage(Coords coords) {
       // This is where we map MM images to the TZC coords requested by ImageJ.
       // Normally, return the currently displayed images cached by the UI
       // controller.
+      Image image = findDisplayedMMImage(coords);
+      if (image != null) {
+         return image;
+      }
+      // TODO When enabling missing image strategies, we need to map back to
+      // the image assigned to the nominal coordinates
+      return makeBlankImage(coords);
+   }
+
+   // The displayed image at the coords, or null if there is none
+   private Image findDisplayedMMImage(Coords coords) {
       List<Image> images = uiController_.getDisplayedImages();
       IMAGES: for (Image image : images) {
          Coords c = image.getCoords();
@@ -562,9 +763,7 @@ public final class ImageJBridge {
          }
          return image;
       }
-      // TODO When enabling missing image strategies, we need to map back to
-      // the image assigned to the nominal coordinates
-      return makeBlankImage(coords);
+      return null;
    }
 
    private Image makeBlankImage(Coords coords) {
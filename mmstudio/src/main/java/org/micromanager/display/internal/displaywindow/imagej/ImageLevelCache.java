@@ -0,0 +1,262 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.data.Image;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Cache of downsampled versions ("levels") of recently displayed images.
+ * <p>
+ * Level n has 1/2^n the width and height of the image, each pixel being the
+ * mean of a 2x2 block of level n - 1. Levels are built on a background thread
+ * when requested, so that rendering a zoomed-out view costs in proportion to
+ * the screen area rather than the image size. The cache is bounded by the
+ * bytes of the levels and does not keep the images alive; level 0 is the
+ * image itself and is not stored.
+ * Only single-component 8- and 16-bit images are supported.
+ */
+final class ImageLevelCache {
+   // Shared by all displays, so that building levels takes at most one core
+   private static final ExecutorService builder_ =
+         Executors.newSingleThreadExecutor(
+               ThreadFactoryFactory.createThreadFactory("ImageLevelCache"));
+
+   static final class Level {
+      private final Object pixels_;
+      private final int width_;
+      private final int height_;
+
+      private Level(Object pixels, int width, int height) {
+         pixels_ = pixels;
+         width_ = width;
+         height_ = height;
+      }
+
+      // byte[] or short[], row-major
+      Object getPixels() {
+         return pixels_;
+      }
+
+      int getWidth() {
+         return width_;
+      }
+
+      int getHeight() {
+         return height_;
+      }
+
+      private long getBytes() {
+         return (long) width_ * height_ * (pixels_ instanceof byte[] ? 1 : 2);
+      }
+   }
+
+   // Levels 1, 2, ... of each image. Images are immutable, so levels stay
+   // valid for as long as they are cached. Weak keys compare by identity.
+   private final Cache<Image, Level[]> levels_;
+
+   // The latest request not yet being built; guarded by this
+   private List<Image> requestedImages_;
+   private int requestedLevel_;
+   private Runnable requestedCallback_;
+
+   ImageLevelCache() {
+      this(Runtime.getRuntime().maxMemory() / 32);
+   }
+
+   ImageLevelCache(long maxBytes) {
+      levels_ = CacheBuilder.newBuilder().
+            weakKeys().
+            // A single segment, so that the whole budget is available to
+            // one image (there are few writers anyway)
+            concurrencyLevel(1).
+            maximumWeight(maxBytes).
+            weigher(new Weigher<Image, Level[]>() {
+               @Override
+               public int weigh(Image image, Level[] levels) {
+                  long bytes = 0;
+                  for (Level level : levels) {
+                     bytes += level.getBytes();
+                  }
+                  return Ints.saturatedCast(bytes);
+               }
+            }).
+            build();
+   }
+
+   /**
+    * Return the level to use for displaying at a zoom ratio: the coarsest
+    * level that still has at least one pixel per screen pixel.
+    */
+   static int levelForZoom(double zoomRatio) {
+      int level = 0;
+      while (level < 30 && zoomRatio * (1 << (level + 1)) <= 1.0 + 1e-9) {
+         ++level;
+      }
+      return level;
+   }
+
+   static boolean isSupported(Image image) {
+      Object pixels = image.getRawPixelsView();
+      return image.getNumComponents() == 1 &&
+            (pixels instanceof byte[] || pixels instanceof short[]);
+   }
+
+   /**
+    * Return the given level of the image if it is available without
+    * downsampling.
+    *
+    * @param image the image, which must be supported
+    * @param level the level (0 = full resolution)
+    * @return the level, or null if it has not been built (or was evicted)
+    */
+   Level getLevelIfCached(Image image, int level) {
+      if (level == 0) {
+         return new Level(image.getRawPixelsView(),
+               image.getWidth(), image.getHeight());
+      }
+      Level[] levels = levels_.getIfPresent(image);
+      if (levels == null || levels.length < level) {
+         return null;
+      }
+      return levels[level - 1];
+   }
+
+   /**
+    * Return the given level of the image, building it (on the calling
+    * thread) if necessary.
+    *
+    * @param image the image
+    * @param level the level (0 = full resolution)
+    * @return the level, or null if the image's pixel format is not supported
+    */
+   Level getLevel(Image image, int level) {
+      if (!isSupported(image)) {
+         return null;
+      }
+      Level cached = getLevelIfCached(image, level);
+      if (cached != null) {
+         return cached;
+      }
+      // Continue from the deepest cached level. No lock is held while
+      // downsampling; should two threads build the same levels, either
+      // result will do.
+      Level[] levels = levels_.getIfPresent(image);
+      if (levels == null) {
+         levels = new Level[0];
+      }
+      Level source = levels.length == 0 ? getLevelIfCached(image, 0) :
+            levels[levels.length - 1];
+      Level[] deeper = Arrays.copyOf(levels, level);
+      for (int i = levels.length; i < level; ++i) {
+         source = downsample(source);
+         deeper[i] = source;
+      }
+      // Replace rather than modify the array, so that it is reweighed
+      levels_.put(image, deeper);
+      return deeper[level - 1];
+   }
+
+   /**
+    * Build the given level of the images on a background thread, then run
+    * the callback (on that thread).
+    * <p>
+    * A request replaces any earlier one whose building has not started, so
+    * that a display receiving images faster than their levels can be built
+    * only builds those of the latest image.
+    */
+   synchronized void requestLevels(List<Image> images, int level,
+         Runnable callback)
+   {
+      boolean isBuildScheduled = requestedImages_ != null;
+      requestedImages_ = new ArrayList<Image>(images);
+      requestedLevel_ = level;
+      requestedCallback_ = callback;
+      if (!isBuildScheduled) {
+         builder_.execute(new Runnable() {
+            @Override
+            public void run() {
+               buildRequestedLevels();
+            }
+         });
+      }
+   }
+
+   private void buildRequestedLevels() {
+      List<Image> images;
+      int level;
+      Runnable callback;
+      synchronized (this) {
+         images = requestedImages_;
+         level = requestedLevel_;
+         callback = requestedCallback_;
+         requestedImages_ = null;
+         requestedCallback_ = null;
+      }
+      for (Image image : images) {
+         getLevel(image, level);
+      }
+      callback.run();
+   }
+
+   private static Level downsample(Level src) {
+      int srcW = src.width_;
+      int srcH = src.height_;
+      int w = (srcW + 1) / 2;
+      int h = (srcH + 1) / 2;
+      if (src.pixels_ instanceof byte[]) {
+         byte[] in = (byte[]) src.pixels_;
+         byte[] out = new byte[w * h];
+         for (int y = 0; y < h; ++y) {
+            int y0 = 2 * y;
+            int y1 = Math.min(y0 + 1, srcH - 1);
+            for (int x = 0; x < w; ++x) {
+               int x0 = 2 * x;
+               int x1 = Math.min(x0 + 1, srcW - 1);
+               int sum = (in[y0 * srcW + x0] & 0xff) +
+                     (in[y0 * srcW + x1] & 0xff) +
+                     (in[y1 * srcW + x0] & 0xff) +
+                     (in[y1 * srcW + x1] & 0xff);
+               out[y * w + x] = (byte) ((sum + 2) >> 2);
+            }
+         }
+         return new Level(out, w, h);
+      }
+      short[] in = (short[]) src.pixels_;
+      short[] out = new short[w * h];
+      for (int y = 0; y < h; ++y) {
+         int y0 = 2 * y;
+         int y1 = Math.min(y0 + 1, srcH - 1);
+         for (int x = 0; x < w; ++x) {
+            int x0 = 2 * x;
+            int x1 = Math.min(x0 + 1, srcW - 1);
+            int sum = (in[y0 * srcW + x0] & 0xffff) +
+                  (in[y0 * srcW + x1] & 0xffff) +
+                  (in[y1 * srcW + x0] & 0xffff) +
+                  (in[y1 * srcW + x1] & 0xffff);
+            out[y * w + x] = (short) ((sum + 2) >> 2);
+         }
+      }
+      return new Level(out, w, h);
+   }
+}
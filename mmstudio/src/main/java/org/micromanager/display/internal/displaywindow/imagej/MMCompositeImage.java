@@ -16,6 +16,8 @@ package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.CompositeImage;
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import org.micromanager.data.internal.DefaultImageJConverter;
 
 /**
  * Wrapped version of ImageJ's {@code CompositeImage}.
@@ -26,13 +28,59 @@ import ij.ImagePlus;
 public final class MMCompositeImage extends CompositeImage
       implements IMMImagePlus
 {
-   static MMCompositeImage create(ImageJBridge parent, ImagePlus predecessor) {
-      return new MMCompositeImage(parent, predecessor);
+   private final MMVirtualStack stack_;
+
+   static MMCompositeImage create(ImageJBridge parent, MMVirtualStack stack,
+         ImagePlus predecessor) {
+      return new MMCompositeImage(parent, stack, predecessor);
    }
 
-   private MMCompositeImage(ImageJBridge parent, ImagePlus predecessor) {
+   private MMCompositeImage(ImageJBridge parent, MMVirtualStack stack,
+         ImagePlus predecessor) {
       super(predecessor, COMPOSITE);
       // So far we don't use parent reference
+      stack_ = stack;
+   }
+
+   // Processors are returned with their own copy of the pixels unless
+   // called by the display code (see MMVirtualStack and MMImagePlus)
+   private ImageProcessor unsharedUnlessDisplaying(ImageProcessor processor) {
+      // stack_ is null while CompositeImage's constructor runs
+      if (stack_ == null || !stack_.isSharingPixels()) {
+         DefaultImageJConverter.unshareProcessor(processor);
+      }
+      return processor;
+   }
+
+   @Override
+   public ImageProcessor getProcessor() {
+      return unsharedUnlessDisplaying(super.getProcessor());
+   }
+
+   @Override
+   public ImageProcessor getProcessor(int channel) {
+      return unsharedUnlessDisplaying(super.getProcessor(channel));
+   }
+
+   @Override
+   public ImageProcessor getChannelProcessor() {
+      return unsharedUnlessDisplaying(super.getChannelProcessor());
+   }
+
+   @Override
+   protected void notifyListeners(int id) {
+      // Listeners may be plugins
+      if (stack_ == null) {
+         super.notifyListeners(id);
+         return;
+      }
+      int sharingDepth = stack_.suspendSharingPixels();
+      try {
+         super.notifyListeners(id);
+      }
+      finally {
+         stack_.resumeSharingPixels(sharingDepth);
+      }
    }
 
    @Override
@@ -15,6 +15,8 @@
 package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.gui.ImageCanvas;
+import ij.gui.Overlay;
+import ij.gui.Roi;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Graphics;
@@ -30,8 +32,10 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.lang.reflect.Method;
 import javax.swing.SwingUtilities;
 import org.micromanager.internal.utils.MustCallOnEDT;
+import org.micromanager.internal.utils.ReportingUtils;
 
 /**
  * Our wrapped version of ImageJ's {@code ImageCanvas}.
@@ -43,6 +47,15 @@ public final class MMImageCanvas extends ImageCanvas
 {
    private final ImageJBridge parent_;
 
+   // ImageJ's drawing of overlays, selections and the zoom indicator is not
+   // public. Null if not found, in which case ImageJ paints everything.
+   private static final Method DRAW_OVERLAY =
+         getIJCanvasMethod("drawOverlay", Overlay.class, Graphics.class);
+   private static final Method DRAW_ROI =
+         getIJCanvasMethod("drawRoi", Roi.class, Graphics.class);
+   private static final Method DRAW_ZOOM_INDICATOR =
+         getIJCanvasMethod("drawZoomIndicator", Graphics.class);
+
    private Dimension preferredSize_;
 
    @MustCallOnEDT
@@ -81,14 +94,77 @@ public final class MMImageCanvas extends ImageCanvas
 
    @Override
    public void paint(Graphics g) {
+      // ImageJ fetches the displayed images from the stack to draw them
+      parent_.runSharingPixels(() -> paintImage(g));
+      parent_.paintMMOverlays((Graphics2D) g, getWidth(), getHeight(), srcRect);
+      parent_.ijPaintDidFinish();
+   }
+
+   private void paintImage(Graphics g) {
       // Really, this should be implemented using VolatileImage. Unfortunately,
       // ij.gui.ImageCanvas is not written in a way that allows us to easily
       // override paint() without reimplementing a whole bunch of stuff.
 
-      // Let ImageJ draw the image, selection, zoom indicator, etc.
-      super.paint(g);
-      parent_.paintMMOverlays((Graphics2D) g, getWidth(), getHeight(), srcRect);
-      parent_.ijPaintDidFinish();
+      // When zoomed out, draw the image from a downsampled copy, so that the
+      // work scales with the canvas, not the image, and have ImageJ draw the
+      // overlay, selection and zoom indicator on top, as in its own paint().
+      // Otherwise (including while pasting, which ImageJ paints into the
+      // image) let ImageJ draw everything.
+      Roi roi = imp.getRoi();
+      if (DRAW_OVERLAY != null && DRAW_ROI != null &&
+            DRAW_ZOOM_INDICATOR != null &&
+            (roi == null || roi.getPasteMode() == Roi.NOT_PASTING) &&
+            parent_.paintDownsampledImage((Graphics2D) g, srcRect,
+                  getMagnification()))
+      {
+         try {
+            paintIJDecorations(g, roi);
+            setPaintPending(false);
+         }
+         catch (ReflectiveOperationException e) {
+            ReportingUtils.logError(e, "Failed to draw ImageJ overlay");
+            super.paint(g);
+         }
+      }
+      else {
+         super.paint(g);
+      }
+   }
+
+   // What ImageJ's paint() draws after the image
+   private void paintIJDecorations(Graphics g, Roi roi)
+         throws ReflectiveOperationException
+   {
+      Overlay overlay = getOverlay();
+      Overlay showAllOverlay = getShowAllList();
+      if (overlay != null) {
+         DRAW_OVERLAY.invoke(this, overlay, g);
+      }
+      if (showAllOverlay != null) {
+         DRAW_OVERLAY.invoke(this, showAllOverlay, g);
+      }
+      if (roi != null) {
+         DRAW_ROI.invoke(this, roi, g);
+      }
+      if (srcRect.width < imageWidth || srcRect.height < imageHeight) {
+         DRAW_ZOOM_INDICATOR.invoke(this, g);
+      }
+   }
+
+   private static Method getIJCanvasMethod(String name, Class<?>... params) {
+      try {
+         Method method = ImageCanvas.class.getDeclaredMethod(name, params);
+         method.setAccessible(true);
+         return method;
+      }
+      catch (NoSuchMethodException e) {
+         ReportingUtils.logError(e, "ImageJ canvas method not found");
+         return null;
+      }
+      catch (SecurityException e) {
+         ReportingUtils.logError(e, "ImageJ canvas method not accessible");
+         return null;
+      }
    }
 
    @Override
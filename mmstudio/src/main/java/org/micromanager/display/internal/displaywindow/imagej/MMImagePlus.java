@@ -15,6 +15,8 @@
 package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import org.micromanager.data.internal.DefaultImageJConverter;
 
 /**
  * Wrapped version of ImageJ's {@code ImagePlus}.
@@ -23,12 +25,47 @@ import ij.ImagePlus;
  * @author Mark A. Tsuchida, based on older version by Chris Weisiger
  */
 public final class MMImagePlus extends ImagePlus implements IMMImagePlus {
-   public static MMImagePlus create(ImageJBridge parent) {
-      return new MMImagePlus(parent);
+   private final MMVirtualStack stack_;
+
+   public static MMImagePlus create(ImageJBridge parent,
+         MMVirtualStack stack) {
+      return new MMImagePlus(parent, stack);
    }
 
-   private MMImagePlus(ImageJBridge parent) {
+   private MMImagePlus(ImageJBridge parent, MMVirtualStack stack) {
       // So far we don't use parent reference
+      stack_ = stack;
+   }
+
+   /**
+    * Return the processor, with its own copy of the pixels unless called by
+    * the display code (see {@link MMVirtualStack}), since the caller may
+    * modify them.
+    */
+   @Override
+   public ImageProcessor getProcessor() {
+      ImageProcessor processor = super.getProcessor();
+      // stack_ is null while ImagePlus's constructor runs
+      if (stack_ == null || !stack_.isSharingPixels()) {
+         DefaultImageJConverter.unshareProcessor(processor);
+      }
+      return processor;
+   }
+
+   @Override
+   protected void notifyListeners(int id) {
+      // Listeners may be plugins
+      if (stack_ == null) {
+         super.notifyListeners(id);
+         return;
+      }
+      int sharingDepth = stack_.suspendSharingPixels();
+      try {
+         super.notifyListeners(id);
+      }
+      finally {
+         stack_.resumeSharingPixels(sharingDepth);
+      }
    }
 
    @Override
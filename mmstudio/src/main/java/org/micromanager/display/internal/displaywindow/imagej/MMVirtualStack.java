@@ -19,29 +19,54 @@ import ij.VirtualStack;
 import ij.process.ImageProcessor;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
+import javax.swing.SwingUtilities;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.internal.DefaultImageJConverter;
 
 /**
  * Proxy for ImageJ's {@code VirtualStack}.
+ * <p>
+ * While the display is drawing (see {@link #beginSharingPixels}), the stack
+ * hands ImageJ processors and pixel arrays that share the images' own pixel
+ * arrays, so that repaints do not copy whole planes. At all other times,
+ * including to ImageJ plugins and macros, it returns copies, and
+ * {@link MMImagePlus} and {@link MMCompositeImage} copy shared pixels before
+ * returning their processors.
  *
  * @author Mark A. Tsuchida, based on older version by Chris Weisiger
  */
 public final class MMVirtualStack extends VirtualStack {
-   private final ImageJBridge parent_;
+   /**
+    * What the stack needs from its owner, normally the {@link ImageJBridge}.
+    */
+   interface Source {
+      int getMMWidth();
+      int getMMHeight();
+      int getMMNumberOfTimePoints();
+      int getMMNumberOfZSlices();
+      int getMMNumberOfChannels();
+      Coords getMMCoordsForIJFlatIndex(int flatIndex);
+      Image getMMImage(Coords coords);
+   }
+
+   private final Source parent_;
 
    private boolean pretendToHaveOnlyOneImage_ = false;
 
+   // Nesting depth of display code allowed to share pixel arrays; only
+   // accessed on the EDT
+   private int sharingPixelsDepth_ = 0;
+
    private Rectangle roi_; // Replace the role of ij.ImageStack's 'roi'
 
    // TODO XXX Issue warning alerts for 'set' actions that are ignored
 
-   static MMVirtualStack create(ImageJBridge parent) {
+   static MMVirtualStack create(Source parent) {
       return new MMVirtualStack(parent);
    }
 
-   private MMVirtualStack(ImageJBridge parent) {
+   private MMVirtualStack(Source parent) {
       parent_ = parent;
    }
 
@@ -49,6 +74,47 @@ public final class MMVirtualStack extends VirtualStack {
       pretendToHaveOnlyOneImage_ = enable;
    }
 
+   /**
+    * Start letting ImageJ's drawing code get shared pixels. Must be paired
+    * with {@link #endSharingPixels}, on the EDT, around calls that make
+    * ImageJ fetch and draw the displayed images and that do not hand the
+    * processors to other code.
+    */
+   void beginSharingPixels() {
+      ++sharingPixelsDepth_;
+   }
+
+   void endSharingPixels() {
+      --sharingPixelsDepth_;
+   }
+
+   /**
+    * Stop sharing pixels until {@link #resumeSharingPixels} is called, e.g.
+    * while ImageJ notifies image listeners (which may be plugins).
+    *
+    * @return the value to pass to {@code resumeSharingPixels}
+    */
+   int suspendSharingPixels() {
+      int depth = sharingPixelsDepth_;
+      sharingPixelsDepth_ = 0;
+      return depth;
+   }
+
+   void resumeSharingPixels(int depth) {
+      sharingPixelsDepth_ = depth;
+   }
+
+   /**
+    * Whether the caller may be given shared pixels: only the display code on
+    * the EDT, between {@link #beginSharingPixels} and
+    * {@link #endSharingPixels}.
+    *
+    * @return true if the caller may share the images' pixel arrays
+    */
+   boolean isSharingPixels() {
+      return SwingUtilities.isEventDispatchThread() && sharingPixelsDepth_ > 0;
+   }
+
    @Override
    public void addSlice(String label) {
       // Not supported
@@ -116,6 +182,10 @@ public final class MMVirtualStack extends VirtualStack {
    public Object getPixels(int flatIndex) {
       Coords coords = parent_.getMMCoordsForIJFlatIndex(flatIndex);
       Image image = parent_.getMMImage(coords);
+      // Except to the display code, a copy that callers are free to write to
+      if (isSharingPixels()) {
+         return image.getRawPixelsView();
+      }
       return image.getRawPixelsCopy();
    }
 
@@ -128,7 +198,15 @@ public final class MMVirtualStack extends VirtualStack {
    public ImageProcessor getProcessor(int flatIndex) {
       Coords coords = parent_.getMMCoordsForIJFlatIndex(flatIndex);
       Image image = parent_.getMMImage(coords);
-      return DefaultImageJConverter.createProcessor(image, false);
+      // A copy-on-write processor even when not sharing: ImageJ may keep it
+      // and later set shared pixels into it, which MMImagePlus then copies
+      // before returning the processor to other code
+      ImageProcessor processor =
+            DefaultImageJConverter.createSharedProcessor(image);
+      if (!isSharingPixels()) {
+         DefaultImageJConverter.unshareProcessor(processor);
+      }
+      return processor;
    }
 
    @Override
@@ -28,11 +28,21 @@ import ij.ImageStack;
 import ij.process.ColorProcessor;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
@@ -42,10 +52,14 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Image;
 import org.micromanager.display.DisplayDidShowImageEvent;
+import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.ImageExporter;
 import org.micromanager.display.ImageExporter.OutputFormat;
+import org.micromanager.display.internal.OffscreenRenderer;
+import org.micromanager.display.overlay.Overlay;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 
 public final class DefaultImageExporter implements ImageExporter {
@@ -93,10 +107,20 @@ public final class DefaultImageExporter implements ImageExporter {
        */
       public void setDisplay(DisplayWindow display) {
          if (display != null) {
-            store_ = display.getDataProvider();
+            setDataProvider(display.getDataProvider());
+         }
+      }
+
+      /**
+       * Recursively propagate a data provider through the list.
+       * @param provider
+       */
+      public void setDataProvider(DataProvider provider) {
+         if (provider != null) {
+            store_ = provider;
          }
          if (child_ != null) {
-            child_.setDisplay(display);
+            child_.setDataProvider(provider);
          }
       }
 
@@ -126,6 +150,10 @@ public final class DefaultImageExporter implements ImageExporter {
    }
 
    private DisplayController display_;
+   private DataProvider provider_;
+   private DisplaySettings displaySettings_;
+   private List<Overlay> overlays_ = Collections.emptyList();
+   private boolean renderOffscreen_ = false;
    private OutputFormat format_;
    private String directory_;
    private String prefix_;
@@ -135,6 +163,7 @@ public final class DefaultImageExporter implements ImageExporter {
    private ImageStack stack_;
    private final AtomicBoolean drawFlag_;
    private final AtomicBoolean doneFlag_;
+   private final Object doneLock_ = new Object();
    private boolean isSingleShot_;
    private int jpegQuality_ = 90;
 
@@ -151,11 +180,47 @@ public final class DefaultImageExporter implements ImageExporter {
    @Override
    public void setDisplay(DisplayWindow display) {
       display_ = (DisplayController) display;
+      if (display_ != null) {
+         provider_ = display_.getDataProvider();
+         displaySettings_ = display_.getDisplaySettings();
+         overlays_ = display_.getOverlays();
+      }
       if (outerLoop_ != null) {
          outerLoop_.setDisplay(display);
       }
    }
 
+   /**
+    * Export images from a data provider without a display window, rendered
+    * with the given display settings (without overlays). Only offscreen
+    * rendering is possible in this case.
+    * @param provider the images to export
+    * @param settings display settings to render with
+    */
+   public void setDataProvider(DataProvider provider,
+         DisplaySettings settings) {
+      display_ = null;
+      provider_ = provider;
+      displaySettings_ = settings;
+      overlays_ = Collections.emptyList();
+      if (outerLoop_ != null) {
+         outerLoop_.setDataProvider(provider);
+      }
+   }
+
+   /**
+    * Set whether to render images offscreen, or to capture them from the
+    * display window (the default). Capture produces what the window shows,
+    * at its zoom, one frame at a time; offscreen rendering produces whole
+    * images at their own resolution, and renders several frames in parallel.
+    * Without a display window (or in a headless JVM), images are always
+    * rendered offscreen.
+    * @param offscreen true to render offscreen
+    */
+   public void setRenderOffscreen(boolean offscreen) {
+      renderOffscreen_ = offscreen;
+   }
+
    @Override
    public void setOutputFormat(OutputFormat format) {
       format_ = format;
@@ -185,7 +250,7 @@ public final class DefaultImageExporter implements ImageExporter {
          outerLoop_.setInnermostLoop(exporter);
       }
       // Ensure loops have displays set.
-      outerLoop_.setDisplay(display_);
+      outerLoop_.setDataProvider(provider_);
       return this;
    }
 
@@ -244,7 +309,7 @@ public final class DefaultImageExporter implements ImageExporter {
                currentGraphics_.dispose();
                drawFlag_.set(false);
                if (isSingleShot_) {
-                  doneFlag_.set(true);
+                  setDone();
                }
             }
          } catch (Exception e) {
@@ -312,18 +377,32 @@ public final class DefaultImageExporter implements ImageExporter {
       if (outerLoop_ == null) {
          throw new IllegalArgumentException("No loops have been configured");
       }
-      if (display_ == null) {
+      if (provider_ == null) {
          throw new IllegalArgumentException("No display has been set");
       }
+      if (display_ == null && !isOffscreen()) {
+         throw new IllegalArgumentException(
+               "Exporting without a display requires offscreen rendering");
+      }
       ArrayList<Coords> coords = new ArrayList<>();
-      List<Image> displayedImages = display_.getDisplayedImages();
-      if (displayedImages.isEmpty()) {
-         // TODO: fill in missing images
-         // we are probably on a missing image
-         return coords;
+      Coords baseCoords;
+      if (display_ != null) {
+         List<Image> displayedImages = display_.getDisplayedImages();
+         if (displayedImages.isEmpty()) {
+            // TODO: fill in missing images
+            // we are probably on a missing image
+            return coords;
+         }
+         baseCoords = displayedImages.get(0).getCoords();
       }
-      outerLoop_.selectImageCoords(
-            displayedImages.get(0).getCoords(), coords);
+      else {
+         Image anyImage = provider_.getAnyImage();
+         if (anyImage == null) {
+            return coords;
+         }
+         baseCoords = anyImage.getCoords();
+      }
+      outerLoop_.selectImageCoords(baseCoords, coords);
       if (coords.isEmpty()) {
          // Nothing to do.
          return coords;
@@ -373,9 +452,11 @@ public final class DefaultImageExporter implements ImageExporter {
    }
 
    /**
-    * Export images according to the user's setup. Iterate over each axis,
-    * setting the displayed image to the desired coordinates, drawing it,
-    * saving the drawn image to disk, and then moving on.
+    * Export images according to the user's setup. Normally, iterate over each
+    * axis, setting the displayed image to the desired coordinates, drawing
+    * it, saving the drawn image to disk, and then moving on. If offscreen
+    * rendering was requested, or there is no display window, images are
+    * instead rendered with the display settings (see exportOffscreen()).
     * This method is synchronized, which doesn't mean a whole lot because
     * the actual export process happens on separate threads. However, it calls
     * waitForExport() as its first action, which will block if another export
@@ -397,13 +478,17 @@ public final class DefaultImageExporter implements ImageExporter {
          // Nothing to do.
          return;
       }
+      isSingleShot_ = coords.size() == 1;
+      if (isOffscreen()) {
+         exportOffscreen(coords);
+         return;
+      }
       display_.registerForEvents(this);
 
       // This thread will handle telling the display window to display new
       // images.
       Thread loopThread;
-      if (coords.size() == 1) {
-         isSingleShot_ = true;
+      if (isSingleShot_) {
          // Only one image to draw.
          loopThread = new Thread(new Runnable() {
             @Override
@@ -414,7 +499,6 @@ public final class DefaultImageExporter implements ImageExporter {
          }, "Image export thread");
       }
       else {
-         isSingleShot_ = false;
          loopThread = new Thread(new Runnable() {
             @Override
             public void run() {
@@ -435,7 +519,7 @@ public final class DefaultImageExporter implements ImageExporter {
                      }
                   }
                }
-               doneFlag_.set(true);
+               setDone();
             }
          }, "Image export thread");
       }
@@ -445,23 +529,15 @@ public final class DefaultImageExporter implements ImageExporter {
       Thread unsubscriber = new Thread(new Runnable() {
          @Override
          public void run() {
-            while (!doneFlag_.get()) {
-               try {
-                  Thread.sleep(100);
-               }
-               catch (InterruptedException e) {
-                  ReportingUtils.logError("Interrupted while waiting for export to complete.");
-                  return;
-               }
+            try {
+               waitForExport();
             }
-            display_.unregisterForEvents(DefaultImageExporter.this);
-            if (stack_ != null) {
-               File f = new File(display_.getName());
-               String shortName = f.getName();
-               // Show the ImageJ stack.
-               ImagePlus plus = new ImagePlus(shortName + "MM-export", stack_);
-               plus.show();
+            catch (InterruptedException e) {
+               ReportingUtils.logError("Interrupted while waiting for export to complete.");
+               return;
             }
+            display_.unregisterForEvents(DefaultImageExporter.this);
+            showStack();
          }
       });
 
@@ -470,10 +546,134 @@ public final class DefaultImageExporter implements ImageExporter {
       loopThread.start();
    }
 
+   /**
+    * Render the frames on a pool of threads, writing each to its file as soon
+    * as it is rendered. For ImageJ output, frames are added to the stack in
+    * order. The number of frames in flight is bounded, so that memory use
+    * does not grow with the length of the export.
+    */
+   private void exportOffscreen(final List<Coords> coords) {
+      if (display_ != null) {
+         // Use the settings and overlays as they are now
+         displaySettings_ = display_.getDisplaySettings();
+         overlays_ = display_.getOverlays();
+      }
+      final int nThreads = Runtime.getRuntime().availableProcessors();
+      final ExecutorService executor = Executors.newFixedThreadPool(nThreads,
+            ThreadFactoryFactory.createThreadFactory("Image export"));
+      final OffscreenRenderer renderer = OffscreenRenderer.create(
+            displaySettings_, overlays_);
+      Thread coordinator = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            Deque<Future<BufferedImage>> inFlight = new ArrayDeque<>();
+            try {
+               for (int i = 0; i < coords.size(); ++i) {
+                  inFlight.add(executor.submit(createRenderTask(
+                        renderer, coords.get(i), i)));
+                  if (inFlight.size() >= 2 * nThreads) {
+                     collectFrame(inFlight.poll().get());
+                  }
+               }
+               while (!inFlight.isEmpty()) {
+                  collectFrame(inFlight.poll().get());
+               }
+            }
+            catch (InterruptedException e) {
+               ReportingUtils.logError("Interrupted while exporting images.");
+            }
+            catch (ExecutionException e) {
+               ReportingUtils.logError(e.getCause(), "Error exporting images");
+            }
+            finally {
+               executor.shutdownNow();
+               renderer.shutdown();
+               showStack();
+               setDone();
+            }
+         }
+      }, "Image export thread");
+      doneFlag_.set(false);
+      coordinator.start();
+   }
+
+   // Returns the rendered frame for ImageJ output, null otherwise
+   private Callable<BufferedImage> createRenderTask(
+         final OffscreenRenderer renderer, final Coords imageCoords,
+         final int sequenceNum) {
+      return new Callable<BufferedImage>() {
+         @Override
+         public BufferedImage call() throws Exception {
+            Image primary = provider_.getImage(imageCoords);
+            if (primary == null) {
+               return null;
+            }
+            Coords channelless = imageCoords.hasAxis(Coords.CHANNEL) ?
+                  imageCoords.copyBuilder().removeAxis(Coords.CHANNEL).build() :
+                  imageCoords;
+            List<Image> images = new ArrayList<>(
+                  provider_.getImagesMatching(channelless));
+            Collections.sort(images, new Comparator<Image>() {
+               @Override
+               public int compare(Image a, Image b) {
+                  return Integer.compare(a.getCoords().getChannel(),
+                        b.getCoords().getChannel());
+               }
+            });
+            BufferedImage rendered = renderer.render(images, primary);
+            if (format_ == OutputFormat.OUTPUT_IMAGEJ) {
+               return rendered;
+            }
+            exportImage(rendered, sequenceNum);
+            return null;
+         }
+      };
+   }
+
+   private void collectFrame(BufferedImage frame) {
+      if (frame == null) {
+         return;
+      }
+      if (stack_ == null) {
+         stack_ = new ImageStack(frame.getWidth(), frame.getHeight());
+      }
+      addToStack(stack_, frame);
+   }
+
+   private boolean isOffscreen() {
+      return renderOffscreen_ || display_ == null ||
+            GraphicsEnvironment.isHeadless();
+   }
+
+   private void showStack() {
+      if (stack_ == null) {
+         return;
+      }
+      if (GraphicsEnvironment.isHeadless()) {
+         ReportingUtils.logError("Cannot show exported ImageJ stack: headless");
+         return;
+      }
+      String shortName = display_ != null ?
+            new File(display_.getName()).getName() : "";
+      // Show the ImageJ stack.
+      ImagePlus plus = new ImagePlus(shortName + "MM-export", stack_);
+      stack_ = null;
+      plus.show();
+   }
+
+   private void setDone() {
+      synchronized (doneLock_) {
+         doneFlag_.set(true);
+         doneLock_.notifyAll();
+      }
+   }
+
    @Override
    public void waitForExport() throws InterruptedException {
-      while (!doneFlag_.get()) {
-         Thread.sleep(100);
+      synchronized (doneLock_) {
+         while (!doneFlag_.get()) {
+            doneLock_.wait();
+         }
       }
    }
 }
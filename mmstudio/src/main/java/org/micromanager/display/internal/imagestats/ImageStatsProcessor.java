@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -53,6 +54,8 @@ public final class ImageStatsProcessor {
    private static final int MASK_THRESH = 128;
 
    private final ExecutorService executor_;
+   // Splits single images for the unmasked case
+   private final ForkJoinPool tilePool_;
 
    private PerformanceMonitor perfMon_;
 
@@ -66,10 +69,12 @@ public final class ImageStatsProcessor {
       executor_ = new ThreadPoolExecutor(1, Integer.MAX_VALUE,
             60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             ThreadFactoryFactory.createThreadFactory("ImageStatsProcessor"));
+      tilePool_ = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
    }
 
    public void shutdown() {
       executor_.shutdown();
+      tilePool_.shutdown();
    }
 
    void setPerformanceMonitor(PerformanceMonitor perfMon) {
@@ -163,6 +168,23 @@ public final class ImageStatsProcessor {
          maskBytes = null;
          useROI = false;
       }
+      if (maskBytes != null && isMaskFull(maskBytes)) {
+         maskBytes = null; // Same as a rectangle ROI
+      }
+
+      // Without a mask, work directly on the pixel array. Only this case
+      // supports estimating stats from a subset of pixels.
+      if (maskBytes == null && (bytesPerSample == 1 || bytesPerSample == 2)) {
+         ImageStats result = ImageStats.create(index,
+               IntegerStatsKernel.compute(tilePool_,
+                     image.getRawPixelsView(), image.getWidth(), nComponents,
+                     statsBounds, bitDepth, binCountPowerOf2, useROI,
+                     request.getMaxQuantileError()));
+         if (perfMon_ != null) {
+            perfMon_.sample("Process CPU time (ms)", cpuTimer.getMs());
+         }
+         return result;
+      }
 
       // If (the used part of) the mask has no pixels, revert to full image
       IterableInterval<UnsignedByteType> mask = wrapROIMask(maskBytes, nComponents, maskBounds, statsBounds);
@@ -180,25 +202,10 @@ public final class ImageStatsProcessor {
       }
 
       ImageStats result = null;
-      if (bytesPerSample == 1) {
-         Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
-      }
-      else if (bytesPerSample == 2) {
-         Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
+      if (bytesPerSample == 1 || bytesPerSample == 2) {
+         result = computeWithCursor(image.getRawPixelsView(),
+               image.getWidth(), image.getHeight(), nComponents, statsBounds,
+               mask, bitDepth, binCountPowerOf2, useROI, index);
       }
 
       if (perfMon_ != null) {
@@ -208,7 +215,34 @@ public final class ImageStatsProcessor {
       return result; // null if we don't know how to compute (TODO FIX)
    }
 
-   private <T extends IntegerType<T>> ImageStats compute(
+   /**
+    * Compute stats using ImgLib2 cursors, as done when there is a mask.
+    * Package-private so that tests can compare IntegerStatsKernel with it.
+    *
+    * @param pixels a byte[] or short[] pixel array, components interleaved
+    * @param mask the mask, clipped to statsBounds, or null for all pixels
+    */
+   static ImageStats computeWithCursor(Object pixels, int width,
+         int height, int nComponents, Rectangle statsBounds,
+         IterableInterval<UnsignedByteType> mask, int bitDepth,
+         int binCountPowerOf2, boolean isROI, int index)
+   {
+      if (mask == null) {
+         mask = wrapROIMask(null, nComponents, statsBounds, statsBounds);
+      }
+      if (pixels instanceof byte[]) {
+         Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(
+               (byte[]) pixels, nComponents, width, height);
+         return compute(clipToRect(img, nComponents, statsBounds), mask,
+               nComponents, bitDepth, binCountPowerOf2, isROI, index);
+      }
+      Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(
+            (short[]) pixels, nComponents, width, height);
+      return compute(clipToRect(img, nComponents, statsBounds), mask,
+            nComponents, bitDepth, binCountPowerOf2, isROI, index);
+   }
+
+   private static <T extends IntegerType<T>> ImageStats compute(
          IterableInterval<T> img, IterableInterval<UnsignedByteType> mask,
          int nComponents, int sampleBitDepth, int binCountPowerOf2,
          boolean isROI, int index)
@@ -291,7 +325,16 @@ public final class ImageStatsProcessor {
       return ImageStats.create(index, componentStats);
    }
 
-   private <T extends IntegerType<T>> IterableInterval<T> clipToRect(
+   private static boolean isMaskFull(byte[] maskBytes) {
+      for (byte b : maskBytes) {
+         if ((b & 0xff) < MASK_THRESH) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static <T extends IntegerType<T>> IterableInterval<T> clipToRect(
          Img<T> fullImg, int nComponents, Rectangle statsBounds)
    {
       Preconditions.checkNotNull(statsBounds);
@@ -302,7 +345,7 @@ public final class ImageStatsProcessor {
       );
    }
 
-   private IterableInterval<UnsignedByteType> wrapROIMask(
+   private static IterableInterval<UnsignedByteType> wrapROIMask(
          byte[] rawMask, int nComponents, Rectangle maskBounds, Rectangle statsBounds)
    {
       Preconditions.checkNotNull(maskBounds);
@@ -29,23 +29,51 @@ public final class ImageStatsRequest {
    private final Coords nominalCoords_;
    private final List<Image> images_ = new ArrayList<Image>();
    private final BoundsRectAndMask roi_;
+   private final double maxQuantileError_;
 
    public static ImageStatsRequest create(Coords nominalCoords,
          List<Image> images,
          BoundsRectAndMask roi)
    {
-      return new ImageStatsRequest(nominalCoords, images, roi);
+      return new ImageStatsRequest(nominalCoords, images, roi, 0.0);
+   }
+
+   /**
+    * Create a request for which stats may be estimated from a subset of the
+    * pixels, when the images are large enough for this to be faster.
+    *
+    * @param maxQuantileError the allowed error of quantiles, as a fraction of
+    * the pixel count (see {@link IntegerComponentStats#getQuantileErrorBound});
+    * 0 to require exact stats
+    */
+   public static ImageStatsRequest create(Coords nominalCoords,
+         List<Image> images,
+         BoundsRectAndMask roi,
+         double maxQuantileError)
+   {
+      return new ImageStatsRequest(nominalCoords, images, roi,
+            maxQuantileError);
    }
 
    private ImageStatsRequest(Coords nominalCoords,
          List<Image> images,
-         BoundsRectAndMask roi)
+         BoundsRectAndMask roi,
+         double maxQuantileError)
    {
       Preconditions.checkNotNull(nominalCoords);
       Preconditions.checkNotNull(images);
+      Preconditions.checkArgument(maxQuantileError >= 0.0);
       nominalCoords_ = nominalCoords;
       images_.addAll(images);
       roi_ = roi;
+      maxQuantileError_ = maxQuantileError;
+   }
+
+   /**
+    * Return a copy of this request that requires exact stats.
+    */
+   public ImageStatsRequest copyForExactStats() {
+      return new ImageStatsRequest(nominalCoords_, images_, roi_, 0.0);
    }
 
    public Coords getNominalCoords() {
@@ -75,4 +103,8 @@ public final class ImageStatsRequest {
    public byte[] getROIMask() {
       return roi_.getMask();
    }
+
+   public double getMaxQuantileError() {
+      return maxQuantileError_;
+   }
 }
@@ -78,4 +78,21 @@ public final class ImagesAndStats {
    public boolean isRealStats() {
       return request_ == originalRequest_;
    }
+
+   /**
+    * Returns whether any of the stats were estimated from a subset of pixels.
+    */
+   public boolean isEstimate() {
+      for (ImageStats stats : stats_) {
+         if (stats == null) {
+            continue;
+         }
+         for (int i = 0; i < stats.getNumberOfComponents(); ++i) {
+            if (stats.getComponentStats(i).isEstimate()) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
 }
\ No newline at end of file
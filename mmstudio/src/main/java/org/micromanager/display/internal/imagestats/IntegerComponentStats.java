@@ -29,6 +29,7 @@ public final class IntegerComponentStats {
    private final long maximum_;
    private final long sum_;
    private final long sumOfSquares_;
+   private final double quantileErrorBound_;
    private transient final long[] cumulativeDistrib_;
 
    public static class Builder {
@@ -40,6 +41,7 @@ public final class IntegerComponentStats {
       private long maximum_;
       private long sum_;
       private long sumOfSquares_;
+      private double quantileErrorBound_;
 
       private Builder() {
       }
@@ -81,6 +83,18 @@ public final class IntegerComponentStats {
          return this;
       }
 
+      /**
+       * Mark the stats as estimated from a subset of the pixels (in which
+       * case the pixel count, histogram and sums are those of the subset).
+       * @param quantileErrorBound bound on the error of quantiles, as a
+       * fraction of the pixel count; 0 for exact stats
+       */
+      public Builder estimate(double quantileErrorBound) {
+         Preconditions.checkArgument(quantileErrorBound >= 0.0);
+         quantileErrorBound_ = quantileErrorBound;
+         return this;
+      }
+
       public IntegerComponentStats build() {
          return new IntegerComponentStats(this);
       }
@@ -101,6 +115,7 @@ public final class IntegerComponentStats {
       maximum_ = b.maximum_;
       sum_ = b.sum_;
       sumOfSquares_ = b.sumOfSquares_;
+      quantileErrorBound_ = b.quantileErrorBound_;
       cumulativeDistrib_ = computeCumulativeDistribution();
    }
 
@@ -158,6 +173,23 @@ public final class IntegerComponentStats {
       return usedROI_;
    }
 
+   /**
+    * Return whether these stats were estimated from a subset of the pixels.
+    * Estimated min and max are those of the subset.
+    */
+   public boolean isEstimate() {
+      return quantileErrorBound_ > 0.0;
+   }
+
+   /**
+    * Return the bound (with 99% confidence) on the error of quantiles, as a
+    * fraction of the pixel count: the true value at quantile q lies between
+    * the estimated values at q - bound and q + bound. Zero for exact stats.
+    */
+   public double getQuantileErrorBound() {
+      return quantileErrorBound_;
+   }
+
    public long getMeanIntensity() {
       if (pixelCount_ == 0) {
          return 0;
@@ -0,0 +1,282 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import com.google.common.base.Preconditions;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Histogram and statistics of an unmasked rectangle of an 8- or 16-bit image,
+ * computed directly on the pixel array.
+ * <p>
+ * The rectangle is split into bands of rows that are processed in parallel
+ * on a fork-join pool; the partial histograms, minima, maxima and sums are
+ * then merged. Results are identical to those of the ImgLib2-based
+ * computation in {@link ImageStatsProcessor}, including the binning done by
+ * {@link PowerOf2BinMapper}.
+ * <p>
+ * Optionally, stats are estimated from a subset of the pixels: every
+ * few rows, and every few pixels along each row starting at a pseudo-random
+ * offset. The number of pixels sampled is chosen so that, by the
+ * Dvoretzky-Kiefer-Wolfowitz inequality, quantiles are within the requested
+ * error with 99% confidence (strictly true of random samples; the varying
+ * row offsets avoid aliasing with regular image structure).
+ */
+final class IntegerStatsKernel {
+   // Smallest band worth handing to another thread
+   private static final int MIN_TILE_SAMPLES = 1 << 18;
+   // Probability that the quantile error exceeds the bound
+   private static final double ERROR_PROBABILITY = 0.01;
+
+   private IntegerStatsKernel() {
+   }
+
+   /**
+    * @param pool the pool to run on
+    * @param pixels a byte[] or short[] pixel array, components interleaved
+    * @param imageWidth width of the whole image
+    * @param nComponents number of components per pixel
+    * @param bounds rectangle (within the image) to compute stats for
+    * @param sampleBitDepth bit depth of the samples
+    * @param binCountPowerOf2 log2 of the number of histogram bins
+    * @param isROI whether the rectangle is an ROI
+    * @param maxQuantileError allowed quantile error (as a fraction of the
+    * pixel count) when estimating from a subset of pixels; 0 for exact stats
+    * @return stats for each component
+    */
+   static IntegerComponentStats[] compute(ForkJoinPool pool, Object pixels,
+         int imageWidth, int nComponents, Rectangle bounds,
+         int sampleBitDepth, int binCountPowerOf2, boolean isROI,
+         double maxQuantileError)
+   {
+      Preconditions.checkArgument(
+            pixels instanceof byte[] || pixels instanceof short[]);
+      Preconditions.checkArgument(bounds.width > 0 && bounds.height > 0);
+
+      int rowStep = 1;
+      int colStep = 1;
+      long pixelCount = (long) bounds.width * bounds.height;
+      if (maxQuantileError > 0.0) {
+         double neededPixels = Math.log(2.0 / ERROR_PROBABILITY) /
+               (2.0 * maxQuantileError * maxQuantileError);
+         double reduction = pixelCount / neededPixels;
+         if (reduction >= 2.0) { // Otherwise not worth estimating
+            rowStep = (int) Math.min(bounds.height,
+                  Math.floor(Math.sqrt(reduction)));
+            colStep = (int) Math.max(1, Math.min(bounds.width,
+                  Math.floor(reduction / rowStep)));
+         }
+      }
+
+      long samples = pixelCount * nComponents / (rowStep * colStep);
+      long tileSamples = Math.max(MIN_TILE_SAMPLES,
+            samples / (4L * pool.getParallelism()));
+      Tile tile = new Tile(new Params(pixels, imageWidth, nComponents,
+            bounds, sampleBitDepth, binCountPowerOf2, rowStep, colStep,
+            tileSamples),
+            bounds.y, bounds.y + bounds.height);
+      // Small images are not worth the handoff to the pool
+      Partial result = samples <= tileSamples ?
+            tile.computeLeaf() : pool.invoke(tile);
+
+      int shift = Math.max(0, sampleBitDepth - binCountPowerOf2);
+      double errorBound = rowStep * colStep == 1 ? 0.0 :
+            Math.sqrt(Math.log(2.0 / ERROR_PROBABILITY) /
+                  (2.0 * result.pixelCount_));
+      IntegerComponentStats[] stats = new IntegerComponentStats[nComponents];
+      for (int component = 0; component < nComponents; ++component) {
+         int offset = component * result.numBins_;
+         long[] histogram = Arrays.copyOfRange(result.histograms_,
+               offset, offset + result.numBins_);
+         stats[component] = IntegerComponentStats.builder().
+               histogram(histogram, shift).
+               pixelCount(result.pixelCount_).
+               usedROI(isROI).
+               estimate(errorBound).
+               minimum(result.minima_[component]).
+               maximum(result.maxima_[component]).
+               sum(result.sums_[component]).
+               sumOfSquares(result.sumsOfSquares_[component]).
+               build();
+      }
+      return stats;
+   }
+
+   private static final class Params {
+      final Object pixels_;
+      final int imageWidth_;
+      final int nComponents_;
+      final Rectangle bounds_;
+      final int shift_;
+      final long endOfRange_;
+      final int numBins_;
+      final int rowStep_;
+      final int colStep_;
+      final long tileSamples_;
+
+      Params(Object pixels, int imageWidth, int nComponents,
+            Rectangle bounds, int sampleBitDepth, int binCountPowerOf2,
+            int rowStep, int colStep, long tileSamples)
+      {
+         pixels_ = pixels;
+         imageWidth_ = imageWidth;
+         nComponents_ = nComponents;
+         bounds_ = bounds;
+         shift_ = Math.max(0, sampleBitDepth - binCountPowerOf2);
+         endOfRange_ = (1L << sampleBitDepth) - 1;
+         // Including the two out-of-range bins, as for PowerOf2BinMapper
+         numBins_ = (1 << binCountPowerOf2) + 2;
+         rowStep_ = rowStep;
+         colStep_ = colStep;
+         tileSamples_ = tileSamples;
+      }
+   }
+
+   // Stats of part of the image, for all components
+   private static final class Partial {
+      final int numBins_;
+      long pixelCount_;
+      final long[] histograms_; // Per component, concatenated
+      final long[] minima_;
+      final long[] maxima_;
+      final long[] sums_;
+      final long[] sumsOfSquares_;
+
+      Partial(int nComponents, int numBins) {
+         numBins_ = numBins;
+         histograms_ = new long[nComponents * numBins];
+         minima_ = new long[nComponents];
+         maxima_ = new long[nComponents];
+         sums_ = new long[nComponents];
+         sumsOfSquares_ = new long[nComponents];
+      }
+
+      void merge(Partial other) {
+         pixelCount_ += other.pixelCount_;
+         for (int i = 0; i < histograms_.length; ++i) {
+            histograms_[i] += other.histograms_[i];
+         }
+         for (int c = 0; c < minima_.length; ++c) {
+            minima_[c] = Math.min(minima_[c], other.minima_[c]);
+            maxima_[c] = Math.max(maxima_[c], other.maxima_[c]);
+            sums_[c] += other.sums_[c];
+            sumsOfSquares_[c] += other.sumsOfSquares_[c];
+         }
+      }
+   }
+
+   // A band of rows [startY, endY) of the rectangle
+   private static final class Tile extends RecursiveTask<Partial> {
+      private final Params params_;
+      private final int startY_;
+      private final int endY_;
+
+      Tile(Params params, int startY, int endY) {
+         params_ = params;
+         startY_ = startY;
+         endY_ = endY;
+      }
+
+      @Override
+      protected Partial compute() {
+         long samples = (long) (endY_ - startY_) * params_.bounds_.width *
+               params_.nComponents_ / (params_.rowStep_ * params_.colStep_);
+         if (samples <= params_.tileSamples_ || endY_ - startY_ < 2) {
+            return computeLeaf();
+         }
+         int midY = (startY_ + endY_) >>> 1;
+         Tile second = new Tile(params_, midY, endY_);
+         second.fork();
+         Partial result = new Tile(params_, startY_, midY).compute();
+         result.merge(second.join());
+         return result;
+      }
+
+      Partial computeLeaf() {
+         Params p = params_;
+         int n = p.nComponents_;
+         Partial result = new Partial(n, p.numBins_);
+         long[] histograms = result.histograms_;
+         long endOfRange = p.endOfRange_;
+         int shift = p.shift_;
+         int colStep = p.colStep_;
+         int stride = n * colStep;
+         // First row of this band that is sampled
+         int firstY = startY_ +
+               Math.floorMod(p.bounds_.y - startY_, p.rowStep_);
+         for (int y = firstY; y < endY_; y += p.rowStep_) {
+            int offset = rowOffset(y, colStep);
+            result.pixelCount_ += (p.bounds_.width - offset + colStep - 1) /
+                  colStep;
+         }
+         for (int c = 0; c < n; ++c) {
+            // Values above endOfRange go in the overflow bin. Unsigned
+            // samples never go in the underflow bin.
+            int underflowBin = c * p.numBins_;
+            int overflowBin = underflowBin + p.numBins_ - 1;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            long sum = 0;
+            long sumOfSquares = 0;
+            for (int y = firstY; y < endY_; y += p.rowStep_) {
+               int rowStart = (y * p.imageWidth_ + p.bounds_.x) * n + c;
+               int start = rowStart + rowOffset(y, colStep) * n;
+               int end = rowStart + p.bounds_.width * n;
+               if (p.pixels_ instanceof short[]) {
+                  short[] pixels = (short[]) p.pixels_;
+                  for (int i = start; i < end; i += stride) {
+                     int v = pixels[i] & 0xffff;
+                     histograms[v > endOfRange ?
+                           overflowBin : underflowBin + (v >>> shift) + 1]++;
+                     min = Math.min(min, v);
+                     max = Math.max(max, v);
+                     sum += v;
+                     sumOfSquares += (long) v * v;
+                  }
+               }
+               else {
+                  byte[] pixels = (byte[]) p.pixels_;
+                  for (int i = start; i < end; i += stride) {
+                     int v = pixels[i] & 0xff;
+                     histograms[v > endOfRange ?
+                           overflowBin : underflowBin + (v >>> shift) + 1]++;
+                     min = Math.min(min, v);
+                     max = Math.max(max, v);
+                     sum += v;
+                     sumOfSquares += (long) v * v;
+                  }
+               }
+            }
+            result.minima_[c] = min;
+            result.maxima_[c] = max;
+            result.sums_[c] = sum;
+            result.sumsOfSquares_[c] = sumOfSquares;
+         }
+         return result;
+      }
+
+      // Pseudo-random, but reproducible, offset of the first pixel sampled
+      private static int rowOffset(int y, int colStep) {
+         if (colStep == 1) {
+            return 0;
+         }
+         int h = y * 0x9e3779b9;
+         h ^= h >>> 16;
+         return (h & 0x7fffffff) % colStep;
+      }
+   }
+}
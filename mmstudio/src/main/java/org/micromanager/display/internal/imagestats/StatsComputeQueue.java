@@ -26,6 +26,11 @@ import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 /**
  * Facade to manage background, rate-limited image stats computation.
+ * <p>
+ * Requests that allow estimated stats (see {@link ImageStatsRequest}) are
+ * first computed from a subset of the pixels; if no newer request arrives
+ * within a short delay (the display is idle, or showing a still frame),
+ * exact stats are then computed and delivered for the same request.
  * @author Mark A. Tsuchida
  */
 public final class StatsComputeQueue {
@@ -70,6 +75,9 @@ public final class StatsComputeQueue {
          new ArrayList<Deque<Future<?>>>();
    private static final int RESULT_BUFFER_SIZE = 2;
 
+   // Idle time after which estimated stats are replaced with exact stats
+   private static final long EXACT_STATS_DELAY_NS = 300000000L;
+
    // Serial number for each request received
    private long nextRequestSequenceNumber_ = 0;
    private long lastResultSequenceNumber_ = -1;
@@ -150,7 +158,16 @@ public final class StatsComputeQueue {
             computeFutures_.get(p).cancel(true);
          }
       }
-      computeFutures_.set(priority, computeExecutor_.submit(new Runnable() {
+      computeFutures_.set(priority, computeExecutor_.submit(
+            createComputeTask(sequenceNumber, priority, request,
+                  waitTargetNs)));
+   }
+
+   private Runnable createComputeTask(final long sequenceNumber,
+         final int priority, final ImageStatsRequest request,
+         final long waitTargetNs)
+   {
+      return new Runnable() {
          @Override
          public void run() {
             // Interruptible wait for the next 'tick'
@@ -195,9 +212,20 @@ public final class StatsComputeQueue {
                   storedStats_.set(p, null);
                }
                storedStats_.set(priority, result);
+
+               // If nothing newer has been requested, schedule exact stats;
+               // a new request will cancel this like any other computation
+               if (result.isEstimate() &&
+                     sequenceNumber == nextRequestSequenceNumber_ - 1 &&
+                     !computeExecutor_.isShutdown()) {
+                  computeFutures_.set(priority, computeExecutor_.submit(
+                        createComputeTask(sequenceNumber, priority,
+                              request.copyForExactStats(),
+                              System.nanoTime() + EXACT_STATS_DELAY_NS)));
+               }
             }
          }
-      }));
+      };
    }
 
    private void submitBypass(final long sequenceNumber, final int priority,
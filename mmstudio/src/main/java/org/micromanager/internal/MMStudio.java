@@ -109,6 +109,7 @@ import org.micromanager.internal.utils.GUIUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.UIMonitor;
 import org.micromanager.internal.utils.WaitDialog;
+import org.micromanager.internal.utils.performance.PerformanceMetricsExporter;
 import org.micromanager.profile.internal.DefaultUserProfile;
 import org.micromanager.profile.internal.UserProfileAdmin;
 import org.micromanager.profile.internal.gui.HardwareConfigurationManager;
@@ -440,6 +441,9 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
       // EDT hang (and _no_ dump on hangs under 5.5 seconds)
       EDTHangLogger.startDefault(core_, 4500, 1000);
 
+      // Export performance statistics if requested by system properties
+      PerformanceMetricsExporter.startDefault();
+
       // Move ImageJ window to place where it last was if possible or else
       // (150,150) if not
       if (IJ.getInstance() != null) {
@@ -1169,6 +1173,7 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
 
       synchronized (shutdownLock_) {
          EDTHangLogger.stopDefault();
+         PerformanceMetricsExporter.stopDefault();
 
          try {
             if (core_ != null) {
@@ -52,6 +52,7 @@ import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultRewritableDatastore;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataSnapshots;
 import org.micromanager.data.internal.StorageRAM;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DataViewer;
@@ -107,6 +108,10 @@ public final class SnapLiveManager extends DataViewerListener
    private boolean amStartingSequenceAcquisition_ = false;
 
    private final List<DefaultImage> lastImageForEachChannel_ = new ArrayList<>();
+   // Consecutive live images normally differ in only a few device property
+   // values
+   private final ScopeDataSnapshots scopeDataSnapshots_ =
+         new ScopeDataSnapshots();
 
    private final ScheduledExecutorService scheduler_ =
          Executors.newSingleThreadScheduledExecutor(
@@ -125,7 +130,22 @@ public final class SnapLiveManager extends DataViewerListener
    private int suspendCount_ = 0;
 
    private final PerformanceMonitor perfMon_ =
-         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+         PerformanceMonitor.createRegistered("snap-live", 1000.0);
+   // Statistics sampled for every frame, resolved once
+   private final PerformanceMonitor.Counter grabDelayStat_ =
+         perfMon_.getCounter("Grab schedule delay (ms)");
+   private final PerformanceMonitor.IntervalCounter imageFetchedStat_ =
+         perfMon_.getIntervalCounter("getNBeforeLastTaggedImage");
+   private final PerformanceMonitor.Counter noImageStat_ =
+         perfMon_.getCounter("No image in sequence buffer (%)");
+   private final PerformanceMonitor.Counter missingImageNumberStat_ =
+         perfMon_.getCounter("Image missing ImageNumber (%)");
+   private final PerformanceMonitor.Counter rejectedImageStat_ =
+         perfMon_.getCounter("Image rejected based on ImageNumber (%)");
+   private final PerformanceMonitor.Counter droppedFramesStat_ =
+         perfMon_.getCounter("Frames dropped at sequence buffer exit (%)");
+   private final PerformanceMonitor.IntervalCounter imageInsertedStat_ =
+         perfMon_.getIntervalCounter("Image inserted in pipeline");
    private final PerformanceMonitorUI pmUI_ =
          PerformanceMonitorUI.create(perfMon_, "SnapLiveManager Performance");
    private DisplayInfo displayInfo_;
@@ -314,7 +334,7 @@ public final class SnapLiveManager extends DataViewerListener
                   scheduledGrab_ = scheduler_.schedule(this,
                         delayMs, TimeUnit.MILLISECONDS);
                }
-               perfMon_.sample("Grab schedule delay (ms)", delayMs);
+               grabDelayStat_.sample(delayMs);
             }
          };
          scheduledGrab_ = scheduler_.schedule(grab, 0, TimeUnit.MILLISECONDS);
@@ -387,12 +407,12 @@ public final class SnapLiveManager extends DataViewerListener
             TaggedImage tagged;
             try {
                tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
-               perfMon_.sample("No image in sequence buffer (%)", 0.0);
+               imageFetchedStat_.sample();
+               noImageStat_.sample(0.0);
             }
             catch (Exception e) {
                // No image in the sequence buffer.
-               perfMon_.sample("No image in sequence buffer (%)", 100.0);
+               noImageStat_.sample(100.0);
                continue;
             }
             JSONObject tags = tagged.tags;
@@ -404,10 +424,10 @@ public final class SnapLiveManager extends DataViewerListener
                // Already provided a more recent version of this channel.
                continue;
             }
-            DefaultImage image = new DefaultImage(tagged);
+            DefaultImage image = new DefaultImage(tagged,
+                  scopeDataSnapshots_);
             final Long seqNr = image.getMetadata().getImageNumber();
-            perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
+            missingImageNumberStat_.sample(seqNr == null ? 100.0 : 0.0);
             Coords newCoords = image.getCoords().copyBuilder()
                .t(0)
                .c(imageChannel).build();
@@ -662,15 +682,14 @@ public final class SnapLiveManager extends DataViewerListener
             // for now, we will only reject when the sequence nr is identical to the previous one.
             if (prevSeqNr != null && newSeqNr != null) {
                if (Objects.equals(prevSeqNr, newSeqNr)) {
-                  perfMon_.sample(
-                          "Image rejected based on ImageNumber (%)", 100.0);
+                  rejectedImageStat_.sample(100.0);
                   return; // Already displayed this image
                }
-               perfMon_.sample("Frames dropped at sequence buffer exit (%)",
+               droppedFramesStat_.sample(
                        100.0 * (newSeqNr - prevSeqNr - 1) / (newSeqNr - prevSeqNr));
             }
          }
-         perfMon_.sample("Image rejected based on ImageNumber (%)", 0.0);
+         rejectedImageStat_.sample(0.0);
 
          if (shouldReset) {
             createOrResetDatastoreAndDisplay();
@@ -708,7 +727,7 @@ public final class SnapLiveManager extends DataViewerListener
          synchronized (pipelineLock_) {
             try {
                pipeline_.insertImage(newImage);
-               perfMon_.sampleTimeInterval("Image inserted in pipeline");
+               imageInsertedStat_.sample();
             } catch (DatastoreRewriteException e) {
                // This should never happen, because we use an erasable
                // Datastore.
@@ -38,6 +38,9 @@ import mmcorej.CMMCore;
 import org.micromanager.ApplicationSkin.SkinMode;
 import org.micromanager.Studio;
 import org.micromanager.UserProfile;
+import org.micromanager.data.internal.CachingStorage;
+import org.micromanager.data.internal.ScopeDataSnapshots;
+import org.micromanager.data.internal.StorageOffHeap;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.StartupSettings;
@@ -59,6 +62,8 @@ public final class OptionsDlg extends MMDialog {
 
    private final JTextField startupScriptFile_;
    private final JTextField bufSizeField_;
+   private final JTextField imageCacheSizeField_;
+   private final JTextField offHeapBudgetField_;
    private JTextField logDeleteDaysField_;
    private final JComboBox comboDisplayBackground_;
 
@@ -209,6 +214,12 @@ public final class OptionsDlg extends MMDialog {
       bufSizeField_ = new JTextField(
             Integer.toString(mmStudio_.getCircularBufferSize()), 5);
 
+      imageCacheSizeField_ = new JTextField(
+            Integer.toString(CachingStorage.getPlaneCacheSizeMB()), 5);
+
+      offHeapBudgetField_ = new JTextField(
+            Integer.toString(StorageOffHeap.getBudgetMB()), 5);
+
       String[] options = new String[SkinMode.values().length];
       for (int i = 0; i < SkinMode.values().length; ++i) {
          options[i] = SkinMode.values()[i].getDesc();
@@ -258,6 +269,39 @@ public final class OptionsDlg extends MMDialog {
             StorageMultipageTiff.setShouldSplitPositions(separateFilesForPositionsMPTiffCheckBox.isSelected());
          }
       });
+
+      final JCheckBox parallelWritingMPTiffCheckBox = new JCheckBox();
+      parallelWritingMPTiffCheckBox.setText("Write Image Stack Files for different XY positions in parallel");
+      parallelWritingMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldWriteFileSetsInParallel());
+      parallelWritingMPTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldWriteFileSetsInParallel(parallelWritingMPTiffCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox memoryMapMPTiffCheckBox = new JCheckBox();
+      memoryMapMPTiffCheckBox.setText("Read Image Stack Files by memory mapping (faster browsing of large datasets)");
+      memoryMapMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldMemoryMapFiles());
+      memoryMapMPTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldMemoryMapFiles(memoryMapMPTiffCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox shareScopeDataCheckBox = new JCheckBox();
+      shareScopeDataCheckBox.setText("Save only changed device properties with each image (not readable by older versions)");
+      shareScopeDataCheckBox.setSelected(
+            ScopeDataSnapshots.getShouldShareScopeDataOnDisk());
+      shareScopeDataCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            ScopeDataSnapshots.setShouldShareScopeDataOnDisk(shareScopeDataCheckBox.isSelected());
+         }
+      });
   
       final JCheckBox syncExposureMainAndMDA = new JCheckBox();
       syncExposureMainAndMDA.setText("Sync exposure between Main and MDA windows");
@@ -302,10 +346,21 @@ public final class OptionsDlg extends MMDialog {
       super.add(bufSizeField_, "gapright related");
       super.add(new JLabel("MB"), "wrap");
 
+      super.add(new JLabel("Image Cache Size (Datasets Opened Virtually):"), "split 3, gapright push");
+      super.add(imageCacheSizeField_, "gapright related");
+      super.add(new JLabel("MB"), "wrap");
+
+      super.add(new JLabel("Off-Heap Memory for Acquisitions to RAM (0 = Java heap):"), "split 3, gapright push");
+      super.add(offHeapBudgetField_, "gapright related");
+      super.add(new JLabel("MB"), "wrap");
+
       super.add(new JSeparator(), "wrap");
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
       super.add(separateFilesForPositionsMPTiffCheckBox, "wrap");
+      super.add(parallelWritingMPTiffCheckBox, "wrap");
+      super.add(memoryMapMPTiffCheckBox, "wrap");
+      super.add(shareScopeDataCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -352,10 +407,16 @@ public final class OptionsDlg extends MMDialog {
 
    private void closeRequested() {
       int seqBufSize;
+      int imageCacheSize;
+      int offHeapBudget;
       int deleteLogDays;
       try {
          seqBufSize =
             NumberUtils.displayStringToInt(bufSizeField_.getText());
+         imageCacheSize =
+            NumberUtils.displayStringToInt(imageCacheSizeField_.getText());
+         offHeapBudget =
+            NumberUtils.displayStringToInt(offHeapBudgetField_.getText());
          deleteLogDays =
             NumberUtils.displayStringToInt(logDeleteDaysField_.getText());
       }
@@ -365,6 +426,8 @@ public final class OptionsDlg extends MMDialog {
       }
 
       mmStudio_.setCircularBufferSize(seqBufSize);
+      CachingStorage.setPlaneCacheSizeMB(imageCacheSize);
+      StorageOffHeap.setBudgetMB(offHeapBudget);
       mmStudio_.setCoreLogLifetimeDays(deleteLogDays);
 
       ScriptPanel.setStartupScript(startupScriptFile_.getText());
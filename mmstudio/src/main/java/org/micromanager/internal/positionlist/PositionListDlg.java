@@ -61,6 +61,7 @@ import org.micromanager.events.XYStagePositionChangedEvent;
 import org.micromanager.events.internal.InternalShutdownCommencingEvent;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.dialogs.AcqControlDlg;
+import org.micromanager.internal.positionlist.utils.VisitOrderOptimizer;
 import org.micromanager.internal.utils.DaytimeNighttime;
 import org.micromanager.internal.utils.EventBusExceptionLogger;
 import org.micromanager.internal.utils.FileDialogs;
@@ -356,6 +357,19 @@ public final class PositionListDlg extends MMFrame implements MouseListener, Cha
       offsetButton.setText("Add Offset");
       offsetButton.setToolTipText("Add an offset to the selected positions.");
       add(offsetButton);
+
+      final JButton optimizeButton = posListButton(buttonSize, arialSmallFont_);
+      optimizeButton.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            optimizeVisitOrder();
+         }
+      });
+      optimizeButton.setIcon(new ImageIcon(MMStudio.class.getResource(
+              "/org/micromanager/icons/empty.png")));
+      optimizeButton.setText("Optimize");
+      optimizeButton.setToolTipText("Reorder the positions to minimize XY stage travel, keeping the first position first");
+      add(optimizeButton);
       
       final JButton removeAllButton = posListButton(buttonSize, arialSmallFont_);
       removeAllButton.addActionListener(new ActionListener() {
@@ -571,6 +585,29 @@ public final class PositionListDlg extends MMFrame implements MouseListener, Cha
       acqControlDlg_.updateGUIContents();
    }
 
+
+   protected void optimizeVisitOrder() {
+      PositionTableModel ptm = (PositionTableModel) posTable_.getModel();
+      PositionList pl = ptm.getPositionList();
+      if (pl.getNumberOfPositions() < 3) {
+         return;
+      }
+      VisitOrderOptimizer.Result result = VisitOrderOptimizer.builder().
+            fixStart(true).build().optimize(pl);
+      String message = String.format("Reorder the %d positions?\n" +
+            "Estimated XY stage travel time: %.1f s now, %.1f s reordered\n" +
+            "(assuming %.0f mm/s per axis)", pl.getNumberOfPositions(),
+            result.getTravelTimeBefore(), result.getTravelTimeAfter(),
+            VisitOrderOptimizer.DEFAULT_SPEED_UM_PER_SECOND / 1000.0);
+      int ret = JOptionPane.showConfirmDialog(this, message,
+            "Optimize Position Order", JOptionPane.YES_NO_OPTION);
+      if (ret != JOptionPane.YES_OPTION) {
+         return;
+      }
+      pl.setPositions(result.getPositionList().getPositions());
+      ptm.fireTableDataChanged();
+      acqControlDlg_.updateGUIContents();
+   }
    
    protected void incrementOrderOfSelectedPosition(int direction) {
       PositionTableModel ptm = (PositionTableModel) posTable_.getModel();
@@ -0,0 +1,708 @@
+package org.micromanager.internal.positionlist.utils;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+
+/**
+ * Find an order in which to visit a list of positions that minimizes the
+ * XY stage travel time (a traveling salesman path).
+ * <p>
+ * The travel time between two positions is estimated as that of an XY stage
+ * moving both axes at once, each at its own speed: the larger of
+ * {@code |dx| / speedX} and {@code |dy| / speedY}. Acceleration and settling
+ * are ignored; they add the same time to every order.
+ * <p>
+ * The order is built by a nearest neighbor heuristic and then improved with
+ * 2-opt moves (reversing a section of the path) and Or-opt moves (moving a
+ * section of up to 3 positions elsewhere), considering only moves that
+ * connect each position to one of its nearest neighbors. This takes well
+ * under a second for 10,000 positions, and typically gets within about 5% of
+ * the shortest path. If the result is not shorter than the given order (e.g.
+ * for a plate already in snake order), the given order is kept.
+ * <p>
+ * The first and/or last position can be kept in place, for example to start
+ * near the current stage position or to end where the next acquisition
+ * starts.
+ */
+public final class VisitOrderOptimizer {
+   /** A typical speed for a motorized XY stage. */
+   public static final double DEFAULT_SPEED_UM_PER_SECOND = 5000.0;
+
+   private static final int NUM_NEIGHBORS = 8;
+   private static final int MAX_SEGMENT_LENGTH = 3;
+
+   private final double speedX_;
+   private final double speedY_;
+   private final boolean fixStart_;
+   private final boolean fixEnd_;
+
+   public static final class Builder {
+      private double speedX_ = DEFAULT_SPEED_UM_PER_SECOND;
+      private double speedY_ = DEFAULT_SPEED_UM_PER_SECOND;
+      private boolean fixStart_ = false;
+      private boolean fixEnd_ = false;
+
+      private Builder() {
+      }
+
+      /**
+       * Set the speeds of the X and Y axes, in micrometers per second.
+       */
+      public Builder speeds(double speedX, double speedY) {
+         Preconditions.checkArgument(speedX > 0 && speedY > 0);
+         speedX_ = speedX;
+         speedY_ = speedY;
+         return this;
+      }
+
+      /** Keep the first position first. */
+      public Builder fixStart(boolean fixStart) {
+         fixStart_ = fixStart;
+         return this;
+      }
+
+      /** Keep the last position last. */
+      public Builder fixEnd(boolean fixEnd) {
+         fixEnd_ = fixEnd;
+         return this;
+      }
+
+      public VisitOrderOptimizer build() {
+         return new VisitOrderOptimizer(this);
+      }
+   }
+
+   public static Builder builder() {
+      return new Builder();
+   }
+
+   private VisitOrderOptimizer(Builder builder) {
+      speedX_ = builder.speedX_;
+      speedY_ = builder.speedY_;
+      fixStart_ = builder.fixStart_;
+      fixEnd_ = builder.fixEnd_;
+   }
+
+   /**
+    * The result of optimizing a position list.
+    */
+   public static final class Result {
+      private final PositionList positionList_;
+      private final double timeBefore_;
+      private final double timeAfter_;
+
+      private Result(PositionList positionList, double timeBefore,
+            double timeAfter)
+      {
+         positionList_ = positionList;
+         timeBefore_ = timeBefore;
+         timeAfter_ = timeAfter;
+      }
+
+      /** The positions, in the optimized order. */
+      public PositionList getPositionList() {
+         return positionList_;
+      }
+
+      /** The estimated travel time in the original order, in seconds. */
+      public double getTravelTimeBefore() {
+         return timeBefore_;
+      }
+
+      /** The estimated travel time in the optimized order, in seconds. */
+      public double getTravelTimeAfter() {
+         return timeAfter_;
+      }
+   }
+
+   /**
+    * Reorder a position list, using the positions of each position's default
+    * XY stage.
+    *
+    * @param positions the position list, which is not modified
+    * @return a new position list holding the same positions, reordered (or
+    * in the same order if no shorter order was found), and the estimated
+    * travel times before and after
+    */
+   public Result optimize(PositionList positions) {
+      MultiStagePosition[] msps = positions.getPositions();
+      double[] x = new double[msps.length];
+      double[] y = new double[msps.length];
+      for (int i = 0; i < msps.length; ++i) {
+         x[i] = msps[i].getX();
+         y[i] = msps[i].getY();
+      }
+      int[] order = optimize(x, y);
+      MultiStagePosition[] reordered = new MultiStagePosition[msps.length];
+      for (int i = 0; i < order.length; ++i) {
+         reordered[i] = msps[order[i]];
+      }
+      PositionList result = new PositionList();
+      result.setPositions(reordered);
+      return new Result(result, getTravelTime(x, y, identity(x.length)),
+            getTravelTime(x, y, order));
+   }
+
+   /**
+    * Find the visit order for positions given by their coordinates.
+    *
+    * @param x the X coordinates, in micrometers
+    * @param y the Y coordinates, in micrometers
+    * @return the indices of the positions, in the order in which to visit
+    * them; 0, 1, 2, ... if no shorter order than the given one was found
+    */
+   public int[] optimize(double[] x, double[] y) {
+      Preconditions.checkArgument(x.length == y.length);
+      int n = x.length;
+      if (n <= 2) {
+         // Nothing to reorder, or the only alternative is the reverse
+         return identity(n);
+      }
+      double[] sx = new double[n];
+      double[] sy = new double[n];
+      for (int i = 0; i < n; ++i) {
+         sx[i] = x[i] / speedX_;
+         sy[i] = y[i] / speedY_;
+      }
+      Tour tour = new Tour(sx, sy, fixStart_, fixEnd_);
+      tour.improve();
+      int[] order = tour.getOrder();
+      // The heuristic can miss the optimum, so never return a worse (or an
+      // equally good but different) order
+      int[] given = identity(n);
+      if (getTravelTime(x, y, order) >= getTravelTime(x, y, given)) {
+         return given;
+      }
+      return order;
+   }
+
+   /**
+    * Estimate the travel time of visiting positions in the given order.
+    *
+    * @return the travel time in seconds
+    */
+   public double getTravelTime(double[] x, double[] y, int[] order) {
+      double time = 0.0;
+      for (int i = 1; i < order.length; ++i) {
+         time += Math.max(Math.abs(x[order[i]] - x[order[i - 1]]) / speedX_,
+               Math.abs(y[order[i]] - y[order[i - 1]]) / speedY_);
+      }
+      return time;
+   }
+
+   private static int[] identity(int n) {
+      int[] order = new int[n];
+      for (int i = 0; i < n; ++i) {
+         order[i] = i;
+      }
+      return order;
+   }
+
+   /**
+    * Positions bucketed in a uniform grid, for finding near neighbors.
+    * Distances are in the scaled coordinates (seconds), using the maximum
+    * of the per-axis distances, so the positions within r cells of a query
+    * position's cell include all those within r * cellSize of it.
+    */
+   private static final class Grid {
+      private final double[] x_;
+      private final double[] y_;
+      private final double minX_;
+      private final double minY_;
+      private final double cellSize_;
+      private final int cols_;
+      private final int rows_;
+      private final int[] cellStart_;
+      private final int[] cellCount_;
+      private final int[] items_; // position indices, grouped by cell
+      private final int[] itemIndex_; // index of each position in items_
+
+      Grid(double[] x, double[] y) {
+         x_ = x;
+         y_ = y;
+         int n = x.length;
+         double minX = Double.POSITIVE_INFINITY;
+         double maxX = Double.NEGATIVE_INFINITY;
+         double minY = Double.POSITIVE_INFINITY;
+         double maxY = Double.NEGATIVE_INFINITY;
+         for (int i = 0; i < n; ++i) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+         }
+         minX_ = minX;
+         minY_ = minY;
+         // About 2 positions per cell. The cell size is at least the larger
+         // extent divided by the number of cells, so that nearly collinear
+         // positions (e.g. a row with jitter in Y) do not get a huge number
+         // of tiny cells: cols_ * rows_ stays below 3 * numCells + 1.
+         double width = maxX - minX;
+         double height = maxY - minY;
+         int numCells = Math.max(1, n / 2);
+         double cellSize = Math.max(Math.sqrt(width * height / numCells),
+               Math.max(width, height) / numCells);
+         cellSize_ = cellSize > 0 ? cellSize : 1.0;
+         cols_ = (int) (width / cellSize_) + 1;
+         rows_ = (int) (height / cellSize_) + 1;
+
+         cellStart_ = new int[cols_ * rows_ + 1];
+         cellCount_ = new int[cols_ * rows_];
+         int[] cells = new int[n];
+         for (int i = 0; i < n; ++i) {
+            cells[i] = getCell(i);
+            ++cellCount_[cells[i]];
+         }
+         for (int c = 0; c < cols_ * rows_; ++c) {
+            cellStart_[c + 1] = cellStart_[c] + cellCount_[c];
+         }
+         items_ = new int[n];
+         itemIndex_ = new int[n];
+         int[] fill = Arrays.copyOf(cellStart_, cols_ * rows_);
+         for (int i = 0; i < n; ++i) {
+            itemIndex_[i] = fill[cells[i]];
+            items_[fill[cells[i]]++] = i;
+         }
+      }
+
+      private int getCol(int i) {
+         return Math.min(cols_ - 1, (int) ((x_[i] - minX_) / cellSize_));
+      }
+
+      private int getRow(int i) {
+         return Math.min(rows_ - 1, (int) ((y_[i] - minY_) / cellSize_));
+      }
+
+      private int getCell(int i) {
+         return getRow(i) * cols_ + getCol(i);
+      }
+
+      double distance(int i, int j) {
+         return Math.max(Math.abs(x_[i] - x_[j]), Math.abs(y_[i] - y_[j]));
+      }
+
+      void remove(int i) {
+         int cell = getCell(i);
+         int last = cellStart_[cell] + --cellCount_[cell];
+         int moved = items_[last];
+         items_[itemIndex_[i]] = moved;
+         itemIndex_[moved] = itemIndex_[i];
+         items_[last] = i;
+         itemIndex_[i] = last;
+      }
+
+      /**
+       * Find the nearest position to i still in the grid.
+       *
+       * @return the position index, or -1 if the grid is empty
+       */
+      int findNearest(int i) {
+         int col = getCol(i);
+         int row = getRow(i);
+         int best = -1;
+         double bestDistance = Double.POSITIVE_INFINITY;
+         int maxRing = Math.max(cols_, rows_);
+         for (int ring = 0; ring <= maxRing; ++ring) {
+            for (int r = row - ring; r <= row + ring; ++r) {
+               if (r < 0 || r >= rows_) {
+                  continue;
+               }
+               boolean isEdgeRow = r == row - ring || r == row + ring;
+               int step = isEdgeRow ? 1 : 2 * ring;
+               for (int c = col - ring; c <= col + ring;
+                     c += Math.max(1, step)) {
+                  if (c < 0 || c >= cols_) {
+                     continue;
+                  }
+                  int cell = r * cols_ + c;
+                  for (int k = cellStart_[cell];
+                        k < cellStart_[cell] + cellCount_[cell]; ++k) {
+                     int j = items_[k];
+                     double d = distance(i, j);
+                     if (j != i && d < bestDistance) {
+                        best = j;
+                        bestDistance = d;
+                     }
+                  }
+               }
+            }
+            if (bestDistance <= ring * cellSize_) {
+               break;
+            }
+         }
+         return best;
+      }
+
+      /**
+       * Find the k nearest positions to i, nearest first.
+       */
+      int[] findNearest(int i, int k) {
+         int col = getCol(i);
+         int row = getRow(i);
+         int[] nearest = new int[k];
+         double[] distances = new double[k];
+         int found = 0;
+         int maxRing = Math.max(cols_, rows_);
+         for (int ring = 0; ring <= maxRing; ++ring) {
+            for (int r = row - ring; r <= row + ring; ++r) {
+               if (r < 0 || r >= rows_) {
+                  continue;
+               }
+               boolean isEdgeRow = r == row - ring || r == row + ring;
+               int step = isEdgeRow ? 1 : 2 * ring;
+               for (int c = col - ring; c <= col + ring;
+                     c += Math.max(1, step)) {
+                  if (c < 0 || c >= cols_) {
+                     continue;
+                  }
+                  int cell = r * cols_ + c;
+                  for (int m = cellStart_[cell];
+                        m < cellStart_[cell] + cellCount_[cell]; ++m) {
+                     int j = items_[m];
+                     if (j == i) {
+                        continue;
+                     }
+                     double d = distance(i, j);
+                     if (found == k && d >= distances[k - 1]) {
+                        continue;
+                     }
+                     // Insertion into the sorted candidates
+                     int p = found < k ? found++ : k - 1;
+                     while (p > 0 && distances[p - 1] > d) {
+                        nearest[p] = nearest[p - 1];
+                        distances[p] = distances[p - 1];
+                        --p;
+                     }
+                     nearest[p] = j;
+                     distances[p] = d;
+                  }
+               }
+            }
+            if (found == k && distances[k - 1] <= ring * cellSize_) {
+               break;
+            }
+         }
+         return found == k ? nearest : Arrays.copyOf(nearest, found);
+      }
+   }
+
+   /**
+    * A visit order, as a cycle through the positions and a dummy node (at
+    * zero distance from every position) that joins the ends of the path.
+    * Keeping an end in place is keeping its edge to the dummy node.
+    */
+   private static final class Tour {
+      private static final double EPSILON = 1e-9;
+
+      private final Grid grid_;
+      private final int n_;
+      private final int size_; // n_ + 1, including the dummy node
+      private final int dummy_;
+      private final int first_;
+      private final int last_;
+      private final boolean fixStart_;
+      private final boolean fixEnd_;
+      private final int[][] neighbors_;
+      private final int[] tour_;
+      private final int[] pos_;
+      // Nodes whose moves are to be (re)considered
+      private final int[] queue_;
+      private final boolean[] isQueued_;
+      private int queueHead_ = 0;
+      private int queueSize_ = 0;
+
+      Tour(double[] x, double[] y, boolean fixStart, boolean fixEnd) {
+         n_ = x.length;
+         size_ = n_ + 1;
+         dummy_ = n_;
+         first_ = 0;
+         last_ = n_ - 1;
+         fixStart_ = fixStart;
+         fixEnd_ = fixEnd;
+         grid_ = new Grid(x, y);
+
+         int k = Math.min(NUM_NEIGHBORS, n_ - 1);
+         neighbors_ = new int[n_][];
+         for (int i = 0; i < n_; ++i) {
+            neighbors_[i] = grid_.findNearest(i, k);
+         }
+
+         // Nearest neighbor path, from the first position
+         tour_ = new int[size_];
+         pos_ = new int[size_];
+         tour_[0] = dummy_;
+         tour_[1] = first_;
+         grid_.remove(first_);
+         if (fixEnd_) {
+            grid_.remove(last_);
+         }
+         int current = first_;
+         for (int p = 2; p <= (fixEnd_ ? n_ - 1 : n_); ++p) {
+            current = grid_.findNearest(current);
+            grid_.remove(current);
+            tour_[p] = current;
+         }
+         if (fixEnd_) {
+            tour_[n_] = last_;
+         }
+         for (int p = 0; p < size_; ++p) {
+            pos_[tour_[p]] = p;
+         }
+
+         queue_ = new int[n_];
+         isQueued_ = new boolean[n_];
+         for (int i = 0; i < n_; ++i) {
+            enqueue(i);
+         }
+      }
+
+      private double distance(int a, int b) {
+         if (a == dummy_ || b == dummy_) {
+            return 0.0;
+         }
+         return grid_.distance(a, b);
+      }
+
+      private boolean isFixed(int a, int b) {
+         if (a == dummy_ || b == dummy_) {
+            int other = a == dummy_ ? b : a;
+            return (fixStart_ && other == first_) ||
+                  (fixEnd_ && other == last_);
+         }
+         return false;
+      }
+
+      private int next(int a) {
+         int p = pos_[a] + 1;
+         return tour_[p == size_ ? 0 : p];
+      }
+
+      private int prev(int a) {
+         int p = pos_[a] - 1;
+         return tour_[p < 0 ? size_ - 1 : p];
+      }
+
+      private void enqueue(int a) {
+         if (a == dummy_ || isQueued_[a]) {
+            return;
+         }
+         isQueued_[a] = true;
+         queue_[(queueHead_ + queueSize_++) % n_] = a;
+      }
+
+      private int dequeue() {
+         int a = queue_[queueHead_];
+         queueHead_ = (queueHead_ + 1) % n_;
+         --queueSize_;
+         isQueued_[a] = false;
+         return a;
+      }
+
+      void improve() {
+         while (queueSize_ > 0) {
+            int a = dequeue();
+            if (tryTwoOpt(a) || tryOrOpt(a)) {
+               enqueue(a);
+            }
+         }
+      }
+
+      /**
+       * Replace edges (a, next a) and (c, next c) with (a, c) and
+       * (next a, next c), or likewise with prev, for a neighbor c of a.
+       */
+      private boolean tryTwoOpt(int a) {
+         for (int direction = 0; direction < 2; ++direction) {
+            boolean forward = direction == 0;
+            int b = forward ? next(a) : prev(a);
+            double ab = distance(a, b);
+            if (isFixed(a, b)) {
+               continue;
+            }
+            for (int c : neighbors_[a]) {
+               double ac = distance(a, c);
+               if (ac >= ab) {
+                  break;
+               }
+               int d = forward ? next(c) : prev(c);
+               if (c == b || d == a || isFixed(c, d)) {
+                  continue;
+               }
+               double gain = ab + distance(c, d) - ac - distance(b, d);
+               if (gain > EPSILON) {
+                  if (forward) {
+                     reverse(b, c);
+                  }
+                  else {
+                     reverse(a, d);
+                  }
+                  enqueue(a);
+                  enqueue(b);
+                  enqueue(c);
+                  enqueue(d);
+                  return true;
+               }
+            }
+         }
+         return false;
+      }
+
+      /**
+       * Move the section of up to MAX_SEGMENT_LENGTH nodes starting at a
+       * to between a neighbor of one of its ends and the node before or
+       * after that neighbor.
+       */
+      private boolean tryOrOpt(int a) {
+         int segmentEnd = a;
+         for (int length = 1; length <= MAX_SEGMENT_LENGTH; ++length) {
+            if (length > 1) {
+               segmentEnd = next(segmentEnd);
+            }
+            if (segmentEnd == dummy_ || length + 2 > size_) {
+               return false;
+            }
+            int p = prev(a);
+            int q = next(segmentEnd);
+            if (isFixed(p, a) || isFixed(segmentEnd, q)) {
+               continue;
+            }
+            double removeGain = distance(p, a) + distance(segmentEnd, q) -
+                  distance(p, q);
+            if (removeGain <= EPSILON) {
+               continue;
+            }
+            for (int end = 0; end < 2; ++end) {
+               // The end of the section to be joined to the neighbor
+               int joined = end == 0 ? a : segmentEnd;
+               int other = end == 0 ? segmentEnd : a;
+               for (int c : neighbors_[joined]) {
+                  double cj = distance(c, joined);
+                  if (cj >= removeGain) {
+                     break;
+                  }
+                  if (isInSegment(c, a, length)) {
+                     continue;
+                  }
+                  for (int side = 0; side < 2; ++side) {
+                     int c2 = side == 0 ? next(c) : prev(c);
+                     if (isInSegment(c2, a, length) || isFixed(c, c2)) {
+                        continue;
+                     }
+                     double addCost = cj + distance(other, c2) -
+                           distance(c, c2);
+                     if (removeGain - addCost > EPSILON) {
+                        if (side == 0) {
+                           moveSegment(a, length, c, joined == segmentEnd);
+                        }
+                        else {
+                           moveSegment(a, length, c2, joined == a);
+                        }
+                        enqueue(p);
+                        enqueue(q);
+                        enqueue(a);
+                        enqueue(segmentEnd);
+                        enqueue(c);
+                        enqueue(c2);
+                        return true;
+                     }
+                  }
+               }
+            }
+         }
+         return false;
+      }
+
+      private boolean isInSegment(int node, int start, int length) {
+         return (pos_[node] - pos_[start] + size_) % size_ < length;
+      }
+
+      /**
+       * Reverse the path from node u forward to node v. As the tour is a
+       * cycle, reversing the rest of the tour instead is equivalent; the
+       * shorter of the two is reversed.
+       */
+      private void reverse(int u, int v) {
+         int i = pos_[u];
+         int j = pos_[v];
+         int length = (j - i + size_) % size_ + 1;
+         if (2 * length > size_) {
+            i = pos_[next(v)];
+            j = pos_[prev(u)];
+            length = size_ - length;
+         }
+         for (int s = 0; s < length / 2; ++s) {
+            int a = tour_[i];
+            int b = tour_[j];
+            tour_[i] = b;
+            pos_[b] = i;
+            tour_[j] = a;
+            pos_[a] = j;
+            i = i + 1 == size_ ? 0 : i + 1;
+            j = j == 0 ? size_ - 1 : j - 1;
+         }
+      }
+
+      /**
+       * Move the length nodes starting at start to between after and the
+       * node following it, optionally reversing them.
+       */
+      private void moveSegment(int start, int length, int after,
+            boolean reversed)
+      {
+         int[] segment = new int[length];
+         int i = pos_[start];
+         for (int s = 0; s < length; ++s) {
+            segment[s] = tour_[(i + s) % size_];
+         }
+         int following = pos_[next(after)];
+         // Shift the nodes between the section and its destination, going
+         // whichever way round the cycle is shorter
+         int forwardGap = (pos_[after] - (i + length - 1) + size_) % size_;
+         int backwardGap = (i - following + size_) % size_;
+         int dest;
+         if (forwardGap <= backwardGap) {
+            for (int s = 0; s < forwardGap; ++s) {
+               place(tour_[(i + length + s) % size_], (i + s) % size_);
+            }
+            dest = (i + forwardGap) % size_;
+         }
+         else {
+            for (int s = backwardGap - 1; s >= 0; --s) {
+               int from = (following + s) % size_;
+               place(tour_[from], (from + length) % size_);
+            }
+            dest = following;
+         }
+         for (int s = 0; s < length; ++s) {
+            place(segment[reversed ? length - 1 - s : s],
+                  (dest + s) % size_);
+         }
+      }
+
+      private void place(int node, int p) {
+         tour_[p] = node;
+         pos_[node] = p;
+      }
+
+      /** The positions, in order, from the first to the last. */
+      int[] getOrder() {
+         int[] order = new int[n_];
+         int p = pos_[dummy_];
+         for (int s = 0; s < n_; ++s) {
+            p = p + 1 == size_ ? 0 : p + 1;
+            order[s] = tour_[p];
+         }
+         if ((fixStart_ && order[0] != first_) ||
+               (fixEnd_ && order[n_ - 1] != last_)) {
+            for (int s = 0; s < n_ / 2; ++s) {
+               int t = order[s];
+               order[s] = order[n_ - 1 - s];
+               order[n_ - 1 - s] = t;
+            }
+         }
+         return order;
+      }
+   }
+}
@@ -40,6 +40,31 @@ public abstract class NonPropertyMapJSONFormats {
    private static final NonPropertyMapJSONFormats IMAGE_FORMAT_INSTANCE =
          new ImageFormat();
 
+   // Keys read by the metadata format, in order. Shared with
+   // TaggedImageTagsDecoder, which must produce the same result.
+   static final ImmutableList<PropertyKey> METADATA_KEYS_TO_READ =
+         ImmutableList.of(
+               PropertyKey.UUID,
+               CAMERA,
+               BINNING,
+               ROI,
+               BIT_DEPTH,
+               EXPOSURE_MS,
+               ELAPSED_TIME_MS,
+               IMAGE_NUMBER,
+               RECEIVED_TIME,
+               PIXEL_SIZE_UM,
+               PIXEL_SIZE_AFFINE,
+               PIXEL_ASPECT,
+               POSITION_NAME,
+               X_POSITION_UM,
+               Y_POSITION_UM,
+               Z_POSITION_UM,
+               PIXEL_TYPE, // Needed due to MultipageTiffReader design
+               SCOPE_DATA,
+               USER_DATA,
+               FILE_NAME);
+
    public static NonPropertyMapJSONFormats metadata() {
       return METADATA_INSTANCE;
    }
@@ -109,28 +134,7 @@ public abstract class NonPropertyMapJSONFormats {
       @Override
       public PropertyMap fromGson(JsonElement je) {
          PropertyMap.Builder builder = PropertyMaps.builder();
-         for (PropertyKey key : ImmutableList.of(
-               PropertyKey.UUID,
-               CAMERA,
-               BINNING,
-               ROI,
-               BIT_DEPTH,
-               EXPOSURE_MS,
-               ELAPSED_TIME_MS,
-               IMAGE_NUMBER,
-               RECEIVED_TIME,
-               PIXEL_SIZE_UM,
-               PIXEL_SIZE_AFFINE,
-               PIXEL_ASPECT,
-               POSITION_NAME,
-               X_POSITION_UM,
-               Y_POSITION_UM,
-               Z_POSITION_UM,
-               PIXEL_TYPE, // Needed due to MultipageTiffReader design
-               SCOPE_DATA,
-               USER_DATA,
-               FILE_NAME))
-         {
+         for (PropertyKey key : METADATA_KEYS_TO_READ) {
             key.extractFromGsonObject(je.getAsJsonObject(), builder);
          }
          return builder.build();
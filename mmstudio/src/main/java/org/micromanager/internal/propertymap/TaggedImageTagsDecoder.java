@@ -0,0 +1,305 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataSnapshots;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Single-pass conversion of TaggedImage tags to metadata, coords, and image
+ * format property maps.
+ * <p>
+ * The result is the same as that of serializing the tags to a string,
+ * parsing it with Gson, and applying {@link NonPropertyMapJSONFormats#metadata},
+ * {@link NonPropertyMapJSONFormats#coords}, and
+ * {@link NonPropertyMapJSONFormats#imageFormat}. But there is no intermediate
+ * string, and the (often several hundred) device property keys copied from
+ * the core's system state cache are visited only once: they are placed
+ * directly into the scope data or user data, while only the few standard
+ * keys are converted to Gson and handed to {@link PropertyKey} for parsing.
+ * <p>
+ * If given {@link ScopeDataSnapshots}, the scope data values are compared
+ * with the current snapshot as they are read, and only the values that
+ * changed are copied.
+ *
+ * @see NonPropertyMapJSONFormats
+ */
+public final class TaggedImageTagsDecoder {
+   // Used by PropertyKey.CAMERA as a fallback, although not a standard key
+   private static final String CORE_CAMERA = "Core-Camera";
+
+   private final PropertyMap metadata_;
+   private final PropertyMap coords_;
+   private final PropertyMap format_;
+
+   /**
+    * Decode MM1-style flat tags, as attached to images by the core and the
+    * acquisition engine.
+    *
+    * @param tags the tags of a TaggedImage
+    * @return the decoded property maps
+    */
+   public static TaggedImageTagsDecoder decode(JSONObject tags) {
+      return new TaggedImageTagsDecoder(tags, true, null);
+   }
+
+   /**
+    * Decode MM1-style flat tags, sharing the scope data with previously
+    * decoded tags where possible.
+    *
+    * @param tags the tags of a TaggedImage
+    * @param snapshots the scope data snapshot to share with (and to update
+    * if the scope data has changed too much)
+    * @return the decoded property maps
+    */
+   public static TaggedImageTagsDecoder decode(JSONObject tags,
+         ScopeDataSnapshots snapshots) {
+      return new TaggedImageTagsDecoder(tags, true, snapshots);
+   }
+
+   /**
+    * Decode only the coords and image format, skipping the metadata.
+    *
+    * @param tags the tags of a TaggedImage
+    * @return the decoded property maps, with empty metadata
+    */
+   public static TaggedImageTagsDecoder decodeCoordsAndFormat(JSONObject tags) {
+      return new TaggedImageTagsDecoder(tags, false, null);
+   }
+
+   private TaggedImageTagsDecoder(JSONObject tags, boolean decodeMetadata,
+         ScopeDataSnapshots snapshots) {
+      List<String> scopeDataKeys = decodeMetadata ?
+            readScopeDataKeys(tags) : Collections.<String>emptyList();
+      Set<String> scopeDataKeySet = new HashSet<String>(scopeDataKeys);
+
+      JsonObject standard = new JsonObject();
+      PropertyMap.Builder userData = PropertyMaps.builder();
+      for (Iterator<String> it = tags.keys(); it.hasNext(); ) {
+         String key = it.next();
+         Object value = tags.opt(key);
+         boolean known = PropertyKey.isKnownKey(key);
+         if (known || key.equals(CORE_CAMERA)) {
+            standard.add(key, toGson(value));
+         }
+         if (!decodeMetadata) {
+            continue;
+         }
+         if (!known && !isNull(value) && !scopeDataKeySet.contains(key)) {
+            putUserData(userData, key, value);
+         }
+      }
+
+      PropertyMap.Builder metadata = PropertyMaps.builder();
+      for (PropertyKey key : decodeMetadata ?
+            NonPropertyMapJSONFormats.METADATA_KEYS_TO_READ :
+            Collections.<PropertyKey>emptyList()) {
+         if (key == PropertyKey.SCOPE_DATA && !hasValue(standard, key)) {
+            if (hasValue(standard, PropertyKey.SCOPE_DATA_KEYS)) {
+               metadata.putPropertyMap(key.key(),
+                     readScopeData(tags, scopeDataKeys, snapshots));
+            }
+         }
+         else if (key == PropertyKey.USER_DATA && !hasValue(standard, key)) {
+            metadata.putPropertyMap(key.key(), userData.build());
+         }
+         else {
+            key.extractFromGsonObject(standard, metadata);
+         }
+      }
+      metadata_ = metadata.build();
+      coords_ = NonPropertyMapJSONFormats.coords().fromGson(standard);
+      format_ = NonPropertyMapJSONFormats.imageFormat().fromGson(standard);
+   }
+
+   public PropertyMap getMetadata() {
+      return metadata_;
+   }
+
+   public PropertyMap getCoords() {
+      return coords_;
+   }
+
+   public PropertyMap getImageFormat() {
+      return format_;
+   }
+
+   private static List<String> readScopeDataKeys(JSONObject tags) {
+      for (String spelling : PropertyKey.SCOPE_DATA_KEYS.getAllKeys()) {
+         JSONArray array = tags.optJSONArray(spelling);
+         if (array != null) {
+            List<String> keys = new ArrayList<String>(array.length());
+            for (int i = 0; i < array.length(); ++i) {
+               keys.add(toFlatString(array.opt(i)));
+            }
+            return keys;
+         }
+      }
+      return Collections.emptyList();
+   }
+
+   private static PropertyMap readScopeData(JSONObject tags,
+         List<String> keys, ScopeDataSnapshots snapshots) {
+      PropertyMap base = snapshots == null ? null : snapshots.getSnapshot();
+      if (base != null) {
+         PropertyMap delta = readScopeDataDelta(tags, keys, base);
+         if (delta != null) {
+            return ScopeDataSnapshots.overlay(base, delta);
+         }
+      }
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      for (String key : keys) {
+         Object value = tags.opt(key);
+         if (value != null) {
+            builder.putString(key, toScopeDataString(value));
+         }
+      }
+      PropertyMap scopeData = builder.build();
+      if (snapshots != null) {
+         snapshots.setSnapshot(scopeData);
+      }
+      return scopeData;
+   }
+
+   // Return the values that differ from base, or null if the keys differ or
+   // too many values differ. Copies only the differing values.
+   private static PropertyMap readScopeDataDelta(JSONObject tags,
+         List<String> keys, PropertyMap base) {
+      PropertyMap.Builder delta = PropertyMaps.builder();
+      int numPresent = 0;
+      int deltaSize = 0;
+      for (String key : keys) {
+         Object value = tags.opt(key);
+         if (value == null) {
+            continue;
+         }
+         ++numPresent;
+         String baseValue = base.getValueAsString(key, null);
+         if (baseValue == null) {
+            return null;
+         }
+         String stringValue = toScopeDataString(value);
+         if (!baseValue.equals(stringValue)) {
+            if (ScopeDataSnapshots.isTooLarge(++deltaSize, base)) {
+               return null;
+            }
+            delta.putString(key, stringValue);
+         }
+      }
+      // Duplicate keys (which the full read would have collapsed) also end
+      // up here, conservatively
+      if (numPresent != base.size()) {
+         return null;
+      }
+      return delta.build();
+   }
+
+   private static boolean hasValue(JsonObject jo, PropertyKey key) {
+      for (String spelling : key.getAllKeys()) {
+         if (jo.has(spelling) && !jo.get(spelling).isJsonNull()) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static boolean isNull(Object value) {
+      return value == null || JSONObject.NULL.equals(value);
+   }
+
+   // Matches PropertyKey.SCOPE_DATA: the value may be a PropertyMap-1 style
+   // PropType - PropVal pair
+   private static String toScopeDataString(Object value) {
+      if (value instanceof JSONObject) {
+         return ((JSONObject) value).optString("PropVal", "");
+      }
+      if (isNull(value) || value instanceof JSONArray) {
+         return "";
+      }
+      return toFlatString(value);
+   }
+
+   // Matches PropertyKey.USER_DATA: arrays are flattened, keeping the last
+   // element
+   private static void putUserData(PropertyMap.Builder dest, String key,
+         Object value) {
+      if (value instanceof JSONArray) {
+         JSONArray array = (JSONArray) value;
+         for (int i = 0; i < array.length(); ++i) {
+            putUserData(dest, key, array.opt(i));
+         }
+      }
+      else if (value instanceof JSONObject) {
+         ReportingUtils.logError("Cannot read object value of " + key);
+      }
+      else if (!isNull(value)) {
+         dest.putString(key, toFlatString(value));
+      }
+   }
+
+   // The string that the value would have after round-tripping through JSON
+   private static String toFlatString(Object value) {
+      if (value instanceof Number) {
+         try {
+            return JSONObject.numberToString((Number) value);
+         }
+         catch (JSONException e) {
+            return value.toString();
+         }
+      }
+      return String.valueOf(value);
+   }
+
+   private static JsonElement toGson(Object value) {
+      if (isNull(value)) {
+         return JsonNull.INSTANCE;
+      }
+      if (value instanceof JSONObject) {
+         JSONObject object = (JSONObject) value;
+         JsonObject jo = new JsonObject();
+         for (Iterator<String> it = object.keys(); it.hasNext(); ) {
+            String key = it.next();
+            jo.add(key, toGson(object.opt(key)));
+         }
+         return jo;
+      }
+      if (value instanceof JSONArray) {
+         JSONArray array = (JSONArray) value;
+         JsonArray ja = new JsonArray();
+         for (int i = 0; i < array.length(); ++i) {
+            ja.add(toGson(array.opt(i)));
+         }
+         return ja;
+      }
+      if (value instanceof Boolean) {
+         return new JsonPrimitive((Boolean) value);
+      }
+      if (value instanceof Number) {
+         // Go via the JSON representation, so that e.g. 1.0 reads back as
+         // "1", exactly as when parsed from a string
+         try {
+            return new JsonPrimitive(new BigDecimal(toFlatString(value)));
+         }
+         catch (NumberFormatException e) {
+            return new JsonPrimitive((Number) value);
+         }
+      }
+      return new JsonPrimitive(value.toString());
+   }
+}
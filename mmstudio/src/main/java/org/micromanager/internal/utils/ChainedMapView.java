@@ -7,9 +7,12 @@ package org.micromanager.internal.utils;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,7 +20,7 @@ import java.util.Set;
  *
  * @author mark
  */
-public final class ChainedMapView<K, V> implements Map<K, V> {
+public final class ChainedMapView<K, V> extends AbstractMap<K, V> {
    private final Map<K, V> front_;
    private final Map<K, V> fallback_;
 
@@ -99,9 +102,39 @@ public final class ChainedMapView<K, V> implements Map<K, V> {
       return Collections.unmodifiableSet(values);
    }
 
+   // Iterates in the order of keySet(), so that the chained map has the same
+   // ordering as a copy of the fallback map with the front entries put in.
+   // Equality and hash code (from AbstractMap) are those of such a copy.
    @Override
    public Set<Entry<K, V>> entrySet() {
-      return Sets.union(front_.entrySet(),
-            Maps.difference(fallback_, front_).entriesOnlyOnLeft().entrySet());
+      return new AbstractSet<Entry<K, V>>() {
+         @Override
+         public Iterator<Entry<K, V>> iterator() {
+            final Iterator<K> keys = keySet().iterator();
+            return new Iterator<Entry<K, V>>() {
+               @Override
+               public boolean hasNext() {
+                  return keys.hasNext();
+               }
+
+               @Override
+               public Entry<K, V> next() {
+                  K key = keys.next();
+                  return new AbstractMap.SimpleImmutableEntry<K, V>(key,
+                        get(key));
+               }
+
+               @Override
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+
+         @Override
+         public int size() {
+            return ChainedMapView.this.size();
+         }
+      };
    }
 }
\ No newline at end of file
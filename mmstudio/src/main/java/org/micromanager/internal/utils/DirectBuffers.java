@@ -79,6 +79,72 @@ public final class DirectBuffers {
       return null;
    }
    
+   /**
+    * Wrap a primitive array in a heap buffer, without copying.
+    * @param primitiveArray a byte[], short[], or int[] array
+    * @return a ByteBuffer, ShortBuffer, or IntBuffer backed by the array, or
+    * null if the array type is not supported
+    */
+   public static Buffer bufferWrappingArray(Object primitiveArray) {
+      if (primitiveArray instanceof byte[]) {
+         return ByteBuffer.wrap((byte[]) primitiveArray);
+      } else if (primitiveArray instanceof short[]) {
+         return ShortBuffer.wrap((short[]) primitiveArray);
+      } else if (primitiveArray instanceof int[]) {
+         return IntBuffer.wrap((int[]) primitiveArray);
+      }
+      return null;
+   }
+
+   /**
+    * Copy a primitive array.
+    * @param primitiveArray a byte[], short[], or int[] array
+    * @return a copy of the array, or null if the array type is not supported
+    */
+   public static Object copyOfArray(Object primitiveArray) {
+      if (primitiveArray instanceof byte[]) {
+         return ((byte[]) primitiveArray).clone();
+      } else if (primitiveArray instanceof short[]) {
+         return ((short[]) primitiveArray).clone();
+      } else if (primitiveArray instanceof int[]) {
+         return ((int[]) primitiveArray).clone();
+      }
+      return null;
+   }
+
+   /**
+    * Create a read-only view of the whole of a buffer, without copying.
+    * <p>
+    * The view has independent position and limit (set to 0 and capacity), so
+    * it can be used without synchronizing on the original buffer.
+    * @param buffer a ByteBuffer, ShortBuffer, or IntBuffer
+    * @return read-only view, or null if the buffer type is not supported
+    */
+   public static Buffer readOnlyView(Buffer buffer) {
+      Buffer view;
+      if (buffer instanceof ByteBuffer) {
+         view = ((ByteBuffer) buffer).asReadOnlyBuffer().
+               order(((ByteBuffer) buffer).order());
+      } else if (buffer instanceof ShortBuffer) {
+         view = ((ShortBuffer) buffer).asReadOnlyBuffer();
+      } else if (buffer instanceof IntBuffer) {
+         view = ((IntBuffer) buffer).asReadOnlyBuffer();
+      } else {
+         return null;
+      }
+      view.clear();
+      return view;
+   }
+
+   public static int bytesPerElement(Buffer buffer) {
+      if (buffer instanceof ShortBuffer) {
+         return 2;
+      } else if (buffer instanceof IntBuffer) {
+         return 4;
+      }
+      return 1;
+   }
+
    public static ByteBuffer bufferFromString(String string) {
       try {
          return bufferFromBytes(string.getBytes("UTF-8"));
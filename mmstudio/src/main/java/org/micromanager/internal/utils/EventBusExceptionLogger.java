@@ -7,6 +7,7 @@ package org.micromanager.internal.utils;
 
 import com.google.common.eventbus.SubscriberExceptionContext;
 import com.google.common.eventbus.SubscriberExceptionHandler;
+import java.lang.reflect.Method;
 
 /**
  *
@@ -22,11 +23,22 @@ public class EventBusExceptionLogger implements SubscriberExceptionHandler {
 
    @Override
    public void handleException(Throwable thrwbl, SubscriberExceptionContext sec) {
+      logException(thrwbl, sec.getEvent(), sec.getEventBus(),
+            sec.getSubscriber(), sec.getSubscriberMethod());
+   }
+
+   /**
+    * Log an exception thrown by a subscriber of an event bus that is not a
+    * Guava EventBus (and thus has no SubscriberExceptionContext).
+    */
+   public static void logException(Throwable thrwbl, Object event,
+         Object eventBus, Object subscriber, Method subscriberMethod)
+   {
       String message = "Exception thrown by EventBus subscriber:\n" +
-            "Event: " + sec.getEvent() + "\n" +
-            "EventBus: " + sec.getEventBus() + "\n" +
-            "Subscriber: " + sec.getSubscriber() + "\n" +
-            "Subscriber Method: " + sec.getSubscriberMethod();
+            "Event: " + event + "\n" +
+            "EventBus: " + eventBus + "\n" +
+            "Subscriber: " + subscriber + "\n" +
+            "Subscriber Method: " + subscriberMethod;
       ReportingUtils.logError(thrwbl, message);
    }
 }
\ No newline at end of file
@@ -1,66 +1,310 @@
 package org.micromanager.internal.utils;
 
-import com.google.common.eventbus.EventBus;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ * <p>
+ * Subscribers are found and called as by Guava's EventBus, with one EventBus
+ * per priority: methods annotated with {@code @Subscribe} receive events
+ * assignable to their parameter type, calls to a subscriber method are
+ * serialized unless it is annotated with {@code @AllowConcurrentEvents}, and
+ * an event posted from within a subscriber is delivered to the subscribers
+ * at the same priority only after the current event has been delivered to
+ * all of them (at other priorities, it is delivered immediately). Within a
+ * priority, subscribers are called in the order of the event's type
+ * hierarchy, and in order of registration for each type. Unlike EventBus, no
+ * DeadEvent is posted for events without subscribers.
+ * <p>
+ * The subscribers are held in an immutable snapshot, replaced on register
+ * and unregister, and the subscribers for each event class are looked up
+ * once and cached in the snapshot. Posting an event therefore does not
+ * allocate (except for events posted from within a subscriber) and costs
+ * the same regardless of how many subscribers are registered for other
+ * event classes.
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
    public static final int DEFAULT_PRIORITY = 100;
+
+   // Guarded by this; a level is kept once created, as EventBus instances
+   // used to be
+   private final Map<Integer, Level> levels_ = new HashMap<Integer, Level>();
+
+   private volatile Snapshot snapshot_ =
+         new Snapshot(ImmutableList.<Subscriber>of());
+
    /**
-    * Each priority level corresponds to a different EventBus instance.
+    * Per-thread dispatch state of one priority, as kept by an EventBus.
     */
-   private HashMap<Integer, EventBus> prioritizedBuses_;
+   private static final class Level {
+      private final int priority_;
+      private final ThreadLocal<Boolean> isDispatching_ =
+            new ThreadLocal<Boolean>() {
+         @Override
+         protected Boolean initialValue() {
+            return false;
+         }
+      };
+      private final ThreadLocal<ArrayDeque<QueuedEvent>> queue_ =
+            new ThreadLocal<ArrayDeque<QueuedEvent>>() {
+         @Override
+         protected ArrayDeque<QueuedEvent> initialValue() {
+            return new ArrayDeque<QueuedEvent>();
+         }
+      };
+
+      Level(int priority) {
+         priority_ = priority;
+      }
+
+      void post(Object event, Subscriber[] subscribers,
+            PrioritizedEventBus bus)
+      {
+         if (isDispatching_.get()) {
+            // Posted from within a subscriber at this level
+            ArrayDeque<QueuedEvent> queue = queue_.get();
+            for (Subscriber subscriber : subscribers) {
+               queue.add(new QueuedEvent(event, subscriber));
+            }
+            return;
+         }
+         isDispatching_.set(true);
+         try {
+            for (Subscriber subscriber : subscribers) {
+               subscriber.dispatch(event, bus);
+            }
+            ArrayDeque<QueuedEvent> queue = queue_.get();
+            QueuedEvent queued;
+            while ((queued = queue.poll()) != null) {
+               queued.subscriber_.dispatch(queued.event_, bus);
+            }
+         }
+         finally {
+            isDispatching_.set(false);
+         }
+      }
+   }
+
+   private static final class QueuedEvent {
+      private final Object event_;
+      private final Subscriber subscriber_;
+
+      QueuedEvent(Object event, Subscriber subscriber) {
+         event_ = event;
+         subscriber_ = subscriber;
+      }
+   }
+
+   private static final class Subscriber {
+      private final Object target_;
+      private final Method method_;
+      private final MethodHandle handle_; // (Object)void, bound to target
+      private final Class<?> eventType_;
+      private final Level level_;
+      private final boolean isSynchronized_;
+
+      Subscriber(Object target, Method method, Level level) {
+         target_ = target;
+         method_ = method;
+         eventType_ = method.getParameterTypes()[0];
+         level_ = level;
+         isSynchronized_ =
+               !method.isAnnotationPresent(AllowConcurrentEvents.class);
+         method.setAccessible(true);
+         try {
+            handle_ = MethodHandles.lookup().unreflect(method).
+                  bindTo(target).asType(MethodType.methodType(void.class,
+                        Object.class));
+         }
+         catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+         }
+      }
+
+      void dispatch(Object event, PrioritizedEventBus bus) {
+         try {
+            if (isSynchronized_) {
+               synchronized (this) {
+                  handle_.invokeExact(event);
+               }
+            }
+            else {
+               handle_.invokeExact(event);
+            }
+         }
+         catch (Throwable e) {
+            EventBusExceptionLogger.logException(e, event, bus, target_,
+                  method_);
+         }
+      }
+   }
+
+   /**
+    * The registered subscribers, sorted by priority and then by order of
+    * registration, and the subscribers by level for each event class.
+    */
+   private static final class Snapshot {
+      private final ImmutableList<Subscriber> subscribers_;
+      private final ConcurrentHashMap<Class<?>, Dispatch> dispatches_ =
+            new ConcurrentHashMap<Class<?>, Dispatch>();
+
+      Snapshot(ImmutableList<Subscriber> subscribers) {
+         subscribers_ = subscribers;
+      }
+
+      Dispatch getDispatch(Class<?> eventClass) {
+         Dispatch dispatch = dispatches_.get(eventClass);
+         if (dispatch == null) {
+            dispatch = new Dispatch(subscribers_, eventClass);
+            dispatches_.putIfAbsent(eventClass, dispatch);
+         }
+         return dispatch;
+      }
+   }
+
+   private static final class Dispatch {
+      private final Level[] levels_;
+      private final Subscriber[][] subscribers_;
+
+      Dispatch(List<Subscriber> subscribers, Class<?> eventClass) {
+         List<Level> levels = new ArrayList<Level>();
+         List<Subscriber[]> subscribersByLevel = new ArrayList<Subscriber[]>();
+         int start = 0;
+         while (start < subscribers.size()) {
+            Level level = subscribers.get(start).level_;
+            int end = start;
+            while (end < subscribers.size() &&
+                  subscribers.get(end).level_ == level) {
+               ++end;
+            }
+            List<Subscriber> matching = new ArrayList<Subscriber>();
+            // Same order as EventBus.flattenHierarchy()
+            for (Class<?> type :
+                  TypeToken.of(eventClass).getTypes().rawTypes()) {
+               for (Subscriber subscriber : subscribers.subList(start, end)) {
+                  if (subscriber.eventType_ == type) {
+                     matching.add(subscriber);
+                  }
+               }
+            }
+            if (!matching.isEmpty()) {
+               levels.add(level);
+               subscribersByLevel.add(
+                     matching.toArray(new Subscriber[matching.size()]));
+            }
+            start = end;
+         }
+         levels_ = levels.toArray(new Level[levels.size()]);
+         subscribers_ = subscribersByLevel.toArray(
+               new Subscriber[levels.size()][]);
+      }
+   }
 
    public PrioritizedEventBus() {
-      prioritizedBuses_ = new HashMap<Integer, EventBus>();
    }
 
    public void register(Object o) {
       register(o, DEFAULT_PRIORITY);
    }
 
-   public void register(Object o, Integer priority) {
-      EventBus subBus;
-      if (!prioritizedBuses_.containsKey(priority)) {
-         subBus = new EventBus(EventBusExceptionLogger.getInstance());
-         prioritizedBuses_.put(priority, subBus);
+   public synchronized void register(Object o, Integer priority) {
+      Level level = levels_.get(priority);
+      if (level == null) {
+         level = new Level(priority);
+         levels_.put(priority, level);
       }
-      else {
-         subBus = prioritizedBuses_.get(priority);
+      List<Subscriber> subscribers =
+            new ArrayList<Subscriber>(snapshot_.subscribers_);
+      for (Method method : findSubscriberMethods(o.getClass())) {
+         boolean isRegistered = false;
+         for (Subscriber s : subscribers) {
+            if (s.target_ == o && s.method_.equals(method) &&
+                  s.level_ == level) {
+               isRegistered = true;
+            }
+         }
+         if (!isRegistered) {
+            subscribers.add(new Subscriber(o, method, level));
+         }
       }
-      subBus.register(o);
+      setSubscribers(subscribers);
    }
 
-   public void unregister(Object o) {
-      for (Integer priority : prioritizedBuses_.keySet()) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         // TODO: I can't find any way to test if a given EventBus has a given
-         // object subscribed to it, hence the try/catch logic here, which is
-         // unpleasant. However, objects should not be frequently unregistering
-         // so I don't think it's a huge issue.
-         // Similarly I'm not too fussed that we may have empty
-         // SubscriberRegistries lying around after unregister is called.
-         try {
-            subBus.unregister(o);
+   public synchronized void unregister(Object o) {
+      List<Subscriber> subscribers = new ArrayList<Subscriber>();
+      for (Subscriber s : snapshot_.subscribers_) {
+         if (s.target_ != o) {
+            subscribers.add(s);
          }
-         catch (IllegalArgumentException e) {
+      }
+      setSubscribers(subscribers);
+   }
+
+   private void setSubscribers(List<Subscriber> subscribers) {
+      Subscriber[] sorted =
+            subscribers.toArray(new Subscriber[subscribers.size()]);
+      // Stable, so registration order is kept within each priority
+      Arrays.sort(sorted, new Comparator<Subscriber>() {
+         @Override
+         public int compare(Subscriber s1, Subscriber s2) {
+            return Integer.compare(s1.level_.priority_, s2.level_.priority_);
+         }
+      });
+      snapshot_ = new Snapshot(ImmutableList.copyOf(sorted));
+   }
+
+   // As EventBus finds subscribers: public methods, including inherited
+   // ones, annotated with @Subscribe; overridden methods are found once
+   private static List<Method> findSubscriberMethods(Class<?> clazz) {
+      Map<List<Object>, Method> methods =
+            new LinkedHashMap<List<Object>, Method>();
+      for (Class<?> type : TypeToken.of(clazz).getTypes().rawTypes()) {
+         for (Method method : type.getMethods()) {
+            if (!method.isAnnotationPresent(Subscribe.class) ||
+                  method.isBridge()) {
+               continue;
+            }
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            if (parameterTypes.length != 1) {
+               throw new IllegalArgumentException("Method " + method +
+                     " has @Subscribe annotation, but requires " +
+                     parameterTypes.length +
+                     " arguments. Event subscriber methods must require a single argument.");
+            }
+            List<Object> identifier = new ArrayList<Object>();
+            identifier.add(method.getName());
+            identifier.addAll(Arrays.asList(parameterTypes));
+            if (!methods.containsKey(identifier)) {
+               methods.put(identifier, method);
+            }
          }
       }
+      return new ArrayList<Method>(methods.values());
    }
 
    public void post(Object event) {
-      ArrayList<Integer> priorities = new ArrayList<Integer>(prioritizedBuses_.keySet());
-      Collections.sort(priorities);
-      for (Integer priority : priorities) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         subBus.post(event);
+      Dispatch dispatch = snapshot_.getDispatch(event.getClass());
+      for (int i = 0; i < dispatch.levels_.length; ++i) {
+         dispatch.levels_[i].post(event, dispatch.subscribers_[i], this);
       }
    }
 }
@@ -58,6 +58,11 @@ public class AbstractExponentialSmoothing {
       return String.format("Avg = %g, Stdev = %g", getAverage(), getStandardDeviation());
    }
 
+   // The System.nanoTime() of the last sample, or -1
+   long getLastNanoTime() {
+      return lastNanoTime_;
+   }
+
    protected boolean isTimingStarted() {
       return lastNanoTime_ >= 0;
    }
@@ -0,0 +1,302 @@
+package org.micromanager.internal.utils.performance;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Export the statistics of registered performance monitors in the Prometheus
+ * text exposition format.
+ * <p>
+ * The metrics can be written periodically to a file (replaced atomically
+ * each time, so that readers such as the Prometheus node exporter's textfile
+ * collector always see one complete exposition) and/or served over HTTP on the loopback interface at {@code /metrics}, for
+ * scraping by Prometheus or a similar tool.
+ * <p>
+ * Each statistic becomes a summary (quantiles over the most recent samples,
+ * plus the total count) and a gauge (the exponentially smoothed average),
+ * named after the statistic label and labeled with the monitor's registered
+ * name and the original statistic label. Time interval statistics are
+ * suffixed with {@code _interval_ms}. For example, the "Repaint completed"
+ * interval of the "display" monitor is exported as
+ * <pre>
+ * mm_repaint_completed_interval_ms{monitor="display",stat="Repaint completed",quantile="0.5"} 20.1
+ * mm_repaint_completed_interval_ms_count{monitor="display",stat="Repaint completed"} 512
+ * mm_repaint_completed_interval_ms_smoothed{monitor="display",stat="Repaint completed"} 20.3
+ * </pre>
+ * <p>
+ * The default exporter is configured with the system properties
+ * {@code org.micromanager.perfmon.export.file} (the file to write),
+ * {@code org.micromanager.perfmon.export.period} (the period in
+ * milliseconds; default 10000) and {@code org.micromanager.perfmon.export.port}
+ * (the HTTP port).
+ */
+public final class PerformanceMetricsExporter {
+   private static final String FILE_SYSPROP =
+         "org.micromanager.perfmon.export.file";
+   private static final String PERIOD_SYSPROP =
+         "org.micromanager.perfmon.export.period";
+   private static final String PORT_SYSPROP =
+         "org.micromanager.perfmon.export.port";
+
+   private static final String CONTENT_TYPE =
+         "text/plain; version=0.0.4; charset=utf-8";
+
+   private final PerformanceMonitorRegistry registry_;
+   private ScheduledExecutorService fileWriter_;
+   private HttpServer server_;
+   private ExecutorService serverExecutor_;
+   private boolean fileErrorLogged_ = false;
+
+   private static PerformanceMetricsExporter instance_;
+
+   /**
+    * Start the default exporter if requested by system properties.
+    */
+   public static synchronized void startDefault() {
+      stopDefault();
+      String fileName = System.getProperty(FILE_SYSPROP);
+      Integer port = Integer.getInteger(PORT_SYSPROP);
+      if (fileName == null && port == null) {
+         return;
+      }
+      instance_ = create(PerformanceMonitorRegistry.getInstance());
+      if (fileName != null) {
+         instance_.startWritingFile(new File(fileName),
+               Long.getLong(PERIOD_SYSPROP, 10000L));
+      }
+      if (port != null) {
+         try {
+            instance_.startServing(port);
+         }
+         catch (IOException e) {
+            ReportingUtils.logError(e,
+                  "Failed to start performance metrics server");
+         }
+      }
+   }
+
+   public static synchronized void stopDefault() {
+      if (instance_ != null) {
+         instance_.stop();
+         instance_ = null;
+      }
+   }
+
+   public static PerformanceMetricsExporter create(
+         PerformanceMonitorRegistry registry)
+   {
+      return new PerformanceMetricsExporter(registry);
+   }
+
+   private PerformanceMetricsExporter(PerformanceMonitorRegistry registry) {
+      registry_ = registry;
+   }
+
+   /**
+    * Start periodically writing the metrics to a file, replacing its
+    * previous contents.
+    *
+    * @param file the file to write
+    * @param periodMs the interval between exports
+    */
+   public synchronized void startWritingFile(final File file, long periodMs) {
+      Preconditions.checkArgument(periodMs > 0);
+      Preconditions.checkState(fileWriter_ == null);
+      fileWriter_ = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryFactory.createThreadFactory(
+                  "Performance Metrics Export"));
+      fileWriter_.scheduleAtFixedRate(new Runnable() {
+         @Override
+         public void run() {
+            writeFile(file);
+         }
+      }, 0, periodMs, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Start serving the metrics at http://127.0.0.1:port/metrics.
+    *
+    * @param port the port, or 0 to choose a free port
+    * @return the port on which the metrics are served
+    * @throws IOException if the server could not be started
+    */
+   public synchronized int startServing(int port) throws IOException {
+      Preconditions.checkState(server_ == null);
+      server_ = HttpServer.create(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port), 0);
+      server_.createContext("/metrics", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            byte[] body = format().getBytes(Charsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+               out.write(body);
+            }
+            finally {
+               out.close();
+            }
+         }
+      });
+      serverExecutor_ = Executors.newSingleThreadExecutor(
+            ThreadFactoryFactory.createThreadFactory(
+                  "Performance Metrics Server"));
+      server_.setExecutor(serverExecutor_);
+      server_.start();
+      return server_.getAddress().getPort();
+   }
+
+   public synchronized void stop() {
+      if (fileWriter_ != null) {
+         fileWriter_.shutdownNow();
+         fileWriter_ = null;
+      }
+      if (server_ != null) {
+         server_.stop(0);
+         server_ = null;
+         serverExecutor_.shutdownNow();
+         serverExecutor_ = null;
+      }
+   }
+
+   // Write to a temporary file in the same directory, then rename it over
+   // the file, so that the file is never seen partly written
+   private void writeFile(File file) {
+      String text = format();
+      File temp = new File(file.getPath() + ".tmp");
+      try {
+         Writer writer = new OutputStreamWriter(
+               new FileOutputStream(temp), Charsets.UTF_8);
+         try {
+            writer.write(text);
+         }
+         finally {
+            writer.close();
+         }
+         try {
+            Files.move(temp.toPath(), file.toPath(),
+                  StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+         }
+         catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(),
+                  StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      catch (IOException e) {
+         // Log only once, rather than every period
+         if (!fileErrorLogged_) {
+            fileErrorLogged_ = true;
+            ReportingUtils.logError(e, "Failed to write performance metrics");
+         }
+      }
+   }
+
+   /**
+    * Format the current metrics of all registered monitors.
+    *
+    * @return the metrics in the Prometheus text exposition format
+    */
+   public String format() {
+      // All samples of a metric (across monitors) must be grouped together
+      Map<String, List<String>> summaries =
+            new TreeMap<String, List<String>>();
+      Map<String, List<String>> gauges = new TreeMap<String, List<String>>();
+      for (Map.Entry<String, PerformanceMonitor> e :
+            registry_.getMonitors().entrySet()) {
+         for (PerformanceMonitor.Statistic stat :
+               e.getValue().getStatistics()) {
+            String name = metricName(stat);
+            String labels = "monitor=\"" + escape(e.getKey()) +
+                  "\",stat=\"" + escape(stat.getLabel()) + "\"";
+
+            List<String> summary = getOrCreate(summaries, name);
+            for (Map.Entry<Double, Double> q :
+                  stat.getQuantiles().entrySet()) {
+               summary.add(name + "{" + labels + ",quantile=\"" +
+                     q.getKey() + "\"} " + formatValue(q.getValue()));
+            }
+            summary.add(name + "_count{" + labels + "} " + stat.getCount());
+
+            getOrCreate(gauges, name + "_smoothed").add(name +
+                  "_smoothed{" + labels + "} " +
+                  formatValue(stat.getAverage()));
+         }
+      }
+
+      StringBuilder sb = new StringBuilder();
+      appendFamilies(sb, summaries, "summary");
+      appendFamilies(sb, gauges, "gauge");
+      return sb.toString();
+   }
+
+   private static List<String> getOrCreate(Map<String, List<String>> map,
+         String key)
+   {
+      List<String> list = map.get(key);
+      if (list == null) {
+         list = new ArrayList<String>();
+         map.put(key, list);
+      }
+      return list;
+   }
+
+   private static void appendFamilies(StringBuilder sb,
+         Map<String, List<String>> families, String type)
+   {
+      for (Map.Entry<String, List<String>> family : families.entrySet()) {
+         sb.append("# TYPE ").append(family.getKey()).append(' ').
+               append(type).append('\n');
+         for (String line : family.getValue()) {
+            sb.append(line).append('\n');
+         }
+      }
+   }
+
+   static String metricName(PerformanceMonitor.Statistic stat) {
+      String name = "mm_" + stat.getLabel().toLowerCase(Locale.ROOT).
+            replaceAll("[^a-z0-9]+", "_").replaceAll("^_+|_+$", "");
+      return stat.isInterval() ? name + "_interval_ms" : name;
+   }
+
+   private static String escape(String labelValue) {
+      return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").
+            replace("\n", "\\n");
+   }
+
+   private static String formatValue(double value) {
+      if (Double.isNaN(value)) {
+         return "NaN";
+      }
+      if (Double.isInfinite(value)) {
+         return value > 0 ? "+Inf" : "-Inf";
+      }
+      return Double.toString(value);
+   }
+}
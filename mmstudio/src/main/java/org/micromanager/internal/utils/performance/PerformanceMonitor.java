@@ -13,28 +13,272 @@
 
 package org.micromanager.internal.utils.performance;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Collection of exponentially smoothed statistics for monitoring dynamic
  * performance.
+ * <p>
+ * In addition to the smoothed average, quantiles over the most recent
+ * samples of each statistic are kept, so that the distribution (including
+ * outliers) can be exported; see {@link #getStatistics}.
+ * <p>
+ * Code that samples a statistic frequently should resolve its label once,
+ * with {@link #getCounter} or {@link #getIntervalCounter}, and sample the
+ * returned handle; sampling a handle involves no lookup and no allocation.
  *
  * @author Mark A. Tsuchida
  */
 public final class PerformanceMonitor {
+   /** The quantiles reported by {@link #getStatistics}. */
+   public static final List<Double> QUANTILES =
+         ImmutableList.of(0.5, 0.9, 0.99, 1.0);
+
+   // Number of most recent samples (per stripe) from which quantiles are
+   // computed
+   private static final int QUANTILE_WINDOW_SIZE = 1000;
+
+   // Power of two (at least the number of processors, at most 16), so that
+   // a stripe can be chosen by masking the thread id
+   private static final int STRIPE_COUNT = Math.min(16, Integer.highestOneBit(
+         Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)));
+
+   private static final String INTERVAL_SUFFIX = " (interval, ms)";
+
    private final double timeConstantMs_; // We could make this settable
 
-   private final ConcurrentHashMap<String, ExponentialSmoothing> stats_ =
-         new ConcurrentHashMap<String, ExponentialSmoothing>();
-   private final ConcurrentHashMap<String, TimeIntervalExponentialSmoothing>
-         intervalStats_ =
-         new ConcurrentHashMap<String, TimeIntervalExponentialSmoothing>();
+   private final ConcurrentHashMap<String, Counter> counters_ =
+         new ConcurrentHashMap<String, Counter>();
+   private final ConcurrentHashMap<String, IntervalCounter>
+         intervalCounters_ =
+         new ConcurrentHashMap<String, IntervalCounter>();
+
+   // All counters, keyed by the getEntries() label, so that readers need not
+   // sort
+   private final ConcurrentSkipListMap<String, StatisticSource> sorted_ =
+         new ConcurrentSkipListMap<String, StatisticSource>();
+
+   private interface StatisticSource {
+      // Quantiles are computed only if requested, since that requires
+      // copying and sorting the recent samples
+      Statistic getStatistic(boolean withQuantiles);
+   }
+
+   /**
+    * Handle for sampling a statistic.
+    * <p>
+    * Samples are accumulated in stripes chosen by the sampling thread, so
+    * that threads sampling the same statistic rarely contend. When the
+    * statistic is read, the stripes are merged, weighting the smoothed
+    * values of each stripe by how recently it was sampled.
+    */
+   public static final class Counter implements StatisticSource {
+      private final String label_;
+      private final double timeConstantMs_;
+      private final AtomicReferenceArray<Stripe> stripes_ =
+            new AtomicReferenceArray<Stripe>(STRIPE_COUNT);
+
+      private static final class Stripe {
+         private final ExponentialSmoothing smoothing_;
+         private final SampleWindow window_ =
+               new SampleWindow(QUANTILE_WINDOW_SIZE);
+
+         Stripe(double timeConstantMs) {
+            smoothing_ = ExponentialSmoothing.createWithTimeConstantMs(
+                  timeConstantMs);
+         }
+      }
+
+      private Counter(String label, double timeConstantMs) {
+         label_ = label;
+         timeConstantMs_ = timeConstantMs;
+      }
+
+      public void sample(double value) {
+         int index = (int) Thread.currentThread().getId() &
+               (STRIPE_COUNT - 1);
+         Stripe stripe = stripes_.get(index);
+         if (stripe == null) { // First sample from this stripe
+            stripes_.compareAndSet(index, null, new Stripe(timeConstantMs_));
+            stripe = stripes_.get(index);
+         }
+         synchronized (stripe) {
+            stripe.smoothing_.sample(value);
+            stripe.window_.add(value);
+         }
+      }
+
+      @Override
+      public Statistic getStatistic(boolean withQuantiles) {
+         List<Stripe> stripes = new ArrayList<Stripe>();
+         for (int i = 0; i < STRIPE_COUNT; ++i) {
+            if (stripes_.get(i) != null) {
+               stripes.add(stripes_.get(i));
+            }
+         }
+         long[] counts = new long[stripes.size()];
+         long[] lastNanoTimes = new long[stripes.size()];
+         double[] averages = new double[stripes.size()];
+         double[] deviations = new double[stripes.size()];
+         double[][] samples = new double[stripes.size()][];
+         int totalSamples = 0;
+         long latest = Long.MIN_VALUE;
+         for (int i = 0; i < stripes.size(); ++i) {
+            Stripe stripe = stripes.get(i);
+            synchronized (stripe) {
+               counts[i] = stripe.smoothing_.getCount();
+               lastNanoTimes[i] = stripe.smoothing_.getLastNanoTime();
+               averages[i] = stripe.smoothing_.getAverage();
+               deviations[i] = stripe.smoothing_.getStandardDeviation();
+               if (withQuantiles) {
+                  samples[i] = new double[stripe.window_.size()];
+                  stripe.window_.copyTo(samples[i], 0);
+                  totalSamples += samples[i].length;
+               }
+            }
+            latest = Math.max(latest, lastNanoTimes[i]);
+         }
+
+         long count = 0;
+         double weightSum = 0.0;
+         double average = 0.0;
+         double squareAverage = 0.0;
+         double[] values = withQuantiles ? new double[totalSamples] : null;
+         int offset = 0;
+         for (int i = 0; i < stripes.size(); ++i) {
+            count += counts[i];
+            double weight = Math.exp((lastNanoTimes[i] - latest) /
+                  (timeConstantMs_ * 1e6));
+            weightSum += weight;
+            average += weight * averages[i];
+            squareAverage += weight * (deviations[i] * deviations[i] +
+                  averages[i] * averages[i]);
+            if (withQuantiles) {
+               System.arraycopy(samples[i], 0, values, offset,
+                     samples[i].length);
+               offset += samples[i].length;
+            }
+         }
+         if (weightSum > 0.0) {
+            average /= weightSum;
+            squareAverage /= weightSum;
+         }
+         return new Statistic(label_, false, count, average,
+               Math.sqrt(Math.max(0.0, squareAverage - average * average)),
+               values);
+      }
+   }
+
+   /**
+    * Handle for sampling the time interval of a recurring event.
+    * <p>
+    * Since an interval is between consecutive occurrences on any thread,
+    * this is not striped.
+    */
+   public static final class IntervalCounter implements StatisticSource {
+      private final String label_;
+      private final TimeIntervalExponentialSmoothing smoothing_;
+      private final SampleWindow window_ =
+            new SampleWindow(QUANTILE_WINDOW_SIZE);
+
+      private IntervalCounter(String label, double timeConstantMs) {
+         label_ = label;
+         smoothing_ = TimeIntervalExponentialSmoothing.
+               createWithTimeConstantMs(timeConstantMs);
+      }
+
+      public synchronized void sample() {
+         double intervalMs = smoothing_.sample();
+         if (!Double.isNaN(intervalMs)) {
+            window_.add(intervalMs);
+         }
+      }
+
+      @Override
+      public synchronized Statistic getStatistic(boolean withQuantiles) {
+         double[] values = null;
+         if (withQuantiles) {
+            values = new double[window_.size()];
+            window_.copyTo(values, 0);
+         }
+         return new Statistic(label_, true, smoothing_.getCount(),
+               smoothing_.getAverage(), smoothing_.getStandardDeviation(),
+               values);
+      }
+   }
+
+   /**
+    * A snapshot of one statistic, for export.
+    */
+   public static final class Statistic {
+      private final String label_;
+      private final boolean isInterval_;
+      private final long count_;
+      private final double average_;
+      private final double standardDeviation_;
+      private final Map<Double, Double> quantiles_;
+
+      private Statistic(String label, boolean isInterval, long count,
+            double average, double standardDeviation,
+            double[] samples) // null to omit quantiles
+      {
+         label_ = label;
+         isInterval_ = isInterval;
+         count_ = count;
+         average_ = average;
+         standardDeviation_ = standardDeviation;
+         ImmutableMap.Builder<Double, Double> quantiles =
+               ImmutableMap.builder();
+         if (samples != null && samples.length > 0) {
+            Arrays.sort(samples);
+            for (double q : QUANTILES) {
+               quantiles.put(q, SampleWindow.getQuantile(samples, q));
+            }
+         }
+         quantiles_ = quantiles.build();
+      }
+
+      /** The label, without the interval suffix used by getEntries(). */
+      public String getLabel() {
+         return label_;
+      }
+
+      /** Whether this statistic is of time intervals in milliseconds. */
+      public boolean isInterval() {
+         return isInterval_;
+      }
+
+      public long getCount() {
+         return count_;
+      }
+
+      /** The exponentially smoothed average. */
+      public double getAverage() {
+         return average_;
+      }
+
+      /** The exponentially smoothed standard deviation. */
+      public double getStandardDeviation() {
+         return standardDeviation_;
+      }
+
+      /**
+       * Quantiles over the most recent samples, keyed by the values in
+       * {@link PerformanceMonitor#QUANTILES}.
+       */
+      public Map<Double, Double> getQuantiles() {
+         return quantiles_;
+      }
+   }
 
    public static PerformanceMonitor createWithTimeConstantMs(
          double timeConstantMs)
@@ -42,54 +286,126 @@ public final class PerformanceMonitor {
       return new PerformanceMonitor(timeConstantMs);
    }
 
+   /**
+    * Create a monitor and register it for export.
+    *
+    * @param name the name describing the monitor's owner
+    * @param timeConstantMs the time constant for exponential smoothing
+    * @return the new monitor
+    * @see PerformanceMonitorRegistry
+    */
+   public static PerformanceMonitor createRegistered(String name,
+         double timeConstantMs)
+   {
+      PerformanceMonitor monitor = new PerformanceMonitor(timeConstantMs);
+      PerformanceMonitorRegistry.getInstance().register(name, monitor);
+      return monitor;
+   }
+
    private PerformanceMonitor(double timeConstantMs) {
       timeConstantMs_ = timeConstantMs;
    }
 
-   public void sample(String statLabel, double value) {
-      ExponentialSmoothing stat = stats_.get(statLabel);
-      if (stat == null) {
-         stat = ExponentialSmoothing.createWithTimeConstantMs(timeConstantMs_);
-         stats_.putIfAbsent(statLabel, stat);
+   /**
+    * Get the handle for sampling a statistic.
+    *
+    * @param statLabel the statistic label
+    * @return the handle, which is the same for every call with the label
+    */
+   public Counter getCounter(String statLabel) {
+      Counter counter = counters_.get(statLabel);
+      if (counter == null) {
+         Counter created = new Counter(statLabel, timeConstantMs_);
+         counter = counters_.putIfAbsent(statLabel, created);
+         if (counter == null) {
+            counter = created;
+            sorted_.put(statLabel, created);
+         }
       }
-      stat.sample(value);
+      return counter;
    }
 
-   public void sampleTimeInterval(String startLabel) {
-      TimeIntervalExponentialSmoothing stat = intervalStats_.get(startLabel);
-      if (stat == null) {
-         stat = TimeIntervalExponentialSmoothing.createWithTimeConstantMs(
-               timeConstantMs_);
-         intervalStats_.putIfAbsent(startLabel, stat);
+   /**
+    * Get the handle for sampling the time interval of a recurring event.
+    *
+    * @param startLabel the event label
+    * @return the handle, which is the same for every call with the label
+    */
+   public IntervalCounter getIntervalCounter(String startLabel) {
+      IntervalCounter counter = intervalCounters_.get(startLabel);
+      if (counter == null) {
+         IntervalCounter created =
+               new IntervalCounter(startLabel, timeConstantMs_);
+         counter = intervalCounters_.putIfAbsent(startLabel, created);
+         if (counter == null) {
+            counter = created;
+            sorted_.put(startLabel + INTERVAL_SUFFIX, created);
+         }
       }
-      stat.sample();
+      return counter;
+   }
+
+   public void sample(String statLabel, double value) {
+      getCounter(statLabel).sample(value);
+   }
+
+   public void sampleTimeInterval(String startLabel) {
+      getIntervalCounter(startLabel).sample();
    }
 
    public List<Map.Entry<String, ? extends AbstractExponentialSmoothing>>
          getEntries()
    {
-      // Combine stats into a single sorted list
-
       List<Map.Entry<String, ? extends AbstractExponentialSmoothing>> entries =
             new ArrayList<Map.Entry<String, ? extends AbstractExponentialSmoothing>>();
-      entries.addAll(stats_.entrySet());
-      for (Map.Entry<String, TimeIntervalExponentialSmoothing> e : intervalStats_.entrySet()) {
-         entries.add(new AbstractMap.SimpleEntry<String, TimeIntervalExponentialSmoothing>(
-               e.getKey() + " (interval, ms)", e.getValue()));
-      }
-
-      Collections.sort(entries, new Comparator<Map.Entry<String, ? extends AbstractExponentialSmoothing>>() {
-         @Override
-         public int compare(
-               Map.Entry<String, ? extends AbstractExponentialSmoothing> o1,
-               Map.Entry<String, ? extends AbstractExponentialSmoothing> o2)
-         {
-            return o1.getKey().compareTo(o2.getKey());
-         }
-      });
+      for (Map.Entry<String, StatisticSource> e : sorted_.entrySet()) {
+         entries.add(new AbstractMap.SimpleEntry<String, AbstractExponentialSmoothing>(
+               e.getKey(), new SmoothingSnapshot(timeConstantMs_,
+                     e.getValue().getStatistic(false))));
+      }
       return entries;
    }
 
+   // Read-only view of a Statistic, for getEntries()
+   private static final class SmoothingSnapshot
+         extends AbstractExponentialSmoothing
+   {
+      private final Statistic statistic_;
+
+      SmoothingSnapshot(double timeConstantMs, Statistic statistic) {
+         super(timeConstantMs);
+         statistic_ = statistic;
+      }
+
+      @Override
+      public long getCount() {
+         return statistic_.getCount();
+      }
+
+      @Override
+      public double getAverage() {
+         return statistic_.getAverage();
+      }
+
+      @Override
+      public double getStandardDeviation() {
+         return statistic_.getStandardDeviation();
+      }
+   }
+
+   /**
+    * Return a snapshot of all statistics, sorted as by {@link #getEntries}.
+    *
+    * @return the statistics, including quantiles
+    */
+   public List<Statistic> getStatistics() {
+      List<Statistic> result = new ArrayList<Statistic>();
+      for (StatisticSource source : sorted_.values()) {
+         result.add(source.getStatistic(true));
+      }
+      return result;
+   }
+
    public String dump() {
       List<Map.Entry<String, ? extends AbstractExponentialSmoothing>> entries =
             getEntries();
@@ -0,0 +1,101 @@
+package org.micromanager.internal.utils.performance;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Process-wide registry of performance monitors, for export.
+ * <p>
+ * Monitors are registered under a name describing their owner (such as
+ * "display"). When several monitors are registered under the same name, the
+ * others are given the names "display-2", "display-3", etc.: each monitor
+ * gets the lowest number not in use by a registered monitor, so names are
+ * reused once their monitors are gone and stay few, and are stable from run
+ * to run as long as the same things are done in the same order.
+ * <p>
+ * The registry only holds weak references, so registering a monitor does not
+ * keep it (or its owner) alive; a monitor disappears from the registry when
+ * it is unregistered or garbage collected. Owners should unregister their
+ * monitors when closed.
+ */
+public final class PerformanceMonitorRegistry {
+   private static final PerformanceMonitorRegistry INSTANCE =
+         new PerformanceMonitorRegistry();
+
+   private final Map<String, WeakReference<PerformanceMonitor>> monitors_ =
+         new LinkedHashMap<String, WeakReference<PerformanceMonitor>>();
+
+   public static PerformanceMonitorRegistry getInstance() {
+      return INSTANCE;
+   }
+
+   private PerformanceMonitorRegistry() {
+   }
+
+   /**
+    * Register a monitor.
+    *
+    * @param name the name describing the monitor's owner
+    * @param monitor the monitor
+    * @return the unique name under which the monitor was registered
+    */
+   public synchronized String register(String name,
+         PerformanceMonitor monitor)
+   {
+      removeCollected();
+      String uniqueName = name;
+      for (int number = 2; monitors_.containsKey(uniqueName); ++number) {
+         uniqueName = name + "-" + number;
+      }
+      monitors_.put(uniqueName, new WeakReference<PerformanceMonitor>(monitor));
+      return uniqueName;
+   }
+
+   private void removeCollected() {
+      Iterator<WeakReference<PerformanceMonitor>> it =
+            monitors_.values().iterator();
+      while (it.hasNext()) {
+         if (it.next().get() == null) {
+            it.remove();
+         }
+      }
+   }
+
+   public synchronized void unregister(PerformanceMonitor monitor) {
+      Iterator<WeakReference<PerformanceMonitor>> it =
+            monitors_.values().iterator();
+      while (it.hasNext()) {
+         PerformanceMonitor m = it.next().get();
+         if (m == null || m == monitor) {
+            it.remove();
+         }
+      }
+   }
+
+   /**
+    * Return the currently registered monitors.
+    *
+    * @return the monitors, sorted by name
+    */
+   public synchronized SortedMap<String, PerformanceMonitor> getMonitors() {
+      SortedMap<String, PerformanceMonitor> result =
+            new TreeMap<String, PerformanceMonitor>();
+      Iterator<Map.Entry<String, WeakReference<PerformanceMonitor>>> it =
+            monitors_.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<String, WeakReference<PerformanceMonitor>> e = it.next();
+         PerformanceMonitor monitor = e.getValue().get();
+         if (monitor == null) {
+            it.remove();
+         }
+         else {
+            result.put(e.getKey(), monitor);
+         }
+      }
+      return result;
+   }
+}
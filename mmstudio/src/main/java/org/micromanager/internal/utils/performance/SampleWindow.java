@@ -0,0 +1,54 @@
+package org.micromanager.internal.utils.performance;
+
+/**
+ * Fixed-size ring of the most recent samples of a statistic.
+ * <p>
+ * Adding a sample does not allocate; quantiles are computed on request by
+ * sorting a copy. Not thread-safe.
+ */
+final class SampleWindow {
+   private final double[] values_;
+   private int next_ = 0;
+   private int size_ = 0;
+
+   SampleWindow(int capacity) {
+      values_ = new double[capacity];
+   }
+
+   void add(double value) {
+      values_[next_] = value;
+      next_ = next_ + 1 == values_.length ? 0 : next_ + 1;
+      if (size_ < values_.length) {
+         ++size_;
+      }
+   }
+
+   int size() {
+      return size_;
+   }
+
+   /** Copy the samples (in no particular order) to dest at offset. */
+   void copyTo(double[] dest, int offset) {
+      System.arraycopy(values_, 0, dest, offset, size_);
+   }
+
+   /**
+    * Compute a quantile, interpolating as {@link SkipListRunningQuantile}.
+    *
+    * @param sorted the samples, in ascending order
+    * @param q the quantile, between 0.0 and 1.0
+    * @return the quantile, or 0.0 if there are no samples
+    */
+   static double getQuantile(double[] sorted, double q) {
+      if (sorted.length == 0) {
+         return 0.0;
+      }
+      double realIndex = q * (sorted.length - 1);
+      int floor = (int) Math.floor(realIndex);
+      if (floor == sorted.length - 1) {
+         return sorted[floor];
+      }
+      return (floor + 1 - realIndex) * sorted[floor] +
+            (realIndex - floor) * sorted[floor + 1];
+   }
+}
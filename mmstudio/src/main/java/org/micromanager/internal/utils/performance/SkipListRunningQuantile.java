@@ -59,6 +59,9 @@ public class SkipListRunningQuantile implements RunningQuantile {
       }
       double realIndex = q * (size - 1);
       int floor = (int) Math.floor(realIndex);
+      if (floor == size - 1) { // q == 1.0
+         return values_.get(floor).getKey();
+      }
       int ceiling = floor + 1;
       List<Map.Entry<Double, Integer>> pair = values_.sublist(floor, 2);
       double quantile =
@@ -30,9 +30,17 @@ public final class TimeIntervalExponentialSmoothing
       super(timeConstantMs);
    }
 
-   public void sample() {
+   /**
+    * Record the occurrence of the event.
+    *
+    * @return the interval since the previous occurrence, in milliseconds,
+    * or NaN if this is the first occurrence
+    */
+   public double sample() {
       if (!isTimingStarted()) {
+         // There is no interval until the second occurrence
          markTime();
+         return Double.NaN;
       }
       double deltaTMs = markTimeAndGetDeltaTMs();
       if (!isStatsInitialized()) {
@@ -41,5 +49,6 @@ public final class TimeIntervalExponentialSmoothing
       else {
          updateStats(deltaTMs, deltaTMs);
       }
+      return deltaTMs;
    }
 }
\ No newline at end of file
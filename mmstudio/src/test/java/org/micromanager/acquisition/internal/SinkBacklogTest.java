@@ -0,0 +1,135 @@
+package org.micromanager.acquisition.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SinkBacklogTest {
+   private static final class FakeEngine implements SinkBacklog.Pausable {
+      volatile boolean isPaused_ = false;
+
+      @Override
+      public boolean isPaused() {
+         return isPaused_;
+      }
+
+      @Override
+      public void setPause(boolean pause) {
+         isPaused_ = pause;
+      }
+   }
+
+   @Test
+   public void pausesAboveHighAndResumesAtLow() throws Exception {
+      FakeEngine engine = new FakeEngine();
+      SinkBacklog backlog = new SinkBacklog(engine, 100, 300, 1000);
+      backlog.add(200);
+      backlog.add(100);
+      assertFalse(engine.isPaused());
+      backlog.add(100);
+      assertTrue(engine.isPaused());
+
+      backlog.remove(200);
+      assertTrue(engine.isPaused());
+      backlog.remove(100);
+      assertFalse(engine.isPaused());
+   }
+
+   @Test
+   public void userPauseIsLeftAlone() throws Exception {
+      FakeEngine engine = new FakeEngine();
+      SinkBacklog backlog = new SinkBacklog(engine, 100, 300, 1000);
+      engine.setPause(true);
+      backlog.add(400);
+      backlog.remove(400);
+      assertTrue(engine.isPaused());
+   }
+
+   @Test
+   public void pauseAfterUserResumeIsLeftAlone() throws Exception {
+      FakeEngine engine = new FakeEngine();
+      SinkBacklog backlog = new SinkBacklog(engine, 100, 300, 1000);
+      backlog.add(400);
+      assertTrue(engine.isPaused());
+
+      // The user resumes, is not paused again, then pauses
+      engine.setPause(false);
+      backlog.add(100);
+      assertFalse(engine.isPaused());
+      engine.setPause(true);
+      backlog.remove(500);
+      assertTrue(engine.isPaused());
+
+      // Throttling works again once drained
+      engine.setPause(false);
+      backlog.add(400);
+      assertTrue(engine.isPaused());
+   }
+
+   @Test
+   public void limitStopsOnceAndBlocksUntilDrained() throws Exception {
+      FakeEngine engine = new FakeEngine();
+      final SinkBacklog backlog = new SinkBacklog(engine, 100, 300, 1000);
+      final AtomicInteger stopCount = new AtomicInteger(0);
+      backlog.setLimitCallback(new Runnable() {
+         @Override
+         public void run() {
+            stopCount.incrementAndGet();
+         }
+      });
+      backlog.add(900);
+
+      final CountDownLatch added = new CountDownLatch(2);
+      Thread producer = new Thread() {
+         @Override
+         public void run() {
+            try {
+               backlog.add(200);
+               added.countDown();
+               backlog.add(200);
+               added.countDown();
+            }
+            catch (InterruptedException e) {
+            }
+         }
+      };
+      producer.start();
+      assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+      assertEquals(1, stopCount.get());
+      assertEquals(900, backlog.getBytes());
+
+      backlog.remove(900);
+      assertTrue(added.await(5, TimeUnit.SECONDS));
+      producer.join();
+      assertEquals(400, backlog.getBytes());
+      assertEquals(1, stopCount.get());
+   }
+
+   @Test
+   public void largeImageIsAcceptedWhenEmpty() throws Exception {
+      SinkBacklog backlog = new SinkBacklog(null, 100, 300, 1000);
+      assertEquals(5000, backlog.add(5000));
+   }
+
+   @Test
+   public void closeReleasesWaitingProducer() throws Exception {
+      final SinkBacklog backlog = new SinkBacklog(null, 100, 300, 1000);
+      backlog.add(1000);
+      Thread producer = new Thread() {
+         @Override
+         public void run() {
+            try {
+               backlog.add(100);
+            }
+            catch (InterruptedException e) {
+            }
+         }
+      };
+      producer.start();
+      backlog.close();
+      producer.join(5000);
+      assertFalse(producer.isAlive());
+   }
+}
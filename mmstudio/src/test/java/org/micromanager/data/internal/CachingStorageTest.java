@@ -0,0 +1,64 @@
+package org.micromanager.data.internal;
+
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+
+public class CachingStorageTest {
+   private static final int IMAGE_BYTES = 4 * 4 * 2;
+
+   private static StorageRAM createStorage(int numFrames, int numChannels) {
+      StorageRAM storage = new StorageRAM(new DefaultDatastore(null));
+      for (int t = 0; t < numFrames; ++t) {
+         for (int c = 0; c < numChannels; ++c) {
+            storage.putImage(new DefaultImage(new short[4 * 4], 4, 4, 2, 1,
+                  new DefaultCoords.Builder().t(t).c(c).build(), null));
+         }
+      }
+      return storage;
+   }
+
+   private static Coords at(int t, int c) {
+      return new DefaultCoords.Builder().t(t).c(c).build();
+   }
+
+   @Test
+   public void leastRecentlyUsedImageIsEvicted() throws Exception {
+      CachingStorage cache = new CachingStorage(createStorage(3, 1),
+            2 * IMAGE_BYTES);
+      Image first = cache.getImage(at(0, 0));
+      cache.getImage(at(1, 0));
+      assertSame(first, cache.getImage(at(0, 0)));
+      assertEquals(1, cache.getHitCount());
+      assertEquals(2, cache.getMissCount());
+
+      cache.getImage(at(2, 0)); // Evicts t=1
+      assertEquals(1, cache.getEvictionCount());
+      assertEquals(2 * IMAGE_BYTES, cache.getCachedBytes());
+      cache.getImage(at(0, 0));
+      assertEquals(2, cache.getHitCount());
+      cache.getImage(at(1, 0));
+      assertEquals(4, cache.getMissCount());
+      cache.close();
+   }
+
+   @Test
+   public void prefetchedImagesAreHits() throws Exception {
+      CachingStorage cache = new CachingStorage(createStorage(4, 2),
+            100 * IMAGE_BYTES);
+      cache.prefetch(Arrays.asList(
+            (Coords) new DefaultCoords.Builder().t(1).build(),
+            new DefaultCoords.Builder().t(2).build()));
+      for (int i = 0; i < 200 && cache.getPrefetchCount() < 4; ++i) {
+         Thread.sleep(10);
+      }
+      assertEquals(4, cache.getPrefetchCount());
+      assertEquals(2, cache.getImagesMatching(
+            new DefaultCoords.Builder().t(2).build()).size());
+      assertEquals(2, cache.getHitCount());
+      assertEquals(0, cache.getMissCount());
+      cache.close();
+   }
+}
@@ -0,0 +1,53 @@
+package org.micromanager.data.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+
+public class CoordsIndexTest {
+   private static CoordsIndex createIndex() {
+      CoordsIndex index = new CoordsIndex();
+      for (int t = 0; t < 3; ++t) {
+         for (int z = 0; z < 4; ++z) {
+            for (int c = 0; c < 2; ++c) {
+               index.add(new DefaultCoords.Builder().t(t).z(z).c(c).build());
+            }
+         }
+      }
+      // An image without a channel axis
+      index.add(new DefaultCoords.Builder().t(1).z(0).build());
+      return index;
+   }
+
+   @Test
+   public void partialCoordsMatchAsInStorage() {
+      CoordsIndex index = createIndex();
+      Coords query = new DefaultCoords.Builder().t(1).z(0).build();
+      Set<Coords> matching = new HashSet<Coords>(index.getMatching(query));
+      assertEquals(3, matching.size());
+      for (Coords coords : matching) {
+         assertTrue(coords.isSubspaceCoordsOf(query));
+      }
+      assertEquals(8, index.getMatching(
+            new DefaultCoords.Builder().t(2).build()).size());
+      assertEquals(25, index.getMatching(
+            new DefaultCoords.Builder().build()).size());
+      assertTrue(index.getMatching(
+            new DefaultCoords.Builder().t(3).build()).isEmpty());
+      assertTrue(index.getMatching(
+            new DefaultCoords.Builder().stagePosition(0).build()).isEmpty());
+   }
+
+   @Test
+   public void removedCoordsDoNotMatch() {
+      CoordsIndex index = createIndex();
+      index.remove(new DefaultCoords.Builder().t(1).z(0).build());
+      assertEquals(2, index.getMatching(
+            new DefaultCoords.Builder().t(1).z(0).build()).size());
+      index.clear();
+      assertTrue(index.getMatching(
+            new DefaultCoords.Builder().build()).isEmpty());
+   }
+}
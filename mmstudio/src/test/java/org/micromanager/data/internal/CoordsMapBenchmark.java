@@ -0,0 +1,91 @@
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.micromanager.data.Coords;
+import org.micromanager.internal.utils.performance.MicroBenchmark;
+
+/**
+ * Measures building Coords and using them as hash map keys, as the storage
+ * classes do for every image.
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.data.internal.CoordsMapBenchmark}. Compare results before
+ * and after changes to DefaultCoords.
+ */
+public final class CoordsMapBenchmark {
+   private static final int FRAMES = 100;
+   private static final int SLICES = 50;
+   private static final int CHANNELS = 5;
+   private static final int POSITIONS = 2;
+   private static final int WARMUP = 20000;
+
+   public static void main(String[] args) throws Exception {
+      final List<Coords> keys = new ArrayList<Coords>();
+      for (int p = 0; p < POSITIONS; ++p) {
+         for (int t = 0; t < FRAMES; ++t) {
+            for (int z = 0; z < SLICES; ++z) {
+               for (int c = 0; c < CHANNELS; ++c) {
+                  keys.add(new DefaultCoords.Builder().
+                        stagePosition(p).time(t).z(z).channel(c).build());
+               }
+            }
+         }
+      }
+      final HashMap<Coords, Integer> map = new HashMap<Coords, Integer>();
+      for (int i = 0; i < keys.size(); ++i) {
+         map.put(keys.get(i), i);
+      }
+
+      MicroBenchmark.run("build", WARMUP, keys.size(), new Callable<Coords>() {
+         private int next_ = 0;
+
+         @Override
+         public Coords call() {
+            int i = next_++;
+            return new DefaultCoords.Builder().stagePosition(i % POSITIONS).
+                  time(i % FRAMES).z(i % SLICES).channel(i % CHANNELS).build();
+         }
+      });
+
+      MicroBenchmark.run("put", WARMUP, keys.size(), new Callable<Integer>() {
+         private final HashMap<Coords, Integer> target_ =
+               new HashMap<Coords, Integer>();
+         private int next_ = 0;
+
+         @Override
+         public Integer call() {
+            Coords key = keys.get(next_);
+            next_ = (next_ + 1) % keys.size();
+            return target_.put(key, next_);
+         }
+      });
+
+      MicroBenchmark.run("get, equal key", WARMUP, keys.size(),
+            new Callable<Integer>() {
+         private int next_ = 0;
+
+         @Override
+         public Integer call() {
+            // A distinct but equal instance, as when looking up an image
+            Coords key = keys.get(next_).copyBuilder().build();
+            next_ = (next_ + 1) % keys.size();
+            return map.get(key);
+         }
+      });
+
+      MicroBenchmark.run("get, same key", WARMUP, keys.size(),
+            new Callable<Integer>() {
+         private int next_ = 0;
+
+         @Override
+         public Integer call() {
+            Coords key = keys.get(next_);
+            next_ = (next_ + 1) % keys.size();
+            return map.get(key);
+         }
+      });
+   }
+}
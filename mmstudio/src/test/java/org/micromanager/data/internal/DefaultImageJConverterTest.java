@@ -0,0 +1,113 @@
+package org.micromanager.data.internal;
+
+import ij.process.ImageProcessor;
+import java.util.concurrent.Callable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.internal.utils.performance.AllocationCounter;
+
+public class DefaultImageJConverterTest {
+   private static final int WIDTH = 512;
+   private static final int HEIGHT = 512;
+   private static final int REPAINTS = 20;
+
+   private static DefaultImage create16BitImage() {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (i % 4096);
+      }
+      return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1,
+            Coordinates.builder().build(), null);
+   }
+
+   // What a repaint does with the stack: fetch the processor and its pixels
+   private static Object repaint(DefaultImage image, boolean share) {
+      ImageProcessor processor = share ?
+            DefaultImageJConverter.createSharedProcessor(image) :
+            DefaultImageJConverter.createProcessor(image, false);
+      return processor.getPixels();
+   }
+
+   private static long allocatedBytesPerRepaint(final DefaultImage image,
+         final boolean share) throws Exception
+   {
+      return AllocationCounter.measure(REPAINTS, REPAINTS,
+            new Callable<Object>() {
+               @Override
+               public Object call() {
+                  return repaint(image, share);
+               }
+            }) / REPAINTS;
+   }
+
+   @Test
+   public void sharedProcessorDoesNotCopyPixels() {
+      DefaultImage image = create16BitImage();
+      long copiedBefore = image.getPixelBytesCopied();
+      for (int i = 0; i < REPAINTS; ++i) {
+         assertSame(image.getRawPixelsView(), repaint(image, true));
+      }
+      assertEquals(copiedBefore, image.getPixelBytesCopied());
+   }
+
+   @Test
+   public void sharedProcessorAllocatesLessThanAPlanePerRepaint()
+         throws Exception
+   {
+      AllocationCounter.assumeSupported();
+      DefaultImage image = create16BitImage();
+      long planeBytes = 2L * WIDTH * HEIGHT;
+      long copying = allocatedBytesPerRepaint(image, false);
+      long sharing = allocatedBytesPerRepaint(image, true);
+      assertTrue("copying processor allocated " + copying,
+            copying >= planeBytes);
+      assertTrue("shared processor allocated " + sharing,
+            sharing < planeBytes / 100);
+   }
+
+   @Test
+   public void modificationDoesNotAlterImage() {
+      DefaultImage image = create16BitImage();
+      short[] view = (short[]) image.getRawPixelsView();
+
+      ImageProcessor processor =
+            DefaultImageJConverter.createSharedProcessor(image);
+      processor.snapshot();
+      processor.set(0, 0, 1234);
+      assertNotSame(view, processor.getPixels());
+      assertEquals(0, view[0]);
+      assertEquals(1234, processor.get(0, 0));
+
+      processor = DefaultImageJConverter.createSharedProcessor(image);
+      processor.setValue(4000);
+      processor.drawPixel(1, 0);
+      processor.invert();
+      assertEquals(1, view[1]);
+   }
+
+   @Test
+   public void unsharedProcessorDoesNotAlterImage() {
+      DefaultImage image = create16BitImage();
+      short[] view = (short[]) image.getRawPixelsView();
+
+      ImageProcessor processor =
+            DefaultImageJConverter.createSharedProcessor(image);
+      DefaultImageJConverter.unshareProcessor(processor);
+      Object copy = processor.getPixels();
+      assertNotSame(view, copy);
+      processor.add(5);
+      processor.flipHorizontal();
+      assertEquals(0, view[0]);
+      DefaultImageJConverter.unshareProcessor(processor);
+      assertSame(copy, processor.getPixels());
+
+      // As when ImageJ changes the displayed slice
+      processor.setPixels(view);
+      DefaultImageJConverter.unshareProcessor(processor);
+      assertNotSame(view, processor.getPixels());
+      processor.setValue(4000);
+      processor.fill();
+      assertEquals(1, view[1]);
+   }
+}
@@ -0,0 +1,75 @@
+package org.micromanager.data.internal;
+
+import java.nio.Buffer;
+import java.nio.ShortBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+
+public class DefaultImageTest {
+   private static DefaultImage create16BitImage() {
+      short[] pixels = new short[4 * 3];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) i;
+      }
+      return new DefaultImage(pixels, 4, 3, 2, 1,
+            Coordinates.builder().build(), null);
+   }
+
+   @Test
+   public void constructionFromArrayCopiesOnce() {
+      DefaultImage image = create16BitImage();
+      assertEquals(4 * 3 * 2, image.getPixelBytesCopied());
+   }
+
+   @Test
+   public void pixelsViewDoesNotCopy() {
+      DefaultImage image = create16BitImage();
+      long before = image.getPixelBytesCopied();
+      Object view = image.getRawPixelsView();
+      assertSame(view, image.getRawPixelsView());
+      assertEquals(5, ((short[]) view)[5]);
+      Buffer buffer = image.getPixelBufferView();
+      assertTrue(buffer.isReadOnly());
+      assertEquals(0, buffer.position());
+      assertEquals(4 * 3, buffer.remaining());
+      assertEquals(before, image.getPixelBytesCopied());
+   }
+
+   @Test
+   public void copiesSharePixelsAndCount() {
+      DefaultImage image = create16BitImage();
+      Image copy = image.copyAtCoords(Coordinates.builder().t(1).build());
+      assertSame(image.getRawPixelsView(), copy.getRawPixelsView());
+
+      Object pixels = copy.getRawPixels();
+      assertNotSame(pixels, image.getRawPixelsView());
+      assertEquals(2 * 4 * 3 * 2, image.getPixelBytesCopied());
+      assertEquals(image.getPixelBytesCopied(),
+            ((DefaultImage) copy).getPixelBytesCopied());
+   }
+
+   @Test
+   public void directBufferIsCreatedOnlyOnce() {
+      DefaultImage image = create16BitImage();
+      Buffer direct = image.getPixelBuffer();
+      assertTrue(direct.isDirect());
+      assertSame(direct, image.getPixelBuffer());
+      assertEquals(2 * 4 * 3 * 2, image.getPixelBytesCopied());
+      assertEquals(7, ((ShortBuffer) direct).get(7));
+      assertEquals(7, image.getIntensityAt(3, 1));
+   }
+
+   @Test
+   public void pixelsViewCopiesOnceDirect() {
+      DefaultImage image = create16BitImage();
+      ShortBuffer direct = (ShortBuffer) image.getPixelBuffer();
+      direct.put(7, (short) 100);
+      long before = image.getPixelBytesCopied();
+      short[] view = (short[]) image.getRawPixelsView();
+      assertEquals(100, view[7]);
+      assertNotSame(view, image.getRawPixelsView());
+      assertEquals(before + 2 * 4 * 3 * 2, image.getPixelBytesCopied());
+   }
+}
@@ -0,0 +1,63 @@
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+
+public class ScopeDataSnapshotsTest {
+   private static PropertyMap createScopeData(int size, String changedValue) {
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      for (int i = 0; i < size; ++i) {
+         builder.putString("Device-Property" + i, "Value " + i);
+      }
+      if (changedValue != null) {
+         builder.putString("Device-Property0", changedValue);
+      }
+      return builder.build();
+   }
+
+   @Test
+   public void equalScopeDataIsShared() {
+      ScopeDataSnapshots snapshots = new ScopeDataSnapshots();
+      PropertyMap first = snapshots.intern(createScopeData(10, null));
+      assertSame(first, snapshots.intern(createScopeData(10, null)));
+   }
+
+   @Test
+   public void changedScopeDataEqualsFullCopy() {
+      ScopeDataSnapshots snapshots = new ScopeDataSnapshots();
+      PropertyMap first = snapshots.intern(createScopeData(10, null));
+      PropertyMap full = createScopeData(10, "changed");
+      PropertyMap shared = snapshots.intern(full);
+      assertNotSame(full, shared);
+      assertSame(first, snapshots.getSnapshot());
+      assertEquals(full, shared);
+      assertEquals(shared, full);
+      assertEquals(full.hashCode(), shared.hashCode());
+      assertEquals("changed", shared.getString("Device-Property0", null));
+      assertEquals(full, shared.copyBuilder().build());
+
+      List<String> keys = new ArrayList<String>(shared.keySet());
+      assertEquals(new ArrayList<String>(full.keySet()), keys);
+   }
+
+   @Test
+   public void differentKeysStartNewSnapshot() {
+      ScopeDataSnapshots snapshots = new ScopeDataSnapshots();
+      snapshots.intern(createScopeData(10, null));
+      PropertyMap larger = createScopeData(11, null);
+      assertSame(larger, snapshots.intern(larger));
+      assertSame(larger, snapshots.getSnapshot());
+   }
+
+   @Test
+   public void largeChangeStartsNewSnapshot() {
+      PropertyMap base = createScopeData(2, null);
+      assertNull(ScopeDataSnapshots.diff(base, createScopeData(2, "changed")));
+      assertEquals(1, ScopeDataSnapshots.diff(createScopeData(8, null),
+            createScopeData(8, "changed")).size());
+   }
+}
@@ -0,0 +1,57 @@
+package org.micromanager.data.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+
+public class StorageOffHeapTest {
+   private static final int IMAGE_BYTES = 4 * 4 * 2;
+
+   private static Coords at(int t) {
+      return new DefaultCoords.Builder().t(t).build();
+   }
+
+   private static Image createImage(int t) {
+      short[] pixels = new short[4 * 4];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (100 * t + i);
+      }
+      return new DefaultImage(pixels, 4, 4, 2, 1, at(t), null);
+   }
+
+   @Test
+   public void imagesBeyondBudgetAreSpilled() throws Exception {
+      StorageOffHeap storage = new StorageOffHeap(new DefaultDatastore(null),
+            4 * IMAGE_BYTES);
+      for (int t = 0; t < 10; ++t) {
+         storage.putImage(createImage(t));
+      }
+      assertEquals(10, storage.getNumImages());
+      assertTrue(storage.getNumSpilledImages() > 0);
+      for (int t = 0; t < 10; ++t) {
+         assertArrayEquals((short[]) createImage(t).getRawPixels(),
+               (short[]) storage.getImage(at(t)).getRawPixels());
+      }
+      assertEquals(9, (int) storage.getMaxIndex(Coords.TIME_POINT));
+      storage.close();
+   }
+
+   @Test
+   public void deletedAndReplacedImages() throws Exception {
+      StorageOffHeap storage = new StorageOffHeap(new DefaultDatastore(null),
+            4 * IMAGE_BYTES);
+      for (int t = 0; t < 3; ++t) {
+         storage.putImage(createImage(t));
+      }
+      storage.deleteImage(at(1));
+      assertFalse(storage.hasImage(at(1)));
+      assertNull(storage.getImage(at(1)));
+      storage.putImage(createImage(5).copyAtCoords(at(0)));
+      assertArrayEquals((short[]) createImage(5).getRawPixels(),
+            (short[]) storage.getImage(at(0)).getRawPixels());
+      assertEquals(2, storage.getImagesMatching(
+            new DefaultCoords.Builder().build()).size());
+      storage.close();
+   }
+}
@@ -0,0 +1,111 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.internal.utils.performance.MicroBenchmark;
+
+/**
+ * Compares sequential and random access getImage() on a saved 50000-plane
+ * dataset, read with positioned reads and with memory mapping.
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.data.internal.multipagetiff.MultipageTiffReadingBenchmark
+ * [directory [width]]}. The dataset (about 400 MB at the default 64x64
+ * pixels) is created in the given directory (by default, a temporary
+ * directory) unless it already exists there. Run twice to measure with a
+ * warm OS file cache.
+ */
+public final class MultipageTiffReadingBenchmark {
+   private static final int CHANNELS = 10;
+   private static final int SLICES = 50;
+   private static final int FRAMES = 100;
+   private static final int WARMUP = 2000;
+
+   public static void main(String[] args) throws Exception {
+      File dir = args.length > 0 ? new File(args[0]) :
+            new File(Files.createTempDir(), "benchmark");
+      int width = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+      if (!dir.exists()) {
+         writeDataset(dir, width);
+      }
+
+      List<Coords> sequential = new ArrayList<Coords>();
+      for (int t = 0; t < FRAMES; ++t) {
+         for (int z = 0; z < SLICES; ++z) {
+            for (int c = 0; c < CHANNELS; ++c) {
+               sequential.add(new DefaultCoords.Builder().
+                     time(t).z(z).channel(c).stagePosition(0).build());
+            }
+         }
+      }
+      List<Coords> random = new ArrayList<Coords>(sequential);
+      Collections.shuffle(random, new Random(42));
+
+      for (boolean mapped : new boolean[] { false, true }) {
+         DefaultDatastore store = new DefaultDatastore(null);
+         StorageMultipageTiff storage = new StorageMultipageTiff(null, store,
+               dir.getPath(), false, false, false, mapped);
+         store.setStorage(storage);
+         String mode = mapped ? "mapped" : "positioned reads";
+         MicroBenchmark.run("sequential getImage, " + mode, WARMUP,
+               sequential.size(), reader(storage, sequential));
+         MicroBenchmark.run("random getImage, " + mode, WARMUP,
+               random.size(), reader(storage, random));
+         storage.close();
+      }
+   }
+
+   private static Callable<Image> reader(final StorageMultipageTiff storage,
+         final List<Coords> order) {
+      return new Callable<Image>() {
+         private int next_ = 0;
+
+         @Override
+         public Image call() throws Exception {
+            Image image = storage.getImage(order.get(next_));
+            next_ = (next_ + 1) % order.size();
+            return image;
+         }
+      };
+   }
+
+   private static void writeDataset(File dir, int width) throws Exception {
+      DefaultDatastore store = new DefaultDatastore(null);
+      StorageMultipageTiff storage = new StorageMultipageTiff(null, store,
+            dir.getPath(), true, false, false);
+      store.setStorage(storage);
+      store.setSummaryMetadata(new DefaultSummaryMetadata.Builder().
+            intendedDimensions(new DefaultCoords.Builder().
+                  time(FRAMES).z(SLICES).channel(CHANNELS).stagePosition(1).
+                  build()).
+            build());
+      short[] pixels = new short[width * width];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) i;
+      }
+      for (int t = 0; t < FRAMES; ++t) {
+         for (int z = 0; z < SLICES; ++z) {
+            for (int c = 0; c < CHANNELS; ++c) {
+               Coords coords = new DefaultCoords.Builder().
+                     time(t).z(z).channel(c).stagePosition(0).build();
+               store.putImage(new DefaultImage(pixels, width, width, 2, 1,
+                     coords, new DefaultMetadata.Builder().build()));
+            }
+         }
+      }
+      store.freeze();
+      storage.close();
+   }
+}
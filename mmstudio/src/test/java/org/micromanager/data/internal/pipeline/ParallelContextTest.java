@@ -0,0 +1,149 @@
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.StorageRAM;
+
+public class ParallelContextTest {
+   private static final int NUM_IMAGES = 100;
+
+   // Sleeps a random time, so that images finish out of order
+   private static class RandomDelayProcessor extends Processor {
+      private final Random random_ = new Random(1);
+      private final Concurrency concurrency_;
+
+      RandomDelayProcessor(Concurrency concurrency) {
+         concurrency_ = concurrency;
+      }
+
+      @Override
+      public Concurrency getConcurrency() {
+         return concurrency_;
+      }
+
+      @Override
+      public Object getStateKey(Image image) {
+         return image.getCoords().getStagePosition();
+      }
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         int delay;
+         synchronized (random_) {
+            delay = random_.nextInt(5);
+         }
+         try {
+            Thread.sleep(delay);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         context.outputImage(image);
+      }
+   }
+
+   private static class RecordingProcessor extends Processor {
+      private final List<Integer> times_ =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         times_.add(image.getCoords().getTime());
+         context.outputImage(image);
+      }
+   }
+
+   // Waits until released
+   private static class BlockingProcessor extends Processor {
+      private final CountDownLatch release_ = new CountDownLatch(1);
+
+      @Override
+      public Concurrency getConcurrency() {
+         return Concurrency.STATELESS;
+      }
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         try {
+            release_.await(10, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         context.outputImage(image);
+      }
+   }
+
+   private static DefaultImage createImage(int t) {
+      return new DefaultImage(new byte[4], 2, 2, 1, 1,
+            new DefaultCoords.Builder().time(t).stagePosition(t % 3).build(),
+            null);
+   }
+
+   private static void runPipeline(Processor.Concurrency concurrency)
+         throws Exception {
+      DefaultDatastore store = new DefaultDatastore(null);
+      store.setStorage(new StorageRAM(store));
+      RecordingProcessor recorder = new RecordingProcessor();
+      DefaultPipeline pipeline = new DefaultPipeline(
+            Arrays.<Processor>asList(
+               new RandomDelayProcessor(concurrency), recorder),
+            store, false);
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int t = 0; t < NUM_IMAGES; ++t) {
+         pipeline.insertImage(createImage(t));
+         expected.add(t);
+      }
+      pipeline.halt();
+      assertEquals(expected, recorder.times_);
+      assertEquals(NUM_IMAGES,
+            pipeline.getStageStatistics().get(0).getNumImages());
+   }
+
+   @Test
+   public void statelessOutputKeepsInputOrder() throws Exception {
+      runPipeline(Processor.Concurrency.STATELESS);
+   }
+
+   @Test
+   public void perKeyOutputKeepsInputOrder() throws Exception {
+      runPipeline(Processor.Concurrency.PER_KEY);
+   }
+
+   @Test
+   public void reducingQueueDepthDoesNotWaitForImagesInProgress()
+         throws Exception {
+      DefaultDatastore store = new DefaultDatastore(null);
+      store.setStorage(new StorageRAM(store));
+      BlockingProcessor blocker = new BlockingProcessor();
+      RecordingProcessor recorder = new RecordingProcessor();
+      DefaultPipeline pipeline = new DefaultPipeline(
+            Arrays.<Processor>asList(blocker, recorder), store, false);
+      pipeline.setQueueDepth(0, 4);
+      for (int t = 0; t < 4; ++t) {
+         pipeline.insertImage(createImage(t));
+      }
+      long startNs = System.nanoTime();
+      pipeline.setQueueDepth(0, 1);
+      pipeline.setQueueDepth(0, 2);
+      assertTrue(System.nanoTime() - startNs < 1000000000L);
+
+      blocker.release_.countDown();
+      pipeline.insertImage(createImage(4));
+      pipeline.halt();
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.times_);
+   }
+}
@@ -0,0 +1,137 @@
+package org.micromanager.display.internal;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.display.DisplaySettings;
+import org.micromanager.display.overlay.AbstractOverlay;
+import org.micromanager.display.overlay.Overlay;
+
+public class OffscreenRendererTest {
+   private static final int WIDTH = 64;
+   private static final int HEIGHT = 48;
+
+   private static DisplaySettings grayscale(long min, long max) {
+      return DefaultDisplaySettings.builder().
+            colorModeGrayscale().
+            autostretch(false).
+            channel(0, DefaultChannelDisplaySettings.builder().
+                  component(0, DefaultComponentDisplaySettings.builder().
+                        scalingRange(min, max).build()).
+                  build()).
+            build();
+   }
+
+   // What the display window shows at 100% zoom: ImageJ's rendering of the
+   // processor, with the display range set as by the color mode strategy
+   private static BufferedImage renderWithImageJ(ImageProcessor proc,
+         long min, long max)
+   {
+      proc.setMinAndMax(min, max);
+      BufferedImage result = new BufferedImage(WIDTH, HEIGHT,
+            BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = result.createGraphics();
+      g.drawImage(proc.createImage(), 0, 0, null);
+      g.dispose();
+      return result;
+   }
+
+   private static BufferedImage renderOffscreen(Image image,
+         DisplaySettings settings, List<Overlay> overlays) throws Exception
+   {
+      OffscreenRenderer renderer = OffscreenRenderer.create(settings,
+            overlays);
+      try {
+         return renderer.render(Collections.singletonList(image), image);
+      }
+      finally {
+         renderer.shutdown();
+      }
+   }
+
+   private static void assertSameRGB(BufferedImage expected,
+         BufferedImage actual)
+   {
+      assertEquals(expected.getWidth(), actual.getWidth());
+      assertEquals(expected.getHeight(), actual.getHeight());
+      for (int y = 0; y < expected.getHeight(); ++y) {
+         for (int x = 0; x < expected.getWidth(); ++x) {
+            assertEquals("pixel (" + x + ", " + y + ")",
+                  expected.getRGB(x, y) & 0xffffff,
+                  actual.getRGB(x, y) & 0xffffff);
+         }
+      }
+   }
+
+   @Test
+   public void testGray8MatchesImageJ() throws Exception {
+      byte[] pixels = new byte[WIDTH * HEIGHT];
+      new Random(17).nextBytes(pixels);
+      Image image = new DefaultImage(pixels, WIDTH, HEIGHT, 1, 1,
+            Coordinates.builder().build(), null);
+      long[][] ranges = { { 0, 255 }, { 10, 200 }, { 50, 51 }, { 0, 100 } };
+      for (long[] range : ranges) {
+         assertSameRGB(renderWithImageJ(new ByteProcessor(WIDTH, HEIGHT,
+                     pixels.clone()), range[0], range[1]),
+               renderOffscreen(image, grayscale(range[0], range[1]),
+                     Collections.<Overlay>emptyList()));
+      }
+   }
+
+   @Test
+   public void testGray16MatchesImageJ() throws Exception {
+      Random random = new Random(17);
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(65536);
+      }
+      Image image = new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1,
+            Coordinates.builder().build(), null);
+      long[][] ranges = { { 0, 65535 }, { 1000, 4095 }, { 30000, 30001 } };
+      for (long[] range : ranges) {
+         assertSameRGB(renderWithImageJ(new ShortProcessor(WIDTH, HEIGHT,
+                     pixels.clone(), null), range[0], range[1]),
+               renderOffscreen(image, grayscale(range[0], range[1]),
+                     Collections.<Overlay>emptyList()));
+      }
+   }
+
+   @Test
+   public void testOverlaysArePaintedOnEDT() throws Exception {
+      final AtomicBoolean wasOnEDT = new AtomicBoolean(false);
+      Overlay overlay = new AbstractOverlay() {
+         @Override
+         public String getTitle() {
+            return "Test";
+         }
+
+         @Override
+         public void paintOverlay(Graphics2D g, Rectangle screenRect,
+               DisplaySettings displaySettings, List<Image> images,
+               Image primaryImage, Rectangle2D.Float imageViewPort)
+         {
+            wasOnEDT.set(SwingUtilities.isEventDispatchThread());
+         }
+      };
+      overlay.setVisible(true);
+      Image image = new DefaultImage(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT,
+            1, 1, Coordinates.builder().build(), null);
+      renderOffscreen(image, grayscale(0, 255),
+            Collections.singletonList(overlay));
+      assertTrue(wasOnEDT.get());
+   }
+}
@@ -0,0 +1,95 @@
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class ImageLevelCacheTest {
+   private static Image createImage(Object pixels, int width, int height,
+         int bytesPerPixel)
+   {
+      return new DefaultImage(pixels, width, height, bytesPerPixel,
+            bytesPerPixel == 4 ? 3 : 1,
+            new DefaultCoords.Builder().build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Test
+   public void testLevelForZoom() {
+      assertEquals(0, ImageLevelCache.levelForZoom(2.0));
+      assertEquals(0, ImageLevelCache.levelForZoom(0.75));
+      assertEquals(1, ImageLevelCache.levelForZoom(0.5));
+      assertEquals(1, ImageLevelCache.levelForZoom(0.33));
+      assertEquals(2, ImageLevelCache.levelForZoom(0.25));
+   }
+
+   @Test
+   public void testDownsampleOddSize() {
+      short[] pixels = new short[] {
+         0, 2, 100,
+         4, 6, 200,
+         1000, 1000, (short) 50000,
+      };
+      ImageLevelCache cache = new ImageLevelCache();
+      ImageLevelCache.Level level =
+            cache.getLevel(createImage(pixels, 3, 3, 2), 1);
+      assertEquals(2, level.getWidth());
+      assertEquals(2, level.getHeight());
+      short[] result = (short[]) level.getPixels();
+      assertEquals(3, result[0]);
+      assertEquals(150, result[1]);
+      assertEquals(1000, result[2]);
+      assertEquals(50000, result[3] & 0xffff);
+   }
+
+   @Test
+   public void testLevelsAreCached() {
+      Image image = createImage(new byte[64 * 64], 64, 64, 1);
+      ImageLevelCache cache = new ImageLevelCache();
+      assertNull(cache.getLevelIfCached(image, 3));
+      ImageLevelCache.Level level = cache.getLevel(image, 3);
+      assertEquals(8, level.getWidth());
+      assertSame(level, cache.getLevel(image, 3));
+      assertSame(level, cache.getLevelIfCached(image, 3));
+      assertNotNull(cache.getLevelIfCached(image, 1));
+      assertNull(cache.getLevelIfCached(image, 4));
+      assertNull(cache.getLevel(
+            createImage(new byte[64 * 64 * 4], 64, 64, 4), 1));
+   }
+
+   @Test
+   public void testCacheIsBoundedByBytes() {
+      // Levels 1 and 2 of a 64x64 8-bit image take 1280 bytes
+      ImageLevelCache cache = new ImageLevelCache(2000);
+      Image first = createImage(new byte[64 * 64], 64, 64, 1);
+      Image second = createImage(new byte[64 * 64], 64, 64, 1);
+      cache.getLevel(first, 2);
+      assertNotNull(cache.getLevelIfCached(first, 2));
+      cache.getLevel(second, 2);
+      assertNotNull(cache.getLevelIfCached(second, 2));
+      assertNull(cache.getLevelIfCached(first, 2));
+   }
+
+   @Test
+   public void testRequestedLevelsAreBuiltInBackground() throws Exception {
+      final Image image = createImage(new short[64 * 64], 64, 64, 2);
+      final ImageLevelCache cache = new ImageLevelCache();
+      final CountDownLatch built = new CountDownLatch(1);
+      cache.requestLevels(Arrays.asList(image), 2, new Runnable() {
+         @Override
+         public void run() {
+            if (cache.getLevelIfCached(image, 2) != null) {
+               built.countDown();
+            }
+         }
+      });
+      assertTrue(built.await(5, TimeUnit.SECONDS));
+      assertEquals(16, cache.getLevelIfCached(image, 2).getWidth());
+   }
+}
@@ -0,0 +1,240 @@
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.internal.utils.performance.AllocationCounter;
+
+public class MMVirtualStackTest {
+   private static final int WIDTH = 512;
+   private static final int HEIGHT = 512;
+   private static final int FRAMES = 3;
+   private static final int REPAINTS = 20;
+   private static final int IJ_UPDATED = 2; // ImagePlus.UPDATED (protected)
+
+   // Stands in for the ImageJBridge: a time series of 16-bit images
+   private static final class Source implements MMVirtualStack.Source {
+      private final DefaultImage[] images_ = new DefaultImage[FRAMES];
+
+      Source() {
+         for (int t = 0; t < FRAMES; ++t) {
+            short[] pixels = new short[WIDTH * HEIGHT];
+            for (int i = 0; i < pixels.length; ++i) {
+               pixels[i] = (short) ((i + t) % 4096);
+            }
+            images_[t] = new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1,
+                  new DefaultCoords.Builder().time(t).build(),
+                  new DefaultMetadata.Builder().build());
+         }
+      }
+
+      DefaultImage getImage(int flatIndex) {
+         return images_[flatIndex - 1];
+      }
+
+      @Override
+      public int getMMWidth() {
+         return WIDTH;
+      }
+
+      @Override
+      public int getMMHeight() {
+         return HEIGHT;
+      }
+
+      @Override
+      public int getMMNumberOfTimePoints() {
+         return FRAMES;
+      }
+
+      @Override
+      public int getMMNumberOfZSlices() {
+         return 1;
+      }
+
+      @Override
+      public int getMMNumberOfChannels() {
+         return 1;
+      }
+
+      @Override
+      public Coords getMMCoordsForIJFlatIndex(int flatIndex) {
+         return new DefaultCoords.Builder().time(flatIndex - 1).build();
+      }
+
+      @Override
+      public Image getMMImage(Coords coords) {
+         return images_[coords.getTime()];
+      }
+   }
+
+   private final Source source_ = new Source();
+   private final MMVirtualStack stack_ = MMVirtualStack.create(source_);
+   private final MMImagePlus imagePlus_ = MMImagePlus.create(null, stack_);
+
+   public MMVirtualStackTest() {
+      imagePlus_.setStack("test", stack_);
+   }
+
+   // What ImageJBridge.mm2ijSetDisplayPosition() and a subsequent paint do
+   // with the stack; must be called on the EDT
+   private Object repaint(int flatIndex) {
+      stack_.beginSharingPixels();
+      try {
+         imagePlus_.setSliceWithoutUpdate(flatIndex);
+         imagePlus_.setProcessor(stack_.getProcessor(flatIndex));
+         return imagePlus_.getProcessor().getPixels();
+      }
+      finally {
+         stack_.endSharingPixels();
+      }
+   }
+
+   private static <T> T callOnEDT(final Callable<T> callable)
+         throws Exception
+   {
+      final AtomicReference<T> result = new AtomicReference<T>();
+      final AtomicReference<Exception> exception =
+            new AtomicReference<Exception>();
+      SwingUtilities.invokeAndWait(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               result.set(callable.call());
+            }
+            catch (Exception e) {
+               exception.set(e);
+            }
+         }
+      });
+      if (exception.get() != null) {
+         throw exception.get();
+      }
+      return result.get();
+   }
+
+   @Test
+   public void repaintSharesPixels() throws Exception {
+      callOnEDT(new Callable<Void>() {
+         @Override
+         public Void call() {
+            for (int i = 0; i < REPAINTS; ++i) {
+               int flatIndex = i % FRAMES + 1;
+               DefaultImage image = source_.getImage(flatIndex);
+               long copiedBefore = image.getPixelBytesCopied();
+               assertSame(image.getRawPixelsView(), repaint(flatIndex));
+               assertEquals(copiedBefore, image.getPixelBytesCopied());
+            }
+            return null;
+         }
+      });
+   }
+
+   @Test
+   public void repaintAllocatesLessThanAPlane() throws Exception {
+      AllocationCounter.assumeSupported();
+      long allocated = callOnEDT(new Callable<Long>() {
+         @Override
+         public Long call() throws Exception {
+            return AllocationCounter.measure(REPAINTS, REPAINTS,
+                  new Callable<Object>() {
+                     private int i_ = 0;
+                     @Override
+                     public Object call() {
+                        return repaint(i_++ % FRAMES + 1);
+                     }
+                  }) / REPAINTS;
+         }
+      });
+      assertTrue("repaint allocated " + allocated,
+            allocated < 2L * WIDTH * HEIGHT / 10);
+   }
+
+   @Test
+   public void otherCallersGetCopies() throws Exception {
+      final DefaultImage image = source_.getImage(2);
+      final short[] view = (short[]) image.getRawPixelsView();
+      callOnEDT(new Callable<Void>() {
+         @Override
+         public Void call() {
+            repaint(2);
+            return null;
+         }
+      });
+
+      // E.g. a plugin, on its own thread
+      ImageProcessor processor = imagePlus_.getProcessor();
+      assertNotSame(view, processor.getPixels());
+      processor.set(0, 0, 1234);
+      assertEquals(1, view[0]);
+      assertNotSame(view, stack_.getPixels(2));
+      assertNotSame(view, stack_.getProcessor(2).getPixels());
+
+      // Display code on the EDT gets shared pixels again
+      callOnEDT(new Callable<Void>() {
+         @Override
+         public Void call() {
+            assertSame(view, repaint(2));
+            // But not outside of the display code
+            assertNotSame(view, imagePlus_.getProcessor().getPixels());
+            return null;
+         }
+      });
+   }
+
+   @Test
+   public void listenersGetCopies() throws Exception {
+      final short[] view = (short[]) source_.getImage(3).getRawPixelsView();
+      final AtomicReference<Object> seen = new AtomicReference<Object>();
+      ImageListener listener = new ImageListener() {
+         @Override
+         public void imageOpened(ImagePlus imp) {
+         }
+
+         @Override
+         public void imageClosed(ImagePlus imp) {
+         }
+
+         @Override
+         public void imageUpdated(ImagePlus imp) {
+            if (imp == imagePlus_) {
+               seen.set(imp.getProcessor().getPixels());
+            }
+         }
+      };
+      ImagePlus.addImageListener(listener);
+      try {
+         callOnEDT(new Callable<Void>() {
+            @Override
+            public Void call() {
+               repaint(3);
+               // ImageJ notifies listeners from setProcessor() when the
+               // image has a window, which it does not have here
+               stack_.beginSharingPixels();
+               try {
+                  imagePlus_.notifyListeners(IJ_UPDATED);
+               }
+               finally {
+                  stack_.endSharingPixels();
+               }
+               return null;
+            }
+         });
+      }
+      finally {
+         ImagePlus.removeImageListener(listener);
+      }
+      assertNotNull(seen.get());
+      assertNotSame(view, seen.get());
+   }
+}
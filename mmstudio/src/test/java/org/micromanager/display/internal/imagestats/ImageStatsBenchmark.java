@@ -0,0 +1,86 @@
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.internal.utils.performance.MicroBenchmark;
+
+/**
+ * Measures histogram and statistics computation at typical sensor sizes,
+ * comparing the tiled kernel used without a mask against the ImgLib2 cursor
+ * path used with a mask (here, a mask with a single unselected pixel).
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.display.internal.imagestats.ImageStatsBenchmark}.
+ */
+public final class ImageStatsBenchmark {
+   private static final int WARMUP = 10;
+   private static final int ITERATIONS = 30;
+
+   public static void main(String[] args) throws Exception {
+      ImageStatsProcessor processor = ImageStatsProcessor.create();
+      try {
+         run(processor, "sCMOS 16-bit 2048x2048", 2048, 2048, 2, 16);
+         run(processor, "sCMOS 16-bit 2560x2160", 2560, 2160, 2, 16);
+         run(processor, "EMCCD 16-bit 1024x1024", 1024, 1024, 2, 16);
+         run(processor, "CCD 12-bit 1392x1040", 1392, 1040, 2, 12);
+         run(processor, "8-bit 1920x1200", 1920, 1200, 1, 8);
+      }
+      finally {
+         processor.shutdown();
+      }
+   }
+
+   private static void run(final ImageStatsProcessor processor, String name,
+         int width, int height, int bytesPerPixel, int bitDepth)
+         throws Exception
+   {
+      Random random = new Random(1);
+      Object pixels;
+      if (bytesPerPixel == 1) {
+         byte[] bytes = new byte[width * height];
+         random.nextBytes(bytes);
+         pixels = bytes;
+      }
+      else {
+         short[] shorts = new short[width * height];
+         for (int i = 0; i < shorts.length; ++i) {
+            shorts[i] = (short) random.nextInt(1 << bitDepth);
+         }
+         pixels = shorts;
+      }
+      Image image = new DefaultImage(pixels, width, height, bytesPerPixel, 1,
+            new DefaultCoords.Builder().build(),
+            new DefaultMetadata.Builder().bitDepth(bitDepth).build());
+
+      Rectangle bounds = new Rectangle(0, 0, width, height);
+      byte[] mask = new byte[width * height];
+      Arrays.fill(mask, (byte) 255);
+      mask[0] = 0;
+
+      MicroBenchmark.run(name + ", unmasked", WARMUP, ITERATIONS,
+            createBody(processor, image, BoundsRectAndMask.unselected()));
+      MicroBenchmark.run(name + ", masked", WARMUP, ITERATIONS,
+            createBody(processor, image,
+                  BoundsRectAndMask.create(bounds, mask)));
+   }
+
+   private static Callable<ImagesAndStats> createBody(
+         final ImageStatsProcessor processor, Image image,
+         BoundsRectAndMask roi)
+   {
+      final ImageStatsRequest request = ImageStatsRequest.create(
+            image.getCoords(), Arrays.asList(image), roi);
+      return new Callable<ImagesAndStats>() {
+         @Override
+         public ImagesAndStats call() throws Exception {
+            return processor.process(0, request, false);
+         }
+      };
+   }
+}
@@ -0,0 +1,162 @@
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IntegerStatsKernelTest {
+   private static final int WIDTH = 2048;
+   private static final int HEIGHT = 1024;
+   private final ForkJoinPool pool_ = new ForkJoinPool(4);
+
+   private static short[] createPixels() {
+      Random random = new Random(1);
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int y = 0; y < HEIGHT; ++y) {
+         for (int x = 0; x < WIDTH; ++x) {
+            // Noise on a gradient, with bright columns
+            pixels[y * WIDTH + x] = (short) (100 + y + random.nextInt(500) +
+                  (x % 16 == 0 ? 3000 : 0));
+         }
+      }
+      return pixels;
+   }
+
+   @Test
+   public void testExactStatsOfRect() {
+      short[] pixels = createPixels();
+      Rectangle rect = new Rectangle(10, 20, 300, 200);
+      IntegerComponentStats stats = IntegerStatsKernel.compute(pool_, pixels,
+            WIDTH, 1, rect, 12, 8, true, 0.0)[0];
+      long sum = 0;
+      long max = 0;
+      for (int y = rect.y; y < rect.y + rect.height; ++y) {
+         for (int x = rect.x; x < rect.x + rect.width; ++x) {
+            long v = pixels[y * WIDTH + x];
+            sum += v;
+            max = Math.max(max, v);
+         }
+      }
+      assertFalse(stats.isEstimate());
+      assertEquals(300 * 200, stats.getPixelCount());
+      assertEquals(Math.round((double) sum / (300 * 200)),
+            stats.getMeanIntensity());
+      assertEquals(max, stats.getMaxIntensity());
+      assertEquals(16, stats.getHistogramBinWidth());
+   }
+
+   @Test
+   public void testEstimatedQuantilesWithinBound() {
+      short[] pixels = createPixels();
+      Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+      IntegerComponentStats exact = IntegerStatsKernel.compute(pool_, pixels,
+            WIDTH, 1, all, 16, 16, false, 0.0)[0];
+      IntegerComponentStats estimate = IntegerStatsKernel.compute(pool_,
+            pixels, WIDTH, 1, all, 16, 16, false, 0.005)[0];
+      assertTrue(estimate.isEstimate());
+      assertTrue(estimate.getQuantileErrorBound() <= 0.005);
+      assertTrue(estimate.getPixelCount() < WIDTH * HEIGHT / 4);
+      double bound = estimate.getQuantileErrorBound();
+      for (double q = 0.01; q < 1.0; q += 0.01) {
+         double value = estimate.getQuantile(q);
+         assertTrue(value >= exact.getQuantile(Math.max(0.0, q - bound)) - 1);
+         assertTrue(value <= exact.getQuantile(Math.min(1.0, q + bound)) + 1);
+      }
+   }
+
+   private static void assertSameStats(String message,
+         IntegerComponentStats expected, IntegerComponentStats actual)
+   {
+      assertArrayEquals(message, expected.getInRangeHistogram(),
+            actual.getInRangeHistogram());
+      assertEquals(message, expected.getPixelCountBelowRange(),
+            actual.getPixelCountBelowRange());
+      assertEquals(message, expected.getPixelCountAboveRange(),
+            actual.getPixelCountAboveRange());
+      assertEquals(message, expected.getHistogramBinWidth(),
+            actual.getHistogramBinWidth());
+      assertEquals(message, expected.getPixelCount(), actual.getPixelCount());
+      assertEquals(message, expected.isROIStats(), actual.isROIStats());
+      assertEquals(message, expected.getMinIntensity(),
+            actual.getMinIntensity());
+      assertEquals(message, expected.getMaxIntensity(),
+            actual.getMaxIntensity());
+      assertEquals(message, expected.getMeanIntensity(),
+            actual.getMeanIntensity());
+      assertEquals(message, expected.getSumOfSquares(),
+            actual.getSumOfSquares());
+      for (double q : new double[] { 0.0, 0.01, 0.25, 0.5, 0.99, 1.0 }) {
+         assertEquals(message + ", quantile " + q, expected.getQuantile(q),
+               actual.getQuantile(q), 0.0);
+      }
+   }
+
+   // The kernel replaces the ImgLib2 cursor computation for unmasked
+   // images, and must give identical results
+   @Test
+   public void testMatchesCursorComputation() {
+      Random random = new Random(1);
+      for (int trial = 0; trial < 40; ++trial) {
+         boolean is8Bit = trial % 2 == 0;
+         // Some images large enough to be split into tiles
+         int maxSize = trial % 5 == 0 ? 1000 : 300;
+         int width = 1 + random.nextInt(maxSize);
+         int height = 1 + random.nextInt(maxSize);
+         int nComponents = random.nextInt(4) == 0 ? 3 : 1;
+         int sampleBits = is8Bit ? 8 : 16;
+         // The bit depth may be less than the sample size, leaving some
+         // values above the histogram range
+         int bitDepth = sampleBits - random.nextInt(is8Bit ? 3 : 7);
+         // Fewer bins than values, so that values are binned
+         int binCountPowerOf2 = bitDepth - random.nextInt(4);
+
+         int length = width * height * nComponents;
+         Object pixels = is8Bit ? new byte[length] : new short[length];
+         for (int i = 0; i < length; ++i) {
+            int v = random.nextInt(10) == 0 ?
+                  random.nextInt(1 << sampleBits) :
+                  random.nextInt(1 << bitDepth);
+            if (is8Bit) {
+               ((byte[]) pixels)[i] = (byte) v;
+            }
+            else {
+               ((short[]) pixels)[i] = (short) v;
+            }
+         }
+         int x = random.nextInt(width);
+         int y = random.nextInt(height);
+         Rectangle rect = new Rectangle(x, y,
+               1 + random.nextInt(width - x), 1 + random.nextInt(height - y));
+         boolean isROI = random.nextBoolean();
+
+         IntegerComponentStats[] expected =
+               new IntegerComponentStats[nComponents];
+         ImageStats cursorStats = ImageStatsProcessor.computeWithCursor(
+               pixels, width, height, nComponents, rect, null, bitDepth,
+               binCountPowerOf2, isROI, 0);
+         for (int c = 0; c < nComponents; ++c) {
+            expected[c] = cursorStats.getComponentStats(c);
+         }
+         IntegerComponentStats[] actual = IntegerStatsKernel.compute(pool_,
+               pixels, width, nComponents, rect, bitDepth, binCountPowerOf2,
+               isROI, 0.0);
+         for (int c = 0; c < nComponents; ++c) {
+            assertSameStats(String.format(
+                  "trial %d (%dx%d, %d-bit, 2^%d bins, %s), component %d",
+                  trial, width, height, bitDepth, binCountPowerOf2, rect, c),
+                  expected[c], actual[c]);
+         }
+      }
+   }
+
+   @Test
+   public void testSmallImageIsNotEstimated() {
+      IntegerComponentStats stats = IntegerStatsKernel.compute(pool_,
+            new byte[64 * 64], 64, 1, new Rectangle(0, 0, 64, 64), 8, 8,
+            false, 0.005)[0];
+      assertFalse(stats.isEstimate());
+      assertEquals(64 * 64, stats.getPixelCount());
+   }
+}
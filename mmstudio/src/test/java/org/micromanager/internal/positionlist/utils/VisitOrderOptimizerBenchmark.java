@@ -0,0 +1,43 @@
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.Random;
+
+/**
+ * Measures the time taken to optimize the visit order of random positions,
+ * and the travel time saved.
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.internal.positionlist.utils.VisitOrderOptimizerBenchmark}.
+ */
+public final class VisitOrderOptimizerBenchmark {
+   private static final int REPETITIONS = 5;
+
+   public static void main(String[] args) {
+      Random random = new Random(0);
+      VisitOrderOptimizer optimizer = VisitOrderOptimizer.builder().build();
+      for (int n : new int[] {1000, 10000, 10000, 100000}) {
+         double[] x = new double[n];
+         double[] y = new double[n];
+         for (int i = 0; i < n; ++i) {
+            // Uniform over a 100 mm x 70 mm area, as for a well plate
+            x[i] = 100000.0 * random.nextDouble();
+            y[i] = 70000.0 * random.nextDouble();
+         }
+         long best = Long.MAX_VALUE;
+         int[] order = null;
+         for (int r = 0; r < REPETITIONS; ++r) {
+            long start = System.nanoTime();
+            order = optimizer.optimize(x, y);
+            best = Math.min(best, System.nanoTime() - start);
+         }
+         int[] original = new int[n];
+         for (int i = 0; i < n; ++i) {
+            original[i] = i;
+         }
+         System.out.println(String.format(
+               "%d positions: %.1f ms; travel %.1f s -> %.1f s", n,
+               best / 1e6, optimizer.getTravelTime(x, y, original),
+               optimizer.getTravelTime(x, y, order)));
+      }
+   }
+}
@@ -0,0 +1,173 @@
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+
+public class VisitOrderOptimizerTest {
+   private static void assertPermutation(int[] order, int n) {
+      Assert.assertEquals(n, order.length);
+      boolean[] seen = new boolean[n];
+      for (int i : order) {
+         Assert.assertFalse(seen[i]);
+         seen[i] = true;
+      }
+   }
+
+   // A grid of rows x cols positions, 100 um apart, in random order
+   private static double[][] shuffledGrid(int rows, int cols, Random random) {
+      int n = rows * cols;
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; ++i) {
+         x[i] = 100.0 * (i % cols);
+         y[i] = 100.0 * (i / cols);
+      }
+      for (int i = n - 1; i > 0; --i) {
+         int j = random.nextInt(i + 1);
+         double t = x[i];
+         x[i] = x[j];
+         x[j] = t;
+         t = y[i];
+         y[i] = y[j];
+         y[j] = t;
+      }
+      return new double[][] {x, y};
+   }
+
+   @Test
+   public void testGridIsNearlyOptimal() {
+      double[][] grid = shuffledGrid(30, 30, new Random(1));
+      VisitOrderOptimizer optimizer = VisitOrderOptimizer.builder().
+            speeds(1000.0, 1000.0).build();
+      int[] order = optimizer.optimize(grid[0], grid[1]);
+      assertPermutation(order, 900);
+      // The shortest path (a snake) takes 899 moves of 0.1 s
+      double time = optimizer.getTravelTime(grid[0], grid[1], order);
+      Assert.assertTrue("time = " + time, time < 1.05 * 89.9);
+   }
+
+   @Test
+   public void testSlowAxisIsTraveledLess() {
+      double[][] grid = shuffledGrid(10, 10, new Random(2));
+      double[] x = grid[0];
+      double[] y = grid[1];
+      // With a slow Y axis, the path should go along rows
+      int[] order = VisitOrderOptimizer.builder().speeds(1000.0, 10.0).
+            build().optimize(x, y);
+      int yMoves = 0;
+      for (int i = 1; i < order.length; ++i) {
+         if (y[order[i]] != y[order[i - 1]]) {
+            ++yMoves;
+         }
+      }
+      Assert.assertEquals(9, yMoves);
+   }
+
+   @Test
+   public void testFixedEnds() {
+      Random random = new Random(3);
+      double[] x = new double[500];
+      double[] y = new double[500];
+      for (int i = 0; i < x.length; ++i) {
+         x[i] = 10000.0 * random.nextDouble();
+         y[i] = 10000.0 * random.nextDouble();
+      }
+      int[] order = VisitOrderOptimizer.builder().fixStart(true).
+            fixEnd(true).build().optimize(x, y);
+      assertPermutation(order, 500);
+      Assert.assertEquals(0, order[0]);
+      Assert.assertEquals(499, order[499]);
+
+      order = VisitOrderOptimizer.builder().fixEnd(true).build().
+            optimize(x, y);
+      assertPermutation(order, 500);
+      Assert.assertEquals(499, order[499]);
+   }
+
+   @Test
+   public void testNearlyCollinear() {
+      // Positions in one row, with jitter in Y as from stage readings
+      for (double jitter : new double[] {Math.ulp(1000.0), 1e-3}) {
+         Random random = new Random(4);
+         int n = 10000;
+         double[] x = new double[n];
+         double[] y = new double[n];
+         for (int i = 0; i < n; ++i) {
+            x[i] = 100.0 * random.nextInt(n);
+            y[i] = 1000.0 + jitter * random.nextInt(3);
+         }
+         VisitOrderOptimizer optimizer = VisitOrderOptimizer.builder().
+               build();
+         int[] order = optimizer.optimize(x, y);
+         assertPermutation(order, n);
+         // Visiting in X order is optimal, apart from the jitter
+         double[] sorted = x.clone();
+         Arrays.sort(sorted);
+         double optimal = (sorted[n - 1] - sorted[0]) /
+               VisitOrderOptimizer.DEFAULT_SPEED_UM_PER_SECOND;
+         double time = optimizer.getTravelTime(x, y, order);
+         Assert.assertTrue("time = " + time, time < 1.05 * optimal + 1e-3);
+      }
+   }
+
+   @Test
+   public void testSnakeIsKept() {
+      // A 96-well plate, 9 mm pitch, in snake (optimal) order
+      int rows = 8;
+      int cols = 12;
+      double[] x = new double[rows * cols];
+      double[] y = new double[rows * cols];
+      for (int i = 0; i < x.length; ++i) {
+         int row = i / cols;
+         int col = row % 2 == 0 ? i % cols : cols - 1 - i % cols;
+         x[i] = 9000.0 * col;
+         y[i] = 9000.0 * row;
+      }
+      VisitOrderOptimizer optimizer = VisitOrderOptimizer.builder().
+            speeds(1000.0, 1000.0).fixStart(true).build();
+      int[] order = optimizer.optimize(x, y);
+      for (int i = 0; i < order.length; ++i) {
+         Assert.assertEquals(i, order[i]);
+      }
+   }
+
+   @Test
+   public void testEqualPositionsAreKept() {
+      PositionList positions = new PositionList();
+      for (int i = 0; i < 20; ++i) {
+         positions.addPosition(new MultiStagePosition("XY", 0.0, 0.0,
+               "Z", i));
+      }
+      VisitOrderOptimizer.Result result = VisitOrderOptimizer.builder().
+            build().optimize(positions);
+      for (int i = 0; i < 20; ++i) {
+         Assert.assertSame(positions.getPosition(i),
+               result.getPositionList().getPosition(i));
+      }
+      Assert.assertEquals(0.0, result.getTravelTimeBefore(), 0.0);
+      Assert.assertEquals(0.0, result.getTravelTimeAfter(), 0.0);
+   }
+
+   @Test
+   public void testPositionList() {
+      PositionList positions = new PositionList();
+      double[] xs = {0.0, 300.0, 100.0, 200.0};
+      for (double x : xs) {
+         positions.addPosition(new MultiStagePosition("XY", x, 0.0, "Z", 0.0));
+      }
+      VisitOrderOptimizer.Result result = VisitOrderOptimizer.builder().
+            speeds(100.0, 100.0).fixStart(true).build().optimize(positions);
+      Assert.assertEquals(4, positions.getNumberOfPositions());
+      Assert.assertEquals(300.0, positions.getPosition(1).getX(), 0.0);
+      PositionList reordered = result.getPositionList();
+      for (int i = 0; i < 4; ++i) {
+         Assert.assertEquals(100.0 * i, reordered.getPosition(i).getX(), 0.0);
+      }
+      Assert.assertEquals(6.0, result.getTravelTimeBefore(), 1e-9);
+      Assert.assertEquals(3.0, result.getTravelTimeAfter(), 1e-9);
+   }
+}
@@ -0,0 +1,60 @@
+package org.micromanager.internal.propertymap;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Generates TaggedImage tags resembling those created by MMCoreJ and the
+ * acquisition engine, with a configurable number of device properties.
+ */
+public final class HelperTaggedImageTags {
+   public static JSONObject create(int numDevices, int propertiesPerDevice,
+         boolean fromAcquisitionEngine) throws JSONException {
+      JSONObject tags = new JSONObject();
+      List<String> stateKeys = new ArrayList<String>();
+      for (int d = 0; d < numDevices; ++d) {
+         for (int p = 0; p < propertiesPerDevice; ++p) {
+            String key = String.format("Device%d-Property%d", d, p);
+            // The core always stores property values as strings
+            tags.put(key, (p % 3 == 0) ? Integer.toString(p * 17) :
+                  "Value " + p);
+            stateKeys.add(key);
+         }
+      }
+      tags.put("Core-Camera", "Camera");
+      stateKeys.add("Core-Camera");
+      tags.put("Camera", "");
+      tags.put("BitDepth", 16);
+      tags.put("PixelSizeUm", 0.0);
+      tags.put("PixelSizeAffine", "1.0;0.0;0.0;0.0;1.0;0.0");
+      tags.put("ROI", "0-0-512-512");
+      tags.put("Width", 512);
+      tags.put("Height", 512);
+      tags.put("PixelType", "GRAY16");
+      tags.put("Frame", 3);
+      tags.put("FrameIndex", 3);
+      tags.put("Position", "Pos1");
+      tags.put("PositionIndex", 1);
+      tags.put("Slice", 2);
+      tags.put("SliceIndex", 2);
+      tags.put("Channel", "DAPI");
+      tags.put("ChannelIndex", 0);
+      tags.put("CameraChannelIndex", 0);
+      tags.put("Binning", "1");
+      tags.put("ImageNumber", "42");
+      tags.put("Exposure-ms", 10.0);
+      if (fromAcquisitionEngine) {
+         tags.put("ElapsedTime-ms", 1234.5);
+         tags.put("XPositionUm", 100.25);
+         tags.put("YPositionUm", -20.0);
+         tags.put("ZPositionUm", 3.5);
+         tags.put("UUID", "f81d4fae-7dec-11d0-a765-00a0c91e6bf6");
+         tags.put("AttachedTasks", new JSONArray().put("task"));
+         tags.put("StateCache-keys", new JSONArray(stateKeys));
+      }
+      return tags;
+   }
+}
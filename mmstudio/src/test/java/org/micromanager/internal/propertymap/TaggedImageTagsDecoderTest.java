@@ -0,0 +1,87 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataSnapshots;
+
+public class TaggedImageTagsDecoderTest {
+   private static void assertSameAsGsonPath(JSONObject tags) {
+      JsonElement je = new JsonParser().parse(tags.toString());
+      TaggedImageTagsDecoder decoded = TaggedImageTagsDecoder.decode(tags);
+      assertEquals(NonPropertyMapJSONFormats.metadata().fromGson(je),
+            decoded.getMetadata());
+      assertEquals(NonPropertyMapJSONFormats.coords().fromGson(je),
+            decoded.getCoords());
+      assertEquals(NonPropertyMapJSONFormats.imageFormat().fromGson(je),
+            decoded.getImageFormat());
+   }
+
+   @Test
+   public void testCoreTagsMatchGsonPath() throws Exception {
+      assertSameAsGsonPath(HelperTaggedImageTags.create(20, 10, false));
+   }
+
+   @Test
+   public void testAcquisitionTagsMatchGsonPath() throws Exception {
+      assertSameAsGsonPath(HelperTaggedImageTags.create(20, 10, true));
+   }
+
+   @Test
+   public void testPropValScopeDataMatchesGsonPath() throws Exception {
+      JSONObject tags = HelperTaggedImageTags.create(2, 2, true);
+      tags.put("Device0-Property1", new JSONObject().
+            put("PropType", "String").put("PropVal", "beta"));
+      assertSameAsGsonPath(tags);
+   }
+
+   @Test
+   public void testScopeDataAndUserDataAreSeparated() throws Exception {
+      JSONObject tags = HelperTaggedImageTags.create(2, 2, true);
+      tags.put("MyTag", 1.0);
+      PropertyMap metadata = TaggedImageTagsDecoder.decode(tags).getMetadata();
+      PropertyMap scopeData = metadata.getPropertyMap(
+            PropertyKey.SCOPE_DATA.key(), null);
+      PropertyMap userData = metadata.getPropertyMap(
+            PropertyKey.USER_DATA.key(), null);
+      assertEquals("Value 1", scopeData.getString("Device1-Property1", null));
+      assertFalse(userData.containsKey("Device1-Property1"));
+      assertEquals("1", userData.getString("MyTag", null));
+      assertEquals("Camera", metadata.getString(PropertyKey.CAMERA.key(), null));
+   }
+
+   @Test
+   public void testSharedScopeDataMatchesGsonPath() throws Exception {
+      ScopeDataSnapshots snapshots = new ScopeDataSnapshots();
+      JSONObject tags = HelperTaggedImageTags.create(20, 10, true);
+      PropertyMap first = TaggedImageTagsDecoder.decode(tags, snapshots).
+            getMetadata().getPropertyMap(PropertyKey.SCOPE_DATA.key(), null);
+      PropertyMap again = TaggedImageTagsDecoder.decode(tags, snapshots).
+            getMetadata().getPropertyMap(PropertyKey.SCOPE_DATA.key(), null);
+      assertSame(first, again);
+
+      tags.put("Device3-Property4", "moved");
+      JsonElement je = new JsonParser().parse(tags.toString());
+      PropertyMap expected = NonPropertyMapJSONFormats.metadata().fromGson(je);
+      PropertyMap shared = TaggedImageTagsDecoder.decode(tags, snapshots).
+            getMetadata();
+      assertEquals(expected, shared);
+      assertEquals(expected.hashCode(), shared.hashCode());
+      assertSame(first, snapshots.getSnapshot());
+   }
+
+   @Test
+   public void testCoordsOnly() throws Exception {
+      TaggedImageTagsDecoder decoded = TaggedImageTagsDecoder.
+            decodeCoordsAndFormat(HelperTaggedImageTags.create(2, 2, true));
+      assertTrue(decoded.getMetadata().keySet().isEmpty());
+      assertEquals(3, decoded.getCoords().getInteger(Coords.TIME_POINT, -1));
+      assertEquals(512, decoded.getImageFormat().getInteger(
+            PropertyKey.WIDTH.key(), -1));
+   }
+}
@@ -0,0 +1,50 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.util.concurrent.Callable;
+import org.json.JSONObject;
+import org.micromanager.PropertyMap;
+import org.micromanager.internal.utils.performance.MicroBenchmark;
+
+/**
+ * Compares decoding TaggedImage tags via a JSON string and Gson (the former
+ * path in DefaultImage) with TaggedImageTagsDecoder.
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.internal.propertymap.TaggedImageTagsDecodingBenchmark}
+ */
+public final class TaggedImageTagsDecodingBenchmark {
+   private static final int WARMUP = 2000;
+   private static final int ITERATIONS = 5000;
+
+   public static void main(String[] args) throws Exception {
+      // Roughly: a small rig, a typical rig, and a rig with a big state cache
+      int[][] sizes = { { 10, 10 }, { 30, 15 }, { 60, 15 } };
+      for (int[] size : sizes) {
+         for (boolean fromEngine : new boolean[] { false, true }) {
+            final JSONObject tags = HelperTaggedImageTags.create(
+                  size[0], size[1], fromEngine);
+            String label = String.format("%d keys, %s", tags.length(),
+                  fromEngine ? "acquisition" : "core");
+            MicroBenchmark.run("string + Gson, " + label, WARMUP, ITERATIONS,
+                  new Callable<PropertyMap>() {
+                     @Override
+                     public PropertyMap call() {
+                        JsonElement je = new JsonParser().parse(tags.toString());
+                        NonPropertyMapJSONFormats.coords().fromGson(je);
+                        NonPropertyMapJSONFormats.imageFormat().fromGson(je);
+                        return NonPropertyMapJSONFormats.metadata().fromGson(je);
+                     }
+                  });
+            MicroBenchmark.run("single pass, " + label, WARMUP, ITERATIONS,
+                  new Callable<PropertyMap>() {
+                     @Override
+                     public PropertyMap call() {
+                        return TaggedImageTagsDecoder.decode(tags).getMetadata();
+                     }
+                  });
+         }
+      }
+   }
+}
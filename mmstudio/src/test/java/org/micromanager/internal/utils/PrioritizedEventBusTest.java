@@ -0,0 +1,123 @@
+package org.micromanager.internal.utils;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.internal.utils.performance.AllocationCounter;
+
+public class PrioritizedEventBusTest {
+   private static class Event {
+   }
+
+   private static final class SubEvent extends Event {
+   }
+
+   public static final class Recorder {
+      private final String name_;
+      private final List<String> log_;
+
+      Recorder(String name, List<String> log) {
+         name_ = name;
+         log_ = log;
+      }
+
+      @Subscribe
+      public void onEvent(Event e) {
+         log_.add(name_ + ":" + e.getClass().getSimpleName());
+      }
+   }
+
+   @Test
+   public void testPriorityOrder() {
+      List<String> log = new ArrayList<String>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Recorder("default", log));
+      bus.register(new Recorder("late", log), 200);
+      bus.register(new Recorder("early", log), 1);
+      bus.post(new SubEvent());
+      bus.post("not an Event");
+      assertEquals(Arrays.asList("early:SubEvent", "default:SubEvent",
+            "late:SubEvent"), log);
+   }
+
+   @Test
+   public void testUnregister() {
+      List<String> log = new ArrayList<String>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      Recorder recorder = new Recorder("a", log);
+      bus.register(recorder);
+      bus.register(recorder); // Not delivered twice
+      bus.post(new Event());
+      bus.unregister(recorder);
+      bus.unregister(recorder); // Ignored
+      bus.post(new Event());
+      assertEquals(Arrays.asList("a:Event"), log);
+   }
+
+   @Test
+   public void testEventPostedBySubscriberIsQueuedAtSamePriority() {
+      final List<String> log = new ArrayList<String>();
+      final PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Object() {
+         @Subscribe
+         public void onEvent(Event e) {
+            log.add("first:" + e.getClass().getSimpleName());
+            if (!(e instanceof SubEvent)) {
+               bus.post(new SubEvent());
+            }
+         }
+      });
+      bus.register(new Recorder("second", log));
+      bus.register(new Recorder("earlier", log), 50);
+      bus.register(new Recorder("later", log), 150);
+      bus.post(new Event());
+      // As with one Guava EventBus per priority
+      assertEquals(Arrays.asList("earlier:Event",
+            "first:Event", "earlier:SubEvent", "later:SubEvent",
+            "second:Event", "first:SubEvent", "second:SubEvent",
+            "later:Event"), log);
+   }
+
+   @Test
+   public void testExceptionDoesNotStopDelivery() {
+      List<String> log = new ArrayList<String>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Object() {
+         @Subscribe
+         public void onEvent(Event e) {
+            throw new RuntimeException("Expected by test");
+         }
+      }, 1);
+      bus.register(new Recorder("a", log));
+      bus.post(new Event());
+      assertEquals(Arrays.asList("a:Event"), log);
+   }
+
+   @Test
+   public void testPostDoesNotAllocate() throws Exception {
+      final PrioritizedEventBus bus = new PrioritizedEventBus();
+      final int[] count = new int[1];
+      for (int priority = 0; priority < 3; ++priority) {
+         bus.register(new Object() {
+            @Subscribe
+            public void onEvent(Event e) {
+               ++count[0];
+            }
+         }, priority);
+      }
+      final Event event = new Event();
+      // 100000 posts to warm up, then 100000 measured
+      AllocationCounter.assertDoesNotAllocate(100000, new Callable<Object>() {
+         @Override
+         public Object call() {
+            bus.post(event);
+            return null;
+         }
+      });
+      assertEquals(600000, count[0]);
+   }
+}
@@ -0,0 +1,84 @@
+package org.micromanager.internal.utils.performance;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import static org.junit.Assert.assertTrue;
+import org.junit.Assume;
+
+/**
+ * Measures the bytes allocated by the current thread, for tests and
+ * benchmarks that check that code does not allocate.
+ * <p>
+ * This requires the HotSpot extension of ThreadMXBean; tests should call
+ * {@link #assumeSupported} (or use {@link #assertDoesNotAllocate}, which
+ * does).
+ */
+public final class AllocationCounter {
+   // Allowance for the allocation by the measurement itself
+   private static final long MEASUREMENT_BYTES = 1024;
+
+   // Results are stored here so that the JIT cannot discard the work
+   private static volatile int sink_;
+
+   private AllocationCounter() {
+   }
+
+   public static boolean isSupported() {
+      return ManagementFactory.getThreadMXBean() instanceof
+            com.sun.management.ThreadMXBean;
+   }
+
+   /**
+    * Skip the calling test if allocation cannot be measured.
+    */
+   public static void assumeSupported() {
+      Assume.assumeTrue(isSupported());
+   }
+
+   /**
+    * Measure the bytes allocated by calls to a body.
+    *
+    * @param warmupIterations number of unmeasured calls (for JIT warmup)
+    * @param iterations number of measured calls
+    * @param body the code to measure; its result is consumed
+    * @return total bytes allocated by the measured calls, or -1 if
+    * allocation cannot be measured
+    * @throws Exception if the body throws
+    */
+   public static long measure(int warmupIterations, int iterations,
+         Callable<?> body) throws Exception {
+      if (!isSupported()) {
+         return -1;
+      }
+      com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      int sink = 0;
+      for (int i = 0; i < warmupIterations; ++i) {
+         sink += System.identityHashCode(body.call());
+      }
+      long before = threadBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < iterations; ++i) {
+         sink += System.identityHashCode(body.call());
+      }
+      long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+      sink_ += sink;
+      return allocated;
+   }
+
+   /**
+    * Assert that, after warming up, calls to a body do not allocate. The
+    * calling test is skipped if allocation cannot be measured.
+    *
+    * @param iterations number of calls, both for warmup and measurement
+    * @param body the code to check
+    * @throws Exception if the body throws
+    */
+   public static void assertDoesNotAllocate(int iterations,
+         Callable<?> body) throws Exception {
+      assumeSupported();
+      long allocated = measure(iterations, iterations, body);
+      assertTrue("allocated " + allocated, allocated < MEASUREMENT_BYTES);
+   }
+}
@@ -0,0 +1,46 @@
+package org.micromanager.internal.utils.performance;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal harness for hand-run microbenchmarks.
+ * <p>
+ * Benchmark classes (named *Benchmark, so that they are not run as unit
+ * tests) have a {@code main} method that calls {@link #run} for each case.
+ * Results are printed to standard output.
+ */
+public final class MicroBenchmark {
+   // Results are stored here so that the JIT cannot discard the work
+   private static volatile int sink_;
+
+   private MicroBenchmark() {
+   }
+
+   /**
+    * Time a benchmark body.
+    *
+    * @param name label printed with the result
+    * @param warmupIterations number of untimed calls (for JIT warmup)
+    * @param iterations number of timed calls
+    * @param body the code to time; its result is consumed
+    * @return mean time per call in nanoseconds
+    * @throws Exception if the body throws
+    */
+   public static double run(String name, int warmupIterations,
+         int iterations, Callable<?> body) throws Exception {
+      int sink = 0;
+      for (int i = 0; i < warmupIterations; ++i) {
+         sink += System.identityHashCode(body.call());
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; ++i) {
+         sink += System.identityHashCode(body.call());
+      }
+      long elapsed = System.nanoTime() - start;
+      sink_ += sink;
+      double nsPerOp = (double) elapsed / iterations;
+      System.out.println(String.format("%-48s %12.1f ns/op  (%d ops)",
+            name, nsPerOp, iterations));
+      return nsPerOp;
+   }
+}
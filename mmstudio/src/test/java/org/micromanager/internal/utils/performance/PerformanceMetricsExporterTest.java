@@ -0,0 +1,115 @@
+package org.micromanager.internal.utils.performance;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PerformanceMetricsExporterTest {
+   @Test
+   public void testQuantiles() {
+      PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      for (int i = 0; i <= 100; ++i) {
+         monitor.sample("Queue depth", i);
+      }
+      PerformanceMonitor.Statistic stat = monitor.getStatistics().get(0);
+      assertEquals("Queue depth", stat.getLabel());
+      assertFalse(stat.isInterval());
+      assertEquals(101, stat.getCount());
+      Map<Double, Double> quantiles = stat.getQuantiles();
+      assertEquals(50.0, quantiles.get(0.5), 1e-9);
+      assertEquals(99.0, quantiles.get(0.99), 1e-9);
+      assertEquals(100.0, quantiles.get(1.0), 1e-9);
+   }
+
+   @Test
+   public void testRegistryNamesAndFormat() {
+      PerformanceMonitorRegistry registry =
+            PerformanceMonitorRegistry.getInstance();
+      PerformanceMonitor first =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      PerformanceMonitor second =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      assertEquals("exporter-test", registry.register("exporter-test", first));
+      assertEquals("exporter-test-2",
+            registry.register("exporter-test", second));
+      first.sample("Write \"latency\" (ms)", 3.0);
+      second.sample("Write \"latency\" (ms)", 5.0);
+      second.sampleTimeInterval("Frame");
+
+      String text = PerformanceMetricsExporter.create(registry).format();
+      assertTrue(text, text.contains("# TYPE mm_write_latency_ms summary\n" +
+            "mm_write_latency_ms{monitor=\"exporter-test\"," +
+            "stat=\"Write \\\"latency\\\" (ms)\",quantile=\"0.5\"} 3.0\n"));
+      assertTrue(text, text.contains(
+            "mm_write_latency_ms_count{monitor=\"exporter-test-2\"," +
+            "stat=\"Write \\\"latency\\\" (ms)\"} 1\n"));
+      assertTrue(text, text.contains("# TYPE mm_frame_interval_ms summary\n"));
+      assertTrue(text, text.contains(
+            "# TYPE mm_write_latency_ms_smoothed gauge\n"));
+
+      registry.unregister(first);
+      registry.unregister(second);
+      assertFalse(registry.getMonitors().containsKey("exporter-test"));
+   }
+
+   @Test
+   public void testRegistryReusesNames() {
+      PerformanceMonitorRegistry registry =
+            PerformanceMonitorRegistry.getInstance();
+      PerformanceMonitor first =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      PerformanceMonitor second =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      PerformanceMonitor third =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      assertEquals("reuse-test", registry.register("reuse-test", first));
+      assertEquals("reuse-test-2", registry.register("reuse-test", second));
+      registry.unregister(first);
+      assertEquals("reuse-test", registry.register("reuse-test", third));
+      registry.unregister(second);
+      assertEquals("reuse-test-2", registry.register("reuse-test", first));
+      registry.unregister(first);
+      registry.unregister(third);
+      assertFalse(registry.getMonitors().containsKey("reuse-test"));
+      assertFalse(registry.getMonitors().containsKey("reuse-test-2"));
+   }
+
+   @Test
+   public void testFileIsReplaced() throws Exception {
+      PerformanceMonitorRegistry registry =
+            PerformanceMonitorRegistry.getInstance();
+      PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      registry.register("file-test", monitor);
+      monitor.sample("File test", 1.0);
+      File file = File.createTempFile("metrics", ".prom");
+      Files.write(file.toPath(), "stale\n".getBytes(Charsets.UTF_8));
+      PerformanceMetricsExporter exporter =
+            PerformanceMetricsExporter.create(registry);
+      try {
+         exporter.startWritingFile(file, 10);
+         String text = "";
+         for (int i = 0; i < 500 && !text.contains("mm_file_test"); ++i) {
+            Thread.sleep(10);
+            text = new String(Files.readAllBytes(file.toPath()),
+                  Charsets.UTF_8);
+         }
+         // Let several exports happen
+         Thread.sleep(100);
+         text = new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+         assertFalse(text, text.contains("stale"));
+         assertEquals(text, text.indexOf("# TYPE mm_file_test summary"),
+               text.lastIndexOf("# TYPE mm_file_test summary"));
+         assertTrue(text, text.indexOf("# TYPE mm_file_test summary") >= 0);
+      }
+      finally {
+         exporter.stop();
+         registry.unregister(monitor);
+         file.delete();
+      }
+   }
+}
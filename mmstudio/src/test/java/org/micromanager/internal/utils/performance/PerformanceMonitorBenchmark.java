@@ -0,0 +1,124 @@
+package org.micromanager.internal.utils.performance;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the cost of sampling a PerformanceMonitor, by label and through
+ * handles, on one thread and on several threads sampling the same
+ * statistic, and the bytes allocated per sample.
+ * <p>
+ * Run by hand: {@code java -cp <test classpath>
+ * org.micromanager.internal.utils.performance.PerformanceMonitorBenchmark}.
+ * At 1 kHz, a cost of 100 ns per sample is 0.01% of one thread's time.
+ */
+public final class PerformanceMonitorBenchmark {
+   private static final int WARMUP = 200000;
+   private static final int ITERATIONS = 2000000;
+   private static final int THREADS = 4;
+
+   public static void main(String[] args) throws Exception {
+      final PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      final PerformanceMonitor.Counter counter =
+            monitor.getCounter("Queue depth");
+      final PerformanceMonitor.IntervalCounter intervalCounter =
+            monitor.getIntervalCounter("Frame");
+
+      MicroBenchmark.run("sample(label, value)", WARMUP, ITERATIONS,
+            new Callable<Object>() {
+         private int i_ = 0;
+
+         @Override
+         public Object call() {
+            monitor.sample("Queue depth", ++i_ & 63);
+            return null;
+         }
+      });
+      MicroBenchmark.run("Counter.sample(value)", WARMUP, ITERATIONS,
+            new Callable<Object>() {
+         private int i_ = 0;
+
+         @Override
+         public Object call() {
+            counter.sample(++i_ & 63);
+            return null;
+         }
+      });
+      MicroBenchmark.run("sampleTimeInterval(label)", WARMUP, ITERATIONS,
+            new Callable<Object>() {
+         @Override
+         public Object call() {
+            monitor.sampleTimeInterval("Frame");
+            return null;
+         }
+      });
+      MicroBenchmark.run("IntervalCounter.sample()", WARMUP, ITERATIONS,
+            new Callable<Object>() {
+         @Override
+         public Object call() {
+            intervalCounter.sample();
+            return null;
+         }
+      });
+
+      runContended(counter, 1);
+      runContended(counter, THREADS);
+
+      System.out.println(String.format("%-48s %12d bytes/op",
+            "Counter.sample(value) allocation", allocatedBytesPerSample(
+                  counter)));
+   }
+
+   // Several threads sampling the same counter at full speed
+   private static void runContended(final PerformanceMonitor.Counter counter,
+         int threadCount) throws InterruptedException
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[threadCount];
+      for (int t = 0; t < threadCount; ++t) {
+         threads[t] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  start.await();
+               }
+               catch (InterruptedException e) {
+                  return;
+               }
+               for (int i = 0; i < ITERATIONS; ++i) {
+                  counter.sample(i & 63);
+               }
+            }
+         });
+         threads[t].start();
+      }
+      long startNs = System.nanoTime();
+      start.countDown();
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      double nsPerOp = (double) (System.nanoTime() - startNs) / ITERATIONS;
+      System.out.println(String.format("%-48s %12.1f ns/op  (%d ops/thread)",
+            "Counter.sample(value), " + threadCount + " thread(s)", nsPerOp,
+            ITERATIONS));
+   }
+
+   private static long allocatedBytesPerSample(
+         final PerformanceMonitor.Counter counter) throws Exception
+   {
+      if (!AllocationCounter.isSupported()) {
+         return -1;
+      }
+      return AllocationCounter.measure(0, ITERATIONS,
+            new Callable<Object>() {
+         private int i_ = 0;
+
+         @Override
+         public Object call() {
+            counter.sample(++i_ & 63);
+            return null;
+         }
+      }) / ITERATIONS;
+   }
+}
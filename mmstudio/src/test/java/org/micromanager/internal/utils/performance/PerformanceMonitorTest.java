@@ -0,0 +1,77 @@
+package org.micromanager.internal.utils.performance;
+
+import java.util.concurrent.Callable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PerformanceMonitorTest {
+   private static final int SAMPLES = 100000;
+
+   @Test
+   public void testHandlesAreResolvedOnce() {
+      PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      PerformanceMonitor.Counter counter = monitor.getCounter("A");
+      assertSame(counter, monitor.getCounter("A"));
+      assertSame(monitor.getIntervalCounter("A"),
+            monitor.getIntervalCounter("A"));
+
+      counter.sample(2.0);
+      monitor.sample("A", 2.0);
+      monitor.sampleTimeInterval("A");
+      monitor.sampleTimeInterval("A");
+      assertEquals(2, monitor.getEntries().size());
+      assertEquals("A", monitor.getEntries().get(0).getKey());
+      assertEquals(2, monitor.getEntries().get(0).getValue().getCount());
+      assertEquals(2.0, monitor.getEntries().get(0).getValue().getAverage(),
+            1e-9);
+      assertEquals("A (interval, ms)", monitor.getEntries().get(1).getKey());
+      assertEquals(1, monitor.getEntries().get(1).getValue().getCount());
+   }
+
+   @Test
+   public void testSamplesFromSeveralThreadsAreMerged() throws Exception {
+      PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      final PerformanceMonitor.Counter counter = monitor.getCounter("A");
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; ++t) {
+         threads[t] = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               for (int i = 0; i < SAMPLES; ++i) {
+                  counter.sample(5.0);
+               }
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      PerformanceMonitor.Statistic stat = monitor.getStatistics().get(0);
+      assertEquals(threads.length * SAMPLES, stat.getCount());
+      assertEquals(5.0, stat.getAverage(), 1e-9);
+      assertEquals(5.0, stat.getQuantiles().get(0.5), 1e-9);
+   }
+
+   @Test
+   public void testSamplingDoesNotAllocate() throws Exception {
+      PerformanceMonitor monitor =
+            PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      final PerformanceMonitor.Counter counter = monitor.getCounter("A");
+      final PerformanceMonitor.IntervalCounter intervalCounter =
+            monitor.getIntervalCounter("B");
+      AllocationCounter.assertDoesNotAllocate(SAMPLES,
+            new Callable<Object>() {
+         private int i_ = 0;
+
+         @Override
+         public Object call() {
+            counter.sample(++i_);
+            intervalCounter.sample();
+            return null;
+         }
+      });
+   }
+}
@@ -167,7 +167,7 @@ public class SingleCombinationProcessor {
 
             // Get current frame pixels
             img = bufferImages_[i];
-            byte[] imgPixels = (byte[]) img.getRawPixels();
+            byte[] imgPixels = (byte[]) img.getRawPixelsView();
 
             // Iterate over all pixels
             for (int index = 0; index < newPixels.length; index++) {
@@ -197,7 +197,7 @@ public class SingleCombinationProcessor {
 
             // Get current frame pixels
             img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
+            short[] imgPixels = (short[]) img.getRawPixelsView();
 
             // Iterate over all pixels
             for (int index = 0; index < newPixels.length; index++) {
@@ -265,7 +265,7 @@ public class SingleCombinationProcessor {
 
             // Get current frame pixels
             img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
+            short[] imgPixels = (short[]) img.getRawPixelsView();
 
             // Iterate over all pixels
             for (int index = 0; index < newPixels.length; index++) {
@@ -316,7 +316,7 @@ public class SingleCombinationProcessor {
 
             // Get current frame pixels
             img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
+            short[] imgPixels = (short[]) img.getRawPixelsView();
 
             // Iterate over all pixels
             for (int index = 0; index < newPixels.length; index++) {
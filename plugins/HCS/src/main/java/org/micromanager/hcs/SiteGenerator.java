@@ -22,6 +22,7 @@ import org.micromanager.MultiStagePosition;
 import org.micromanager.PositionList;
 import org.micromanager.Studio;
 import org.micromanager.StagePosition;
+import org.micromanager.internal.positionlist.utils.VisitOrderOptimizer;
 import org.micromanager.internal.utils.MMFrame;
 import org.micromanager.internal.utils.TextUtils;
 
@@ -54,6 +55,9 @@ public class SiteGenerator extends MMFrame implements ParentPlateGUI {
 
    private static final String SNAKE_ORDER = "Snake";
    private static final String TYPEWRITER_ORDER = "Typewriter";
+   // Snake order within each well, and wells and sites ordered to minimize
+   // stage travel across the plate
+   private static final String SHORTEST_TRAVEL_ORDER = "Shortest Travel";
    
    private static final String ZPLANESTAGE = "Z-Plane stage: ";
 
@@ -381,7 +385,8 @@ public class SiteGenerator extends MMFrame implements ParentPlateGUI {
       });
 
       sidebar.add(new JLabel("Site visit order:"));
-      visitOrder_ = new JComboBox(new String[] {SNAKE_ORDER, TYPEWRITER_ORDER});
+      visitOrder_ = new JComboBox(new String[] {SNAKE_ORDER, TYPEWRITER_ORDER,
+            SHORTEST_TRAVEL_ORDER});
       visitOrder_.addActionListener((ActionEvent e) -> {
          regenerate();
       });
@@ -557,6 +562,26 @@ public class SiteGenerator extends MMFrame implements ParentPlateGUI {
          }
       }
 
+      if (SHORTEST_TRAVEL_ORDER.equals(visitOrder_.getSelectedItem())) {
+         VisitOrderOptimizer.Result result = VisitOrderOptimizer.builder().
+               fixStart(true).build().optimize(platePl);
+         platePl = result.getPositionList();
+         String message;
+         if (result.getTravelTimeAfter() < result.getTravelTimeBefore()) {
+            message = String.format(
+                  "Estimated XY stage travel time: %.1f s (%.1f s in plate order)",
+                  result.getTravelTimeAfter(), result.getTravelTimeBefore());
+         }
+         else {
+            message = String.format(
+                  "Estimated XY stage travel time: %.1f s (plate order kept; " +
+                  "no shorter order found)", result.getTravelTimeBefore());
+         }
+         if (app_ != null) {
+            app_.logs().showMessage(message, this);
+         }
+      }
+
       try {
          if (app_ != null) {
             app_.positions().setPositionList(platePl);
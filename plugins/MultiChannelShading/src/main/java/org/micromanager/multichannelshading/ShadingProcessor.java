@@ -255,7 +255,7 @@ public class ShadingProcessor extends Processor {
       
       if (image.getBytesPerPixel() == 1) {
          byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
+         byte[] oldPixels = (byte[]) image.getRawPixelsView();
          int length = oldPixels.length;
          float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
          for (int index = 0; index < length; index++) {
@@ -271,7 +271,7 @@ public class ShadingProcessor extends Processor {
          context.outputImage(result);
       } else if (image.getBytesPerPixel() == 2) {
          short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) bgSubtracted.getRawPixels();
+         short[] oldPixels = (short[]) bgSubtracted.getRawPixelsView();
          int length = oldPixels.length;
          for (int index = 0; index < length; index++) {
             // shorts are signed in java so have to do this conversion to get 
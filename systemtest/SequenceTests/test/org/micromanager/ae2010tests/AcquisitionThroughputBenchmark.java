@@ -0,0 +1,253 @@
+package org.micromanager.ae2010tests;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.acquisition.ChannelSpec;
+import org.micromanager.acquisition.SequenceSettings;
+import org.micromanager.acquisition.internal.IAcquisitionEngine2010;
+import org.micromanager.internal.AcquisitionEngine2010;
+import org.micromanager.testing.MMCoreWithTestHubResource;
+import static org.junit.Assert.*;
+import static org.micromanager.acquisition.internal.TaggedImageQueue.POISON;
+
+
+/**
+ * Measures the software overhead of acquisitions, using the SequenceTester
+ * devices with simulated latencies.
+ * <p>
+ * The devices keep a virtual clock (the hub's VirtualTimeMs property) that
+ * advances by device latencies, exposures and readouts instead of waiting in
+ * real time: waiting for a device moves the clock past its latency, and the
+ * device reports ready without the Core polling or sleeping. The wall time
+ * of each run is therefore the time spent by the acquisition engine, the
+ * Core and the image consumer, and the virtual time is what the same run
+ * would take on hardware with no software overhead.
+ * Run a single benchmark with -Dtest.class and see the printed results.
+ * <p>
+ * Only AcquisitionEngine2010 itself, and a hand-written loop standing in for
+ * live mode, are measured. Not yet covered (follow-up): the
+ * AcquisitionWrapperEngine, the real SnapLiveManager and MagellanEngine.
+ * Those need a running Studio, and Magellan an Acquisition, which the
+ * system tests do not set up. They could be driven by a Java subclass of
+ * CMMCore (which is not final and has a protected constructor that does not
+ * create a native Core) simulating the devices on a virtual clock.
+ */
+public class AcquisitionThroughputBenchmark {
+   private static final String CAMERA = "TCamera";
+   private static final String XY_STAGE = "TXYStage";
+   private static final String Z_STAGE = "TZStage";
+   private static final String WHEEL = "TSwitcher";
+   private static final String HUB = "THub";
+   private static final String CHANNEL_GROUP = "Channel";
+   private static final double EXPOSURE_MS = 10.0;
+
+   @Rule
+   public MMCoreWithTestHubResource coreResource =
+      new MMCoreWithTestHubResource();
+
+   private CMMCore mmc_;
+
+   @Before
+   public void setUp() throws Exception {
+      coreResource.prepareTestDevices(CAMERA, XY_STAGE, Z_STAGE, WHEEL);
+      mmc_ = coreResource.getMMCore();
+      // The debug log would dominate the overhead being measured
+      mmc_.enableDebugLog(false);
+      mmc_.enableStderrLog(false);
+
+      mmc_.setCameraDevice(CAMERA);
+      mmc_.setXYStageDevice(XY_STAGE);
+      mmc_.setFocusDevice(Z_STAGE);
+      mmc_.setExposure(EXPOSURE_MS);
+
+      mmc_.setProperty(CAMERA, "ReadoutTimeMs", 5.0);
+      mmc_.setProperty(XY_STAGE, "LatencyMs", 50.0);
+      mmc_.setProperty(Z_STAGE, "LatencyMs", 10.0);
+      mmc_.setProperty(WHEEL, "LatencyMs", 20.0);
+
+      for (int i = 0; i < 4; ++i) {
+         mmc_.defineConfig(CHANNEL_GROUP, "Ch" + i, WHEEL, "State",
+               Integer.toString(i));
+      }
+   }
+
+   private double getVirtualTimeMs() throws Exception {
+      return Double.parseDouble(mmc_.getProperty(HUB, "VirtualTimeMs"));
+   }
+
+   private static SequenceSettings timeLapse(int numFrames) {
+      SequenceSettings settings = new SequenceSettings();
+      settings.numFrames = numFrames;
+      settings.intervalMs = 0.0;
+      settings.save = false;
+      settings.shouldDisplayImages = false;
+      return settings;
+   }
+
+   private static void addChannels(SequenceSettings settings, int count) {
+      settings.channelGroup = CHANNEL_GROUP;
+      settings.channels = new ArrayList<ChannelSpec>();
+      for (int i = 0; i < count; ++i) {
+         ChannelSpec channel = new ChannelSpec();
+         channel.config = "Ch" + i;
+         channel.exposure = EXPOSURE_MS;
+         settings.channels.add(channel);
+      }
+   }
+
+   private static void addSlices(SequenceSettings settings, int count) {
+      settings.relativeZSlice = true;
+      settings.slices = new ArrayList<Double>();
+      for (int i = 0; i < count; ++i) {
+         settings.slices.add(i - 0.5 * (count - 1));
+      }
+   }
+
+   private static PositionList grid(int count) {
+      PositionList positions = new PositionList();
+      for (int i = 0; i < count; ++i) {
+         positions.addPosition(new MultiStagePosition(XY_STAGE,
+                  1000.0 * (i % 4), 1000.0 * (i / 4), Z_STAGE, 0.0));
+      }
+      return positions;
+   }
+
+   /**
+    * Run an acquisition, consuming the images as storage would, and print
+    * the throughput, the overhead per image and how far the consumer lags
+    * behind the acquisition.
+    */
+   private void runBenchmark(String name, SequenceSettings settings,
+         PositionList positions, int expectedImages) throws Exception
+   {
+      IAcquisitionEngine2010 ae2010 = new AcquisitionEngine2010(mmc_);
+      double virtualStartMs = getVirtualTimeMs();
+      long startNs = System.nanoTime();
+      BlockingQueue<TaggedImage> queue =
+         ae2010.run(settings, true, positions, null);
+
+      int count = 0;
+      double firstReceivedMs = 0.0;
+      double firstElapsedMs = 0.0;
+      double totalLagMs = 0.0;
+      double maxLagMs = 0.0;
+      for (;;) {
+         TaggedImage image = queue.poll(10, TimeUnit.SECONDS);
+         assertNotNull(image);
+         if (image == POISON) {
+            break;
+         }
+         double receivedMs = (System.nanoTime() - startNs) / 1e6;
+         double elapsedMs = image.tags.getDouble("ElapsedTime-ms");
+         if (count == 0) {
+            firstReceivedMs = receivedMs;
+            firstElapsedMs = elapsedMs;
+         }
+         // Time from the engine producing the image to its receipt, taking
+         // the first image as received without delay
+         double lagMs = (receivedMs - firstReceivedMs) -
+            (elapsedMs - firstElapsedMs);
+         totalLagMs += lagMs;
+         maxLagMs = Math.max(maxLagMs, lagMs);
+         ++count;
+      }
+      double wallMs = (System.nanoTime() - startNs) / 1e6;
+      double virtualMs = getVirtualTimeMs() - virtualStartMs;
+
+      assertEquals(expectedImages, count);
+      assertTrue(virtualMs >= expectedImages * EXPOSURE_MS);
+
+      System.out.println(String.format(
+               "%-24s %6d images  %8.1f images/s  %6.2f ms/image overhead  " +
+               "virtual %9.1f ms (%6.1f images/s)  storage lag " +
+               "mean %6.2f ms, max %6.2f ms",
+               name, count, 1000.0 * count / wallMs, wallMs / count,
+               virtualMs, 1000.0 * count / virtualMs,
+               totalLagMs / count, maxLagMs));
+   }
+
+   @Test
+   public void timeLapse() throws Exception {
+      runBenchmark("Time lapse", timeLapse(200), null, 200);
+   }
+
+   @Test
+   public void timeLapseChannels() throws Exception {
+      SequenceSettings settings = timeLapse(50);
+      addChannels(settings, 4);
+      runBenchmark("Time lapse x 4 channels", settings, null, 200);
+   }
+
+   @Test
+   public void timeLapseZStack() throws Exception {
+      SequenceSettings settings = timeLapse(10);
+      addSlices(settings, 20);
+      runBenchmark("Time lapse x 20 slices", settings, null, 200);
+   }
+
+   @Test
+   public void positionsChannelsZStack() throws Exception {
+      SequenceSettings settings = timeLapse(2);
+      settings.usePositionList = true;
+      addChannels(settings, 3);
+      addSlices(settings, 5);
+      runBenchmark("8 positions x 3 ch x 5 z", settings, grid(8), 240);
+   }
+
+   /**
+    * A stand-in for live mode, not SnapLiveManager itself: the same Core
+    * calls, a continuous sequence acquisition from which the latest image is
+    * repeatedly taken for display. Frames arriving between two grabs are
+    * skipped, as they would be in live mode. Display and SnapLiveManager's
+    * own overhead are not included.
+    */
+   @Test
+   public void live() throws Exception {
+      int numGrabs = 500;
+      double exposureMs = 1.0;
+      mmc_.setExposure(exposureMs);
+      mmc_.setProperty(CAMERA, "ReadoutTimeMs", 0.0);
+      long startNs = System.nanoTime();
+      mmc_.startContinuousSequenceAcquisition(0.0);
+      double firstVirtualMs = Double.NaN;
+      double lastVirtualMs = Double.NaN;
+      int distinctFrames = 0;
+      try {
+         for (int i = 0; i < numGrabs; ++i) {
+            while (mmc_.getRemainingImageCount() == 0) {
+               Thread.sleep(1);
+            }
+            TaggedImage image = mmc_.getLastTaggedImage();
+            double virtualMs = image.tags.getDouble("VirtualTime-ms");
+            if (i == 0) {
+               firstVirtualMs = virtualMs;
+            }
+            if (virtualMs != lastVirtualMs) {
+               ++distinctFrames;
+            }
+            lastVirtualMs = virtualMs;
+         }
+      }
+      finally {
+         mmc_.stopSequenceAcquisition();
+      }
+      double wallMs = (System.nanoTime() - startNs) / 1e6;
+
+      assertTrue(lastVirtualMs > firstVirtualMs);
+
+      System.out.println(String.format(
+               "%-24s %6d grabs  %8.1f grabs/s  %6d distinct frames  " +
+               "%8.1f camera frames/s",
+               "Live", numGrabs, 1000.0 * numGrabs / wallMs, distinctFrames,
+               1000.0 * ((lastVirtualMs - firstVirtualMs) / exposureMs + 1) /
+               wallMs));
+   }
+}